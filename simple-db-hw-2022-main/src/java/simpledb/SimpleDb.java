@@ -53,7 +53,8 @@ public class SimpleDb {
                     }
 
                     HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator,
+                            HeapFileEncoder.DEFAULT_CHUNK_BYTES, Runtime.getRuntime().availableProcessors(), System.out);
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
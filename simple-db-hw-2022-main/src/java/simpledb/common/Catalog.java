@@ -1,7 +1,9 @@
 package simpledb.common;
 
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.MappedHeapFile;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -25,6 +27,7 @@ public class Catalog {
     private final Map<Integer, String> names;
     private final Map<Integer, DbFile> dbfiles;
     private final Map<Integer, String> pkeyFields;
+    private final Map<Integer, List<SecondaryIndex>> indexes;
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -33,6 +36,7 @@ public class Catalog {
         names = new HashMap<>();
         dbfiles = new HashMap<>();
         pkeyFields = new HashMap<>();
+        indexes = new HashMap<>();
     }
 
     /**
@@ -51,17 +55,35 @@ public class Catalog {
             if (names.get(id).equals(name)) {
                 if (id != tableId) {
                     names.remove(id);
-                    dbfiles.remove(id);
+                    close(dbfiles.remove(id));
                     pkeyFields.remove(id);
+                    indexes.remove(id);
                 }
                 break;
             }
         }
         names.put(tableId, name);
-        dbfiles.put(tableId, file);
+        DbFile old = dbfiles.put(tableId, file);
+        if (old != file) {
+            close(old);
+        }
         pkeyFields.put(tableId, pkeyField);
     }
 
+    /**
+     * Closes a file that is no longer in the catalog, if there is one
+     */
+    private static void close(DbFile file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public void addTable(DbFile file, String name) {
         addTable(file, name, "");
     }
@@ -127,6 +149,27 @@ public class Catalog {
         throw new NoSuchElementException();
     }
 
+    /**
+     * Add a secondary index to the catalog. The index's entries must already be a
+     * table in the catalog; from now on BufferPool keeps them up to date as tuples of
+     * the indexed table are inserted and deleted.
+     *
+     * @param index the index to add
+     */
+    public void addIndex(SecondaryIndex index) {
+        indexes.computeIfAbsent(index.getTableId(), id -> new ArrayList<>()).add(index);
+    }
+
+    /**
+     * Returns the secondary indexes over the specified table, or an empty list
+     *
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *                function passed to addTable
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        return indexes.getOrDefault(tableid, Collections.emptyList());
+    }
+
     public Iterator<Integer> tableIdIterator() {
         return dbfiles.keySet().iterator();
     }
@@ -139,16 +182,23 @@ public class Catalog {
     }
 
     /**
-     * Delete all tables from the catalog
+     * Delete all tables from the catalog, closing their files
      */
     public void clear() {
+        for (DbFile file : dbfiles.values()) {
+            close(file);
+        }
         names.clear();
         dbfiles.clear();
         pkeyFields.clear();
+        indexes.clear();
     }
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes one table as {@code name (field type, field type, ...)};
+     * appending {@code mmap} after the closing parenthesis opens the table as a
+     * {@link MappedHeapFile} instead of a plain HeapFile.
      *
      * @param catalogFile
      */
@@ -190,7 +240,18 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                String option = line.substring(line.indexOf(")") + 1).trim();
+                File tableFile = new File(baseFolder + "/" + name + ".dat");
+                HeapFile tabHf;
+                if (option.isEmpty()) {
+                    tabHf = new HeapFile(tableFile, t);
+                } else if (option.equalsIgnoreCase("mmap")) {
+                    tabHf = new MappedHeapFile(tableFile, t);
+                } else {
+                    System.out.println("Unknown table option " + option);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
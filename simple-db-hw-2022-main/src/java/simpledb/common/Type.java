@@ -7,6 +7,7 @@ import simpledb.storage.StringField;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 
 /**
@@ -30,6 +31,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer data, int offset) {
+            return new IntField(data.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -48,6 +54,17 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer data, int offset) throws ParseException {
+            int strLen = data.getInt(offset);
+            if (strLen < 0 || strLen > STRING_LEN) {
+                throw new ParseException("couldn't parse", offset);
+            }
+            byte[] bs = new byte[strLen];
+            data.get(offset + 4, bs);
+            return new StringField(new String(bs), STRING_LEN);
+        }
     };
 
     public static final int STRING_LEN = 128;
@@ -66,4 +83,17 @@ public enum Type implements Serializable {
      */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+    /**
+     * Decodes a field of this type in place, without going through a stream.
+     * The buffer's position and limit are not used or changed, so concurrent
+     * readers can share it.
+     *
+     * @param data   the bytes holding the field, laid out as written by
+     *               {@link Field#serialize}; an array or a mapped file
+     * @param offset the absolute offset in data at which the field starts
+     * @return a Field object of the same type as this object
+     * @throws ParseException if the bytes are not a valid field of this type
+     */
+    public abstract Field parse(ByteBuffer data, int offset) throws ParseException;
+
 }
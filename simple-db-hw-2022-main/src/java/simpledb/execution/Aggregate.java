@@ -26,7 +26,7 @@ public class Aggregate extends Operator {
     private final int gfield;
     private final Aggregator.Op aop;
     private final Aggregator agg;
-    private final OpIterator result;//ս
+    private final OpIterator result;//存放最终结果
     private final TupleDesc td;
     /**
      * Constructor.
@@ -34,15 +34,15 @@ public class Aggregate extends Operator {
      * Implementation hint: depending on the type of afield, you will want to
      * construct an {@link IntegerAggregator} or {@link StringAggregator} to help
      * you with your implementation of readNext().
-     * ֶεͣҪ
-     *  һ {@link IntegerAggregator}  {@link StringAggregator} 
-     *   readNext ʵ֡
+     * 根据字段的类型，您将需要
+     *  构造一个 {@link IntegerAggregator} 或 {@link StringAggregator} 来帮助
+     *  你与你的 readNext（） 的实现。
      *
-     * @param child  The OpIterator that is feeding us tuples.ۺϵԪ
-     * @param afield The column over which we are computing an aggregate.(ۺϵ)
+     * @param child  The OpIterator that is feeding us tuples.参与聚合的元组
+     * @param afield The column over which we are computing an aggregate.(计算聚合的列)
      * @param gfield The column over which we are grouping the result, or -1 if
-     *               there is no groupingǶзУûз飬Ϊ -1
-     * @param aop    The aggregation operator to useҪʹõľۺ
+     *               there is no grouping（我们对其结果进行分组的列，如果没有分组，则为 -1）
+     * @param aop    The aggregation operator to use（要使用的聚合运算符）
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
         // TODO: some code goes here
@@ -50,7 +50,7 @@ public class Aggregate extends Operator {
         this.afield=afield;
         this.gfield=gfield;
         this.aop=aop;
-        Type gfieldType=gfield==-1 ? null:this.child.getTupleDesc().getFieldType(gfield);//
+        Type gfieldType=gfield==-1 ? null:this.child.getTupleDesc().getFieldType(gfield);//分组类型
         if(this.child.getTupleDesc().getFieldType(afield)== Type.STRING_TYPE)
         {
             agg=new StringAggregator(gfield,gfieldType,afield,aop);
@@ -10,18 +10,18 @@ import java.util.NoSuchElementException;
 /**
  * Filter is an operator that implements a relational select.
  */
-public class Filter extends Operator {//̳Operator
+public class Filter extends Operator {//继承Operator
 
     private static final long serialVersionUID = 1L;
-    private final Predicate p;//ɸѡԪν
-    private  OpIterator child;//ɸѡԪĵ
-    private final TupleDesc tupleDesc;//ɸѡԪԪϢ
+    private final Predicate p;//用于筛选元组的谓词
+    private  OpIterator child;//参与筛选元组的迭代器对象
+    private final TupleDesc tupleDesc;//参与筛选的元组的元信息
     /**
      * Constructor accepts a predicate to apply and a child operator to read
      * tuples to filter from.
      *
-     * @param p     The predicate to filter tuples with//ɸѡԪν
-     * @param child The child operator//ɸѡԪ
+     * @param p     The predicate to filter tuples with//用于筛选元组的谓词
+     * @param child The child operator//参与筛选的元组
      */
     public Filter(Predicate p, OpIterator child) {
         // TODO: some code goes here
@@ -31,12 +31,12 @@ public class Filter extends Operator {//
 
     }
 
-    public Predicate getPredicate() {//ȡɸѡ
+    public Predicate getPredicate() {//获取筛选的条件
         // TODO: some code goes here
         return p;
     }
 
-    public TupleDesc getTupleDesc() {//ȡԪԪϢ
+    public TupleDesc getTupleDesc() {//获取元组元信息
         // TODO: some code goes here
         return tupleDesc;
     }
@@ -69,12 +69,12 @@ public class Filter extends Operator {//
      * @see Predicate#filter
      */
     protected Tuple fetchNext() throws NoSuchElementException,
-            TransactionAbortedException, DbException {//ȡһԪ
+            TransactionAbortedException, DbException {//获取下一个元组
         // TODO: some code goes here
-        while (child.hasNext())//еԪ
+        while (child.hasNext())//遍历所有的元组
         {
-            Tuple tuple=child.next();//ȡһԪ
-            if(p.filter(tuple))//жǷɸѡ
+            Tuple tuple=child.next();//获取下一个元组
+            if(p.filter(tuple))//判断是否符合筛选条件
             {
                 return tuple;
             }
@@ -83,7 +83,7 @@ public class Filter extends Operator {//
     }
 
     @Override
-    public OpIterator[] getChildren() {//ص
+    public OpIterator[] getChildren() {//返回迭代器
         // TODO: some code goes here
         return new OpIterator[] {this.child};
     }
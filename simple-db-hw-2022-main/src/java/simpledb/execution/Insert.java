@@ -8,6 +8,8 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 
 /**
@@ -17,6 +19,8 @@ import java.io.IOException;
 public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
+    // 每批插入的元组数
+    private static final int BATCH_SIZE = 4096;
 
     private TransactionId t;
     private OpIterator child;
@@ -81,29 +85,39 @@ public class Insert extends Operator {
      * duplicate before inserting it.
      *
      * @return A 1-field tuple containing the number of inserted records, or
-     *         null if called more than once.//ʶΪnull
+     *         null if called more than once.//如果访问多从作为null
      * @see Database#getBufferPool
-     * @see BufferPool#insertTuple
+     * @see BufferPool#insertTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         if (open) {
             return null;
         }
         this.open = true;
+        // 按批交给缓冲池，由表一次填满整页
+        List<Tuple> batch = new ArrayList<>(BATCH_SIZE);
         while (this.child.hasNext()) {
-            Tuple p=child.next();
-            try {
-                Database.getBufferPool().insertTuple(t,tableId,p);
-                this.counter++;
-            } catch (IOException e) {
-                throw new DbException("insertTuple failed");
+            batch.add(child.next());
+            if (batch.size() == BATCH_SIZE) {
+                insertBatch(batch);
             }
         }
+        insertBatch(batch);
         Tuple t = new Tuple(this.td);
         t.setField(0, new IntField(this.counter));
         return t;
     }
 
+    private void insertBatch(List<Tuple> batch) throws TransactionAbortedException, DbException {
+        try {
+            Database.getBufferPool().insertTuples(t, tableId, batch.iterator());
+        } catch (IOException e) {
+            throw new DbException("insertTuple failed");
+        }
+        this.counter += batch.size();
+        batch.clear();
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] {this. child};
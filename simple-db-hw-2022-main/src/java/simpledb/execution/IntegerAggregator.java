@@ -11,7 +11,7 @@ import simpledb.transaction.TransactionAbortedException;
 import java.util.*;
 
 /**
- * ۺ
+ * 聚合
  * Knows how to compute some aggregate over a set of IntFields.
  */
 public class IntegerAggregator implements Aggregator {
@@ -30,13 +30,13 @@ public class IntegerAggregator implements Aggregator {
      *
      * @param gbfield     the 0-based index of the group-by field in the tuple, or
      *                    NO_GROUPING if there is no grouping
-     *                    ԪзֶεĴ 0 ʼûз飬Ϊ NO_GROUPING
+     *                    （元组中分组依据字段的从 0 开始的索引，如果没有分组，则为 NO_GROUPING）
      * @param gbfieldtype the type of the group by field (e.g., Type.INT_TYPE), or null
      *                    if there is no grouping
-     *                    ֶεͣ磬Type.INT_TYPEûз飬Ϊ null
+     *                    （分组依据字段的类型（例如，Type.INT_TYPE），如果没有分组，则为 null）
      * @param afield      the 0-based index of the aggregate field in the tuple
-     *                    ԪоۺֶεĴ 0 ʼ
-     * @param what        the aggregation operatorۺ
+     *                    （元组中聚合字段的从 0 开始的索引）
+     * @param what        the aggregation operator（聚合运算符）
      *                    MIN, MAX, SUM, AVG, COUNT,(SUM_COUNT,SC_AVG)lab7;
      */
 
@@ -49,11 +49,11 @@ public class IntegerAggregator implements Aggregator {
         this.resultgroup=new HashMap<>();
         this.avggroup=new HashMap<>();
         if (this.gbfield>=0) {
-            // groupBy
+            // 有groupBy
             this.aggDesc = new TupleDesc(new Type[]{this.gbfieldtype,Type.INT_TYPE},
                     new String[]{"groupVal","aggregateVal"});
         } else {
-            // groupBy
+            // 无groupBy
             this.aggDesc = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"aggregateVal"});
         }
     }
@@ -63,18 +63,18 @@ public class IntegerAggregator implements Aggregator {
      * constructor
      *
      * @param tup the Tuple containing an aggregate field and a group-by field
-     *            ۺֶκͷֶεԪ飩
+     *            （包含聚合字段和分组依据字段的元组）
      */
     /**
      * select MAX(Sage) FROM Student Where Sdept='CS';
      * select MIN(Sage) FROM Student where Sdept='CS';
-     * select sum(money) as  from table GROUP BY xx
+     * select sum(money) as 总收入 from table GROUP BY xx
      * select COUNT(Grade) FROM SC;
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         //TODO:(SUM_COUNT,SC_AVG)lab7;
         // TODO: some code goes here
-        IntField afield=(IntField) tup.getField(this.afield);//ȡۺֶ
+        IntField afield=(IntField) tup.getField(this.afield);//获取聚合字段
         Field gbfield=this.gbfield==NO_GROUPING?null: tup.getField(this.gbfield);
         int value=afield.getValue();
         if(gbfield!=null&&gbfield.getType()!=this.gbfieldtype)
@@ -82,7 +82,7 @@ public class IntegerAggregator implements Aggregator {
             throw new IllegalArgumentException();
         }
         switch (this.what){
-            case MAX://жgbfieldǷֵнбȽϷϴģûֱӷ
+            case MAX://判断gbfield是否值，如果有进行比较放入较大的，如果没有直接放入
                 if(this.resultgroup.containsKey(gbfield))
                 {
                     this.resultgroup.put(gbfield,Math.max(this.resultgroup.get(gbfield),value));
@@ -92,7 +92,7 @@ public class IntegerAggregator implements Aggregator {
                     this.resultgroup.put(gbfield,value);
                 }
                 break;
-            case MIN://жgbfieldǷֵзСģûֱӷ
+            case MIN://判断gbfield是否有值，如果有放入较小的，如果没有直接放入
                 if(this.resultgroup.containsKey(gbfield))
                 {
                     this.resultgroup.put(gbfield,Math.min(this.resultgroup.get(gbfield),value));
@@ -102,7 +102,7 @@ public class IntegerAggregator implements Aggregator {
                     this.resultgroup.put(gbfield,value);
                 }
                 break;
-            case SUM://жgbfieldǷֵзӷ룬ûֱӷ
+            case SUM://判断gbfield是否有值，如果有放入相加放入，如果没有直接放入
                 if(this.resultgroup.containsKey(gbfield))
                 {
                     this.resultgroup.put(gbfield,this.resultgroup.get(gbfield)+value);
@@ -112,7 +112,7 @@ public class IntegerAggregator implements Aggregator {
                     this.resultgroup.put(gbfield,value);
                 }
                 break;
-            case COUNT://жgbfieldǷֵм1ûֱӷ
+            case COUNT://判断gbfield是否有值，如果有计数加1，如果没有直接放入
                 if(!this.resultgroup.containsKey(gbfield))
                 {
                     this.resultgroup.put(gbfield,1);
@@ -122,14 +122,14 @@ public class IntegerAggregator implements Aggregator {
                     this.resultgroup.put(gbfield,this.resultgroup.get(gbfield)+1);
                 }
                 break;
-            case AVG://ƽֵ
-                if(!this.avggroup.containsKey(gbfield))//gbfieldֱֵӷ뼴Ϊƽֵ
+            case AVG://利用数组存放平均值
+                if(!this.avggroup.containsKey(gbfield))//gbfield不含有值，直接放入即为平均值
                 {
                     List<Integer> l=new ArrayList<>();
                     l.add(value);
                     this.avggroup.put(gbfield,l);
                 }
-                else//ºͻгȼƽֵ
+                else//如果有则更新和还有长度计算平均值
                 {
                     List<Integer> l = this.avggroup.get(gbfield);
                     l.add(value);
@@ -155,17 +155,17 @@ public class IntegerAggregator implements Aggregator {
      *         aggregateVal is determined by the type of aggregate specified in
      *         the constructor.
      */
-    public OpIterator iterator() {//ص
+    public OpIterator iterator() {//返回迭代器
         // TODO: some code goes here
         return new IntAggIterator();
     }
 
     private class IntAggIterator implements OpIterator {
-        //Map.EntryһԼֵ
-        private Iterator<Map.Entry<Field, List<Integer>>> avgIt;//AVG
+        //利用Map.Entry返回一对键值
+        private Iterator<Map.Entry<Field, List<Integer>>> avgIt;//保存AVG
         private  Iterator<Map.Entry<Field,Integer>> it;
         /*
-        ÿжǷΪAVG
+        在每个函数里判断是否为AVG
          */
         @Override
         public void open() throws DbException, TransactionAbortedException {
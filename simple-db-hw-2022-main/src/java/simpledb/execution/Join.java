@@ -92,15 +92,15 @@ public class Join extends Operator {
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
      * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested(Ƕ)loops join.
+     * the simplest is a nested(嵌套)loops join.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
      * relation. Therefore, if an equality predicate is used there will be two
      * copies of the join attribute in the results. (Removing such duplicate
      * columns can be done with an additional projection operator if needed.)
-     *  Join ضʵַصԪֻǴҹϵԪĴˣʹνʣ
-     *  ԵĸҪʹͶӰɾظС
+     * 从 Join 的这个特定实现返回的元组只是从左和右关系连接元组的串联。因此，如果使用相等谓词，将有两个
+     *  结果中连接属性的副本。（如果需要，可以使用其他投影运算符删除此类重复列。）
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
@@ -114,19 +114,19 @@ public class Join extends Operator {
         {
             if(child1.hasNext()&&t==null)
             {
-                t=child1.next();//ԪtʱϵһԪ
+                t=child1.next();//用元组t暂时保存左关系的下一条元组
             }
-            Tuple r=null;//rʱҹϵһԪ
+            Tuple r=null;//用r暂时保存右关系的下一条元组
             while (child2.hasNext())
             {
                 r=child2.next();
-                if(p.filter(t,r))//жǷɸѡ
+                if(p.filter(t,r))//判断是否满足筛选条件
                 {
-                    //Ե
+                    //将有两个结果中连接属性的
                     int l1=t.getTupleDesc().numFields();
                     int l2=r.getTupleDesc().numFields();
                     int index=0;
-                    Tuple tp=new Tuple(getTupleDesc());//µԪ鱣
+                    Tuple tp=new Tuple(getTupleDesc());//创建新的元组保存
                     for (int i = 0; i < l1; i++) {
                         tp.setField(i,t.getField(i));
                         index++;
@@ -138,9 +138,9 @@ public class Join extends Operator {
                     return tp;
                 }
             }
-            /*ȡchild2ΪһԪ
+            /*当取到的child2为最后一条元组
              */
-            child2.rewind();//reset child2֤tchild2ĵһԪбȽ
+            child2.rewind();//reset child2保证t与child2的第一条元组进行比较
             t=null;//????
         }
         return null;
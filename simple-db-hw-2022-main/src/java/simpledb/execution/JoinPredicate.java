@@ -6,7 +6,7 @@ import simpledb.storage.Tuple;
 import java.io.Serializable;
 
 /**
- * ɸѡӲ
+ * 有条件筛选的连接操作
  * JoinPredicate compares fields of two tuples using a predicate. JoinPredicate
  * is most likely used by the Join operator.
  */
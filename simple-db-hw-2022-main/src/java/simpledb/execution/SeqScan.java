@@ -19,7 +19,7 @@ import java.util.NoSuchElementException;
 public class SeqScan implements OpIterator {
 
     private static final long serialVersionUID = 1L;
-    private  TransactionId tid;//id
+    private  TransactionId tid;//事务id
     private int tableid;
     private String tableAlias;
     private DbFileIterator dbFileIterator;
@@ -45,11 +45,11 @@ public class StringAggregator implements Aggregator {
         this.what=what;
         this.resultMap=new HashMap<>();
         if (this.gbfield>=0) {
-            // groupBy
+            // 有groupBy
             this.aggDesc = new TupleDesc(new Type[]{this.gbfieldtype,Type.INT_TYPE},
                     new String[]{"groupVal","aggregateVal"});
         } else {
-            // groupBy
+            // 无groupBy
             this.aggDesc = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"aggregateVal"});
         }
     }
@@ -12,6 +12,7 @@ import simpledb.transaction.TransactionId;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Future;
 
 /**
  * BTreeFile is an implementation of a DbFile that stores a B+ tree.
@@ -32,6 +33,7 @@ public class BTreeFile implements DbFile {
     private final TupleDesc td;
     private final int tableid;
     private final int keyField;
+    private final PageChannel channel;
 
     /**
      * Constructs a B+ tree file backed by the specified file.
@@ -46,6 +48,7 @@ public class BTreeFile implements DbFile {
         this.tableid = f.getAbsoluteFile().hashCode();
         this.keyField = key;
         this.td = td;
+        this.channel = new PageChannel(f);
     }
 
     /**
@@ -87,11 +90,11 @@ public class BTreeFile implements DbFile {
     public Page readPage(PageId pid) {
         BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
+        try {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
+                int retval = channel.read(0, pageBuf);
+                if (retval == 0) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
                 if (retval < BTreeRootPtrPage.getPageSize()) {
@@ -102,13 +105,8 @@ public class BTreeFile implements DbFile {
                 return new BTreeRootPtrPage(id, pageBuf);
             } else {
                 byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
+                int retval = channel.read(pageOffset(id.getPageNumber()), pageBuf);
+                if (retval == 0) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
                 if (retval < BufferPool.getPageSize()) {
@@ -127,8 +125,13 @@ public class BTreeFile implements DbFile {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
+    }
+
+    /**
+     * Returns the offset in the file of the given (non root pointer) page
+     */
+    private static long pageOffset(int pgNo) {
+        return BTreeRootPtrPage.getPageSize() + (long) (pgNo - 1) * BufferPool.getPageSize();
     }
 
     /**
@@ -141,14 +144,10 @@ public class BTreeFile implements DbFile {
         BTreePageId id = (BTreePageId) page.getId();
 
         byte[] data = page.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
         if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-            rf.write(data);
-            rf.close();
+            channel.write(0, data);
         } else {
-            rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-            rf.write(data);
-            rf.close();
+            channel.write(pageOffset(page.getId().getPageNumber()), data);
         }
     }
 
@@ -157,7 +156,18 @@ public class BTreeFile implements DbFile {
      */
     public int numPages() {
         // we only ever write full pages
-        return (int) ((f.length() - BTreeRootPtrPage.getPageSize()) / BufferPool.getPageSize());
+        try {
+            return (int) ((channel.size() - BTreeRootPtrPage.getPageSize()) / BufferPool.getPageSize());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Closes the file's channel. It is opened again if the file is used after this.
+     */
+    public void close() throws IOException {
+        channel.close();
     }
 
     /**
@@ -168,41 +178,168 @@ public class BTreeFile implements DbFile {
     }
 
     /**
-     * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
-     * the left-most page possibly containing the key field f. It locks all internal
-     * nodes along the path to the leaf node with READ_ONLY permission, and locks the
-     * leaf node with permission perm.
+     * Finds and locks the leaf page in the B+ tree corresponding to the left-most page
+     * possibly containing the key field f, by latch crabbing: each internal page along the
+     * path is locked with READ_ONLY permission only until its child is locked, and the leaf
+     * page is locked with permission perm. Internal pages hold no tuples, so their locks
+     * need not be held until the transaction completes; a page's key range can only change
+     * by modifying the page, which the lock on it prevents while the descent is there.
+     * <p>
+     * The locks this descent takes are recorded in crabbed, which on entry holds those taken
+     * on the way to pid (e.g. on the root pointer page) and on return holds only the leaf
+     * page's, if this descent took it. Locks the transaction already held are never
+     * released.
      * <p>
      * If f is null, it finds the left-most leaf page -- used for the iterator
      *
      * @param tid        - the transaction id
      * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param crabbed    - the locks taken on the way to pid, released once pid is locked
      * @param pid        - the current page being searched
      * @param perm       - the permissions with which to lock the leaf page
      * @param f          - the field to search for
      * @return the left-most leaf page possibly containing the key field f
      */
-    private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
-                                       Field f)
+    private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, Deque<BTreePageId> crabbed,
+                                       BTreePageId pid, Permissions perm, Field f)
             throws DbException, TransactionAbortedException {
-        // TODO: some code goes here
-        return null;
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage page = (BTreeInternalPage) crabPage(tid, dirtypages, crabbed, pid, Permissions.READ_ONLY);
+            pid = childFor(page, f);
+        }
+        return (BTreeLeafPage) crabPage(tid, dirtypages, crabbed, pid, perm);
     }
 
     /**
      * Convenience method to find a leaf page when there is no dirtypages HashMap.
-     * Used by the BTreeFile iterator.
+     * Used by the BTreeFile iterator. Starts from the root pointer page, whose lock is
+     * released once the root page is locked.
      *
      * @param tid - the transaction id
-     * @param pid - the current page being searched
      * @param f   - the field to search for
      * @return the left-most leaf page possibly containing the key field f
-     * @see #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field)
+     * @see #findLeafPage(TransactionId, Map, Deque, BTreePageId, Permissions, Field)
+     */
+    BTreeLeafPage findLeafPage(TransactionId tid, Field f)
+            throws DbException, TransactionAbortedException {
+        Map<PageId, Page> dirtypages = new HashMap<>();
+        Deque<BTreePageId> crabbed = new ArrayDeque<>();
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) lockPage(tid, dirtypages, crabbed,
+                BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+        return findLeafPage(tid, dirtypages, crabbed, rootPtr.getRootId(), Permissions.READ_ONLY, f);
+    }
+
+    /**
+     * Finds the leaf page for a tuple with key field f that is about to be inserted into a
+     * full leaf page, locking every page along the path with READ_WRITE permission. Once
+     * a page has an empty slot, a split below it stops there, so the locks on the pages
+     * above it are released; the locks kept are those on the pages the split will modify.
+     * If the leaf page is no longer full, the locks on all pages above it are released.
+     * <p>
+     * The root pointer page is locked with READ_ONLY permission, and that lock is added to
+     * rootPtrLock for the caller to release once the split is done, since the split may
+     * look up free pages through it. If the root page is full, the descent starts over
+     * with a READ_WRITE lock on the root pointer page for the new root, so that the locks
+     * are always taken from the top of the tree down.
+     *
+     * @param tid         - the transaction id
+     * @param dirtypages  - the list of dirty pages which should be updated with all new dirty pages
+     * @param rootPtrLock - receives the READ_ONLY lock on the root pointer page, if this descent took it
+     * @param f           - the key field of the tuple to be inserted
+     * @return the leaf page, locked with READ_WRITE permission
+     * @see #splitLeafPage(TransactionId, Map, BTreeLeafPage, Field)
+     */
+    private BTreeLeafPage findLeafPageForSplit(TransactionId tid, Map<PageId, Page> dirtypages,
+                                               Deque<BTreePageId> rootPtrLock, Field f)
+            throws DbException, TransactionAbortedException {
+        boolean splitRoot = false;
+        while (true) {
+            Deque<BTreePageId> crabbed = new ArrayDeque<>();
+            BTreeRootPtrPage rootPtr = splitRoot
+                    ? (BTreeRootPtrPage) lockPage(tid, dirtypages, crabbed, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE)
+                    : (BTreeRootPtrPage) lockPage(tid, dirtypages, rootPtrLock, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+            BTreePageId pid = rootPtr.getRootId();
+            BTreePage page = (BTreePage) lockPage(tid, dirtypages, crabbed, pid, Permissions.READ_WRITE);
+            if (!splitRoot && page.getNumEmptySlots() == 0) {
+                // 根节点也可能分裂，需要根指针页的互斥锁。放掉所有锁从头再来，保证自顶向下加锁
+                releasePages(tid, dirtypages, crabbed, null);
+                releasePages(tid, dirtypages, rootPtrLock, null);
+                splitRoot = true;
+                continue;
+            }
+            while (pid.pgcateg() == BTreePageId.INTERNAL) {
+                BTreeInternalPage internal = (BTreeInternalPage) page;
+                if (internal.getNumEmptySlots() > 0) {
+                    releasePages(tid, dirtypages, crabbed, pid);
+                }
+                pid = childFor(internal, f);
+                page = (BTreePage) lockPage(tid, dirtypages, crabbed, pid, Permissions.READ_WRITE);
+            }
+            if (page.getNumEmptySlots() > 0) {
+                releasePages(tid, dirtypages, crabbed, pid);
+            }
+            return (BTreeLeafPage) page;
+        }
+    }
+
+    /**
+     * Returns the child of an internal page to descend to for the key field f: the
+     * left-most child possibly containing f, or the left-most child if f is null
+     */
+    private BTreePageId childFor(BTreeInternalPage page, Field f) throws DbException {
+        // 页内二分查找；键相等时走左子树，找到最左边可能包含f的叶子
+        BTreePageId childId = page.findChildId(f);
+        if (childId == null) {
+            throw new DbException("internal page " + page.getId() + " has no entries");
+        }
+        return childId;
+    }
+
+    /**
+     * Locks a page during a descent, then releases the locks in crabbed, which were taken
+     * on the way to it; crabbed then holds the new page's lock, if the descent took it.
+     */
+    private Page crabPage(TransactionId tid, Map<PageId, Page> dirtypages, Deque<BTreePageId> crabbed,
+                          BTreePageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        Page p = lockPage(tid, dirtypages, crabbed, pid, perm);
+        releasePages(tid, dirtypages, crabbed, pid);
+        return p;
+    }
+
+    /**
+     * Locks a page, adding it to crabbed unless the transaction already held a lock on it.
      */
-    BTreeLeafPage findLeafPage(TransactionId tid, BTreePageId pid,
-                               Field f)
+    private Page lockPage(TransactionId tid, Map<PageId, Page> dirtypages, Deque<BTreePageId> crabbed,
+                          BTreePageId pid, Permissions perm)
             throws DbException, TransactionAbortedException {
-        return findLeafPage(tid, new HashMap<>(), pid, Permissions.READ_ONLY, f);
+        boolean held = holdsPage(tid, dirtypages, pid);
+        Page p = getPage(tid, dirtypages, pid, perm);
+        if (!held) {
+            crabbed.addLast(pid);
+        }
+        return p;
+    }
+
+    private boolean holdsPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid) {
+        return dirtypages.containsKey(pid) || Database.getBufferPool().holdsLock(tid, pid);
+    }
+
+    /**
+     * Releases the locks in crabbed, except the one on keep. The pages have not been
+     * modified, so they are dropped from dirtypages as well.
+     */
+    private void releasePages(TransactionId tid, Map<PageId, Page> dirtypages, Deque<BTreePageId> crabbed,
+                              BTreePageId keep) {
+        Iterator<BTreePageId> it = crabbed.iterator();
+        while (it.hasNext()) {
+            BTreePageId pid = it.next();
+            if (!pid.equals(keep)) {
+                it.remove();
+                dirtypages.remove(pid);
+                Database.getBufferPool().unsafeReleasePage(tid, pid);
+            }
+        }
     }
 
     /**
@@ -227,16 +364,35 @@ public class BTreeFile implements DbFile {
      */
     public BTreeLeafPage splitLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreeLeafPage page, Field field)
             throws DbException, IOException, TransactionAbortedException {
-        // TODO: some code goes here
-        //
-        // Split the leaf page by adding a new page on the right of the existing
-        // page and moving half of the tuples to the new page.  Copy the middle key up
-        // into the parent page, and recursively split the parent as needed to accommodate
-        // the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
-        // the sibling pointers of all the affected leaf pages.  Return the page into which a
-        // tuple with the given key field should be inserted.
-        return null;
+        BTreeLeafPage newPage = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+
+        // 把后一半元组移到右边的新页面。压缩的键长短不一，所以按空位数而不是元组数对半分
+        Iterator<Tuple> it = page.reverseIterator();
+        while (newPage.getNumEmptySlots() - page.getNumEmptySlots() > 1 && it.hasNext()) {
+            Tuple t = it.next();
+            page.deleteTuple(t);
+            newPage.insertTuple(t);
+        }
+
+        // 右页面的第一个键复制到父节点；字符串键只复制能区分两页的最短前缀
+        Field midKey = BTreeKeyCompression.separator(page.reverseIterator().next().getField(keyField),
+                newPage.iterator().next().getField(keyField));
+        BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), midKey);
+
+        BTreePageId oldRightId = page.getRightSiblingId();
+        newPage.setLeftSiblingId(page.getId());
+        newPage.setRightSiblingId(oldRightId);
+        page.setRightSiblingId(newPage.getId());
+        if (oldRightId != null) {
+            BTreeLeafPage oldRight = (BTreeLeafPage) getPage(tid, dirtypages, oldRightId, Permissions.READ_WRITE);
+            oldRight.setLeftSiblingId(newPage.getId());
+        }
 
+        parent.insertEntry(new BTreeEntry(midKey, page.getId(), newPage.getId()));
+        page.setParentId(parent.getId());
+        newPage.setParentId(parent.getId());
+
+        return field.compare(Op.GREATER_THAN, midKey) ? newPage : page;
     }
 
     /**
@@ -263,16 +419,27 @@ public class BTreeFile implements DbFile {
     public BTreeInternalPage splitInternalPage(TransactionId tid, Map<PageId, Page> dirtypages,
                                                BTreeInternalPage page, Field field)
             throws DbException, IOException, TransactionAbortedException {
-        // TODO: some code goes here
-        //
-        // Split the internal page by adding a new page on the right of the existing
-        // page and moving half of the entries to the new page.  Push the middle key up
-        // into the parent page, and recursively split the parent as needed to accommodate
-        // the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
-        // the parent pointers of all the children moving to the new page.  updateParentPointers()
-        // will be useful here.  Return the page into which an entry with the given key field
-        // should be inserted.
-        return null;
+        BTreeInternalPage newPage = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+
+        // 后一半条目移到新页面，中间的键推到父节点。先取下中间的键再比较两页的空位数
+        Iterator<BTreeEntry> it = page.reverseIterator();
+        BTreeEntry mid = it.next();
+        page.deleteKeyAndRightChild(mid);
+        while (newPage.getNumEmptySlots() > page.getNumEmptySlots() && it.hasNext()) {
+            newPage.insertEntry(mid);
+            mid = it.next();
+            page.deleteKeyAndRightChild(mid);
+        }
+        mid.setLeftChild(page.getId());
+        mid.setRightChild(newPage.getId());
+
+        BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), mid.getKey());
+        parent.insertEntry(mid);
+        page.setParentId(parent.getId());
+        newPage.setParentId(parent.getId());
+        updateParentPointers(tid, dirtypages, newPage);
+
+        return field.compare(Op.GREATER_THAN, mid.getKey()) ? newPage : page;
     }
 
     /**
@@ -416,8 +583,10 @@ public class BTreeFile implements DbFile {
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         Map<PageId, Page> dirtypages = new HashMap<>();
+        Deque<BTreePageId> crabbed = new ArrayDeque<>();
 
         // get a read lock on the root pointer page and use it to locate the root page
+        boolean held = holdsPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid));
         BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
         BTreePageId rootId = rootPtr.getRootId();
 
@@ -425,17 +594,31 @@ public class BTreeFile implements DbFile {
             rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
             rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
             rootPtr.setRootId(rootId);
+        } else if (!held) {
+            crabbed.add(rootPtr.getId());
         }
 
         // find and lock the left-most leaf page corresponding to the key field,
-        // and split the leaf page if there are no more slots available
-        BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+        // holding only READ_ONLY locks on the way down. If the leaf page is full,
+        // descend again with READ_WRITE locks on the pages the split may modify,
+        // and split the leaf page if it is still full
+        Field key = t.getField(keyField);
+        BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, crabbed, rootId, Permissions.READ_WRITE, key);
         if (leafPage.getNumEmptySlots() == 0) {
-            leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+            releasePages(tid, dirtypages, crabbed, null);
+            Deque<BTreePageId> rootPtrLock = new ArrayDeque<>();
+            leafPage = findLeafPageForSplit(tid, dirtypages, rootPtrLock, key);
+            if (leafPage.getNumEmptySlots() == 0) {
+                leafPage = splitLeafPage(tid, dirtypages, leafPage, key);
+            }
+            releasePages(tid, dirtypages, rootPtrLock, null);
         }
 
-        // insert the tuple into the leaf page
-        leafPage.insertTuple(t);
+        // insert the tuple into the leaf page, under its latch so that the page is
+        // never written out half-changed
+        synchronized (leafPage) {
+            leafPage.insertTuple(t);
+        }
 
         return new ArrayList<>(dirtypages.values());
     }
@@ -517,7 +700,7 @@ public class BTreeFile implements DbFile {
             // steal some tuples from it
             if (leftSibling.getNumEmptySlots() >= maxEmptySlots) {
                 mergeLeafPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
-            } else {
+            } else if (parent.canReplaceKey()) {
                 stealFromLeafPage(page, leftSibling, parent, leftEntry, false);
             }
         } else if (rightSiblingId != null) {
@@ -526,7 +709,7 @@ public class BTreeFile implements DbFile {
             // steal some tuples from it
             if (rightSibling.getNumEmptySlots() >= maxEmptySlots) {
                 mergeLeafPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
-            } else {
+            } else if (parent.canReplaceKey()) {
                 stealFromLeafPage(page, rightSibling, parent, rightEntry, true);
             }
         }
@@ -546,11 +729,19 @@ public class BTreeFile implements DbFile {
      */
     public void stealFromLeafPage(BTreeLeafPage page, BTreeLeafPage sibling,
                                   BTreeInternalPage parent, BTreeEntry entry, boolean isRightSibling) throws DbException {
-        // TODO: some code goes here
-        //
-        // Move some of the tuples from the sibling to the page so
-        // that the tuples are evenly distributed. Be sure to update
-        // the corresponding parent entry.
+        // 移到两页的空位数相差不超过一个
+        Iterator<Tuple> it = isRightSibling ? sibling.iterator() : sibling.reverseIterator();
+        while (page.getNumEmptySlots() - sibling.getNumEmptySlots() > 1 && it.hasNext()) {
+            Tuple t = it.next();
+            sibling.deleteTuple(t);
+            page.insertTuple(t);
+        }
+        // 父节点条目的键是右边页面的第一个键（字符串键取最短的分隔前缀）
+        BTreeLeafPage left = isRightSibling ? page : sibling;
+        BTreeLeafPage right = isRightSibling ? sibling : page;
+        entry.setKey(BTreeKeyCompression.separator(left.reverseIterator().next().getField(keyField),
+                right.iterator().next().getField(keyField)));
+        parent.updateEntry(entry);
     }
 
     /**
@@ -586,7 +777,7 @@ public class BTreeFile implements DbFile {
             // steal some entries from it
             if (leftSibling.getNumEmptySlots() >= maxEmptySlots) {
                 mergeInternalPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
-            } else {
+            } else if (parent.canReplaceKey()) {
                 stealFromLeftInternalPage(tid, dirtypages, page, leftSibling, parent, leftEntry);
             }
         } else if (rightSiblingId != null) {
@@ -595,7 +786,7 @@ public class BTreeFile implements DbFile {
             // steal some entries from it
             if (rightSibling.getNumEmptySlots() >= maxEmptySlots) {
                 mergeInternalPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
-            } else {
+            } else if (parent.canReplaceKey()) {
                 stealFromRightInternalPage(tid, dirtypages, page, rightSibling, parent, rightEntry);
             }
         }
@@ -620,11 +811,20 @@ public class BTreeFile implements DbFile {
     public void stealFromLeftInternalPage(TransactionId tid, Map<PageId, Page> dirtypages,
                                           BTreeInternalPage page, BTreeInternalPage leftSibling, BTreeInternalPage parent,
                                           BTreeEntry parentEntry) throws DbException, TransactionAbortedException {
-        // TODO: some code goes here
-        // Move some of the entries from the left sibling to the page so
-        // that the entries are evenly distributed. Be sure to update
-        // the corresponding parent entry. Be sure to update the parent
-        // pointers of all children in the entries that were moved.
+        Iterator<BTreeEntry> it = leftSibling.reverseIterator();
+        // 键经过父节点轮转：父节点的键拉到本页，左兄弟的最后一个键推到父节点
+        BTreePageId leftmost = page.iterator().next().getLeftChild();
+        Field key = parentEntry.getKey();
+        while (page.getNumEmptySlots() - leftSibling.getNumEmptySlots() > 1 && it.hasNext()) {
+            BTreeEntry e = it.next();
+            leftSibling.deleteKeyAndRightChild(e);
+            page.insertEntry(new BTreeEntry(key, e.getRightChild(), leftmost));
+            leftmost = e.getRightChild();
+            key = e.getKey();
+        }
+        parentEntry.setKey(key);
+        parent.updateEntry(parentEntry);
+        updateParentPointers(tid, dirtypages, page);
     }
 
     /**
@@ -646,11 +846,20 @@ public class BTreeFile implements DbFile {
     public void stealFromRightInternalPage(TransactionId tid, Map<PageId, Page> dirtypages,
                                            BTreeInternalPage page, BTreeInternalPage rightSibling, BTreeInternalPage parent,
                                            BTreeEntry parentEntry) throws DbException, TransactionAbortedException {
-        // TODO: some code goes here
-        // Move some of the entries from the right sibling to the page so
-        // that the entries are evenly distributed. Be sure to update
-        // the corresponding parent entry. Be sure to update the parent
-        // pointers of all children in the entries that were moved.
+        Iterator<BTreeEntry> it = rightSibling.iterator();
+        // 父节点的键拉到本页，右兄弟的第一个键推到父节点
+        BTreePageId rightmost = page.reverseIterator().next().getRightChild();
+        Field key = parentEntry.getKey();
+        while (page.getNumEmptySlots() - rightSibling.getNumEmptySlots() > 1 && it.hasNext()) {
+            BTreeEntry e = it.next();
+            rightSibling.deleteKeyAndLeftChild(e);
+            page.insertEntry(new BTreeEntry(key, rightmost, e.getLeftChild()));
+            rightmost = e.getLeftChild();
+            key = e.getKey();
+        }
+        parentEntry.setKey(key);
+        parent.updateEntry(parentEntry);
+        updateParentPointers(tid, dirtypages, page);
     }
 
     /**
@@ -673,13 +882,25 @@ public class BTreeFile implements DbFile {
     public void mergeLeafPages(TransactionId tid, Map<PageId, Page> dirtypages,
                                BTreeLeafPage leftPage, BTreeLeafPage rightPage, BTreeInternalPage parent, BTreeEntry parentEntry)
             throws DbException, IOException, TransactionAbortedException {
+        List<Tuple> moving = new ArrayList<>();
+        Iterator<Tuple> it = rightPage.iterator();
+        while (it.hasNext()) {
+            moving.add(it.next());
+        }
+        for (Tuple t : moving) {
+            rightPage.deleteTuple(t);
+            leftPage.insertTuple(t);
+        }
+
+        BTreePageId rightId = rightPage.getRightSiblingId();
+        leftPage.setRightSiblingId(rightId);
+        if (rightId != null) {
+            BTreeLeafPage right = (BTreeLeafPage) getPage(tid, dirtypages, rightId, Permissions.READ_WRITE);
+            right.setLeftSiblingId(leftPage.getId());
+        }
 
-        // TODO: some code goes here
-        //
-        // Move all the tuples from the right page to the left page, update
-        // the sibling pointers, and make the right page available for reuse.
-        // Delete the entry in the parent corresponding to the two pages that are merging -
-        // deleteParentEntry() will be useful here
+        setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
+        deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
     }
 
     /**
@@ -704,14 +925,23 @@ public class BTreeFile implements DbFile {
     public void mergeInternalPages(TransactionId tid, Map<PageId, Page> dirtypages,
                                    BTreeInternalPage leftPage, BTreeInternalPage rightPage, BTreeInternalPage parent, BTreeEntry parentEntry)
             throws DbException, IOException, TransactionAbortedException {
+        List<BTreeEntry> moving = new ArrayList<>();
+        Iterator<BTreeEntry> it = rightPage.iterator();
+        while (it.hasNext()) {
+            moving.add(it.next());
+        }
+
+        // 父节点的键拉下来，连接左页的最后一个孩子和右页的第一个孩子
+        BTreePageId leftLast = leftPage.reverseIterator().next().getRightChild();
+        leftPage.insertEntry(new BTreeEntry(parentEntry.getKey(), leftLast, moving.get(0).getLeftChild()));
+        for (BTreeEntry e : moving) {
+            rightPage.deleteKeyAndLeftChild(e);
+            leftPage.insertEntry(e);
+        }
+        updateParentPointers(tid, dirtypages, leftPage);
 
-        // TODO: some code goes here
-        //
-        // Move all the entries from the right page to the left page, update
-        // the parent pointers of the children in the entries that were moved,
-        // and make the right page available for reuse
-        // Delete the entry in the parent corresponding to the two pages that are merging -
-        // deleteParentEntry() will be useful here
+        setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
+        deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
     }
 
     /**
@@ -740,7 +970,7 @@ public class BTreeFile implements DbFile {
         // or merge with one of the siblings
         parent.deleteKeyAndRightChild(parentEntry);
         int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries() / 2; // ceiling
-        if (parent.getNumEmptySlots() == parent.getMaxEntries()) {
+        if (parent.getNumEntries() == 0) {
             // This was the last entry in the parent.
             // In this case, the parent (root node) should be deleted, and the merged
             // page will become the new root
@@ -777,7 +1007,9 @@ public class BTreeFile implements DbFile {
         BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().getPageNumber(),
                 BTreePageId.LEAF);
         BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
-        page.deleteTuple(t);
+        synchronized (page) {
+            page.deleteTuple(t);
+        }
 
         // if the page is below minimum occupancy, get some tuples from its siblings
         // or merge with one of the siblings
@@ -802,15 +1034,10 @@ public class BTreeFile implements DbFile {
      */
     BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
         synchronized (this) {
-            if (f.length() == 0) {
+            if (channel.size() == 0) {
                 // create the root pointer page and the root page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
-                byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
-                byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-                bw.write(emptyRootPtrData);
-                bw.write(emptyLeafData);
-                bw.close();
+                channel.append(BTreeRootPtrPage.createEmptyPageData());
+                channel.append(BTreeLeafPage.createEmptyPageData());
             }
         }
 
@@ -831,9 +1058,15 @@ public class BTreeFile implements DbFile {
      */
     public int getEmptyPageNo(TransactionId tid, Map<PageId, Page> dirtypages)
             throws DbException, IOException, TransactionAbortedException {
-        // get a read lock on the root pointer page and use it to locate the first header page
+        // get a read lock on the root pointer page and use it to locate the first header page.
+        // The lock is only needed to read the header pointer, so release it unless it was
+        // already held
+        boolean held = holdsPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid));
         BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
         BTreePageId headerId = rootPtr.getHeaderId();
+        if (!held) {
+            Database.getBufferPool().unsafeReleasePage(tid, rootPtr.getId());
+        }
         int emptyPageNo = 0;
 
         if (headerId != null) {
@@ -864,11 +1097,7 @@ public class BTreeFile implements DbFile {
         if (headerId == null) {
             synchronized (this) {
                 // create the new page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
-                byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-                bw.write(emptyData);
-                bw.close();
+                channel.append(BTreeInternalPage.createEmptyPageData());
                 emptyPageNo = numPages();
             }
         }
@@ -898,10 +1127,7 @@ public class BTreeFile implements DbFile {
         BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
         // write empty page to disk
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-        rf.write(BTreePage.createEmptyPageData());
-        rf.close();
+        channel.write(pageOffset(emptyPageNo), BTreePage.createEmptyPageData());
 
         // make sure the page is not in the buffer pool	or in the local cache
         Database.getBufferPool().removePage(newPageId);
@@ -1030,6 +1256,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
     Iterator<Tuple> it = null;
     BTreeLeafPage curp = null;
+    Future<?> readAhead = null;
 
     final TransactionId tid;
     final BTreeFile f;
@@ -1049,10 +1276,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
      * Open this iterator by getting an iterator on the first leaf page
      */
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-                tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
-        curp = f.findLeafPage(tid, root, null);
+        curp = f.findLeafPage(tid, null);
         it = curp.iterator();
     }
 
@@ -1074,6 +1298,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
             } else {
                 curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
                         nextp, Permissions.READ_ONLY);
+                readAhead();
                 it = curp.iterator();
                 if (!it.hasNext())
                     it = null;
@@ -1085,6 +1310,18 @@ class BTreeFileIterator extends AbstractDbFileIterator {
         return it.next();
     }
 
+    /**
+     * Having followed one right sibling pointer, the scan is sequential, so
+     * start reading the leaves after the current one in the background,
+     * unless the previous read-ahead is still in progress.
+     */
+    private void readAhead() {
+        if (readAhead != null && !readAhead.isDone())
+            return;
+        readAhead = Database.getBufferPool().readAhead(curp,
+                p -> ((BTreeLeafPage) p).getRightSiblingId(), null);
+    }
+
     /**
      * rewind this iterator back to the beginning of the tuples
      */
@@ -1100,6 +1337,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
         super.close();
         it = null;
         curp = null;
+        readAhead = null;
     }
 }
 
@@ -1131,19 +1369,18 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
     /**
      * Open this iterator by getting an iterator on the first leaf page applicable
-     * for the given predicate operation
+     * for the given predicate operation, starting at the first tuple on it that
+     * may match, found by binary search
      */
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-                tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
         if (ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
                 || ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-            curp = f.findLeafPage(tid, root, ipred.getField());
+            curp = f.findLeafPage(tid, ipred.getField());
+            it = curp.iterator(ipred.getField(), ipred.getOp() != Op.GREATER_THAN);
         } else {
-            curp = f.findLeafPage(tid, root, null);
+            curp = f.findLeafPage(tid, null);
+            it = curp.iterator();
         }
-        it = curp.iterator();
     }
 
     /**
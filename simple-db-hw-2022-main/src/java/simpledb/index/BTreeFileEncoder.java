@@ -11,10 +11,15 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.text.ParseException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 
 /**
  * BTreeFileEncoder reads a comma delimited text file and converts it to
@@ -24,6 +29,12 @@ import java.util.List;
 
 public class BTreeFileEncoder {
 
+    /**
+     * The fraction of each page that build fills by default. It leaves room for
+     * later inserts before pages have to split.
+     */
+    public static final double DEFAULT_FILL_FACTOR = 0.9;
+
     /**
      * Encode the file using the BTreeFile's Insert method.
      *
@@ -335,6 +346,616 @@ public class BTreeFileEncoder {
         return bf;
     }
 
+    /**
+     * Builds a B+ tree index over a heap file, like CREATE INDEX would. It uses the
+     * default fill factor and sorts with as many pages of memory as the default buffer
+     * pool holds.
+     *
+     * @see #build(TransactionId, HeapFile, File, int, String, double, int)
+     */
+    public static BTreeFile build(TransactionId tid, HeapFile heapf, File bFile, int keyField, String name)
+            throws IOException, DbException, TransactionAbortedException {
+        return build(tid, heapf, bFile, keyField, name, DEFAULT_FILL_FACTOR, BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Builds a B+ tree index over a heap file bottom-up, with no page splits. The
+     * BTreeFile is added to the Catalog under name.
+     * <p>
+     * The heap file is read through the buffer pool under tid. Its tuples are sorted on
+     * the key field by an external merge sort that holds at most sortPages pages of
+     * tuples in memory. Runs of that size are sorted and written to temporary files,
+     * then merged at most sortPages at a time.
+     * <p>
+     * The sorted tuples are packed into leaf pages, and those pages into internal pages
+     * level by level. Each page is filled to fillFactor of its capacity, but never below
+     * half, the minimum occupancy of the tree. Once the tuples are sorted their number is
+     * known, and so is the shape of the whole tree. Every page is therefore written once
+     * and in page order, with its parent and sibling pointers already set: first the
+     * leaf pages, then each level of internal pages, with the root last. If the key
+     * field is a STRING, keys are compressed and pages hold as many tuples as their
+     * sizes allow, so the sorted tuples are read twice: once to lay out the pages, once
+     * to write them.
+     * <p>
+     * The pages are written straight to bFile, bypassing the buffer pool and the log.
+     * bFile is overwritten, so it must not be in use by any transaction.
+     *
+     * @param tid        - the transaction reading the heap file
+     * @param heapf      - the heap file to index
+     * @param bFile      - the file on disk to back the resulting BTreeFile
+     * @param keyField   - the index of the key field for this B+ tree
+     * @param name       - the name of the index in the Catalog
+     * @param fillFactor - the fraction of each page to fill, greater than 0 and at most 1
+     * @param sortPages  - the number of pages of tuples to sort in memory, at least 2
+     * @return the BTreeFile
+     */
+    public static BTreeFile build(TransactionId tid, HeapFile heapf, File bFile, int keyField, String name,
+                                  double fillFactor, int sortPages)
+            throws IOException, DbException, TransactionAbortedException {
+        return build(heapf.iterator(tid), heapf.getTupleDesc(), bFile, keyField, name, fillFactor, sortPages);
+    }
+
+    /**
+     * Builds a B+ tree index over the tuples of an iterator, as described in
+     * {@link #build(TransactionId, HeapFile, File, int, String, double, int)}. The tuples
+     * need not come from a table; a SecondaryIndex builds its entries this way.
+     *
+     * @param tuples     - the tuples to index, all with TupleDesc td
+     * @param td         - the TupleDesc of the tuples
+     * @param bFile      - the file on disk to back the resulting BTreeFile
+     * @param keyField   - the index of the key field for this B+ tree
+     * @param name       - the name of the index in the Catalog
+     * @param fillFactor - the fraction of each page to fill, greater than 0 and at most 1
+     * @param sortPages  - the number of pages of tuples to sort in memory, at least 2
+     * @return the BTreeFile
+     */
+    public static BTreeFile build(DbFileIterator tuples, TupleDesc td, File bFile, int keyField, String name,
+                                  double fillFactor, int sortPages)
+            throws IOException, DbException, TransactionAbortedException {
+        if (fillFactor <= 0 || fillFactor > 1) {
+            throw new IllegalArgumentException("fill factor " + fillFactor);
+        }
+        if (sortPages < 2) {
+            throw new IllegalArgumentException("sort pages " + sortPages);
+        }
+        int npagebytes = BufferPool.getPageSize();
+
+        // sort the tuples on the key field into runs, and merge them until
+        // they can all be merged at once
+        List<File> runs = new ArrayList<>();
+        try {
+            long ntuples = writeRuns(tuples, keyField, sortPages * Math.max(1, npagebytes / td.getSize()), runs);
+            while (runs.size() > sortPages) {
+                runs = mergeRuns(runs, td, keyField, sortPages);
+            }
+            return writeTree(runs, ntuples, td, bFile, keyField, name, fillFactor);
+        } finally {
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes a B+ tree holding the given number of tuples, sorted in runs, to bFile, as
+     * described in {@link #build(TransactionId, HeapFile, File, int, String, double, int)}.
+     */
+    private static BTreeFile writeTree(List<File> runs, long ntuples, TupleDesc td, File bFile,
+                                       int keyField, String name, double fillFactor)
+            throws IOException, DbException {
+        new FileOutputStream(bFile).close();
+        BTreeFile bf = new BTreeFile(bFile, keyField, td);
+        Database.getCatalog().addTable(bf, name, td.getFieldName(keyField));
+        int tableid = bf.getId();
+        int npagebytes = BufferPool.getPageSize();
+        Type keyType = td.getFieldType(keyField);
+        Type[] typeAr = new Type[td.numFields()];
+        for (int i = 0; i < typeAr.length; i++) {
+            typeAr[i] = td.getFieldType(i);
+        }
+
+        List<long[]> levels = layout(tableid, runs, ntuples, td, keyField, fillFactor);
+        // the number of the first page of each level
+        int[] first = new int[levels.size()];
+        first[0] = 1;
+        for (int l = 1; l < levels.size(); l++) {
+            first[l] = first[l - 1] + levels.get(l - 1).length - 1;
+        }
+
+        int top = levels.size() - 1;
+        int rootCategory = (top > 0 ? BTreePageId.INTERNAL : BTreePageId.LEAF);
+        bf.writePage(new BTreeRootPtrPage(BTreeRootPtrPage.getId(tableid),
+                convertToRootPtrPage(first[top], rootCategory, 0)));
+
+        // write out the leaf pages, remembering the key to copy up into the
+        // parents between each two of them
+        long[] leaves = levels.get(0);
+        int nleaves = leaves.length - 1;
+        List<Field> keys = new ArrayList<>();
+        try (RunMerger sorted = new RunMerger(runs, td, keyField)) {
+            Field last = null;
+            for (int i = 0; i < nleaves; i++) {
+                int size = (int) (leaves[i + 1] - leaves[i]);
+                List<Tuple> tuples = new ArrayList<>(size);
+                while (tuples.size() < size) {
+                    tuples.add(sorted.next());
+                }
+                if (i > 0) {
+                    keys.add(BTreeKeyCompression.separator(last, tuples.get(0).getField(keyField)));
+                }
+                if (size > 0) {
+                    last = tuples.get(size - 1).getField(keyField);
+                }
+                BTreePageId pid = new BTreePageId(tableid, first[0] + i, BTreePageId.LEAF);
+                BTreeLeafPage page = new BTreeLeafPage(pid,
+                        convertToLeafPage(tuples, npagebytes, typeAr.length, typeAr, keyField), keyField);
+                page.setParentId(parentId(tableid, levels, first, 0, i));
+                if (i > 0) {
+                    page.setLeftSiblingId(new BTreePageId(tableid, pid.getPageNumber() - 1, BTreePageId.LEAF));
+                }
+                if (i < nleaves - 1) {
+                    page.setRightSiblingId(new BTreePageId(tableid, pid.getPageNumber() + 1, BTreePageId.LEAF));
+                }
+                bf.writePage(page);
+            }
+        }
+
+        // write out the internal pages level by level. keys.get(c) separates
+        // the pages c and c + 1 of the level below; the key between two pages
+        // of this level is pushed up
+        for (int l = 1; l <= top; l++) {
+            long[] pages = levels.get(l);
+            int npages = pages.length - 1;
+            int childCategory = (l == 1 ? BTreePageId.LEAF : BTreePageId.INTERNAL);
+            List<Field> pushedUp = new ArrayList<>();
+            for (int g = 0; g < npages; g++) {
+                int from = (int) pages[g];
+                int to = (int) pages[g + 1];
+                List<BTreeEntry> entries = new ArrayList<>();
+                for (int c = from; c < to - 1; c++) {
+                    entries.add(new BTreeEntry(keys.get(c),
+                            new BTreePageId(tableid, first[l - 1] + c, childCategory),
+                            new BTreePageId(tableid, first[l - 1] + c + 1, childCategory)));
+                }
+                if (g < npages - 1) {
+                    pushedUp.add(keys.get(to - 1));
+                }
+                BTreePageId pid = new BTreePageId(tableid, first[l] + g, BTreePageId.INTERNAL);
+                BTreeInternalPage page = new BTreeInternalPage(pid,
+                        convertToInternalPage(entries, npagebytes, keyType, childCategory), keyField);
+                page.setParentId(parentId(tableid, levels, first, l, g));
+                bf.writePage(page);
+            }
+            keys = pushedUp;
+        }
+        return bf;
+    }
+
+    /**
+     * Lays out the pages of the tree that writeTree writes, returning the pages on each
+     * level, leaves first: the index of the first item of each page, followed by the
+     * number of items. Pages of a fixed size hold a known number of items, which are
+     * spread evenly over them. Where a page with compressed keys ends depends on the
+     * sizes of its keys, so these are packed in order: the sorted tuples are read to
+     * pack leaf pages, and the keys copied up from the leaf pages are packed into
+     * internal pages level by level.
+     */
+    private static List<long[]> layout(int tableid, List<File> runs, long ntuples, TupleDesc td,
+                                       int keyField, double fillFactor)
+            throws IOException {
+        boolean compressedInternal = BTreeKeyCompression.compressed(td.getFieldType(keyField));
+        List<long[]> levels = new ArrayList<>();
+        // the keys between the pages of the last level, if internal pages are compressed
+        List<Field> keys = null;
+        if (BTreeKeyCompression.compressed(td, keyField)) {
+            PagePacker<Field> leaves = new PagePacker<>(BTreeKeyCompression.leafCapacity(td),
+                    BTreeKeyCompression.leafUnit(td), fillFactor);
+            try (RunMerger sorted = new RunMerger(runs, td, keyField)) {
+                Field prev = null;
+                while (sorted.hasNext()) {
+                    Field key = sorted.next().getField(keyField);
+                    leaves.add(key, BTreeKeyCompression.tupleSize(td, key, null),
+                            BTreeKeyCompression.tupleSize(td, key, prev));
+                    prev = key;
+                }
+            }
+            levels.add(leaves.finish());
+            keys = new ArrayList<>();
+            for (int i = 1; i < leaves.firsts.size(); i++) {
+                keys.add(BTreeKeyCompression.separator(leaves.lasts.get(i - 1), leaves.firsts.get(i)));
+            }
+        } else {
+            int maxTuples = new BTreeLeafPage(new BTreePageId(tableid, 0, BTreePageId.LEAF),
+                    BTreePage.createEmptyPageData(), keyField).getMaxTuples();
+            levels.add(spread(ntuples, pageCount(ntuples, fill(maxTuples, fillFactor), maxTuples / 2)));
+            if (compressedInternal) {
+                keys = separators(runs, td, keyField, levels.get(0));
+            }
+        }
+
+        int maxEntries = new BTreeInternalPage(new BTreePageId(tableid, 0, BTreePageId.INTERNAL),
+                BTreePage.createEmptyPageData(), keyField).getMaxEntries();
+        while (levels.get(levels.size() - 1).length > 2) {
+            int children = levels.get(levels.size() - 1).length - 1;
+            if (!compressedInternal) {
+                levels.add(spread(children, pageCount(children, fill(maxEntries, fillFactor) + 1, maxEntries / 2 + 1)));
+                continue;
+            }
+            // the first child of a page takes no more room, the others an entry each
+            PagePacker<Field> internal = new PagePacker<>(BTreeKeyCompression.internalCapacity(),
+                    BTreeKeyCompression.internalUnit(), fillFactor);
+            for (int c = 0; c < children; c++) {
+                internal.add(null, 0, c == 0 ? 0 : BTreeKeyCompression.entrySize(keys.get(c - 1)));
+            }
+            long[] pages = internal.finish();
+            levels.add(pages);
+            List<Field> pushedUp = new ArrayList<>();
+            for (int g = 1; g < pages.length - 1; g++) {
+                pushedUp.add(keys.get((int) pages[g] - 1));
+            }
+            keys = pushedUp;
+        }
+        return levels;
+    }
+
+    /**
+     * Returns the keys to copy up between the given leaf pages, reading the sorted tuples
+     */
+    private static List<Field> separators(List<File> runs, TupleDesc td, int keyField, long[] leaves)
+            throws IOException {
+        List<Field> keys = new ArrayList<>();
+        try (RunMerger sorted = new RunMerger(runs, td, keyField)) {
+            Field prev = null;
+            int g = 1;
+            for (long i = 0; sorted.hasNext(); i++) {
+                Field key = sorted.next().getField(keyField);
+                if (g < leaves.length - 1 && i == leaves[g]) {
+                    keys.add(BTreeKeyCompression.separator(prev, key));
+                    g++;
+                }
+                prev = key;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Packs items of varying size into pages in order, measuring pages in units as
+     * BTreeKeyCompression does. Each page is filled up to fillFactor of its capacity,
+     * but at least half. If the last page is then less than half full, it is merged with
+     * the page before it if both fit in one, or else items move over from that page
+     * until the two are about as full, as a steal would do. Only the items of the last
+     * two pages are kept; of the others only the first and last item.
+     */
+    private static class PagePacker<T> {
+        private final int capacity;
+        private final int unit;
+        private final int limit;
+        private final int maxEmptySlots;
+        private final List<Long> starts = new ArrayList<>();
+        final List<T> firsts = new ArrayList<>();
+        final List<T> lasts = new ArrayList<>();
+        private long count;
+        private Packed<T> prev;
+        private Packed<T> cur;
+
+        PagePacker(int capacity, int unit, double fillFactor) {
+            this.capacity = capacity;
+            this.unit = unit;
+            int usable = BTreeKeyCompression.usable(capacity, unit);
+            int max = BTreeKeyCompression.units(capacity, unit, 0);
+            this.maxEmptySlots = max - max / 2; // ceiling
+            this.limit = Math.max((int) (usable * fillFactor), usable - maxEmptySlots * unit);
+        }
+
+        /**
+         * Adds an item taking firstSize bytes first on a page and size bytes after
+         * another item
+         */
+        void add(T item, int firstSize, int size) {
+            if (cur == null) {
+                cur = new Packed<>(count);
+            } else if (cur.bytes + size > limit) {
+                commit(prev);
+                prev = cur;
+                cur = new Packed<>(count);
+            }
+            cur.addLast(new Packed.Item<>(item, firstSize, size));
+            count++;
+        }
+
+        /**
+         * Returns the index of the first item of each page, followed by the number of
+         * items. With no items, there is one empty page.
+         */
+        long[] finish() {
+            if (cur == null) {
+                return new long[]{0, 0};
+            }
+            if (prev != null && emptySlots(cur) > maxEmptySlots) {
+                Packed.Item<T> head = cur.items.getFirst();
+                if (prev.bytes + cur.bytes - head.firstSize + head.size <= BTreeKeyCompression.usable(capacity, unit)) {
+                    while (!cur.items.isEmpty()) {
+                        prev.addLast(cur.items.removeFirst());
+                    }
+                    cur = prev;
+                    prev = null;
+                } else {
+                    while (emptySlots(cur) - emptySlots(prev) > 1 && prev.items.size() > 1) {
+                        cur.addFirst(prev.removeLast());
+                    }
+                }
+            }
+            commit(prev);
+            commit(cur);
+            long[] pages = new long[starts.size() + 1];
+            for (int i = 0; i < starts.size(); i++) {
+                pages[i] = starts.get(i);
+            }
+            pages[starts.size()] = count;
+            return pages;
+        }
+
+        private int emptySlots(Packed<T> page) {
+            return BTreeKeyCompression.units(capacity, unit, page.bytes);
+        }
+
+        private void commit(Packed<T> page) {
+            if (page != null) {
+                starts.add(page.start);
+                firsts.add(page.items.getFirst().value);
+                lasts.add(page.items.getLast().value);
+            }
+        }
+    }
+
+    /**
+     * The items of a page being packed, and the bytes they take
+     */
+    private static class Packed<T> {
+        final ArrayDeque<Item<T>> items = new ArrayDeque<>();
+        long start;
+        int bytes;
+
+        Packed(long start) {
+            this.start = start;
+        }
+
+        void addLast(Item<T> item) {
+            bytes += items.isEmpty() ? item.firstSize : item.size;
+            items.addLast(item);
+        }
+
+        Item<T> removeLast() {
+            Item<T> item = items.removeLast();
+            bytes -= items.isEmpty() ? item.firstSize : item.size;
+            return item;
+        }
+
+        void addFirst(Item<T> item) {
+            if (!items.isEmpty()) {
+                bytes += items.getFirst().size - items.getFirst().firstSize;
+            }
+            bytes += item.firstSize;
+            items.addFirst(item);
+            start--;
+        }
+
+        static class Item<T> {
+            final T value;
+            final int firstSize;
+            final int size;
+
+            Item(T value, int firstSize, int size) {
+                this.value = value;
+                this.firstSize = firstSize;
+                this.size = size;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of items of a page filled to fillFactor of its capacity max, but
+     * at least half full
+     */
+    private static int fill(int max, double fillFactor) {
+        return Math.max(1, Math.max(max / 2, (int) (max * fillFactor)));
+    }
+
+    /**
+     * Returns the number of pages to spread n items over evenly, so that no page holds
+     * more than cap items or, if there is more than one page, fewer than min
+     */
+    private static int pageCount(long n, int cap, int min) {
+        int k = (int) Math.max(1, (n + cap - 1) / cap);
+        // fewer, fuller pages rather than pages under half full
+        while (k > 1 && n / k < min) {
+            k--;
+        }
+        return k;
+    }
+
+    /**
+     * Returns the index of the first item of each of k pages that n items are spread
+     * evenly over, followed by n
+     */
+    private static long[] spread(long n, int k) {
+        long[] pages = new long[k + 1];
+        for (int g = 0; g <= k; g++) {
+            pages[g] = g * n / k;
+        }
+        return pages;
+    }
+
+    /**
+     * Returns the id of the parent of page i of the given level, which is the page of the
+     * level above whose children include i, or the root pointer page for the root
+     */
+    private static BTreePageId parentId(int tableid, List<long[]> levels, int[] first, int level, int i) {
+        if (level == levels.size() - 1) {
+            return BTreeRootPtrPage.getId(tableid);
+        }
+        // the last page g of the level above whose first child is at most i
+        long[] parents = levels.get(level + 1);
+        int g = Arrays.binarySearch(parents, 0, parents.length - 1, i);
+        if (g < 0) {
+            g = -g - 2;
+        }
+        return new BTreePageId(tableid, first[level + 1] + g, BTreePageId.INTERNAL);
+    }
+
+    /**
+     * Reads the tuples of an iterator and writes them out in sorted runs of at most
+     * runTuples tuples, adding the run files to runs
+     *
+     * @return the number of tuples
+     */
+    private static long writeRuns(DbFileIterator it, int keyField, int runTuples, List<File> runs)
+            throws IOException, DbException, TransactionAbortedException {
+        TupleComparator comparator = new TupleComparator(keyField);
+        List<Tuple> run = new ArrayList<>();
+        long ntuples = 0;
+        it.open();
+        try {
+            while (it.hasNext()) {
+                run.add(it.next());
+                ntuples++;
+                if (run.size() == runTuples) {
+                    run.sort(comparator);
+                    runs.add(writeRun(run.iterator()));
+                    run.clear();
+                }
+            }
+        } finally {
+            it.close();
+        }
+        if (!run.isEmpty()) {
+            run.sort(comparator);
+            runs.add(writeRun(run.iterator()));
+        }
+        return ntuples;
+    }
+
+    /**
+     * Merges the runs fanIn at a time, deleting them
+     *
+     * @return the merged runs
+     */
+    private static List<File> mergeRuns(List<File> runs, TupleDesc td, int keyField, int fanIn)
+            throws IOException {
+        List<File> merged = new ArrayList<>();
+        for (int i = 0; i < runs.size(); i += fanIn) {
+            List<File> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+            try (RunMerger m = new RunMerger(group, td, keyField)) {
+                merged.add(writeRun(m));
+            }
+            for (File run : group) {
+                run.delete();
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Writes tuples to a temporary run file, each as the serialized fields of the tuple
+     */
+    private static File writeRun(Iterator<Tuple> tuples) throws IOException {
+        File run = File.createTempFile("btreerun", ".dat");
+        run.deleteOnExit();
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(run), BufferPool.getPageSize()))) {
+            while (tuples.hasNext()) {
+                Tuple t = tuples.next();
+                for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+                    t.getField(i).serialize(dos);
+                }
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Merges sorted run files into a single sorted stream of tuples, reading a page of
+     * each run at a time
+     */
+    private static class RunMerger implements Iterator<Tuple>, Closeable {
+        private final List<RunReader> readers = new ArrayList<>();
+        private final PriorityQueue<RunReader> heads;
+
+        RunMerger(List<File> runs, TupleDesc td, int keyField) throws IOException {
+            TupleComparator comparator = new TupleComparator(keyField);
+            heads = new PriorityQueue<>(Math.max(1, runs.size()), (r1, r2) -> comparator.compare(r1.head, r2.head));
+            for (File run : runs) {
+                RunReader r = new RunReader(run, td);
+                readers.add(r);
+                if (r.advance()) {
+                    heads.add(r);
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        public Tuple next() {
+            RunReader r = heads.poll();
+            if (r == null) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = r.head;
+            if (r.advance()) {
+                heads.add(r);
+            }
+            return t;
+        }
+
+        public void close() throws IOException {
+            for (RunReader r : readers) {
+                r.in.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the tuples of a run file one by one
+     */
+    private static class RunReader {
+        final DataInputStream in;
+        final TupleDesc td;
+        long remaining;
+        Tuple head;
+
+        RunReader(File run, TupleDesc td) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), BufferPool.getPageSize()));
+            this.td = td;
+            // every tuple takes td.getSize() bytes
+            this.remaining = run.length() / td.getSize();
+        }
+
+        /**
+         * Reads the next tuple into head
+         *
+         * @return false if the run has no more tuples
+         */
+        boolean advance() {
+            if (remaining == 0) {
+                head = null;
+                return false;
+            }
+            remaining--;
+            head = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    head.setField(i, td.getFieldType(i).parse(in));
+                }
+            } catch (ParseException e) {
+                throw new RuntimeException("corrupt sort run", e);
+            }
+            return true;
+        }
+    }
+
     /**
      * Set all the right sibling pointers by following the left sibling pointers
      *
@@ -500,6 +1121,9 @@ public class BTreeFileEncoder {
     public static byte[] convertToLeafPage(List<Tuple> tuples, int npagebytes,
                                            int numFields, Type[] typeAr, int keyField)
             throws IOException {
+        if (BTreeKeyCompression.compressed(new TupleDesc(typeAr), keyField)) {
+            return convertToCompressedLeafPage(tuples, npagebytes, typeAr, keyField);
+        }
         int nrecbytes = 0;
         for (int i = 0; i < numFields; i++) {
             nrecbytes += typeAr[i].getLen();
@@ -563,6 +1187,63 @@ public class BTreeFileEncoder {
         return baos.toByteArray();
     }
 
+    /**
+     * Convert a set of tuples to a byte array in the compressed format of a
+     * BTreeLeafPage keyed on a STRING field, keeping as many of the smallest as fit
+     */
+    private static byte[] convertToCompressedLeafPage(List<Tuple> tuples, int npagebytes,
+                                                      Type[] typeAr, int keyField)
+            throws IOException {
+        TupleDesc td = new TupleDesc(typeAr);
+        int nrecords = BTreeKeyCompression.leafSlots(td);
+        int nheaderbytes = (nrecords + 7) / 8;
+        tuples.sort(new TupleComparator(keyField));
+
+        int recordcount = 0;
+        int used = 0;
+        Field prev = null;
+        for (Tuple t : tuples) {
+            used += BTreeKeyCompression.tupleSize(td, t.getField(keyField), prev);
+            if (recordcount == nrecords || used > BTreeKeyCompression.leafCapacity(td))
+                break;
+            recordcount++;
+            prev = t.getField(keyField);
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(npagebytes);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(0); // parent pointer
+        dos.writeInt(0); // left sibling pointer
+        dos.writeInt(0); // right sibling pointer
+        writeHeader(dos, nheaderbytes, recordcount);
+
+        prev = null;
+        for (int t = 0; t < recordcount; t++) {
+            Tuple tup = tuples.get(t);
+            for (int j = 0; j < typeAr.length; j++) {
+                if (j == keyField)
+                    BTreeKeyCompression.writeKey(dos, tup.getField(j), prev);
+                else
+                    tup.getField(j).serialize(dos);
+            }
+            prev = tup.getField(keyField);
+        }
+
+        // pad the rest of the page with zeroes
+        dos.write(new byte[npagebytes - dos.size()]);
+        return baos.toByteArray();
+    }
+
+    /**
+     * Writes a page header of nheaderbytes bytes with the first nused slots used
+     */
+    private static void writeHeader(DataOutputStream dos, int nheaderbytes, int nused) throws IOException {
+        for (int b = 0; b < nheaderbytes; b++) {
+            int bits = Math.max(0, Math.min(8, nused - b * 8));
+            dos.writeByte((1 << bits) - 1);
+        }
+    }
+
     /**
      * Comparator to sort BTreeEntry objects by key
      */
@@ -616,6 +1297,9 @@ public class BTreeFileEncoder {
     public static byte[] convertToInternalPage(List<BTreeEntry> entries, int npagebytes,
                                                Type keyType, int childPageCategory)
             throws IOException {
+        if (BTreeKeyCompression.compressed(keyType)) {
+            return convertToCompressedInternalPage(entries, npagebytes, childPageCategory);
+        }
         int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
         // pointerbytes: one extra child pointer, parent pointer, child page category
         int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1;
@@ -689,6 +1373,43 @@ public class BTreeFileEncoder {
 
     }
 
+    /**
+     * Convert a set of entries to a byte array in the compressed format of a
+     * BTreeInternalPage keyed on a STRING field, keeping as many of the smallest as fit
+     */
+    private static byte[] convertToCompressedInternalPage(List<BTreeEntry> entries, int npagebytes,
+                                                          int childPageCategory)
+            throws IOException {
+        int nentries = BTreeKeyCompression.internalSlots();
+        int nheaderbytes = (nentries + 1 + 7) / 8;
+        entries.sort(new EntryComparator());
+
+        int entrycount = 0;
+        int used = 0;
+        for (BTreeEntry e : entries) {
+            used += BTreeKeyCompression.entrySize(e.getKey());
+            if (entrycount == nentries || used > BTreeKeyCompression.internalCapacity())
+                break;
+            entrycount++;
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(npagebytes);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(0); // parent pointer
+        dos.writeByte((byte) childPageCategory);
+        writeHeader(dos, nheaderbytes, entrycount + 1);
+
+        dos.writeInt(entries.get(0).getLeftChild().getPageNumber());
+        for (int e = 0; e < entrycount; e++) {
+            BTreeKeyCompression.writeKey(dos, entries.get(e).getKey());
+            dos.writeInt(entries.get(e).getRightChild().getPageNumber());
+        }
+
+        // pad the rest of the page with zeroes
+        dos.write(new byte[npagebytes - dos.size()]);
+        return baos.toByteArray();
+    }
+
     /**
      * Create a byte array in the format of a BTreeRootPtrPage
      *
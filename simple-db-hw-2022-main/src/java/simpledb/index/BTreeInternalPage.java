@@ -23,6 +23,15 @@ public class BTreeInternalPage extends BTreePage {
     private final Field[] keys;
     private final int[] children;
     private final int numSlots;
+    // whether keys are stored compressed, see BTreeKeyCompression
+    private final boolean compressed;
+    // the bytes the entries take in the page, not counting the first child pointer
+    private int usedBytes;
+
+    // the used entry slots (from 1) in ascending order, which is key order: a dense,
+    // directly indexable view of the entries that lookups binary search
+    private final int[] usedSlots;
+    private int numUsed;
 
     private int childCategory; // either leaf or internal
 
@@ -39,7 +48,8 @@ public class BTreeInternalPage extends BTreePage {
 
         assert null == upperBound || null == prev || (prev.compare(Op.LESS_THAN_OR_EQ, upperBound));
 
-        assert !checkOccupancy || depth <= 0 || (getNumEntries() >= getMaxEntries() / 2);
+        int maxEmptySlots = getMaxEntries() - getMaxEntries() / 2 + (compressed ? BTreeKeyCompression.OCCUPANCY_SLACK : 0);
+        assert !checkOccupancy || depth <= 0 || (getNumEmptySlots() <= maxEmptySlots);
     }
 
     /**
@@ -58,6 +68,10 @@ public class BTreeInternalPage extends BTreePage {
      * <p>
      * ceiling((no. entry slots + 1) / 8)
      * <p>
+     * If the key field is a STRING and the page is large enough, the page is in the
+     * compressed format described in {@link BTreeKeyCompression}: the header is followed
+     * by the first child pointer and then, for each used slot, the key, its length
+     * first, and the right child pointer.
      *
      * @param id   - the id of this page
      * @param data - the raw data of this page
@@ -68,7 +82,8 @@ public class BTreeInternalPage extends BTreePage {
      */
     public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
         super(id, key);
-        this.numSlots = getMaxEntries() + 1;
+        this.compressed = BTreeKeyCompression.compressed(td.getFieldType(keyField));
+        this.numSlots = (compressed ? BTreeKeyCompression.internalSlots() : getMaxEntries()) + 1;
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
         // Read the parent pointer
@@ -88,34 +103,49 @@ public class BTreeInternalPage extends BTreePage {
             header[i] = dis.readByte();
 
         keys = new Field[numSlots];
-        try {
-            // allocate and read the keys of this page
-            // start from 1 because the first key slot is not used
-            // since a node with m keys has m+1 pointers
-            keys[0] = null;
-            for (int i = 1; i < keys.length; i++)
-                keys[i] = readNextKey(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
-
         children = new int[numSlots];
-        try {
-            // allocate and read the child pointers of this page
-            for (int i = 0; i < children.length; i++)
-                children[i] = readNextChild(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+        if (compressed) {
+            readCompressedEntries(dis);
+        } else {
+            try {
+                // allocate and read the keys of this page
+                // start from 1 because the first key slot is not used
+                // since a node with m keys has m+1 pointers
+                keys[0] = null;
+                for (int i = 1; i < keys.length; i++)
+                    keys[i] = readNextKey(dis, i);
+            } catch (NoSuchElementException e) {
+                e.printStackTrace();
+            }
+
+            try {
+                // allocate and read the child pointers of this page
+                for (int i = 0; i < children.length; i++)
+                    children[i] = readNextChild(dis, i);
+            } catch (NoSuchElementException e) {
+                e.printStackTrace();
+            }
         }
         dis.close();
 
+        usedSlots = new int[numSlots];
+        updateUsedSlots();
+        for (int i = 0; i < numUsed; i++) {
+            usedBytes += entrySize(keys[usedSlots[i]]);
+        }
+
         setBeforeImage();
     }
 
     /**
      * Retrieve the maximum number of entries this page can hold. (The number of keys)
+     * If keys are compressed, this is the number of the largest entries it can hold.
      */
     public int getMaxEntries() {
+        if (compressed) {
+            return BTreeKeyCompression.units(BTreeKeyCompression.internalCapacity(),
+                    BTreeKeyCompression.internalUnit(), 0);
+        }
         int keySize = td.getFieldType(keyField).getLen();
         int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
         // extraBits are: one parent pointer, 1 byte for child page category,
@@ -130,7 +160,7 @@ public class BTreeInternalPage extends BTreePage {
      * @return the number of bytes in the header
      */
     private int getHeaderSize() {
-        int slotsPerPage = getMaxEntries() + 1;
+        int slotsPerPage = numSlots;
         int hb = (slotsPerPage / 8);
         if (hb * 8 < slotsPerPage) hb++;
 
@@ -191,6 +221,64 @@ public class BTreeInternalPage extends BTreePage {
         return f;
     }
 
+    /**
+     * Read the first child pointer and the used entries in the compressed format.
+     */
+    private void readCompressedEntries(DataInputStream dis) throws IOException {
+        int first = dis.readInt();
+        children[0] = isSlotUsed(0) ? first : -1;
+        for (int i = 1; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                keys[i] = BTreeKeyCompression.readKey(dis);
+                children[i] = dis.readInt();
+            } else {
+                children[i] = -1;
+            }
+        }
+    }
+
+    /**
+     * Write the first child pointer and the used entries in the compressed format.
+     */
+    private void writeCompressedEntries(DataOutputStream dos) throws IOException {
+        dos.writeInt(isSlotUsed(0) ? children[0] : 0);
+        for (int i = 1; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                BTreeKeyCompression.writeKey(dos, keys[i]);
+                dos.writeInt(children[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes an entry with the given key takes on this page.
+     */
+    private int entrySize(Field key) {
+        if (compressed) {
+            return BTreeKeyCompression.entrySize(key);
+        }
+        return td.getFieldType(keyField).getLen() + INDEX_SIZE;
+    }
+
+    /**
+     * Returns the number of bytes this page has for its entries.
+     */
+    private int getCapacity() {
+        if (compressed) {
+            return BTreeKeyCompression.internalCapacity();
+        }
+        return (numSlots - 1) * entrySize(null);
+    }
+
+    /**
+     * Returns whether the key of any entry can surely be replaced by a longer one. Only
+     * compressed keys vary in length; for that the page holds room in reserve, which a
+     * run of such replacements may use up.
+     */
+    boolean canReplaceKey() {
+        return !compressed || getCapacity() - usedBytes >= BTreeKeyCompression.internalUnit();
+    }
+
     /**
      * Read child pointers from the source file.
      */
@@ -263,6 +351,17 @@ public class BTreeInternalPage extends BTreePage {
             }
         }
 
+        if (compressed) {
+            try {
+                writeCompressedEntries(dos);
+                dos.write(new byte[len - baos.size()]);
+                dos.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return baos.toByteArray();
+        }
+
         // create the keys
         // start from 1 because the first key slot is not used
         // since a node with m keys has m+1 pointers
@@ -354,6 +453,7 @@ public class BTreeInternalPage extends BTreePage {
             throw new DbException("tried to delete entry on invalid page or table");
         if (!isSlotUsed(rid.getTupleNumber()))
             throw new DbException("tried to delete null entry.");
+        usedBytes -= entrySize(keys[rid.getTupleNumber()]);
         if (deleteRightChild) {
             markSlotUsed(rid.getTupleNumber(), false);
         } else {
@@ -365,6 +465,7 @@ public class BTreeInternalPage extends BTreePage {
                 }
             }
         }
+        updateUsedSlots();
         e.setRecordId(null);
     }
 
@@ -413,6 +514,9 @@ public class BTreeInternalPage extends BTreePage {
             throw new DbException("tried to update entry on invalid page or table");
         if (!isSlotUsed(rid.getTupleNumber()))
             throw new DbException("tried to update null entry.");
+        int growth = entrySize(e.getKey()) - entrySize(keys[rid.getTupleNumber()]);
+        if (usedBytes + growth > getCapacity())
+            throw new DbException("attempt to update entry with key " + e.getKey() + " too long for the page");
 
         for (int i = rid.getTupleNumber() + 1; i < numSlots; i++) {
             if (isSlotUsed(i)) {
@@ -435,6 +539,7 @@ public class BTreeInternalPage extends BTreePage {
         }
         children[rid.getTupleNumber()] = e.getRightChild().getPageNumber();
         keys[rid.getTupleNumber()] = e.getKey();
+        usedBytes += growth;
     }
 
     /**
@@ -460,13 +565,18 @@ public class BTreeInternalPage extends BTreePage {
         } else if (e.getLeftChild().pgcateg() != childCategory || e.getRightChild().pgcateg() != childCategory)
             throw new DbException("child page category mismatch in insertEntry");
 
+        if (compressed && usedBytes + entrySize(e.getKey()) > getCapacity())
+            throw new DbException("called insertEntry on page with no room for the entry.");
+
         // if this is the first entry, add it and return
-        if (getNumEmptySlots() == getMaxEntries()) {
+        if (numUsed == 0) {
             children[0] = e.getLeftChild().getPageNumber();
             children[1] = e.getRightChild().getPageNumber();
             keys[1] = e.getKey();
             markSlotUsed(0, true);
             markSlotUsed(1, true);
+            updateUsedSlots();
+            usedBytes += entrySize(e.getKey());
             e.setRecordId(new RecordId(pid, 1));
             return;
         }
@@ -544,9 +654,53 @@ public class BTreeInternalPage extends BTreePage {
         Debug.log(1, "BTreeLeafPage.insertEntry: new entry, tableId = %d pageId = %d slotId = %d", pid.getTableId(), pid.getPageNumber(), goodSlot);
         keys[goodSlot] = e.getKey();
         children[goodSlot] = e.getRightChild().getPageNumber();
+        updateUsedSlots();
+        usedBytes += entrySize(e.getKey());
         e.setRecordId(new RecordId(pid, goodSlot));
     }
 
+    /**
+     * Rebuilds the list of used entry slots from the header. Moving entries while
+     * inserting can shift empty slots around, so this is simpler than patching the list,
+     * and it reads only the header.
+     */
+    private void updateUsedSlots() {
+        numUsed = 0;
+        for (int i = 1; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                usedSlots[numUsed++] = i;
+            }
+        }
+    }
+
+    /**
+     * Returns the id of the child page to descend to when searching for the left-most
+     * page possibly containing the key f: the left child of the first entry whose key is
+     * greater than or equal to f, or the right child of the last entry if there is none.
+     * The entry is found by binary search. If f is null, returns the left-most child.
+     *
+     * @param f - the key to search for
+     * @return the id of the child page, or null if this page has no entries
+     */
+    public BTreePageId findChildId(Field f) {
+        if (numUsed == 0) {
+            return null;
+        }
+        int lo = 0;
+        int hi = f == null ? 0 : numUsed;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[usedSlots[mid]].compare(Op.LESS_THAN, f)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        // the left child of an entry is the right child of the entry before it
+        int slot = lo == numUsed ? usedSlots[numUsed - 1] : lo == 0 ? 0 : usedSlots[lo - 1];
+        return new BTreePageId(pid.getTableId(), children[slot], childCategory);
+    }
+
     /**
      * Move an entry from one slot to another slot, and update the corresponding
      * headers
@@ -564,20 +718,20 @@ public class BTreeInternalPage extends BTreePage {
      * Returns the number of entries (keys) currently stored on this page
      */
     public int getNumEntries() {
-        return numSlots - getNumEmptySlots() - 1;
+        return numUsed;
     }
 
     /**
-     * Returns the number of empty slots on this page.
+     * Returns the number of empty slots on this page. If keys are compressed, this is
+     * the number of the largest entries that still fit.
      */
     public int getNumEmptySlots() {
-        int cnt = 0;
-        // start from 1 because the first key slot is not used
+        if (compressed) {
+            return BTreeKeyCompression.units(getCapacity(), BTreeKeyCompression.internalUnit(), usedBytes);
+        }
+        // the first key slot is not used
         // since a node with m keys has m+1 pointers
-        for (int i = 1; i < numSlots; i++)
-            if (!isSlotUsed(i))
-                cnt++;
-        return cnt;
+        return numSlots - 1 - numUsed;
     }
 
     /**
@@ -616,7 +770,7 @@ public class BTreeInternalPage extends BTreePage {
      *         (note that this iterator shouldn't return entries in empty slots!)
      */
     public Iterator<BTreeEntry> reverseIterator() {
-        return new BTreeInternalPageReverseIterator(this);
+        return new BTreeInternalPageReverseIterator(this, numSlots - 1);
     }
 
     /**
@@ -743,9 +897,9 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
     BTreeEntry nextToReturn = null;
     final BTreeInternalPage p;
 
-    public BTreeInternalPageReverseIterator(BTreeInternalPage p) {
+    public BTreeInternalPageReverseIterator(BTreeInternalPage p, int lastSlot) {
         this.p = p;
-        this.curEntry = p.getMaxEntries();
+        this.curEntry = lastSlot;
         while (!p.isSlotUsed(curEntry) && curEntry > 0) {
             --curEntry;
         }
@@ -765,11 +919,18 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
             while (true) {
                 int entry = curEntry--;
                 Field key = p.getKey(entry);
-                BTreePageId childId = p.getChildId(entry - 1);
-                if (key != null && childId != null) {
+                if (key != null) {
+                    // the left child is in the previous used slot, which need not be
+                    // entry - 1 once entries have been deleted from the page
+                    int prev = entry - 1;
+                    while (prev > 0 && !p.isSlotUsed(prev)) {
+                        prev--;
+                    }
+                    BTreePageId childId = p.getChildId(prev);
                     nextToReturn = new BTreeEntry(key, childId, nextChildId);
                     nextToReturn.setRecordId(new RecordId(p.pid, entry));
                     nextChildId = childId;
+                    curEntry = prev;
                     return true;
                 }
             }
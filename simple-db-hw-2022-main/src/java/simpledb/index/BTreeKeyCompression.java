@@ -0,0 +1,248 @@
+package simpledb.index;
+
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.StringField;
+import simpledb.storage.TupleDesc;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The page formats of a B+ tree keyed on a STRING field, which store keys
+ * compressed instead of padded to Type.STRING_LEN bytes. Pages too small to hold
+ * a few of the largest entries keep the fixed formats.
+ * <p>
+ * An internal page stores each key with its length. A leaf page stores the key
+ * of each tuple as the length of the prefix it shares with the key of the tuple
+ * before it on the page, followed by the rest of the key. The keys that leaf
+ * splits copy up are cut to the shortest prefix of the right page's first key
+ * that still sorts after the left page's last key (suffix truncation), so
+ * internal pages hold many short keys. Both formats keep only the used slots on
+ * disk, in slot order. In memory the pages hold whole keys as usual.
+ * <p>
+ * Since entries vary in size, these pages measure their capacity in units of the
+ * most space one insert can take: getMaxEntries(), getMaxTuples() and
+ * getNumEmptySlots() count units rather than entries, so that the split, steal and
+ * merge rules of BTreeFile work unchanged. Two units of each page are held in reserve,
+ * which lets a merge pull a key down into a page whose units are used up, and a steal
+ * replace a key of a full parent with a longer one. Two pages can only be balanced to
+ * within a unit, so a split or steal may leave one a unit or two short of half full;
+ * checkRep allows for that.
+ * Key lengths are stored in one byte each, which Type.STRING_LEN fits in.
+ */
+final class BTreeKeyCompression {
+
+    /**
+     * The number of units of each page held in reserve
+     */
+    static final int RESERVED_UNITS = 2;
+
+    /**
+     * The number of units a page with compressed keys may be short of half full
+     */
+    static final int OCCUPANCY_SLACK = 2;
+
+    /**
+     * The fewest units a page needs for its keys to be compressed. Below that a unit is
+     * too coarse to balance pages by.
+     */
+    static final int MIN_UNITS = 4;
+
+    private BTreeKeyCompression() {
+    }
+
+    /**
+     * Returns whether internal pages of B+ trees keyed on the given type use the
+     * compressed format
+     */
+    static boolean compressed(Type keyType) {
+        return keyType == Type.STRING_TYPE
+                && units(internalCapacity(), internalUnit(), 0) >= MIN_UNITS;
+    }
+
+    /**
+     * Returns whether leaf pages of B+ trees of tuples td keyed on field keyField use
+     * the compressed format
+     */
+    static boolean compressed(TupleDesc td, int keyField) {
+        return td.getFieldType(keyField) == Type.STRING_TYPE
+                && units(leafCapacity(td), leafUnit(td), 0) >= MIN_UNITS;
+    }
+
+    /**
+     * Returns the key to copy up when splitting leaf pages between the keys left and
+     * right, where left is the last key of the left page and right the first of the
+     * right page: the shortest prefix of right greater than left, for string keys, or
+     * right itself.
+     */
+    static Field separator(Field left, Field right) {
+        if (!(right instanceof StringField) || left == null) {
+            return right;
+        }
+        String l = ((StringField) left).getValue();
+        String r = ((StringField) right).getValue();
+        int p = commonPrefix(l, r);
+        if (p >= r.length()) {
+            // equal keys span the two pages
+            return right;
+        }
+        return new StringField(r.substring(0, p + 1), Type.STRING_LEN);
+    }
+
+    /**
+     * Returns the length of the longest common prefix of two strings
+     */
+    static int commonPrefix(String a, String b) {
+        int n = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < n && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the number of units left in a page of the given capacity in bytes with
+     * used bytes taken, keeping RESERVED_UNITS in reserve
+     */
+    static int units(int capacity, int unit, int used) {
+        return Math.max(0, (usable(capacity, unit) - used) / unit);
+    }
+
+    /**
+     * Returns the bytes of a page of the given capacity that are not held in reserve
+     */
+    static int usable(int capacity, int unit) {
+        return capacity - RESERVED_UNITS * unit;
+    }
+
+    /**
+     * Returns the number of entry slots, not counting slot 0, of an internal page: as
+     * many as fit if every key were empty
+     */
+    static int internalSlots() {
+        int bitsPerEntryIncludingHeader = (BTreePage.INDEX_SIZE + 1) * 8 + 1;
+        // extraBits are: one parent pointer, 1 byte for child page category,
+        // one extra child pointer, 1 bit for extra header
+        int extraBits = 2 * BTreePage.INDEX_SIZE * 8 + 8 + 1;
+        return (BufferPool.getPageSize() * 8 - extraBits) / bitsPerEntryIncludingHeader;
+    }
+
+    /**
+     * Returns the number of bytes an internal page has for its entries
+     */
+    static int internalCapacity() {
+        return internalSlots() * (BTreePage.INDEX_SIZE + 1);
+    }
+
+    /**
+     * Returns the size of the largest entry of an internal page
+     */
+    static int internalUnit() {
+        return BTreePage.INDEX_SIZE + 1 + Type.STRING_LEN;
+    }
+
+    /**
+     * Returns the number of bytes an entry with the given key takes in an internal page
+     */
+    static int entrySize(Field key) {
+        return BTreePage.INDEX_SIZE + 1 + length(key);
+    }
+
+    /**
+     * Returns the size of a tuple in a leaf page whose key is the same as the key
+     * before it
+     */
+    static int leafMinTupleSize(TupleDesc td) {
+        return td.getSize() - Type.STRING_TYPE.getLen() + 2;
+    }
+
+    /**
+     * Returns the number of tuple slots of a leaf page: as many as fit if every key
+     * were the same as the key before it
+     */
+    static int leafSlots(TupleDesc td) {
+        int bitsPerTupleIncludingHeader = leafMinTupleSize(td) * 8 + 1;
+        // extraBits are: left sibling pointer, right sibling pointer, parent pointer
+        int extraBits = 3 * BTreePage.INDEX_SIZE * 8;
+        return (BufferPool.getPageSize() * 8 - extraBits) / bitsPerTupleIncludingHeader;
+    }
+
+    /**
+     * Returns the number of bytes a leaf page has for its tuples
+     */
+    static int leafCapacity(TupleDesc td) {
+        return leafSlots(td) * leafMinTupleSize(td);
+    }
+
+    /**
+     * Returns the most an insert can add to the bytes a leaf page takes: the largest
+     * tuple, and the prefix that the key after it no longer shares with the key before
+     */
+    static int leafUnit(TupleDesc td) {
+        return leafMinTupleSize(td) + 2 * Type.STRING_LEN;
+    }
+
+    /**
+     * Returns the number of bytes a tuple with the given key takes in a leaf page, after
+     * a tuple with key prev, or first on the page if prev is null
+     */
+    static int tupleSize(TupleDesc td, Field key, Field prev) {
+        int size = leafMinTupleSize(td) + length(key);
+        if (prev != null) {
+            size -= commonPrefix(((StringField) prev).getValue(), ((StringField) key).getValue());
+        }
+        return size;
+    }
+
+    private static int length(Field key) {
+        return ((StringField) key).getValue().length();
+    }
+
+    /**
+     * Writes a key of an internal page
+     */
+    static void writeKey(DataOutputStream dos, Field key) throws IOException {
+        String s = ((StringField) key).getValue();
+        dos.writeByte(s.length());
+        dos.writeBytes(s);
+    }
+
+    /**
+     * Reads a key of an internal page
+     */
+    static Field readKey(DataInputStream dis) throws IOException {
+        byte[] bs = new byte[dis.readUnsignedByte()];
+        dis.readFully(bs);
+        return new StringField(new String(bs, StandardCharsets.ISO_8859_1), Type.STRING_LEN);
+    }
+
+    /**
+     * Writes the key of a tuple of a leaf page, after a tuple with key prev, or first
+     * on the page if prev is null
+     */
+    static void writeKey(DataOutputStream dos, Field key, Field prev) throws IOException {
+        String s = ((StringField) key).getValue();
+        int p = prev == null ? 0 : commonPrefix(((StringField) prev).getValue(), s);
+        dos.writeByte(p);
+        dos.writeByte(s.length() - p);
+        dos.writeBytes(s.substring(p));
+    }
+
+    /**
+     * Reads the key of a tuple of a leaf page, after a tuple with key prev, or first on
+     * the page if prev is null
+     */
+    static Field readKey(DataInputStream dis, Field prev) throws IOException {
+        int p = dis.readUnsignedByte();
+        byte[] bs = new byte[dis.readUnsignedByte()];
+        dis.readFully(bs);
+        String suffix = new String(bs, StandardCharsets.ISO_8859_1);
+        String s = p == 0 ? suffix : ((StringField) prev).getValue().substring(0, p) + suffix;
+        return new StringField(s, Type.STRING_LEN);
+    }
+}
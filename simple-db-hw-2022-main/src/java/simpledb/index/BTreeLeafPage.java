@@ -5,6 +5,7 @@ import simpledb.execution.Predicate;
 import simpledb.storage.*;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -19,6 +20,15 @@ public class BTreeLeafPage extends BTreePage {
     private final byte[] header;
     private final Tuple[] tuples;
     private final int numSlots;
+    // whether keys are stored compressed, see BTreeKeyCompression
+    private final boolean compressed;
+    // the bytes the tuples take in the page
+    private int usedBytes;
+
+    // the used slots in ascending order, which is key order: a dense, directly
+    // indexable view of the tuples that lookups binary search
+    private final int[] usedSlots;
+    private int numUsed;
 
     private int leftSibling; // leaf node or 0
     private int rightSibling; // leaf node or 0
@@ -37,7 +47,8 @@ public class BTreeLeafPage extends BTreePage {
 
         assert null == upperBound || null == prev || (prev.compare(Predicate.Op.LESS_THAN_OR_EQ, upperBound));
 
-        assert !checkoccupancy || depth <= 0 || (getNumTuples() >= getMaxTuples() / 2);
+        int maxEmptySlots = getMaxTuples() - getMaxTuples() / 2 + (compressed ? BTreeKeyCompression.OCCUPANCY_SLACK : 0);
+        assert !checkoccupancy || depth <= 0 || (getNumEmptySlots() <= maxEmptySlots);
     }
 
     /**
@@ -53,6 +64,10 @@ public class BTreeLeafPage extends BTreePage {
      * <p>
      * ceiling(no. tuple slots / 8)
      * <p>
+     * If the key field is a STRING and the page is large enough, the page is in the
+     * compressed format described in {@link BTreeKeyCompression}: the header is followed
+     * by the tuples of the used slots, each key stored as the length of the prefix it
+     * shares with the key before it, the length of the rest, and the rest.
      *
      * @param id   - the id of this page
      * @param data - the raw data of this page
@@ -63,7 +78,8 @@ public class BTreeLeafPage extends BTreePage {
      */
     public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
         super(id, key);
-        this.numSlots = getMaxTuples();
+        this.compressed = BTreeKeyCompression.compressed(td, keyField);
+        this.numSlots = compressed ? BTreeKeyCompression.leafSlots(td) : getMaxTuples();
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
         // Read the parent and sibling pointers
@@ -96,20 +112,35 @@ public class BTreeLeafPage extends BTreePage {
         tuples = new Tuple[numSlots];
         try {
             // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
+            Field prev = null;
+            for (int i = 0; i < tuples.length; i++) {
+                tuples[i] = compressed ? readNextCompressedTuple(dis, i, prev) : readNextTuple(dis, i);
+                if (tuples[i] != null)
+                    prev = tuples[i].getField(keyField);
+            }
         } catch (NoSuchElementException e) {
             e.printStackTrace();
         }
         dis.close();
 
+        usedSlots = new int[numSlots];
+        updateUsedSlots();
+        for (int i = 0; i < numUsed; i++) {
+            usedBytes += tupleSize(i, i - 1);
+        }
+
         setBeforeImage();
     }
 
     /**
-     * Retrieve the maximum number of tuples this page can hold.
+     * Retrieve the maximum number of tuples this page can hold. If keys are
+     * compressed, this is the number of the largest tuples it can hold.
      */
     public int getMaxTuples() {
+        if (compressed) {
+            return BTreeKeyCompression.units(BTreeKeyCompression.leafCapacity(td),
+                    BTreeKeyCompression.leafUnit(td), 0);
+        }
         int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
         // extraBits are: left sibling pointer, right sibling pointer, parent pointer
         int extraBits = 3 * INDEX_SIZE * 8;
@@ -120,7 +151,7 @@ public class BTreeLeafPage extends BTreePage {
      * Computes the number of bytes in the header of a page in a BTreeFile with each tuple occupying tupleSize bytes
      */
     private int getHeaderSize() {
-        int tuplesPerPage = getMaxTuples();
+        int tuplesPerPage = numSlots;
         int hb = (tuplesPerPage / 8);
         if (hb * 8 < tuplesPerPage) hb++;
 
@@ -186,6 +217,73 @@ public class BTreeLeafPage extends BTreePage {
         return t;
     }
 
+    /**
+     * Read a tuple in the compressed format, whose key follows the key prev.
+     */
+    private Tuple readNextCompressedTuple(DataInputStream dis, int slotId, Field prev) throws NoSuchElementException {
+        // unused slots take no space
+        if (!isSlotUsed(slotId)) {
+            return null;
+        }
+
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                Field f = j == keyField ? BTreeKeyCompression.readKey(dis, prev) : td.getFieldType(j).parse(dis);
+                t.setField(j, f);
+            }
+        } catch (IOException | java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        return t;
+    }
+
+    /**
+     * Write the tuples of the used slots in the compressed format.
+     */
+    private void writeCompressedTuples(DataOutputStream dos) throws IOException {
+        Field prev = null;
+        for (int i = 0; i < numUsed; i++) {
+            Tuple t = tuples[usedSlots[i]];
+            for (int j = 0; j < td.numFields(); j++) {
+                if (j == keyField) {
+                    BTreeKeyCompression.writeKey(dos, t.getField(j), prev);
+                } else {
+                    t.getField(j).serialize(dos);
+                }
+            }
+            prev = t.getField(keyField);
+        }
+    }
+
+    /**
+     * Returns the number of bytes the tuple at position i in key order takes on this
+     * page, after the tuple at position prev, or first on the page if prev is -1.
+     */
+    private int tupleSize(int i, int prev) {
+        return tupleSize(tuples[usedSlots[i]].getField(keyField),
+                prev < 0 ? null : tuples[usedSlots[prev]].getField(keyField));
+    }
+
+    private int tupleSize(Field key, Field prev) {
+        if (compressed) {
+            return BTreeKeyCompression.tupleSize(td, key, prev);
+        }
+        return td.getSize();
+    }
+
+    /**
+     * Returns the number of bytes this page has for its tuples.
+     */
+    private int getCapacity() {
+        if (compressed) {
+            return BTreeKeyCompression.leafCapacity(td);
+        }
+        return numSlots * td.getSize();
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -232,6 +330,17 @@ public class BTreeLeafPage extends BTreePage {
             }
         }
 
+        if (compressed) {
+            try {
+                writeCompressedTuples(dos);
+                dos.write(new byte[len - baos.size()]);
+                dos.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return baos.toByteArray();
+        }
+
         // create the tuples
         for (int i = 0; i < tuples.length; i++) {
 
@@ -294,7 +403,14 @@ public class BTreeLeafPage extends BTreePage {
             throw new DbException("tried to delete tuple on invalid page or table");
         if (!isSlotUsed(rid.getTupleNumber()))
             throw new DbException("tried to delete null tuple.");
+        // the tuple after this one follows the one before it instead
+        int i = Arrays.binarySearch(usedSlots, 0, numUsed, rid.getTupleNumber());
+        usedBytes -= tupleSize(i, i - 1);
+        if (i + 1 < numUsed) {
+            usedBytes += tupleSize(i + 1, i - 1) - tupleSize(i + 1, i);
+        }
         markSlotUsed(rid.getTupleNumber(), false);
+        updateUsedSlots();
         t.setRecordId(null);
     }
 
@@ -324,16 +440,19 @@ public class BTreeLeafPage extends BTreePage {
             throw new DbException("called addTuple on page with no empty slots.");
 
         // find the last key less than or equal to the key being inserted
-        int lessOrEqKey = -1;
         Field key = t.getField(keyField);
-        for (int i = 0; i < numSlots; i++) {
-            if (isSlotUsed(i)) {
-                if (tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
-                    lessOrEqKey = i;
-                else
-                    break;
-            }
+        int greater = search(key, false);
+        int lessOrEqKey = greater == 0 ? -1 : usedSlots[greater - 1];
+
+        // the tuple goes between the tuples at positions greater - 1 and greater
+        Field prev = greater == 0 ? null : tuples[usedSlots[greater - 1]].getField(keyField);
+        int growth = tupleSize(key, prev);
+        if (greater < numUsed) {
+            Field next = tuples[usedSlots[greater]].getField(keyField);
+            growth += tupleSize(next, key) - tupleSize(next, prev);
         }
+        if (usedBytes + growth > getCapacity())
+            throw new DbException("called addTuple on page with no room for the tuple.");
 
         // shift records back or forward to fill empty slot and make room for new record
         // while keeping records in sorted order
@@ -356,6 +475,42 @@ public class BTreeLeafPage extends BTreePage {
         RecordId rid = new RecordId(pid, goodSlot);
         t.setRecordId(rid);
         tuples[goodSlot] = t;
+        updateUsedSlots();
+        usedBytes += growth;
+    }
+
+    /**
+     * Rebuilds the list of used slots from the header. Moving records while inserting
+     * can shift empty slots around, so this is simpler than patching the list, and it
+     * reads only the header.
+     */
+    private void updateUsedSlots() {
+        numUsed = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                usedSlots[numUsed++] = i;
+            }
+        }
+    }
+
+    /**
+     * Returns the position in key order of the first tuple whose key is greater than or
+     * equal to f, or greater than f if inclusive is false, by binary search. Returns
+     * getNumTuples() if there is no such tuple.
+     */
+    private int search(Field f, boolean inclusive) {
+        Predicate.Op before = inclusive ? Predicate.Op.LESS_THAN : Predicate.Op.LESS_THAN_OR_EQ;
+        int lo = 0;
+        int hi = numUsed;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tuples[usedSlots[mid]].getField(keyField).compare(before, f)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
     }
 
     /**
@@ -440,18 +595,18 @@ public class BTreeLeafPage extends BTreePage {
      * Returns the number of tuples currently stored on this page
      */
     public int getNumTuples() {
-        return numSlots - getNumEmptySlots();
+        return numUsed;
     }
 
     /**
-     * Returns the number of empty slots on this page.
+     * Returns the number of empty slots on this page. If keys are compressed, this is
+     * the number of the largest tuples that still fit.
      */
     public int getNumEmptySlots() {
-        int cnt = 0;
-        for (int i = 0; i < numSlots; i++)
-            if (!isSlotUsed(i))
-                cnt++;
-        return cnt;
+        if (compressed) {
+            return BTreeKeyCompression.units(getCapacity(), BTreeKeyCompression.leafUnit(td), usedBytes);
+        }
+        return numSlots - numUsed;
     }
 
     /**
@@ -482,7 +637,19 @@ public class BTreeLeafPage extends BTreePage {
      *         (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        return new BTreeLeafPageIterator(this);
+        return new BTreeLeafPageIterator(this, 0);
+    }
+
+    /**
+     * @param f         - the key to start from
+     * @param inclusive - whether to include the tuples whose key equals f
+     * @return an iterator over the tuples on this page whose key is greater than or equal
+     *         to f, or greater than f if inclusive is false. The first of them is found by
+     *         binary search.
+     */
+    public Iterator<Tuple> iterator(Field f, boolean inclusive) {
+        int first = search(f, inclusive);
+        return new BTreeLeafPageIterator(this, first < numUsed ? usedSlots[first] : numSlots);
     }
 
     /**
@@ -490,7 +657,7 @@ public class BTreeLeafPage extends BTreePage {
      *         (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> reverseIterator() {
-        return new BTreeLeafPageReverseIterator(this);
+        return new BTreeLeafPageReverseIterator(this, numSlots - 1);
     }
 
     /**
@@ -524,12 +691,13 @@ public class BTreeLeafPage extends BTreePage {
  * Helper class that implements the Java Iterator for tuples on a BTreeLeafPage.
  */
 class BTreeLeafPageIterator implements Iterator<Tuple> {
-    int curTuple = 0;
+    int curTuple;
     Tuple nextToReturn = null;
     final BTreeLeafPage p;
 
-    public BTreeLeafPageIterator(BTreeLeafPage p) {
+    public BTreeLeafPageIterator(BTreeLeafPage p, int firstSlot) {
         this.p = p;
+        this.curTuple = firstSlot;
     }
 
     public boolean hasNext() {
@@ -576,9 +744,9 @@ class BTreeLeafPageReverseIterator implements Iterator<Tuple> {
     Tuple nextToReturn = null;
     final BTreeLeafPage p;
 
-    public BTreeLeafPageReverseIterator(BTreeLeafPage p) {
+    public BTreeLeafPageReverseIterator(BTreeLeafPage p, int lastSlot) {
         this.p = p;
-        this.curTuple = p.getMaxTuples() - 1;
+        this.curTuple = lastSlot;
     }
 
     public boolean hasNext() {
@@ -3,8 +3,8 @@ package simpledb.index;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.execution.IndexOpIterator;
 import simpledb.execution.IndexPredicate;
-import simpledb.execution.OpIterator;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -17,7 +17,7 @@ import java.util.NoSuchElementException;
  * BTreeScan is an operator which reads tuples in sorted order
  * according to a predicate
  */
-public class BTreeScan implements OpIterator {
+public class BTreeScan implements IndexOpIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -26,6 +26,7 @@ public class BTreeScan implements OpIterator {
     private TupleDesc myTd;
     private IndexPredicate ipred = null;
     private transient DbFileIterator it;
+    private int tableid;
     private String tablename;
     private String alias;
 
@@ -65,6 +66,13 @@ public class BTreeScan implements OpIterator {
         return this.alias;
     }
 
+    /**
+     * @return the index predicate the scan matches, or null if it returns all tuples
+     */
+    public IndexPredicate getIndexPredicate() {
+        return this.ipred;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      *
@@ -78,6 +86,7 @@ public class BTreeScan implements OpIterator {
      */
     public void reset(int tableid, String tableAlias) {
         this.isOpen = false;
+        this.tableid = tableid;
         this.alias = tableAlias;
         this.tablename = Database.getCatalog().getTableName(tableid);
         if (ipred == null) {
@@ -110,6 +119,16 @@ public class BTreeScan implements OpIterator {
         isOpen = true;
     }
 
+    public void open(IndexPredicate ipred)
+            throws NoSuchElementException, DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one OpIterator.");
+
+        this.ipred = ipred;
+        reset(tableid, alias);
+        open();
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying BTreeFile,
      * prefixed with the tableAlias string from the constructor. This prefix
@@ -147,4 +166,9 @@ public class BTreeScan implements OpIterator {
         close();
         open();
     }
+
+    public void rewind(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+        close();
+        open(ipred);
+    }
 }
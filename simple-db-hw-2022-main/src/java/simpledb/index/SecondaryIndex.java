@@ -0,0 +1,301 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A secondary index over a heap table: a B+ tree with one entry for each tuple of the
+ * table, which maps the value of the tuple's key field to its RecordId.
+ * <p>
+ * An entry holds the key field of the tuple, the other fields of the table that the
+ * index includes, in table order, and then the page and tuple numbers of the tuple's
+ * RecordId. The B+ tree is keyed on the entry's first field. A query that uses no
+ * columns of the table other than those in the index can be answered from the entries
+ * alone, without reading the table.
+ * <p>
+ * The B+ tree is a table in the Catalog like any other, so its pages are read, locked
+ * and logged through the buffer pool. BufferPool.insertTuple and deleteTuple keep the
+ * index up to date as tuples of the table are inserted and deleted, under the same
+ * transaction, so changes to the index commit and abort with the changes to the table.
+ *
+ * @see SecondaryIndexScan
+ * @see simpledb.common.Catalog#addIndex
+ */
+public class SecondaryIndex {
+
+    private final int tableid;
+    private final int keyField;
+    private final int[] fields;
+    private final BTreeFile entries;
+
+    /**
+     * Builds a secondary index over a heap table bottom-up, with
+     * BTreeFileEncoder, and adds it to the Catalog. The entries are added to the
+     * Catalog as a table under name.
+     *
+     * @param tid            the transaction reading the table
+     * @param table          the heap table to index
+     * @param keyField       the index of the key field in the table
+     * @param includedFields the indexes of other fields of the table to store in the
+     *                       entries, or an empty array
+     * @param f              the file on disk to back the entries; it is overwritten
+     * @param name           the name of the entries in the Catalog
+     * @return the index
+     */
+    public static SecondaryIndex build(TransactionId tid, HeapFile table, int keyField, int[] includedFields,
+                                       File f, String name)
+            throws IOException, DbException, TransactionAbortedException {
+        int[] fields = fields(table.getTupleDesc(), keyField, includedFields);
+        TupleDesc td = entryDesc(table.getTupleDesc(), fields);
+        DbFileIterator it = table.iterator(tid);
+        DbFileIterator entryIt = new AbstractDbFileIterator() {
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                it.open();
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                it.rewind();
+            }
+
+            @Override
+            public void close() {
+                super.close();
+                it.close();
+            }
+
+            @Override
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                return it.hasNext() ? entry(td, fields, it.next()) : null;
+            }
+        };
+        BTreeFile entries = BTreeFileEncoder.build(entryIt, td, f, 0, name,
+                BTreeFileEncoder.DEFAULT_FILL_FACTOR, BufferPool.DEFAULT_PAGES);
+        SecondaryIndex index = new SecondaryIndex(table.getId(), fields, entries);
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    /**
+     * Creates a secondary index over the given heap table whose entries are stored in
+     * the given B+ tree, which must already hold an entry for each tuple of the table.
+     *
+     * @param tableid the id of the heap table
+     * @param fields  the indexes of the fields of the table in each entry, key first
+     * @param entries the B+ tree of the entries, keyed on its first field
+     */
+    public SecondaryIndex(int tableid, int[] fields, BTreeFile entries) {
+        this.tableid = tableid;
+        this.keyField = fields[0];
+        this.fields = fields.clone();
+        this.entries = entries;
+    }
+
+    /**
+     * Returns the key field followed by the included fields in table order
+     */
+    private static int[] fields(TupleDesc td, int keyField, int[] includedFields) {
+        int[] fields = new int[includedFields.length + 1];
+        fields[0] = keyField;
+        int n = 1;
+        for (int i = 0; i < td.numFields(); i++) {
+            for (int included : includedFields) {
+                if (included == i && i != keyField) {
+                    fields[n++] = i;
+                    break;
+                }
+            }
+        }
+        if (n != fields.length) {
+            throw new IllegalArgumentException("included fields " + Arrays.toString(includedFields));
+        }
+        return fields;
+    }
+
+    /**
+     * Returns the TupleDesc of the entries of an index over a table with TupleDesc td
+     */
+    private static TupleDesc entryDesc(TupleDesc td, int[] fields) {
+        Type[] types = new Type[fields.length + 2];
+        String[] names = new String[fields.length + 2];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = td.getFieldType(fields[i]);
+            names[i] = td.getFieldName(fields[i]);
+        }
+        types[fields.length] = Type.INT_TYPE;
+        names[fields.length] = "pageNo";
+        types[fields.length + 1] = Type.INT_TYPE;
+        names[fields.length + 1] = "tupleNo";
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * Returns the entry for a tuple of the table
+     */
+    private static Tuple entry(TupleDesc td, int[] fields, Tuple t) {
+        Tuple e = new Tuple(td);
+        for (int i = 0; i < fields.length; i++) {
+            e.setField(i, t.getField(fields[i]));
+        }
+        RecordId rid = t.getRecordId();
+        e.setField(fields.length, new IntField(rid.getPageId().getPageNumber()));
+        e.setField(fields.length + 1, new IntField(rid.getTupleNumber()));
+        return e;
+    }
+
+    /**
+     * @return the id of the table this index is over
+     */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * @return the index of the key field in the table
+     */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /**
+     * @return the indexes of the fields of the table in each entry, key first
+     */
+    public int[] getFields() {
+        return fields.clone();
+    }
+
+    /**
+     * @return the B+ tree of the entries
+     */
+    public BTreeFile getFile() {
+        return entries;
+    }
+
+    /**
+     * Returns whether the entries hold all of the given fields of the table, so that a
+     * query using only those fields can be answered from the index alone
+     *
+     * @param tableFields indexes of fields of the table
+     */
+    public boolean covers(Collection<Integer> tableFields) {
+        for (int f : tableFields) {
+            if (Arrays.stream(fields).noneMatch(i -> i == f)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the entry for a tuple just inserted into the table.
+     *
+     * @param tid the transaction that inserted t
+     * @param t   the tuple, with its RecordId set
+     */
+    public void insert(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Database.getBufferPool().insertTuple(tid, entries.getId(), entry(entries.getTupleDesc(), fields, t));
+    }
+
+    /**
+     * Deletes the entry for a tuple just deleted from the table.
+     *
+     * @param tid the transaction that deleted t
+     * @param t   the tuple, with the RecordId it had in the table
+     * @throws DbException if the index has no entry for t
+     */
+    public void delete(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        DbFileIterator it = entries.indexIterator(tid, new IndexPredicate(Op.EQUALS, t.getField(keyField)));
+        Tuple found = null;
+        it.open();
+        try {
+            while (found == null && it.hasNext()) {
+                Tuple e = it.next();
+                if (recordId(e).equals(rid)) {
+                    found = e;
+                }
+            }
+        } finally {
+            it.close();
+        }
+        if (found == null) {
+            throw new DbException("no index entry for tuple " + rid);
+        }
+        Database.getBufferPool().deleteTuple(tid, found);
+    }
+
+    /**
+     * Returns the RecordId in the table of the tuple an entry is for
+     */
+    public RecordId recordId(Tuple entry) {
+        int pageNo = ((IntField) entry.getField(fields.length)).getValue();
+        int tupleNo = ((IntField) entry.getField(fields.length + 1)).getValue();
+        return new RecordId(new HeapPageId(tableid, pageNo), tupleNo);
+    }
+
+    /**
+     * Reads the tuple of the table an entry is for, through the buffer pool.
+     *
+     * @param tid   the transaction reading the tuple
+     * @param entry an entry of this index
+     * @return the tuple
+     * @throws DbException if the slot the entry points to is empty
+     */
+    public Tuple fetch(TransactionId tid, Tuple entry) throws DbException, TransactionAbortedException {
+        RecordId rid = recordId(entry);
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+        Tuple t = p.getTuple(rid.getTupleNumber());
+        if (t == null) {
+            throw new DbException("index entry for an empty slot " + rid);
+        }
+        return t;
+    }
+
+    /**
+     * Returns the fields of the table an entry holds, in table order, as a tuple with
+     * the given TupleDesc and the RecordId of the tuple the entry is for
+     */
+    Tuple project(Tuple entry, TupleDesc td) {
+        int[] order = tableOrder();
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < order.length; i++) {
+            t.setField(i, entry.getField(order[i]));
+        }
+        t.setRecordId(recordId(entry));
+        return t;
+    }
+
+    /**
+     * Returns the positions in an entry of the fields of the table it holds, in table
+     * order
+     */
+    int[] tableOrder() {
+        Integer[] order = new Integer[fields.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(fields[a], fields[b]));
+        return Arrays.stream(order).mapToInt(Integer::intValue).toArray();
+    }
+
+    @Override
+    public String toString() {
+        return "index of " + Database.getCatalog().getTableName(tableid) + " on "
+                + Database.getCatalog().getTupleDesc(tableid).getFieldName(keyField);
+    }
+}
@@ -0,0 +1,182 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.IndexOpIterator;
+import simpledb.execution.IndexPredicate;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * SecondaryIndexScan is an operator which reads the tuples of a heap table that
+ * match a predicate on the key field of a secondary index over it, in key order.
+ * <p>
+ * It either reads each matching tuple from the table by the RecordId in its index
+ * entry, or, if it is index-only, returns just the fields of the table that the
+ * entries hold, without reading the table at all. The tuples of an index-only scan
+ * have those fields in table order and carry the RecordId of the tuple of the table,
+ * so an index that holds every field of the table returns the same tuples either way.
+ */
+public class SecondaryIndexScan implements IndexOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean isOpen = false;
+    private final TransactionId tid;
+    private final SecondaryIndex index;
+    private final boolean indexOnly;
+    private final TupleDesc myTd;
+    private IndexPredicate ipred;
+    private transient DbFileIterator it;
+    private final String tablename;
+    private final String alias;
+
+    /**
+     * Creates a scan over the table of the given secondary index as a part of the
+     * specified transaction.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param index      the secondary index to scan
+     * @param tableAlias the alias of the table (needed by the parser); the returned
+     *                   tupleDesc has fields with name tableAlias.fieldName
+     * @param ipred      The index predicate to match. If null, the scan will return all tuples
+     *                   in key order
+     * @param indexOnly  whether to return only the fields of the table in the index
+     *                   entries, instead of reading each tuple from the table
+     */
+    public SecondaryIndexScan(TransactionId tid, SecondaryIndex index, String tableAlias,
+                              IndexPredicate ipred, boolean indexOnly) {
+        this.tid = tid;
+        this.index = index;
+        this.indexOnly = indexOnly;
+        this.ipred = ipred;
+        this.alias = tableAlias;
+        this.tablename = Database.getCatalog().getTableName(index.getTableId());
+        this.it = iterator(ipred);
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(index.getTableId());
+        int[] fields;
+        if (indexOnly) {
+            fields = index.getFields();
+            Arrays.sort(fields);
+        } else {
+            fields = new int[td.numFields()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = i;
+            }
+        }
+        String[] newNames = new String[fields.length];
+        Type[] newTypes = new Type[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            newNames[i] = tableAlias + "." + td.getFieldName(fields[i]);
+            newTypes[i] = td.getFieldType(fields[i]);
+        }
+        myTd = new TupleDesc(newTypes, newNames);
+    }
+
+    private DbFileIterator iterator(IndexPredicate ipred) {
+        BTreeFile entries = index.getFile();
+        return ipred == null ? entries.iterator(tid) : entries.indexIterator(tid, ipred);
+    }
+
+    /**
+     * @return return the table name of the table the operator scans. This should
+     *         be the actual name of the table in the catalog of the database
+     */
+    public String getTableName() {
+        return this.tablename;
+    }
+
+    /**
+     * @return Return the alias of the table this operator scans.
+     */
+    public String getAlias() {
+        return this.alias;
+    }
+
+    /**
+     * @return the secondary index this operator scans
+     */
+    public SecondaryIndex getIndex() {
+        return this.index;
+    }
+
+    /**
+     * @return the index predicate the scan matches, or null if it returns all tuples
+     */
+    public IndexPredicate getIndexPredicate() {
+        return this.ipred;
+    }
+
+    /**
+     * @return whether the scan returns tuples from the index entries alone
+     */
+    public boolean isIndexOnly() {
+        return this.indexOnly;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one OpIterator.");
+
+        it.open();
+        isOpen = true;
+    }
+
+    public void open(IndexPredicate ipred)
+            throws NoSuchElementException, DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one OpIterator.");
+
+        this.ipred = ipred;
+        this.it = iterator(ipred);
+        open();
+    }
+
+    /**
+     * Returns the TupleDesc with the names of the fields of the table, or of those
+     * in the index entries if the scan is index-only, prefixed with the tableAlias
+     * string from the constructor.
+     */
+    public TupleDesc getTupleDesc() {
+        return myTd;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+
+        Tuple entry = it.next();
+        return indexOnly ? index.project(entry, myTd) : index.fetch(tid, entry);
+    }
+
+    public void close() {
+        it.close();
+        isOpen = false;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void rewind(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+        close();
+        open(ipred);
+    }
+}
@@ -4,11 +4,11 @@ import simpledb.execution.Predicate;
 
 /**
  * A class to represent a fixed-width histogram over a single integer-based field.
- * õǵȿֱͼ
+ * 采用的是等宽直方图
  */
 public class IntHistogram {
 
-    private int [] bucket;//¼
+    private int [] bucket;//记录数
     private int max;
     private  int min;
     private int nup;
@@ -19,23 +19,23 @@ public class IntHistogram {
      * <p>
      * This IntHistogram should maintain a histogram of integer values that it receives.
      * It should split the histogram into "buckets" buckets.
-     *  IntHistogram Ӧάյֱֵͼ
-     *  ӦýֱͼΪͰͰ
+     * 此 IntHistogram 应维护它接收的整数值的直方图。
+     *  它应该将直方图拆分为“桶”桶。
      * <p>
      * The values that are being histogrammed will be provided one-at-a-time through the "addValue()" function.
-     * ֱͼֵͨaddValueһṩһ
+     * 直方图的值将通过“addValue（）”函数一次提供一个。
      * <p>
      * Your implementation should use space and have execution time that are both
      * constant with respect to the number of values being histogrammed.  For example, you shouldn't
      * simply store every value that you see in a sorted list.
-     *ʵӦʹÿռ䣬ִʱֱͼֵǺ㶨ġ 磬Ӧ򵥵ش洢бпÿֵ
-     * @param buckets The number of buckets to split the input value into.ҪֵͰ
-     * @param min     The minimum integer value that will ever be passed to this class for histogrammingСֵ
-     * @param max     The maximum integer value that will ever be passed to this class for histogrammingֵ
+     *您的实现应使用空间，并且执行时间对于直方图的值数都是恒定的。 例如，不应简单地存储排序列表中看到的每个值。
+     * @param buckets The number of buckets to split the input value into.要拆分的桶的数量
+     * @param min     The minimum integer value that will ever be passed to this class for histogramming最小值
+     * @param max     The maximum integer value that will ever be passed to this class for histogramming最大值
      */
     public IntHistogram(int buckets, int min, int max) {
         // TODO: some code goes here
-        this.bucket=new int [buckets];//ĬϳʼΪ0
+        this.bucket=new int [buckets];//默认初始化即为0
         this.min=min;
         this.max=max;
         this.w=Math.max(1,(max - min + 1.0) / buckets);
@@ -44,12 +44,12 @@ public class IntHistogram {
 
     /**
      * Add a value to the set of values that you are keeping a histogram of.
-     *ֵӵҪֱͼֵ
+     *将值添加到要保留直方图的值集。
      * @param v Value to add to the histogram
      */
     /**
-     * v뵽ֱͼҪȷv뵽ĸͰ棬ҪһȡvͰ±
-     * Ҫ庯ȡ±ֵ
+     * 讲v加入到直方图，要确定将v加入到哪个桶里面，首先需要一个函数获取v所加入桶的下标
+     * 需要定义函数来获取下标值
      */
     public void addValue(int v) {
         // TODO: some code goes here
@@ -72,7 +72,7 @@ public class IntHistogram {
 
     /**
      * Estimate the selectivity of a particular predicate and operand on this table.
-     * ƴ˱ضνʺͲѡԡ
+     * 估计此表上特定谓词和操作数的选择性。
      * <p>
      * For example, if "op" is "GREATER_THAN" and "v" is 5,
      * return your estimate of the fraction of elements that are greater than 5.
@@ -123,7 +123,7 @@ public class IntHistogram {
      *         This is not an indispensable method to implement the basic
      *         join optimization. It may be needed if you want to
      *         implement a more efficient optimization
-     *         ⲻʵֻŻɻȱķҪʵָЧŻҪ
+     *         这不是实现基本连接优化不可或缺的方法。如果要实现更有效的优化，则可能需要它
      */
     public double avgSelectivity() {
         // TODO: some code goes here
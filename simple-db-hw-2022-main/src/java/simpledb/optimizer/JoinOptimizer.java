@@ -22,8 +22,8 @@ public class JoinOptimizer {
     /**
      * Constructor
      *
-     * @param p     the logical plan being optimized Ż߼ƻ
-     * @param joins the list of joins being performed ִӵб
+     * @param p     the logical plan being optimized 正在优化的逻辑计划
+     * @param joins the list of joins being performed 正在执行连接的列表
      */
     public JoinOptimizer(LogicalPlan p, List<LogicalJoinNode> joins) {
         this.p = p;
@@ -37,13 +37,13 @@ public class JoinOptimizer {
      * inner/outer here -- because OpIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
-     * ڼ߼ӵѵָͳϢԼṩӼƻע⣬û
-     * 㹻ϢȷĸƻӦڲ/ⲿ - Ϊ OpIterator ṩκλƣͳϢ
-     * йػϢˣüƻ1
+     * 返回用于计算给定逻辑联接的最佳迭代器，给定指定的统计信息以及提供的左右子计划。请注意，这里没有
+     * 足够的信息来确定哪个计划应该是内部/外部 - 因为 OpIterator 不提供任何基数估计，并且统计信息
+     * 仅包含有关基表的信息。因此，该计划1
      *
-     * @param lj    The join being considered //ڿǵ
-     * @param plan1 The left join node's child //ӽڵӽڵ
-     * @param plan2 The right join node's child //Ҳӽڵӽڵ
+     * @param lj    The join being considered //正在考虑的连接
+     * @param plan1 The left join node's child //左侧联接节点的子节点
+     * @param plan2 The right join node's child //右侧连接节点的子节点
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
@@ -85,28 +85,28 @@ public class JoinOptimizer {
      * the amount of data that must be read over the course of the query, as
      * well as the number of CPU opertions performed by your join. Assume that
      * the cost of a single predicate application is roughly 1.
-     * ӵĳɱӦΪʵ 2 ʵֵ㷨㡣Ӧ
-     *  ڲѯбȡ
-     * Լִе CPU 赥νӦóĳɱԼΪ 1
+     * 联接的成本应根据为实验 2 实现的联接算法计算。它应该是
+     *  在查询过程中必须读取的数据量，如
+     * 以及联接执行的 CPU 操作数。假设单个谓词应用程序的成本大约为 1。
      *
      * @param j     A LogicalJoinNode representing the join operation being
-     *              performed.һ LogicalJoinNodeʾִеӲ
-     * @param card1 Estimated cardinality of the left-hand side of the queryѯĹƻ
-     * @param card2 Estimated cardinality of the right-hand side of the query ѯҲĹƻ
+     *              performed.一个 LogicalJoinNode，表示正在执行的连接操作。
+     * @param card1 Estimated cardinality of the left-hand side of the query查询左侧的估计基数
+     * @param card2 Estimated cardinality of the right-hand side of the query 查询右侧的估计基数
      * @param cost1 Estimated cost of one full scan of the table on the left-hand
-     *              side of the query ԲѯıһɨĹƳɱ
+     *              side of the query 对查询左侧的表进行一次完整扫描的估计成本
      * @param cost2 Estimated cost of one full scan of the table on the right-hand
-     *              side of the query ԲѯҲıһɨĹƳɱ
+     *              side of the query 对查询右侧的表进行一次完整扫描的估计成本
      * @return An estimate of the cost of this query, in terms of cost1 and
      *         cost2
-     * ѭǶ׵ӳɱ£
+     * 循环嵌套的连接成本如下：
      * joincost(t1 join t2) = scancost(t1) + ntups(t1) x scancost(t2) //IO cost
      *                        + ntups(t1) x ntups(t2)  //CPU cost
      *
-     * t1ɨɱcost1
-     * t2ɨɱt1еÿһ¼Ҫt2еݽӣÿt1ȡһݶҪ
-     * ȫɨ裬ɨɱ card1 * cost2
-     * t1t2ӳɱcard1 * card2
+     * t1的扫描成本：cost1
+     * t2的扫描成本：t1中的每一条记录都要与t2中的所有数据进行连接，每从t1中取出一条数据都要对它
+     * 进行全表扫描，故其扫描成本是 card1 * cost2
+     * t1与t2的连接成本：card1 * card2
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
                                    double cost1, double cost2) {
@@ -126,15 +126,15 @@ public class JoinOptimizer {
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
-     * ӵĻӵĻɵԪ
+     * 估计连接的基数。联接的基数是联接生成的元组数。
      *
      * @param j      A LogicalJoinNode representing the join operation being
-     *               performed.һ LogicalJoinNodeʾִеӲ
-     * @param card1  Cardinality of the left-hand table in the joinĻ
-     * @param card2  Cardinality of the right-hand table in the joinҲĻ
-     * @param t1pkey Is the left-hand table a primary-key table? 
-     * @param t2pkey Is the right-hand table a primary-key table? Ҳ
-     * @param stats  The table stats, referenced by table names, not alias ͳϢɱãǱ
+     *               performed.一个 LogicalJoinNode，表示正在执行的连接操作。
+     * @param card1  Cardinality of the left-hand table in the join连接中左侧表的基数
+     * @param card2  Cardinality of the right-hand table in the join连接中右侧表的基数
+     * @param t1pkey Is the left-hand table a primary-key table? 左侧表是主键表吗？
+     * @param t2pkey Is the right-hand table a primary-key table? 右侧表是主键表吗？
+     * @param stats  The table stats, referenced by table names, not alias 表统计信息，由表名引用，而不是别名
      * @return The cardinality of the join
      */
     public int estimateJoinCardinality(LogicalJoinNode j, int card1, int card2,
@@ -152,12 +152,12 @@ public class JoinOptimizer {
 
     /**
      * Estimate the join cardinality of two tables.
-     * ӣһʱɵԪܴڷԵĻ
-     * ߶ɵԪΪٵһ
-     * ûʱӣ˵ĴСǶ - Ǳĳ˻ĴС
-     * Ԫ鶼ֵͬ - 0һ򵥵ʽ磬нϴĴС
-     * ڷΧɨ裬ͬ˵κ׼ȷĳߴ硣ĴСӦĴСȡԼ轻Ĺ̶ɷΧɨ跢
-     * ģ磬30%ͨΧӵĳɱӦͬСıķӵĳɱ
+     * 对于相等联接，当其中一个属性是主键时，联接生成的元组数不能大于非主键属性的基数。
+     * 如果两边都是主键，连接生成的元组基数为较少的一边
+     * 对于没有主键时的相等连接，很难说输出的大小是多少 - 它可能是表基数的乘积的大小
+     * （如果两个表对所有元组都具有相同的值） - 或者它可以是0。可以组成一个简单的启发式（例如，两个表中较大表的大小）。
+     * 对于范围扫描，同样很难说出任何准确的尺寸。输出的大小应与输入的大小成正比。可以假设交叉积的固定部分是由范围扫描发
+     * 出的（例如，30%）。通常，范围联接的成本应大于两个相同大小的表的非主键相等联接的成本。
      */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
                                                    String table1Alias, String table2Alias, String field1PureName,
@@ -187,12 +187,12 @@ public class JoinOptimizer {
     /**
      * Helper method to enumerate all of the subsets of a given size of a
      * specified vector.
-     *öָĸСӼ
-     * @param v    The vector whose subsets are desired ҪӼ
+     *用于枚举指定向量的给定大小的所有子集。
+     * @param v    The vector whose subsets are desired 需要其子集的向量
      * @param size The size of the subsets of interest
      * @return a set of all subsets of the specified size
      */
-    public <T> Set<Set<T>> enumerateSubsets(List<T> v, int size) {//شСΪ size v Ӽļ 
+    public <T> Set<Set<T>> enumerateSubsets(List<T> v, int size) {//返回大小为 size的 v 的所有子集的集合 。
         Set<Set<T>> els = new HashSet<>();
         els.add(new HashSet<>());
         // Iterator<Set> it;
@@ -219,14 +219,14 @@ public class JoinOptimizer {
      * the Lab 3 description for hints on how this should be implemented.
      *
      * @param stats               Statistics for each table involved in the join, referenced by
-     *                            base table names, not alias 漰ÿͳϢɻãǱ
+     *                            base table names, not alias 连接中涉及的每个表的统计信息，由基表名称引用，而不是别名
      * @param filterSelectivities Selectivities of the filter predicates on each table in the
      *                            join, referenced by table alias (if no alias, the base table
-     *                            name)ÿϵɸѡνʵѡԣɱãûбΪƣ
+     *                            name)联接中每个表上的筛选器谓词的选择性，由表别名引用（如果没有别名，则为基表名称）
      * @param explain             Indicates whether your code should explain its query plan or
-     *                            simply execute it ָʾӦѯƻǽִ
+     *                            simply execute it 指示代码是应解释其查询计划还是仅执行它
      * @return A List<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed. һб<LogicalJoinNode>Ӧִӵ˳洢ӡ
+     *         order in which they should be executed. 一个列表<LogicalJoinNode>，它按应执行连接的左深顺序存储联接。
      * @throws ParsingException when stats or filter selectivities is missing a table in the
      *                          join, or or when another internal error occurs
      */
@@ -5,6 +5,10 @@ import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.SecondaryIndex;
+import simpledb.index.SecondaryIndexScan;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -300,6 +304,8 @@ public class LogicalPlan {
     /**
      * Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      * find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
+     * Each table is read with a SeqScan or, where an index applies one of its filters at a lower
+     * estimated cost, with an index scan (see {@link #chooseAccessPath}).
      *
      * @param t              The transaction that the returned OpIterator will run as a part of
      * @param baseTableStats a HashMap providing a {@link TableStats}
@@ -317,6 +323,7 @@ public class LogicalPlan {
         Map<String, String> equivMap = new HashMap<>();
         Map<String, Double> filterSelectivities = new HashMap<>();
         Map<String, TableStats> statsMap = new HashMap<>();
+        Set<LogicalFilterNode> indexFilters = new HashSet<>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -332,6 +339,10 @@ public class LogicalPlan {
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
+            LogicalFilterNode indexFilter = chooseAccessPath(t, table, baseTableStats.get(baseTableName));
+            if (indexFilter != null) {
+                indexFilters.add(indexFilter);
+            }
         }
 
         for (LogicalFilterNode lf : filters) {
@@ -349,10 +360,7 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c));
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = constant(ftyp, lf.c);
 
             Predicate p = null;
             try {
@@ -360,7 +368,10 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // the index scan of the table already returns just the tuples that satisfy this filter
+            if (!indexFilters.contains(lf)) {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -503,6 +514,129 @@ public class LogicalPlan {
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * Chooses how to read the table of a scan node and puts the scan in subplanMap
+     * under its alias: the SeqScan already there, or an index scan that applies one
+     * of the filters on the table as its IndexPredicate, whichever TableStats estimates
+     * is cheaper.
+     * <p>
+     * An index can apply a filter that compares the key field of a B+ tree to a
+     * constant with any operator but NOT_EQUALS and LIKE. The B+ tree is the table
+     * itself, if it is a BTreeFile, or one of the secondary indexes of the table in the
+     * Catalog. A secondary index whose entries hold every column of the table that the
+     * query uses answers the query without reading the table: an index-only scan.
+     *
+     * @param t     The transaction that the scan will run as a part of
+     * @param table the scan node
+     * @param s     the statistics of the table, or null if there are none
+     * @return the filter that the chosen index scan applies, or null if the table is
+     *         read with the SeqScan
+     */
+    private LogicalFilterNode chooseAccessPath(TransactionId t, LogicalScanNode table, TableStats s) {
+        DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+        List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(table.t);
+        if (s == null || (!(file instanceof BTreeFile) && indexes.isEmpty())) {
+            return null;
+        }
+        TupleDesc td = file.getTupleDesc();
+        Set<Integer> used = usedFields(table.alias, td);
+        double bestCost = s.estimateScanCost();
+        OpIterator best = null;
+        LogicalFilterNode bestFilter = null;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(table.alias)
+                    || lf.p == Predicate.Op.NOT_EQUALS || lf.p == Predicate.Op.LIKE) {
+                continue;
+            }
+            int field;
+            Field f;
+            try {
+                field = td.indexForFieldName(lf.fieldPureName);
+                f = constant(td.getFieldType(field), lf.c);
+            } catch (NoSuchElementException | NumberFormatException e) {
+                // reported when the filter is planned
+                continue;
+            }
+            IndexPredicate ipred = new IndexPredicate(lf.p, f);
+            double sel = s.estimateSelectivity(field, lf.p, f);
+            if (file instanceof BTreeFile && ((BTreeFile) file).keyField() == field) {
+                double cost = s.estimateIndexScanCost(sel);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = new BTreeScan(t, table.t, table.alias, ipred);
+                    bestFilter = lf;
+                }
+            }
+            for (SecondaryIndex index : indexes) {
+                if (index.getKeyField() != field) {
+                    continue;
+                }
+                boolean indexOnly = used != null && index.covers(used);
+                double cost = s.estimateIndexScanCost(index, sel, indexOnly);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = new SecondaryIndexScan(t, index, table.alias, ipred, indexOnly);
+                    bestFilter = lf;
+                }
+            }
+        }
+        if (best != null) {
+            subplanMap.put(table.alias, best);
+        }
+        return bestFilter;
+    }
+
+    /**
+     * Returns the fields of the table with the given alias that the query uses, in its
+     * select list, aggregate, GROUP BY, ORDER BY, filters and joins, or null if it uses
+     * all of them.
+     *
+     * @param alias the alias of the table
+     * @param td    the TupleDesc of the table
+     */
+    private Set<Integer> usedFields(String alias, TupleDesc td) {
+        List<String> names = new ArrayList<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*")) {
+                return null;
+            }
+            names.add(si.fname);
+        }
+        names.add(groupByField);
+        names.add(aggField);
+        names.add(oByField);
+        for (LogicalFilterNode lf : filters) {
+            names.add(lf.fieldQuantifiedName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            names.add(lj.f2QuantifiedName);
+        }
+        Set<Integer> used = new HashSet<>();
+        String prefix = alias + ".";
+        for (String name : names) {
+            if (name == null || !name.startsWith(prefix)) {
+                continue;
+            }
+            try {
+                used.add(td.indexForFieldName(name.substring(prefix.length())));
+            } catch (NoSuchElementException e) {
+                return null;
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Returns the constant c of a filter on a field of the given type
+     */
+    private static Field constant(Type type, String c) {
+        if (type == Type.INT_TYPE)
+            return new IntField(new Integer(c));
+        else
+            return new StringField(c, Type.STRING_LEN);
+    }
+
     public static void main(String[] argv) {
         // construct a 3-column table schema
         Type[] types = new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE};
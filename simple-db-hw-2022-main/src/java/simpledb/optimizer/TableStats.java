@@ -5,6 +5,8 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionAbortedException;
@@ -19,7 +21,7 @@ import java.util.concurrent.ConcurrentMap;
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
  * query.
- * TableStats ʾйػеͳϢ磬ֱͼѯ
+ * TableStats 表示有关基表中的统计信息（例如，直方图）查询。
  * <p>
  * This class is not needed in implementing lab1 and lab2.
  */
@@ -27,7 +29,7 @@ public class TableStats {
 
     private static final ConcurrentMap<String, TableStats> statsMap = new ConcurrentHashMap<>();
 
-    static final int IOCOSTPERPAGE = 1000;//ÿҳIOĿ
+    static final int IOCOSTPERPAGE = 1000;//每页IO的开销
 
     public static TableStats getTableStats(String tablename) {
         return statsMap.get(tablename);
@@ -68,30 +70,29 @@ public class TableStats {
      * Number of bins for the histogram. Feel free to increase this value over
      * 100, though our tests assume that you have at least 100 bins in your
      * histograms.
-     * ֱͼ⽫ֵӵ 100 ϣǵĲԼֱͼ 100 
+     * 直方图的条柱数。您可以随意将此值增加到 100 以上，尽管我们的测试假设直方图中至少有 100 个条柱数。
      */
     static final int NUM_HIST_BINS = 100;
 
-    private int numtuples;//Ԫ
-    private int numpages;//ҳ
-    private int numfield;//ֶε
-    private int iocostperpage;//ÿҳioĴ
-    private int tableid;//ڼͳϢı
+    private int numtuples;//元组的数量
+    private int numpages;//页面数量
+    private int numfield;//字段的数量
+    private int iocostperpage;//每页io的代价
+    private int tableid;//用于计算统计信息的表
     private Map<Integer,IntHistogram> intHistogramMap;
     private Map<Integer,StringHistogram> stringHistogramMap;
-    private Map<Integer,Integer> max;//ֶӳ
-    private Map<Integer,Integer> min;//Сֶӳ
-    private DbFile dbFile;
-    private HeapFile table;//ҪͳƵı
+    private Map<Integer,Integer> max;//最大字段映射
+    private Map<Integer,Integer> min;//最小字段映射
+    private DbFile dbFile;//需要进行数据统计的表
     private TupleDesc td;
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
-     * һµ TableStats ڸٱÿһеͳϢ
+     * 创建一个新的 TableStats 对象，用于跟踪表的每一列的统计信息
      *
-     * @param tableid       The table over which to compute statisticsڼͳϢı
+     * @param tableid       The table over which to compute statistics用于计算统计信息的表
      * @param ioCostPerPage The cost per page of IO. This doesn't differentiate between
-     *                      sequential-scan IO and disk seeks.ÿҳĴۣⲻ˳ɨ IO ʹѰ
+     *                      sequential-scan IO and disk seeks.每页的代价，这不会区分顺序扫描 IO 和磁盘寻道
      */
     public TableStats(int tableid, int ioCostPerPage) {
         // For this function, you'll have to get the
@@ -107,16 +108,15 @@ public class TableStats {
         this.intHistogramMap=new HashMap<>();
         this.stringHistogramMap=new HashMap<>();
         this.dbFile=Database.getCatalog().getDatabaseFile(tableid);
-        this.table=(HeapFile) Database.getCatalog().getDatabaseFile(tableid);
         this.numtuples=0;
-        this.numpages=table.numPages();
-        this.numfield=table.getTupleDesc().numFields();
+        this.numpages=numPages(dbFile);
+        this.numfield=dbFile.getTupleDesc().numFields();
         this.max=new HashMap<>();
         this.min=new HashMap<>();
         this.td=dbFile.getTupleDesc();
         Transaction t=new Transaction();
         t.start();
-        DbFileIterator iterator=table.iterator(t.getId());
+        DbFileIterator iterator=dbFile.iterator(t.getId());
         try{
             iterator.open();
             while (iterator.hasNext())
@@ -125,16 +125,18 @@ public class TableStats {
                 this.numtuples++;
                 for(int i=0;i<td.numFields();i++)
                 {
-                    //int
+                    //计算int
                     if(td.getFieldType(i).equals(Type.INT_TYPE))
                     {
                         IntField intField= (IntField) tp.getField(i);
                         int value=intField.getValue();
-                        //intmin
+                        //计算int的min
                         if(min.get(i)==null||value<min.get(i))
                         {
                             min.put(i,value);
-                        } else if (max.get(i)==null||value>max.get(i)) {
+                        }
+                        //第一个值既是min也是max，否则值都相同的列没有max
+                        if (max.get(i)==null||value>max.get(i)) {
                             max.put(i,value);
                         }
                     }
@@ -147,7 +149,7 @@ public class TableStats {
                     }
                 }
             }
-            //Сֱֵͼ
+            //根据最大最小值构造直方图
             for (int i = 0; i < td.numFields(); i++) {
                 if(min.get(i)!=null)
                 {
@@ -156,7 +158,7 @@ public class TableStats {
 
             }
             iterator.rewind();
-            //ֵ
+            //添加值
             while (iterator.hasNext())
             {
                 Tuple tp=iterator.next();
@@ -198,14 +200,58 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // TODO: some code goes here
-        return table.numPages()*iocostperpage*2;
+        return numpages*iocostperpage*2;
+    }
+
+    /**
+     * 堆表和B+树表都可以统计，DbFile接口本身没有页数
+     */
+    private static int numPages(DbFile f) {
+        if (f instanceof BTreeFile) {
+            return ((BTreeFile) f).numPages();
+        }
+        return ((HeapFile) f).numPages();
+    }
+
+    /**
+     * Estimates the cost of reading the tuples of the table that satisfy a predicate
+     * on its key field through its B+ tree, given that the table is a BTreeFile. Only
+     * the leaf pages that hold those tuples are read, at the same cost per page as a
+     * sequential scan; the few internal pages on the way down are left out, as they are
+     * usually in the buffer pool.
+     *
+     * @param selectivityFactor The selectivity of the predicate on the key field
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexScanCost(double selectivityFactor) {
+        return Math.max(1.0, selectivityFactor * numpages) * iocostperpage * 2;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples of the table that satisfy a predicate
+     * on the key field of one of its secondary indexes through that index: the leaf
+     * pages of the index that hold the entries of those tuples and, unless the scan is
+     * index-only, one page of the table for each tuple, since the tuples of the table
+     * are not in key order.
+     *
+     * @param index             a secondary index over this table
+     * @param selectivityFactor The selectivity of the predicate on the key field of the index
+     * @param indexOnly         whether the scan reads the index entries alone
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexScanCost(SecondaryIndex index, double selectivityFactor, boolean indexOnly) {
+        double cost = Math.max(1.0, selectivityFactor * index.getFile().numPages()) * iocostperpage * 2;
+        if (!indexOnly) {
+            cost += estimateTableCardinality(selectivityFactor) * (double) iocostperpage * 2;
+        }
+        return cost;
     }
 
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
      *
-     * @param selectivityFactor The selectivity of any predicates over the tableκνʶԱѡ
+     * @param selectivityFactor The selectivity of any predicates over the table任何谓词对表的选择性
      * @return The estimated cardinality of the scan with the specified
      *         selectivityFactor
      */
@@ -222,10 +268,10 @@ public class TableStats {
      *              The semantic of the method is that, given the table, and then given a
      *              tuple, of which we do not know the value of the field, return the
      *              expected selectivity. You may estimate this value from the histograms.
-     *              νе÷ǣȻһԪ飬ǲֶ֪εֵ
-     *              ԤڵѡԡԴֱͼйƴֵ
+     *              谓词中的运算符该方法的语义是，给定表，然后给定一个元组，我们不知道字段的值，
+     *              返回预期的选择性。您可以从直方图中估计此值。
      */
-    //жͷֱintstringֱͼ
+    //判断类型分别调用int和string的直方图
     public double avgSelectivity(int field, Predicate.Op op) {
         // TODO: some code goes here
         if(td.getFieldType(field).equals(Type.INT_TYPE))
@@ -243,11 +289,11 @@ public class TableStats {
      * Estimate the selectivity of predicate <tt>field op constant</tt> on the
      * table.
      *
-     * @param field    The field over which the predicate rangesνʷΧֶ
-     * @param op       The logical operation in the predicateνе߼
-     * @param constant The value against which the field is compared ֶνбȽϵֵ
+     * @param field    The field over which the predicate ranges谓词范围的字段
+     * @param op       The logical operation in the predicate谓词中的逻辑运算
+     * @param constant The value against which the field is compared 与字段进行比较的值
      * @return The estimated selectivity (fraction of tuples that satisfy) the
-     *         predicateƵѡԣνʵԪ
+     *         predicate估计的选择性（满足谓词的元组分数）
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
         // TODO: some code goes here
@@ -2,13 +2,23 @@ package simpledb.storage;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.index.SecondaryIndex;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -35,18 +45,78 @@ public class BufferPool {
      * constructor instead.
      */
     public static final int DEFAULT_PAGES = 50;
+
+    /**
+     * A sequential scan of a table with more pages than this fraction of the
+     * pool reads through a private {@link BufferRing} instead of the shared
+     * replacement policy. Tables below it are small enough to stay cached
+     * between scans without crowding out everything else.
+     */
+    public static final double SCAN_RING_THRESHOLD = 0.75;
+
+    /**
+     * Upper bound on the number of frames a scan ring may occupy.
+     */
+    public static final int MAX_SCAN_RING_PAGES = 16;
+
+    /**
+     * Default number of pages a sequential scan reads ahead of itself.
+     */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 4;
+
+    /**
+     * Default fraction of the pool that may be dirty before the background
+     * writer writes pages beyond those about to be evicted.
+     */
+    public static final double DEFAULT_DIRTY_HIGH_WATER_MARK = 0.5;
+
+    /**
+     * Pause between rounds of the background writer when it is started by
+     * the pool itself rather than by {@link #startBackgroundWriter}.
+     */
+    public static final long DEFAULT_CLEANER_INTERVAL_MILLIS = 10;
+
+    /**
+     * Threads that perform read-ahead. Shared by all pools, since tests create
+     * many; the threads are daemons so they never keep the JVM alive.
+     */
+    private static final ExecutorService readAheadExecutor = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "simpledb-read-ahead");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile int readAheadPages = DEFAULT_READ_AHEAD_PAGES;
+    private volatile double dirtyHighWaterMark = DEFAULT_DIRTY_HIGH_WATER_MARK;
+    // 后台写线程，见startBackgroundWriter；由writerLock保护。
+    // 不用this：淘汰页面的线程要唤醒它，而持有this的线程（如回滚）也会淘汰页面
+    private final Object writerLock = new Object();
+    private BackgroundWriter backgroundWriter;
+    private final LongAdder backgroundWrites = new LongAdder();
+    private final LongAdder foregroundWrites = new LongAdder();
     private final Page[] buffer;
     private int numPages;
     private final Map<PageId,Page> page_store;
     private LockManager lockManager;
-    private LRUCache lruCache;
+    private PageCache pageCache;
+
+    /**
+     * How the lock manager picks which transaction to abort when it finds a
+     * cycle in the waits-for graph.
+     */
+    public enum DeadlockVictimPolicy {
+        /** abort the transaction with the largest (most recently issued) TransactionId */
+        YOUNGEST,
+        /** abort the transaction holding the fewest page locks, youngest on ties */
+        FEWEST_LOCKS
+    }
 
     /**
-     * ҳ
+     * 页面的锁
      */
     private class PageLock{
         private TransactionId tid;
-        private int locktype;//0Ϊ1Ϊ
+        private int locktype;//0为共享锁，1为互斥锁
 
         public PageLock(TransactionId tid, int locktype) {
             this.tid = tid;
@@ -71,165 +141,446 @@ public class BufferPool {
     }
 
     /**
-     * Ĺͷ
-     *       1.
-     *       2.ͷ
-     *       3.жָǷĳһpageϵ
+     * 锁的管理，管理加锁和释放锁
+     *       1.申请锁
+     *       2.释放锁
+     *       3.判断指定事务是否持有某一page上的锁
      */
     private class LockManager{
-        ConcurrentHashMap<PageId,ConcurrentHashMap<TransactionId,PageLock>> lockMap;
+        ConcurrentHashMap<PageId,LockQueue> lockMap;
+
+        /**
+         * 等待图：每个等待中的请求 -> 它在等待的事务，由waitsFor自身的监视器保护。
+         * 加锁顺序始终为 LockQueue -> waitsFor -> LockRequest
+         */
+        private final Map<LockRequest,Set<TransactionId>> waitsFor = new HashMap<>();
+        private final Map<TransactionId,Set<LockRequest>> pendingByTid = new HashMap<>();
+
+        /**
+         * 每个事务当前持有锁的页面集合，提交、中止和释放锁时只需访问事务涉及的页面，
+         * 也用于FEWEST_LOCKS策略选择牺牲者
+         */
+        private final ConcurrentHashMap<TransactionId,Set<PageId>> locksByTid = new ConcurrentHashMap<>();
+
+        private volatile DeadlockVictimPolicy victimPolicy = DeadlockVictimPolicy.YOUNGEST;
+        private final AtomicLong deadlocks = new AtomicLong();
+        private final AtomicLong detectionNanos = new AtomicLong();
+
         public LockManager(){
             this.lockMap=new ConcurrentHashMap<>();
         }
 
         /**
          * Return true if the specified transaction has a lock on the specified page
-         * @param tid Ҫжϵ
-         * @param p Ҫжϵpage
+         * @param tid 需要进行判断的事务
+         * @param p 需要进行判断的page
          * @return
          */
-        public boolean holdsLock(TransactionId tid, PageId p) {//жָǷĳһpageϵ
-            // TODO: some code goes here
-            // not necessary for lab1|lab2
-            ConcurrentHashMap<TransactionId,PageLock> pagelocks;
-            pagelocks=lockMap.get(p);
-            if(pagelocks==null)
+        public boolean holdsLock(TransactionId tid, PageId p) {//判断指定事务是否持有某一page上的锁
+            LockQueue queue=lockMap.get(p);
+            if(queue==null)
             {
                 return false;
             }
-           for(TransactionId t:pagelocks.keySet())
-           {
-               if(t==tid)
-               {
-                   return true;
-               }
-           }
-           return false;
+            synchronized (queue) {
+                return queue.holders.containsKey(tid);
+            }
         }
 
         /**
-         * ͷָָҳϵ
-         * @param tid Ҫͷ
-         * @param pid Ҫͷҳ
+         * @return tid是否持有该页的互斥锁
          */
-        public synchronized void releaselock(TransactionId tid,PageId pid){
-            if(holdsLock(tid,pid)){
-                ConcurrentHashMap<TransactionId,PageLock> pagelocks;
-                pagelocks=lockMap.get(pid);
-                pagelocks.remove(tid);
-                if(pagelocks.size()==0)
+        public boolean holdsExclusiveLock(TransactionId tid, PageId p) {
+            LockQueue queue=lockMap.get(p);
+            if(queue==null)
+            {
+                return false;
+            }
+            synchronized (queue) {
+                PageLock lock=queue.holders.get(tid);
+                return lock!=null&&lock.getLocktype()==1;
+            }
+        }
+
+        /**
+         * @return tid当前持有锁的页面（快照）
+         */
+        public Set<PageId> lockedPages(TransactionId tid) {
+            Set<PageId> pages = locksByTid.get(tid);
+            return pages == null ? Collections.emptySet() : new HashSet<>(pages);
+        }
+
+        /**
+         * 释放tid持有的所有锁
+         */
+        public void releaseAll(TransactionId tid) {
+            for (PageId pid : lockedPages(tid)) {
+                releaselock(tid, pid);
+            }
+        }
+
+        /**
+         * 释放指定事务指定页上的锁，并唤醒队首可以被授予锁的等待者
+         * @param tid 需要进行释放锁操作的事务
+         * @param pid 需要进行释放锁的页
+         */
+        public void releaselock(TransactionId tid,PageId pid){
+            LockQueue queue=lockMap.get(pid);
+            if(queue==null)
+            {
+                return;
+            }
+            synchronized (queue) {
+                if(queue.holders.remove(tid)!=null)
                 {
-                    lockMap.remove(pid);
+                    locksByTid.computeIfPresent(tid, (k, pages) -> {
+                        pages.remove(pid);
+                        return pages.isEmpty() ? null : pages;
+                    });
+                    grantWaiters(queue);
                 }
+                retireIfIdle(pid,queue);
             }
-            this.notify();
         }
 
         /**
-         * ĳĳҳ
-         * @param tid 
-         * @param pid ҳ
-         * @param lockType 
-         * @return
-         * ԭ
-         * 1.һԶһ֮ǰڶһ
-         * 2.д֮ǰԶл
-         * 3.Զһһ
-         * 4.ֻһԶһӵл
-         * 5. t ΨһжϵĹô t ԽԶ  Ϊ
-         * ʵ֣1.жϸҳǷûֱӽмϢmap
-         *         2.ҳȷһtidһtidû
-         *         2.1tid   Sֱ
-         *                        XtΨһй
-         *                        򣬲ܽܳȴ/׳쳣
-         *          2.2tϵSֻSֱӻȡXȴ/׳쳣
-         *                        Xȴ׳쳣
-         */
-        //0ΪS1ΪX
-        // ConcurrentHashMap<PageId,ConcurrentHashMap<TransactionId,PageLock>> lockMap;
-        public synchronized boolean getLocks(TransactionId tid,PageId pid,int lockType ) throws InterruptedException, TransactionAbortedException {
-            final String thread = Thread.currentThread().getName();
-            if (lockMap.get(pid) == null) {
-                return putLock(tid, pid, lockType);
-            }
-
-            //ȡҳϵ
-            ConcurrentHashMap<TransactionId, PageLock> page_lock = lockMap.get(pid);
-            //жǷΪtidϵ
-            //ûtidϵ
-            if (page_lock.get(tid) == null) {
-                if (lockType == 1)//X
-                {
-                    wait(10);
-                    System.out.println(thread + ": the " + pid + " have lock with diff txid, transaction" + tid + " require write lock, await...");
+         * 某事务在某页上申请锁，必要时阻塞直到锁被授予
+         * @param tid 申请锁的事务
+         * @param pid 申请锁的页
+         * @param lockType 申请锁的类型，0为S锁，1为X锁
+         * 加锁原则：
+         * 1.事务已持有同级或更高级的锁，直接返回
+         * 2.锁与其他事务持有的锁兼容，且等待队列为空（或者是升级请求），直接授予
+         * 3.否则加入该页的FIFO等待队列，升级请求排在普通请求之前；
+         *   只有在释放锁后轮到该请求且与持有者兼容时才会被唤醒
+         * 4.每次进入等待时在等待图中检测环，发现死锁立即按victimPolicy中止一个事务
+         */
+        public void getLocks(TransactionId tid,PageId pid,int lockType) throws TransactionAbortedException {
+            LockQueue queue;
+            LockRequest request;
+            while (true) {
+                queue = lockMap.computeIfAbsent(pid, LockQueue::new);
+                synchronized (queue) {
+                    if (queue.retired) {
+                        // raced with the last releaser removing this entry; retry on a fresh one
+                        continue;
+                    }
+                    request = enqueue(queue, tid, lockType);
+                    if (request != null && !resolveDeadlocks(request)) {
+                        queue.waiters.remove(request);
+                        dequeued(queue, request);
+                        retireIfIdle(pid, queue);
+                        throw new TransactionAbortedException();
+                    }
+                }
+                break;
+            }
+            if (request != null) {
+                awaitGrant(pid, queue, request);
+            }
+        }
+
+        /**
+         * 能立即授予时直接授予并返回null，否则将请求加入等待队列并返回该请求
+         */
+        private LockRequest enqueue(LockQueue queue, TransactionId tid, int lockType) {
+            PageLock held = queue.holders.get(tid);
+            if (held != null && held.getLocktype() >= lockType) {
+                return null;
+            }
+            boolean upgrade = held != null;
+            if ((upgrade || queue.waiters.isEmpty()) && isCompatible(queue, tid, lockType)) {
+                grant(queue, tid, lockType);
+                return null;
+            }
+
+            LockRequest request = new LockRequest(tid, lockType);
+            if (upgrade) {
+                // upgrades go ahead of every plain request, behind earlier upgrades
+                int i = 0;
+                while (i < queue.waiters.size() && queue.waiters.get(i).upgrade) {
+                    i++;
+                }
+                request.upgrade = true;
+                queue.waiters.add(i, request);
+            } else {
+                queue.waiters.addLast(request);
+            }
+            refreshWaitsFor(queue);
+            return request;
+        }
+
+        /**
+         * 在请求自身的监视器上等待，只有授予或中止该请求的线程会唤醒它
+         */
+        private void awaitGrant(PageId pid, LockQueue queue, LockRequest request) throws TransactionAbortedException {
+            try {
+                synchronized (request) {
+                    while (!request.granted && !request.aborted) {
+                        request.wait();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                synchronized (queue) {
+                    if (!request.granted) {
+                        // our departure may unblock compatible requests queued behind us
+                        queue.waiters.remove(request);
+                        dequeued(queue, request);
+                        retireIfIdle(pid, queue);
+                    }
+                }
+            }
+            if (!request.granted) {
+                throw new TransactionAbortedException();
+            }
+        }
+
+        /**
+         * 判断tid申请的锁是否与其他事务已持有的锁兼容
+         */
+        private boolean isCompatible(LockQueue queue, TransactionId tid, int lockType) {
+            for (PageLock lock : queue.holders.values()) {
+                if (lock.getTid().equals(tid)) {
+                    continue;
+                }
+                if (lockType == 1 || lock.getLocktype() == 1) {
                     return false;
-                } else if (lockType == 0) {//S
-                    if (page_lock.size() > 1)//ҳϵ1˵ֻS
-                    {
-                        return putLock(tid, pid, lockType);
-                    } else if (page_lock.size() == 1) {
-                        Collection<PageLock> p = page_lock.values();
-                        for (PageLock value : p) {
-                            if (value.getLocktype() == 0)//еһΪS
-                            {
-                                return putLock(tid, pid, lockType);
-                            } else {
-                                wait(10);
-                                System.out.println(thread + ": the " + pid + " have one write lock with diff txid, transaction" + tid + " require read lock, await...");
-                                return false;
-                            }
+                }
+            }
+            return true;
+        }
+
+        private void grant(LockQueue queue, TransactionId tid, int lockType) {
+            PageLock held = queue.holders.get(tid);
+            if (held == null) {
+                queue.holders.put(tid, new PageLock(tid, lockType));
+                locksByTid.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(queue.pid);
+            } else {
+                held.setLocktype(lockType);
+            }
+        }
+
+        /**
+         * 按FIFO顺序授予队首所有兼容的请求，只唤醒被授予锁的等待者。
+         * 已被选为死锁牺牲者的请求不会再被授予
+         */
+        private void grantWaiters(LockQueue queue) {
+            Iterator<LockRequest> it = queue.waiters.iterator();
+            while (it.hasNext()) {
+                LockRequest request = it.next();
+                if (request.aborted) {
+                    continue;
+                }
+                if (!isCompatible(queue, request.tid, request.locktype)) {
+                    break;
+                }
+                it.remove();
+                grant(queue, request.tid, request.locktype);
+                synchronized (request) {
+                    request.granted = true;
+                    request.notify();
+                }
+                synchronized (waitsFor) {
+                    removeWaitsFor(request);
+                }
+            }
+            refreshWaitsFor(queue);
+        }
+
+        /**
+         * 请求离开等待队列（超时、中止或线程被终止）后的清理
+         */
+        private void dequeued(LockQueue queue, LockRequest request) {
+            synchronized (waitsFor) {
+                removeWaitsFor(request);
+            }
+            grantWaiters(queue);
+        }
+
+        /**
+         * 页面上既没有持有者也没有等待者时，从锁表中移除该项
+         */
+        private void retireIfIdle(PageId pid, LockQueue queue) {
+            if (queue.holders.isEmpty() && queue.waiters.isEmpty()) {
+                queue.retired = true;
+                lockMap.remove(pid, queue);
+            }
+        }
+
+        /**
+         * 重新计算某页面上所有等待者的出边：与之冲突的持有者，以及排在它前面且与之冲突的等待者
+         */
+        private void refreshWaitsFor(LockQueue queue) {
+            synchronized (waitsFor) {
+                int i = 0;
+                for (LockRequest waiter : queue.waiters) {
+                    Set<TransactionId> blockers = new HashSet<>();
+                    for (PageLock lock : queue.holders.values()) {
+                        if (!lock.getTid().equals(waiter.tid) && (waiter.locktype == 1 || lock.getLocktype() == 1)) {
+                            blockers.add(lock.getTid());
+                        }
+                    }
+                    Iterator<LockRequest> ahead = queue.waiters.iterator();
+                    for (int j = 0; j < i; j++) {
+                        LockRequest other = ahead.next();
+                        if (!other.aborted && !other.tid.equals(waiter.tid)
+                                && (waiter.locktype == 1 || other.locktype == 1)) {
+                            blockers.add(other.tid);
                         }
+                    }
+                    if (!waiter.aborted) {
+                        waitsFor.put(waiter, blockers);
+                        pendingByTid.computeIfAbsent(waiter.tid, k -> new HashSet<>()).add(waiter);
+                    }
+                    i++;
+                }
+            }
+        }
+
+        private void removeWaitsFor(LockRequest request) {
+            waitsFor.remove(request);
+            Set<LockRequest> pending = pendingByTid.get(request.tid);
+            if (pending != null) {
+                pending.remove(request);
+                if (pending.isEmpty()) {
+                    pendingByTid.remove(request.tid);
+                }
+            }
+        }
+
+        /**
+         * 新的等待边只可能闭合经过请求者的环，因此只需从请求者出发搜索。
+         * 每找到一个环就中止一个牺牲者，直到不再有环
+         * @return false 如果请求者自己被选为牺牲者
+         */
+        private boolean resolveDeadlocks(LockRequest request) {
+            synchronized (waitsFor) {
+                List<TransactionId> cycle;
+                while ((cycle = findCycle(request.tid)) != null) {
+                    TransactionId victim = chooseVictim(cycle);
+                    long oldestWait = System.nanoTime();
+                    for (LockRequest r : pendingByTid.get(victim)) {
+                        oldestWait = Math.min(oldestWait, r.waitStart);
+                    }
+                    deadlocks.incrementAndGet();
+                    detectionNanos.addAndGet(System.nanoTime() - oldestWait);
+                    Debug.log("deadlock among %s, aborting %s", cycle, victim);
 
+                    if (victim.equals(request.tid)) {
+                        return false;
+                    }
+                    for (LockRequest r : new ArrayList<>(pendingByTid.get(victim))) {
+                        removeWaitsFor(r);
+                        synchronized (r) {
+                            r.aborted = true;
+                            r.notify();
+                        }
                     }
                 }
-            } else if (page_lock.get(tid) != null) {//tid
-                if (lockType == 0) {//ΪS
-                    //System.out.println("Succeed!");
-                    return true;
-                } else {//ΪX
-                    if (page_lock.get(tid).getLocktype() == 1) {
+                return true;
+            }
+        }
+
+        /**
+         * 在等待图中深度优先搜索一条回到start的路径
+         * @return 环上的事务，没有环时返回null
+         */
+        private List<TransactionId> findCycle(TransactionId start) {
+            Deque<TransactionId> path = new ArrayDeque<>();
+            Set<TransactionId> visited = new HashSet<>();
+            return findCycle(start, start, path, visited) ? new ArrayList<>(path) : null;
+        }
+
+        private boolean findCycle(TransactionId start, TransactionId current, Deque<TransactionId> path, Set<TransactionId> visited) {
+            path.addLast(current);
+            Set<LockRequest> pending = pendingByTid.getOrDefault(current, Collections.emptySet());
+            for (LockRequest r : pending) {
+                for (TransactionId next : waitsFor.getOrDefault(r, Collections.emptySet())) {
+                    if (next.equals(start)) {
                         return true;
                     }
-                    if(page_lock.size()>1)
-                    {
-                        System.out.println(thread + ": the " + pid + " have many read locks, transaction" + tid + " require write lock, abort!!!");
-                        throw new TransactionAbortedException();
-                    }
-                    if(page_lock.get(tid).getLocktype()==0&&page_lock.size()==1){
-                        //System.out.println("Succeed!");
-                        page_lock.get(tid).setLocktype(1);
-                        page_lock.put(tid, page_lock.get(tid));
-                        return  true;
+                    if (visited.add(next) && findCycle(start, next, path, visited)) {
+                        return true;
                     }
                 }
             }
+            path.removeLast();
             return false;
         }
-        public boolean putLock(TransactionId tid, PageId pid,int lockType){
-            PageLock pagelocks=new PageLock(tid,lockType);
-            ConcurrentHashMap<TransactionId,PageLock> p=lockMap.get(pid);
-            if(p==null)
-            {
-                p=new ConcurrentHashMap<>();
-                lockMap.put(pid,p);
+
+        private TransactionId chooseVictim(List<TransactionId> cycle) {
+            TransactionId victim = cycle.get(0);
+            for (TransactionId tid : cycle) {
+                if (victimPolicy == DeadlockVictimPolicy.FEWEST_LOCKS) {
+                    int held = lockedPages(tid).size();
+                    int best = lockedPages(victim).size();
+                    if (held < best || (held == best && tid.getId() > victim.getId())) {
+                        victim = tid;
+                    }
+                } else if (tid.getId() > victim.getId()) {
+                    victim = tid;
+                }
             }
-            p.put(tid,pagelocks);
-            lockMap.put(pid,p);
-            //System.out.println("Succeed!");
-            return true;
+            return victim;
+        }
+    }
+
+    /**
+     * 单个页面的锁表项：已授予的锁和按到达顺序排列的等待队列，均由该对象的监视器保护
+     */
+    private class LockQueue{
+        final PageId pid;
+        final Map<TransactionId,PageLock> holders = new HashMap<>();
+        final LinkedList<LockRequest> waiters = new LinkedList<>();
+        boolean retired;
+
+        public LockQueue(PageId pid) {
+            this.pid = pid;
+        }
+    }
+
+    /**
+     * 等待中的锁请求，等待者在请求自身上wait，授予或中止时只唤醒该请求的线程
+     */
+    private class LockRequest{
+        final TransactionId tid;
+        final int locktype;
+        final long waitStart = System.nanoTime();
+        boolean upgrade;
+        volatile boolean granted;
+        volatile boolean aborted;
+
+        public LockRequest(TransactionId tid, int locktype) {
+            this.tid = tid;
+            this.locktype = locktype;
         }
     }
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new LRUPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * in the order chosen by the given replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy   the replacement policy, e.g. {@link LRUPolicy},
+     *                 {@link ClockPolicy} or {@link TwoQueuePolicy}
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
         this.numPages = numPages;
         buffer = new Page[numPages];
         this.page_store=new HashMap<>();
         this.lockManager=new LockManager();
-        this.lruCache=new LRUCache(numPages);
+        this.pageCache=new PageCache(numPages, policy);
     }
 
     public static int getPageSize() {
@@ -261,18 +612,31 @@ public class BufferPool {
      * @param pid  the ID of the requested page
      * @param perm the requested permissions on the page
      */
-    public Page getPage(TransactionId tid, PageId pid, Permissions perm)//̫øID
-    // TransactionId ֵΪmull
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)//不太适用复杂情况事务ID。
+    // TransactionId 如果对象不是事务，则此值为mull。
+            throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage(TransactionId, PageId, Permissions)},
+     * but if the page has to be read from disk, make room for it by recycling
+     * a frame of the given ring rather than evicting a page chosen by the
+     * replacement policy.
+     *
+     * @param ring the scan's buffer ring, or null to use the shared pool
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
             throws TransactionAbortedException, DbException {
         /*int idx = -1;
         for (int i = 0; i < buffer.length; ++i) {
-            if (null == buffer[i]) {//ûbuffer[i]Ϊգ¼λ
+            if (null == buffer[i]) {//如果缓冲池没有且buffer[i]为空，记录缓冲块位置
                 idx = i;
             } else if (pid.equals(buffer[i].getId())) {
-                return buffer[i];//ֱӷҳ
+                return buffer[i];//缓冲池中有直接返回页
             }
         }
-        //ȥdiskҽbuffer[i]
+        //去disk找将buffer[i]读入
         return buffer[idx] = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);*/
         int lockType;
         if (perm == Permissions.READ_ONLY){
@@ -280,20 +644,7 @@ public class BufferPool {
         } else {
             lockType = 1;
         }
-        long st = System.currentTimeMillis();
-        boolean isacquired = false;
-        while(!isacquired){
-
-            try {
-                isacquired = lockManager.getLocks(tid,pid,lockType);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            long now = System.currentTimeMillis();
-            if(now - st > 300){
-                throw new TransactionAbortedException();
-            }
-        }
+        lockManager.getLocks(tid,pid,lockType);
 
         /*try {
             if(lockManager.getLocks(tid,pid,lockType,0))
@@ -303,16 +654,310 @@ public class BufferPool {
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }*/
-        if (lruCache.get(pid) == null) {
-            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = file.readPage(pid);
-            lruCache.put(pid, page);
-        }
-        if(lruCache.get(pid)==null)
+        Page page = pageCache.getOrLoad(pid, id -> Database.getCatalog().getDatabaseFile(id.getTableId()).readPage(id), ring);
+        if(page==null)
         {
-            throw new DbException("ҳ");
+            throw new DbException("该页不存在");
         }
-        return lruCache.get(pid);
+        return page;
+    }
+
+    /**
+     * Return true if the specified transaction has a lock on the specified page
+     */
+    public boolean holdsLock(TransactionId tid, PageId p) {
+        return lockManager.holdsLock(tid, p);
+    }
+
+    /**
+     * Set how the victim of a detected deadlock is chosen.
+     */
+    public void setDeadlockVictimPolicy(DeadlockVictimPolicy policy) {
+        lockManager.victimPolicy = policy;
+    }
+
+    /**
+     * @return the number of deadlocks detected (and victims aborted) so far
+     */
+    public long getDeadlockCount() {
+        return lockManager.deadlocks.get();
+    }
+
+    /**
+     * @return the mean time, in milliseconds, that a deadlock victim had been
+     *         blocked when it was aborted, or 0 if there were no deadlocks
+     */
+    public double getMeanDeadlockDetectionMillis() {
+        long n = lockManager.deadlocks.get();
+        return n == 0 ? 0.0 : lockManager.detectionNanos.get() / 1e6 / n;
+    }
+
+    /**
+     * Returns a buffer ring for a sequential scan of a table with the given
+     * number of pages, or null if the table is small enough relative to the
+     * pool that the scan should just use the shared pool.
+     *
+     * @param tablePages the number of pages the scan will read
+     */
+    public BufferRing getScanRing(int tablePages) {
+        if (tablePages <= numPages * SCAN_RING_THRESHOLD) {
+            return null;
+        }
+        return new BufferRing(Math.min(MAX_SCAN_RING_PAGES, Math.max(1, numPages / 8)));
+    }
+
+    /**
+     * Set how many pages a sequential scan reads ahead of itself; 0 turns
+     * read-ahead off.
+     */
+    public void setReadAheadPages(int pages) {
+        this.readAheadPages = Math.max(0, pages);
+    }
+
+    /**
+     * Asynchronously reads the pages that follow the given page into the
+     * pool. Starting from page, next is applied to each page to find the one
+     * after it (e.g. page number + 1 for a HeapFile, the right sibling for
+     * B+ tree leaves), and up to the configured number of read-ahead pages
+     * are visited. Pages already in the pool are stepped over without I/O.
+     * The chain ends early when next returns null or a read fails.
+     * <p>
+     * next is evaluated in the background, when the task gets to it, so a
+     * scan that has moved on in the meantime can skip the task past pages it
+     * has already read instead of having them read again.
+     * <p>
+     * Read-ahead takes no locks: it only brings pages into the pool, and the
+     * scan still locks each page when it calls getPage. It also never waits
+     * for a page the pool has no room for; it just stops.
+     *
+     * @param ring the scan's buffer ring, or null. With a ring, read-ahead
+     *             covers at most half of it, so the pages it brings in are
+     *             not recycled before the scan reaches them.
+     * @return the background task, or null if read-ahead is off
+     */
+    public Future<?> readAhead(Page page, Function<Page, PageId> next, BufferRing ring) {
+        int limit = readAheadPages;
+        if (ring != null) {
+            limit = Math.min(limit, ring.getSize() / 2);
+        }
+        if (limit <= 0) {
+            return null;
+        }
+        final int pages = limit;
+        final PageCache cache = pageCache;
+        return readAheadExecutor.submit(() -> {
+            Page cur = page;
+            PageId pid = null;
+            try {
+                for (int i = 0; i < pages && (pid = next.apply(cur)) != null; i++) {
+                    cur = cache.peek(pid);
+                    if (cur == null) {
+                        cur = cache.prefetch(pid, id -> Database.getCatalog().getDatabaseFile(id.getTableId()).readPage(id), ring);
+                    }
+                }
+            } catch (DbException | RuntimeException e) {
+                Debug.log("read-ahead of %s stopped: %s", pid, e);
+            }
+        });
+    }
+
+    /**
+     * @return the number of pages read from disk by read-ahead
+     */
+    public long getPrefetchCount() {
+        return pageCache.prefetchReads.sum();
+    }
+
+    /**
+     * @return the number of read-ahead pages that a later getPage found in the pool
+     */
+    public long getPrefetchHitCount() {
+        return pageCache.prefetchHits.sum();
+    }
+
+    /**
+     * @return the number of read-ahead pages that left the pool before any
+     *         getPage asked for them
+     */
+    public long getPrefetchWastedCount() {
+        return pageCache.prefetchWasted.sum();
+    }
+
+    /**
+     * @return the number of getPage calls that found the page already in the pool
+     */
+    public long getHitCount() {
+        return pageCache.hits.sum();
+    }
+
+    /**
+     * @return the number of getPage calls that had to read the page from disk
+     */
+    public long getMissCount() {
+        return pageCache.misses.sum();
+    }
+
+    /**
+     * Starts a daemon thread that writes dirty pages to disk in the
+     * background, one at a time and after the log records describing them.
+     * Every intervalMillis, and whenever an eviction runs into a dirty page,
+     * it writes the dirty pages among those next in line for eviction, so
+     * that eviction almost always finds a clean page and need not write one
+     * itself; while more of the pool than the dirty high-water mark is
+     * dirty, it keeps going along the eviction order. It then writes up to
+     * pagesPerRound of the pages with the oldest recLSNs in the log's dirty
+     * page table. This moves the redo start point of recovery forward and
+     * lets checkpoints truncate more of the log, without the stall of
+     * writing every dirty page at once.
+     * <p>
+     * The pool starts the thread itself, with pagesPerRound 0, the first
+     * time an eviction runs into a dirty page. It ends once the pool is no
+     * longer the database's buffer pool.
+     * <p>
+     * The pages written may hold changes of transactions that have not
+     * committed, so those transactions must abort through the log
+     * ({@link simpledb.transaction.Transaction#abort} rolls back with
+     * {@link LogFile#logAbort}).
+     *
+     * @param intervalMillis the pause between rounds
+     * @param pagesPerRound  the most pages with old recLSNs written per round
+     * @see #setDirtyHighWaterMark
+     */
+    public void startBackgroundWriter(long intervalMillis, int pagesPerRound) {
+        stopBackgroundWriter();
+        BackgroundWriter w = new BackgroundWriter(intervalMillis, pagesPerRound);
+        synchronized (writerLock) {
+            backgroundWriter = w;
+        }
+        w.thread.start();
+    }
+
+    /**
+     * Stops the thread started by {@link #startBackgroundWriter}, if any, and
+     * waits for it to finish the page it is writing.
+     */
+    public void stopBackgroundWriter() {
+        BackgroundWriter w;
+        synchronized (writerLock) {
+            w = backgroundWriter;
+            backgroundWriter = null;
+        }
+        if (w != null) {
+            w.stop();
+        }
+    }
+
+    /**
+     * Set the fraction of the pool that may be dirty before the background
+     * writer writes more than the pages about to be evicted.
+     */
+    public void setDirtyHighWaterMark(double fraction) {
+        this.dirtyHighWaterMark = Math.max(0.0, Math.min(1.0, fraction));
+    }
+
+    /**
+     * 唤醒后台写线程，还没有时启动一个
+     */
+    private void wakeBackgroundWriter() {
+        BackgroundWriter w;
+        synchronized (writerLock) {
+            w = backgroundWriter;
+            if (w == null) {
+                w = backgroundWriter = new BackgroundWriter(DEFAULT_CLEANER_INTERVAL_MILLIS, 0);
+                w.thread.start();
+                return;
+            }
+        }
+        w.wake();
+    }
+
+    /**
+     * 后台写线程。不用interrupt停止它：写页面时被中断会关闭文件的FileChannel
+     */
+    private class BackgroundWriter implements Runnable {
+        private final long intervalMillis;
+        private final int pagesPerRound;
+        private final Thread thread;
+        private boolean stopped; // 由this保护
+        private boolean woken; // 由this保护
+
+        BackgroundWriter(long intervalMillis, int pagesPerRound) {
+            this.intervalMillis = intervalMillis;
+            this.pagesPerRound = pagesPerRound;
+            this.thread = new Thread(this, "simpledb-background-writer");
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    synchronized (this) {
+                        if (!stopped && !woken) {
+                            wait(intervalMillis);
+                        }
+                        woken = false;
+                        if (stopped) {
+                            return;
+                        }
+                    }
+                    if (Database.getBufferPool() != BufferPool.this) {
+                        // 缓冲池已被替换
+                        synchronized (writerLock) {
+                            if (backgroundWriter == this) {
+                                backgroundWriter = null;
+                            }
+                        }
+                        return;
+                    }
+                    try {
+                        pageCache.clean(dirtyHighWaterMark);
+                        for (PageId pid : Database.getLogFile().oldestDirtyPages(pagesPerRound)) {
+                            if (pageCache.write(pid)) {
+                                backgroundWrites.increment();
+                            }
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        // 例如页面所在的表已不在目录中，下一轮继续
+                        Debug.log("background write failed: %s", e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized void wake() {
+            woken = true;
+            notifyAll();
+        }
+
+        void stop() {
+            synchronized (this) {
+                stopped = true;
+                notifyAll();
+            }
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the number of pages written by the background writer
+     */
+    public long getBackgroundWriteCount() {
+        return backgroundWrites.sum();
+    }
+
+    /**
+     * @return the number of dirty pages that an eviction had to write itself
+     *         because it found no clean page to evict
+     */
+    public long getForegroundWriteCount() {
+        return foregroundWrites.sum();
     }
 
     /**
@@ -333,7 +978,7 @@ public class BufferPool {
     /**
      * Release all locks associated with a given transaction.
      *so can simply be implemented by calling transactionComplete(tid, true).
-     * ֱӵú
+     * 直接调用函数
      * @param tid the ID of the transaction requesting the unlock
      */
     public void transactionComplete(TransactionId tid) {
@@ -349,9 +994,9 @@ public class BufferPool {
      * When you commit, you should flush dirty pages associated to the transaction to disk.
      *  When you abort, you should revert any changes made by the transaction by restoring
      *  the page to its on-disk state.
-     *  Ҫһµĺrevert
-     *  ύֹӦͷ BufferPool ֵйκ״̬ͷ
-     * еκ
+     *  所以需要定义一个新的函数进行revert操作
+     *  无论事务提交还是终止，您都应该释放 BufferPool 保持的有关事务的任何状态，包括释放
+     * 事务持有的任何锁。
      * @param tid    the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
@@ -366,33 +1011,36 @@ public class BufferPool {
                 throw new RuntimeException(e);
             }
         }else{
-            revert(tid);
-        }
-        for(PageId pid:lruCache.cache.keySet())
-        {
-            if(lockManager.holdsLock(tid,pid))
-            {
-                lockManager.releaselock(tid,pid);
+            // 页面可能已被写回磁盘（STEAL），必须按日志回滚；已经通过日志中止的事务什么也不做
+            try {
+                Database.getLogFile().logAbort(tid);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
             }
+            revert(tid);
         }
+        lockManager.releaseAll(tid);
     }
+
+    /**
+     * 将tid修改过的页面恢复为磁盘上的版本。
+     * tid修改过的页面一定持有tid的互斥锁，因此只需检查这些页面。
+     * 操作中途被中止时（例如B+树分裂到一半时发生死锁），改过的页面还没有标记为脏，
+     * 所以持有互斥锁的页面一律重新读取
+     */
     public void revert(TransactionId tid){
-        for(Map.Entry<PageId, LRUCache.DLinkNode> group : lruCache.cache.entrySet())
+        for(PageId p:lockManager.lockedPages(tid))
         {
-            PageId p=group.getKey();
-            Page pages=group.getValue().value;
-            if(tid.equals(pages.isDirty()))
+            Page cached=pageCache.peek(p);
+            if(cached!=null&&(tid.equals(cached.isDirty())||lockManager.holdsExclusiveLock(tid,p)))
             {
-                int tableId=p.getTableId();
-                Page page=Database.getCatalog().getDatabaseFile(tableId).readPage(p);
-                lruCache.removeNode(group.getValue());
+                Page page=Database.getCatalog().getDatabaseFile(p.getTableId()).readPage(p);
                 try {
-                    lruCache.put(p,page);
+                    pageCache.put(p,page);
                 } catch (DbException e) {
                     throw new RuntimeException(e);
                 }
             }
-
         }
     }
 
@@ -418,37 +1066,86 @@ public class BufferPool {
         /*boolean in=false;
         for (Page page : p) {
             page.markDirty(true, tid);
-            if(page_store.size()<numPages)//bufferпλ
+            if(page_store.size()<numPages)//buffer里有空闲位置
             {
                 in=true;
             }
             for(int i=0;i<numPages;i++)
             {
-                if(buffer[i]==page.getId())//ҳѾ浽buffer
+                if(buffer[i]==page.getId())//该页已经缓存到buffer中
                 {
                     in=true;
                 }
             }
-            if(in)//Բ
+            if(in)//可以插入
             {
-               lruCache.put(page.getId(),page);
+               pageCache.put(page.getId(),page);
             }
-            else//ʱ˵bufferѾ
+            else//此时说明buffer已经满了
             {
                 evictPage();
-                lruCache.put(page.getId(),page);
+                pageCache.put(page.getId(),page);
             }
         }*/
-        /*List<Page> p=Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid,t);//б޸ĵҳ
+        /*List<Page> p=Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid,t);//数组列表包含已修改的页面
         for(Page pages:p)
         {
             pages.markDirty(true,tid);
-            lruCache.put(pages.getId(),pages);
+            pageCache.put(pages.getId(),pages);
         }*/
         //System.out.println("InsertTuple");
         //System.out.println(tableId);
         DbFile f = Database.getCatalog().getDatabaseFile(tableId);
         updateBufferPool(f.insertTuple(tid, t), tid);
+        // 表插入后元组才有RecordId，再在同一事务中插入二级索引的条目
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            index.insert(tid, t);
+        }
+    }
+
+    /**
+     * Add a batch of tuples to the specified table on behalf of transaction
+     * tid, letting the table fill whole pages at a time instead of going
+     * through {@link #insertTuple} once per tuple.
+     *
+     * @param tid     the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples  the tuples to add
+     * @see DbFile#insertTuples
+     */
+    public void insertTuples(TransactionId tid, int tableId, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+        List<SecondaryIndex> indexes = Database.getCatalog().getIndexes(tableId);
+        if (indexes.isEmpty()) {
+            updateBufferPool(f.insertTuples(tid, tuples), tid);
+            return;
+        }
+        // 有二级索引时留下这批元组，插入后按它们的RecordId更新索引
+        List<Tuple> batch = new ArrayList<>();
+        tuples.forEachRemaining(batch::add);
+        updateBufferPool(f.insertTuples(tid, batch.iterator()), tid);
+        for (SecondaryIndex index : indexes) {
+            for (Tuple t : batch) {
+                index.insert(tid, t);
+            }
+        }
+    }
+
+    /**
+     * Put a page that tid has just appended to its file and built in memory
+     * into the buffer pool, with a write lock for tid, instead of reading the
+     * empty page back from disk. The page is marked dirty by tid and is
+     * written when tid commits.
+     *
+     * @param tid  the transaction that appended the page
+     * @param page the new page
+     */
+    public void addNewPage(TransactionId tid, Page page)
+            throws TransactionAbortedException, DbException {
+        lockManager.getLocks(tid, page.getId(), 1);
+        page.markDirty(true, tid);
+        pageCache.put(page.getId(), page);
     }
 
     /**
@@ -469,20 +1166,28 @@ public class BufferPool {
         // TODO: some code goes here
         // not necessary for lab1
        /* List<Page> p=Database.getCatalog().getDatabaseFile
-                (t.getRecordId().getPageId().getTableId()).deleteTuple(tid,t);//б޸ĵҳ
+                (t.getRecordId().getPageId().getTableId()).deleteTuple(tid,t);//数组列表包含已修改的页面
         for (Page page : p) {
             page.markDirty(true, tid);
         }*/
-        DbFile updateFile = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+        int tableId = t.getRecordId().getPageId().getTableId();
+        DbFile updateFile = Database.getCatalog().getDatabaseFile(tableId);
         List<Page> updatePages = updateFile.deleteTuple(tid, t);
         updateBufferPool(updatePages, tid);
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            index.delete(tid, t);
+        }
     }
     public void updateBufferPool(List<Page> updatePages, TransactionId tid) {
         for (Page page : updatePages) {
-            page.markDirty(true, tid);
+            // 在页面的监视器中标记为脏：后台写线程在同一监视器中写回页面并清除脏标记，
+            // 不会把这次操作的修改当作已经写回
+            synchronized (page) {
+                page.markDirty(true, tid);
+            }
             // update bufferPool
             try {
-                lruCache.put(page.getId(), page);
+                pageCache.put(page.getId(), page);
             } catch (DbException e) {
                 throw new RuntimeException(e);
             }
@@ -490,8 +1195,8 @@ public class BufferPool {
     }
     /**
      * Flush all dirty pages to disk.
-     * NB: Be careful using this routine -- it writes dirty data to disk so will
-     * break simpledb if running in NO STEAL mode.
+     * The pages may hold uncommitted changes, which is fine since the pool
+     * runs in STEAL mode: their transactions abort through the log.
      */
     public synchronized void flushAllPages() throws IOException {
         // TODO: some code goes here
@@ -499,7 +1204,7 @@ public class BufferPool {
         /*for(Page p:page_store.values()){
             flushPage(p.getId());
         }*/
-        for (Map.Entry<PageId, LRUCache.DLinkNode> group : lruCache.cache.entrySet()) {
+        for (Map.Entry<PageId, PageCache.Frame> group : pageCache.cache.entrySet()) {
             Page page = group.getValue().value;
             if (page.isDirty() != null) {
                 this.flushPage(group.getKey());
@@ -520,8 +1225,7 @@ public class BufferPool {
     public synchronized void removePage(PageId pid) {
         // TODO: some code goes here
         // not necessary for lab1
-        LRUCache.DLinkNode node=lruCache.cache.get(pid);
-        lruCache.removeNode(node);
+        pageCache.remove(pid);
     }
 
     /**
@@ -535,23 +1239,67 @@ public class BufferPool {
         /*Page p=page_store.get(pid);
         Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
         p.markDirty(false,null);*/
-        Page p=lruCache.get(pid);
-        Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
-        p.markDirty(false,null);
+        pageCache.write(pid);
     }
 
     /**
-     * Write all pages of the specified transaction to disk.
+     * Write all pages of the specified transaction to disk, after forcing the
+     * log records that describe them. Their before images are then updated
+     * to the committed versions.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // TODO: some code goes here
         // not necessary for lab1|lab2
-        for (Map.Entry<PageId, LRUCache.DLinkNode> group : lruCache.cache.entrySet()){
-            PageId pid=group.getKey();
-            Page p=group.getValue().value;
-            if(tid.equals(p.isDirty()))
-            {
-                flushPage(pid);
+        // a page dirtied by tid is always locked by tid, so only its locked pages need checking
+        // 按表收集脏页一起交给DbFile，页号连续的页面可以合并成一次写
+        Map<Integer, List<PageCache.Frame>> byTable = new HashMap<>();
+        try {
+            for (PageId pid : lockManager.lockedPages(tid)){
+                PageCache.Frame frame=pageCache.pin(pid);
+                if(frame==null)
+                {
+                    continue;
+                }
+                if(tid.equals(frame.value.isDirty()))
+                {
+                    byTable.computeIfAbsent(pid.getTableId(), k -> new ArrayList<>()).add(frame);
+                }
+                else
+                {
+                    pageCache.unpin(frame);
+                }
+            }
+            // 写回之前日志必须先落盘（WAL）。这里不持有缓冲池的锁，并发提交的事务可以共用一次日志刷盘
+            List<Page> dirty = new ArrayList<>();
+            for (List<PageCache.Frame> frames : byTable.values()) {
+                for (PageCache.Frame frame : frames) {
+                    dirty.add(frame.value);
+                }
+            }
+            LogFile log = Database.getLogFile();
+            log.logPageWrites(dirty);
+            synchronized (this) {
+                for (Map.Entry<Integer, List<PageCache.Frame>> table : byTable.entrySet()) {
+                    List<Page> pages = new ArrayList<>();
+                    long[] marks = new long[table.getValue().size()];
+                    for (PageCache.Frame frame : table.getValue()) {
+                        marks[pages.size()] = log.beforePageWrite(frame.key);
+                        pages.add(frame.value);
+                    }
+                    Database.getCatalog().getDatabaseFile(table.getKey()).writePages(pages);
+                    for (int i = 0; i < pages.size(); i++) {
+                        Page p = pages.get(i);
+                        p.markDirty(false, null);
+                        p.setBeforeImage();
+                        log.pageWritten(p.getId(), marks[i]);
+                    }
+                }
+            }
+        } finally {
+            for (List<PageCache.Frame> frames : byTable.values()) {
+                for (PageCache.Frame frame : frames) {
+                    pageCache.unpin(frame);
+                }
             }
         }
     }
@@ -562,144 +1310,451 @@ public class BufferPool {
      */
     /**
      *
-     *LRU 㷨 <a href="https://juejin.cn/post/7027062270702125093">...</a>
-     * LRU㷨ʵҪһ˫͹ϣ
-     * ʵһLRU Cache,Cacheһݣɾһݣһ
-     * һݣɢбвݵʱ临ӶȽӽ O(1)ͨɢбǿԺܿڻ
-     *            ҵһݡҵ֮ǻҪƶ˫β
-     *ɾһݣɢбиӳϵͨ˫ɾҪɾ
-     *һݣҪȿǷѾڻСѾУҪƶ˫
-     *           βУҪûˣ˫ͷĽɾ
-     *           Ȼٽݷŵβûֱӽݷŵβ
+     *LRU 算法 <a href="https://juejin.cn/post/7027062270702125093">...</a>
+     * LRU算法实现需要一个双向链表和哈希表
+     * 实现一个LRU Cache,该Cache可以满足查找一个数据，删除一个数据，添加一个数据
+     * 查找一个数据：散列表中查找数据的时间复杂度接近 O(1)，所以通过散列表，我们可以很快地在缓存
+     *            中找到一个数据。当找到数据之后，我们还需要将它移动到双向链表的尾部。
+     *删除一个数据：在散列表中根据映射关系，通过双向链表删除想要删除的数据
+     *添加一个数据：我们需要先看这个数据是否已经在缓存中。如果已经在其中，需要将其移动到双向链表
+     *           的尾部；如果不在其中，还要看缓存有没有满。如果满了，则将双向链表头部的结点删除，
+     *           然后再将数据放到链表的尾部；如果没有满，就直接将数据放到链表的尾部。
      */
     private synchronized void evictPage() throws DbException {
         // TODO: some code goes here
         // not necessary for lab1
     }
 
-    public class LRUCache{
+    /**
+     * 缓冲池页表：ConcurrentHashMap保存PageId -> Frame。
+     * 命中时不获取任何全局锁，只通知替换策略一次访问；
+     * 缺页、替换和淘汰才需要协调：
+     *   1.同一页面的缺页/替换通过按PageId分段的锁串行化，避免重复读盘和丢失更新
+     *   2.帧位的占用由evictionLock保护，满时按替换策略给出的顺序淘汰第一个未被pin且不脏的帧；
+     *     都是脏页时先写回其中一个再淘汰（STEAL），写盘时不持有evictionLock
+     * 加锁顺序：分段锁 -> 页面自身的监视器 -> 日志
+     */
+    public class PageCache{
+        private static final int STRIPES = 64;
+
         /**
-         * ˫ڵ
+         * 缓冲帧，pins大于0时（正在读写磁盘）不能被淘汰
          */
-        class DLinkNode{
-            PageId key;
-            Page value;
-            DLinkNode prev;
-            DLinkNode next;
-            public DLinkNode(){};
-            public DLinkNode(PageId _key, Page _value)
-            {
-                this.key=_key;
-                this.value=_value;
+        class Frame{
+            final PageId key;
+            volatile Page value;
+            final AtomicInteger pins = new AtomicInteger();
+
+            public Frame(PageId key, Page value) {
+                this.key = key;
+                this.value = value;
             }
         }
-        /**
-         * ϣ
-         */
-        private Map<PageId, DLinkNode> cache;
-        private int size;
-        private int capacity;
-        private DLinkNode head=new DLinkNode(null ,null);
-        private DLinkNode tail=new DLinkNode(null,null);
-        /**
-         * ˫
-         */
-        public LRUCache(int capacity)
+
+        private final ConcurrentHashMap<PageId, Frame> cache;
+        private final ReentrantLock[] stripes;
+        private final Object evictionLock = new Object();
+        private final int capacity;
+        private final ReplacementPolicy policy;
+        private int used; // 已占用或已预留的帧数，由evictionLock保护
+        private boolean ranIntoDirty; // 淘汰时遇到了脏页，要唤醒后台写线程；由evictionLock保护
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        // 预读进来、还没有被getPage请求过的页面
+        private final ConcurrentHashMap<PageId, Boolean> prefetched = new ConcurrentHashMap<>();
+        private final LongAdder prefetchReads = new LongAdder();
+        private final LongAdder prefetchHits = new LongAdder();
+        private final LongAdder prefetchWasted = new LongAdder();
+
+        public PageCache(int capacity, ReplacementPolicy policy)
         {
-            size=0;
             this.capacity=capacity;
-            cache=new HashMap<>();
-            this.head=new DLinkNode();
-            this.head=new DLinkNode();
-            head.next = tail;
-            tail.prev = head;
+            this.policy=policy;
+            this.cache=new ConcurrentHashMap<>();
+            this.stripes=new ReentrantLock[STRIPES];
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new ReentrantLock();
+            }
+        }
+
+        private ReentrantLock stripeFor(PageId key) {
+            return stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
         }
+
         /**
-         * get
+         * 查找页面并记录一次访问，不存在时返回null
          */
         public Page get(PageId key)
         {
-            if(cache.containsKey(key)){
-                removeTohead(cache.get(key));
-                return cache.get(key).value ;
-            }else{
+            Frame frame = cache.get(key);
+            if (frame == null) {
                 return null;
             }
+            policy.accessed(key);
+            return frame.value;
+        }
+
+        /**
+         * 查找页面但不影响替换顺序
+         */
+        public Page peek(PageId key)
+        {
+            Frame frame = cache.get(key);
+            return frame == null ? null : frame.value;
+        }
+
+        /**
+         * 返回缓存中的页面；未命中时调用loader读入，同一页面的并发缺页只读一次盘
+         */
+        public Page getOrLoad(PageId key, Function<PageId, Page> loader) throws DbException {
+            return getOrLoad(key, loader, null);
+        }
+
+        /**
+         * 同getOrLoad，但缺页时优先回收ring中最早读入的帧，读入的页面记入ring
+         */
+        public Page getOrLoad(PageId key, Function<PageId, Page> loader, BufferRing ring) throws DbException {
+            Page page = get(key);
+            if (page != null) {
+                hit(key);
+                return page;
+            }
+            ReentrantLock stripe = stripeFor(key);
+            stripe.lock();
+            try {
+                page = get(key);
+                if (page != null) {
+                    hit(key);
+                    return page;
+                }
+                misses.increment();
+                return load(key, loader, ring, false);
+            } finally {
+                stripe.unlock();
+            }
+        }
 
+        /**
+         * 预读：页面不在缓存中时读入并标记为预读页面，不计入命中/缺页次数
+         */
+        public Page prefetch(PageId key, Function<PageId, Page> loader, BufferRing ring) throws DbException {
+            ReentrantLock stripe = stripeFor(key);
+            stripe.lock();
+            try {
+                Frame frame = cache.get(key);
+                if (frame != null) {
+                    return frame.value;
+                }
+                prefetchReads.increment();
+                return load(key, loader, ring, true);
+            } finally {
+                stripe.unlock();
+            }
+        }
+
+        private void hit(PageId key) {
+            hits.increment();
+            if (prefetched.remove(key) != null) {
+                prefetchHits.increment();
+            }
+        }
+
+        /**
+         * 读入页面，调用者须持有该页面的分段锁
+         */
+        private Page load(PageId key, Function<PageId, Page> loader, BufferRing ring, boolean prefetch) throws DbException {
+            reserve(ring);
+            Page page;
+            try {
+                page = loader.apply(key);
+            } catch (RuntimeException e) {
+                unreserve();
+                throw e;
+            }
+            // 先标记再放入缓存，保证命中时一定能看到预读标记
+            if (prefetch) {
+                prefetched.put(key, Boolean.TRUE);
+            }
+            cache.put(key, new Frame(key, page));
+            policy.admitted(key);
+            if (ring != null) {
+                synchronized (evictionLock) {
+                    ring.add(key);
+                }
+            }
+            return page;
+        }
 
+        /**
+         * 页面离开缓存时，如果它是预读进来却从未被请求过的，记一次浪费
+         */
+        private void dropped(PageId key) {
+            policy.removed(key);
+            if (prefetched.remove(key) != null) {
+                prefetchWasted.increment();
+            }
         }
+
         /**
-         * put
+         * 放入或替换页面
          */
         public void put(PageId key,Page value) throws DbException{
-            DLinkNode node=cache.get(key);
-            //keyڴһµĽڵ
-            DLinkNode newnode=new DLinkNode(key,value);
-            //System.out.println(node==null);
-            if(node==null)
-            {
-                size++;
-                if(size>capacity)
-                {
-                    DLinkNode removeNode=tail.prev;
-                    while (removeNode.value.isDirty()!=null)
-                    {
-                        removeNode=removeNode.prev;
-                        if(removeNode==head||removeNode==tail) {
-                        throw new DbException("ҳ");
+            ReentrantLock stripe = stripeFor(key);
+            stripe.lock();
+            try {
+                Frame frame = cache.get(key);
+                if (frame != null) {
+                    frame.value = value;
+                    policy.accessed(key);
+                    return;
+                }
+                reserve();
+                cache.put(key, new Frame(key, value));
+                policy.admitted(key);
+            } finally {
+                stripe.unlock();
+            }
+        }
+
+        /**
+         * 从缓存中移除页面（不写回）
+         */
+        public void remove(PageId key) {
+            ReentrantLock stripe = stripeFor(key);
+            stripe.lock();
+            try {
+                if (cache.remove(key) != null) {
+                    dropped(key);
+                    unreserve();
+                }
+            } finally {
+                stripe.unlock();
+            }
+        }
+
+        /**
+         * pin住页面所在的帧，返回null表示页面不在缓存中
+         */
+        public Frame pin(PageId key) {
+            ReentrantLock stripe = stripeFor(key);
+            stripe.lock();
+            try {
+                Frame frame = cache.get(key);
+                if (frame != null) {
+                    frame.pins.incrementAndGet();
+                }
+                return frame;
+            } finally {
+                stripe.unlock();
+            }
+        }
+
+        public void unpin(Frame frame) {
+            frame.pins.decrementAndGet();
+        }
+
+        /**
+         * 预留一个帧位，缓存已满时先淘汰
+         */
+        private void reserve() throws DbException {
+            reserve(null);
+        }
+
+        /**
+         * 预留一个帧位。ring已满时先回收ring中最早读入的页面；
+         * 该页已被弄脏、pin住或已不在缓存中时放弃它，继续尝试下一个，最后才按替换策略淘汰。
+         * 没有干净的页面可淘汰时，在evictionLock之外写回一个脏页，然后重试
+         */
+        private void reserve(BufferRing ring) throws DbException {
+            while (true) {
+                Frame dirty = null;
+                boolean wake;
+                synchronized (evictionLock) {
+                    while (ring != null && ring.isFull()) {
+                        Frame frame = cache.get(ring.pollOldest());
+                        if (frame != null && tryEvict(frame)) {
+                            break;
+                        }
+                    }
+                    while (used >= capacity && dirty == null) {
+                        dirty = evictOne();
                     }
+                    if (dirty == null) {
+                        used++;
+                    }
+                    wake = ranIntoDirty;
+                    ranIntoDirty = false;
+                }
+                if (wake && Database.getBufferPool() == BufferPool.this) {
+                    wakeBackgroundWriter();
+                }
+                if (dirty == null) {
+                    return;
+                }
+                try {
+                    // 调用者持有自己页面的分段锁，拿不到受害者的分段锁时不等待，重新挑选
+                    if (write(dirty, false)) {
+                        foregroundWrites.increment();
+                    } else {
+                        Thread.yield();
                     }
-                    cache.remove(removeNode.key);
-                    removeNode(removeNode);
-                    size--;
+                } catch (IOException e) {
+                    throw new DbException("写回脏页失败: " + e);
+                } finally {
+                    unpin(dirty);
                 }
-                //System.out.print("size<cap");
-            }else {
-                //System.out.println("elseִ");
-                //System.out.println("node is not null");
-                removeNode(node);
             }
-            //ӽϣ
-            cache.put(key,newnode);
-            //ͷ
-            addTohead(newnode);
+        }
 
+        private void unreserve() {
+            synchronized (evictionLock) {
+                used--;
+            }
+        }
 
+        /**
+         * 按替换策略给出的顺序淘汰第一个干净、未pin的帧。
+         * 策略给出的候选都不能淘汰时（例如CLOCK扫描期间页面又被访问），再退回到任意顺序遍历一遍。
+         * 拿不到受害者所在分段锁的帧会被跳过，避免与正在缺页的线程死锁
+         * @return 淘汰成功时返回null；否则返回顺序中第一个未pin的脏页，已替调用者pin住，
+         *         由调用者写回（STEAL）后再重试
+         * @throws DbException 所有帧都被pin住时
+         */
+        private Frame evictOne() throws DbException {
+            Frame dirty = null;
+            Iterator<PageId> order = policy.evictionOrder();
+            while (order.hasNext()) {
+                Frame frame = cache.get(order.next());
+                if (frame != null && tryEvict(frame)) {
+                    return null;
+                }
+                dirty = dirty == null ? stealable(frame) : dirty;
+            }
+            for (Frame frame : cache.values()) {
+                if (tryEvict(frame)) {
+                    return null;
+                }
+                dirty = dirty == null ? stealable(frame) : dirty;
+            }
+            if (dirty == null) {
+                throw new DbException("缓冲池中的页面都被pin住");
+            }
+            // 持有evictionLock，tryEvict不会同时淘汰它
+            dirty.pins.incrementAndGet();
+            return dirty;
+        }
 
+        private Frame stealable(Frame frame) {
+            if (frame == null || frame.value.isDirty() == null) {
+                return null;
+            }
+            ranIntoDirty = true;
+            return frame.pins.get() == 0 ? frame : null;
         }
+
         /**
-         * ӽڵ˫ͷ
+         * 写回页面（如果它在缓存中且是脏的），期间pin住它的帧
+         * @return 是否写了页面
          */
-        public void addTohead(DLinkNode node){
-            node.prev=head;
-            node.next=head.next;
-            head.next.prev=node;
-            head.next=node;
+        public boolean write(PageId key) throws IOException {
+            Frame frame = pin(key);
+            if (frame == null) {
+                return false;
+            }
+            try {
+                return write(frame, true);
+            } finally {
+                unpin(frame);
+            }
         }
+
         /**
-         * ɾڵ
+         * 写回一个已pin住的脏帧，页面可能含有未提交事务的修改（STEAL）。
+         * 在页面的分段锁和页面自身的监视器下：先把日志刷到页面的LSN（WAL），再写盘。
+         * 修改页面的线程也持有页面的监视器，所以写出的不会是只改了一半的页面；
+         * 持有分段锁则保证回滚移除页面后，不会有还没写完的旧版本落盘
+         * @param block 为false时拿不到分段锁就放弃
+         * @return 是否写了页面
          */
-        public void removeNode(DLinkNode node){
-            node.prev.next=node.next;
-            node.next.prev=node.prev;
+        private boolean write(Frame frame, boolean block) throws IOException {
+            ReentrantLock stripe = stripeFor(frame.key);
+            if (block) {
+                stripe.lock();
+            } else if (!stripe.tryLock()) {
+                return false;
+            }
+            try {
+                Page p = frame.value;
+                if (cache.get(frame.key) != frame) {
+                    return false;
+                }
+                synchronized (p) {
+                    if (p.isDirty() == null) {
+                        return false;
+                    }
+                    LogFile log = Database.getLogFile();
+                    log.logPageWrites(Collections.singletonList(p));
+                    long mark = log.beforePageWrite(frame.key);
+                    Database.getCatalog().getDatabaseFile(frame.key.getTableId()).writePage(p);
+                    p.markDirty(false, null);
+                    log.pageWritten(frame.key, mark);
+                    return true;
+                }
+            } finally {
+                stripe.unlock();
+            }
         }
+
         /**
-         * ڵƶͷ
+         * 后台写线程的一轮：写回即将被淘汰的页面中的脏页，让前台淘汰总能找到干净的帧；
+         * 脏页超过高水位时沿淘汰顺序继续写回，直到降到高水位以下
          */
-        public void removeTohead(DLinkNode node){
-            removeNode(node);
-            addTohead(node);
+        void clean(double highWaterMark) throws IOException {
+            int dirty = 0;
+            for (Frame frame : cache.values()) {
+                if (frame.value.isDirty() != null) {
+                    dirty++;
+                }
+            }
+            int lookahead = Math.max(1, capacity / 8);
+            int limit = (int) (highWaterMark * capacity);
+            Iterator<PageId> order = policy.upcomingEvictions();
+            for (int i = 0; order.hasNext() && (i < lookahead || dirty > limit); i++) {
+                Frame frame = pin(order.next());
+                if (frame == null) {
+                    continue;
+                }
+                try {
+                    // 其他线程pin住的页面正在写盘
+                    if (frame.pins.get() == 1 && write(frame, true)) {
+                        backgroundWrites.increment();
+                        dirty--;
+                    }
+                } finally {
+                    unpin(frame);
+                }
+            }
         }
-        /**
-         * ɾβڵ㲢
 
-        public DLinkNode removetail(){
-            DLinkNode p=tail.prev;
-            removeNode(p);
-            return p;
-        }*/
+        private boolean tryEvict(Frame frame) {
+            if (frame.pins.get() > 0 || frame.value.isDirty() != null) {
+                return false;
+            }
+            ReentrantLock stripe = stripeFor(frame.key);
+            if (!stripe.tryLock()) {
+                return false;
+            }
+            try {
+                if (frame.pins.get() == 0 && frame.value.isDirty() == null
+                        && cache.remove(frame.key, frame)) {
+                    dropped(frame.key);
+                    used--;
+                    return true;
+                }
+                return false;
+            } finally {
+                stripe.unlock();
+            }
+        }
     }
 }
-
-
-
@@ -0,0 +1,57 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+
+/**
+ * A small private ring of buffer frames for one sequential scan, in the
+ * spirit of PostgreSQL's buffer access strategies.
+ * <p>
+ * Pages that a scan reads through a ring and that were not already in the
+ * pool are remembered here. Once the ring is full, the next miss recycles the
+ * frame of the oldest page in the ring instead of asking the replacement
+ * policy for a victim, so a scan of a large table only ever occupies a
+ * handful of frames and leaves everyone else's hot pages alone. Pages that
+ * are already in the pool when the scan reaches them are used in place and
+ * never join the ring.
+ * <p>
+ * A ring belongs to a single iterator and is not thread-safe; the BufferPool
+ * only touches it while holding its eviction lock.
+ *
+ * @see BufferPool#getScanRing(int)
+ * @see BufferPool#getPage(simpledb.transaction.TransactionId, PageId, simpledb.common.Permissions, BufferRing)
+ */
+public class BufferRing {
+
+    private final int size;
+    private final ArrayDeque<PageId> pages;
+
+    /**
+     * @param size the number of frames the ring may occupy
+     */
+    public BufferRing(int size) {
+        this.size = Math.max(1, size);
+        this.pages = new ArrayDeque<>(this.size);
+    }
+
+    /**
+     * @return the number of frames the ring may occupy
+     */
+    public int getSize() {
+        return size;
+    }
+
+    boolean isFull() {
+        return pages.size() >= size;
+    }
+
+    /**
+     * Removes and returns the page the ring loaded longest ago.
+     */
+    PageId pollOldest() {
+        return pages.pollFirst();
+    }
+
+    void add(PageId pid) {
+        pages.addLast(pid);
+    }
+}
@@ -0,0 +1,114 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * CLOCK (second chance) replacement. Every resident page has a reference bit
+ * that a hit sets; a hit is a map lookup and, at most, one volatile write, so
+ * read hits do not write to any shared structure. Eviction sweeps a hand
+ * around the ring of resident pages, clearing reference bits, and offers the
+ * first page whose bit was already clear.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private final ConcurrentHashMap<PageId, AtomicBoolean> referenced = new ConcurrentHashMap<>();
+
+    // the ring and the hand are protected by this
+    private final List<PageId> ring = new ArrayList<>();
+    private int hand;
+
+    public synchronized void admitted(PageId pid) {
+        if (referenced.putIfAbsent(pid, new AtomicBoolean(true)) == null) {
+            ring.add(pid);
+        }
+    }
+
+    public void accessed(PageId pid) {
+        AtomicBoolean bit = referenced.get(pid);
+        if (bit != null && !bit.get()) {
+            bit.set(true);
+        }
+    }
+
+    public synchronized void removed(PageId pid) {
+        if (referenced.remove(pid) == null) {
+            return;
+        }
+        int i = ring.indexOf(pid);
+        ring.remove(i);
+        if (i < hand) {
+            hand--;
+        }
+        if (hand >= ring.size()) {
+            hand = 0;
+        }
+    }
+
+    /**
+     * Lazily sweeps the clock. Each page is offered at most once; after two
+     * full revolutions every page has had its bit cleared, so a page that is
+     * still not offered was hit again during the sweep and is skipped.
+     */
+    public Iterator<PageId> evictionOrder() {
+        return new Iterator<PageId>() {
+            private final Set<PageId> offered = new HashSet<>();
+            private PageId next;
+            private int steps;
+
+            public boolean hasNext() {
+                if (next != null) {
+                    return true;
+                }
+                synchronized (ClockPolicy.this) {
+                    int limit = 2 * ring.size();
+                    while (steps < limit && !ring.isEmpty()) {
+                        steps++;
+                        PageId pid = ring.get(hand);
+                        hand = (hand + 1) % ring.size();
+                        AtomicBoolean bit = referenced.get(pid);
+                        if (bit != null && bit.getAndSet(false)) {
+                            continue;
+                        }
+                        if (offered.add(pid)) {
+                            next = pid;
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            }
+
+            public PageId next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                PageId pid = next;
+                next = null;
+                return pid;
+            }
+        };
+    }
+    /**
+     * The pages the hand would offer on its next revolution, those whose bit
+     * is clear first, without moving the hand or touching any bit.
+     */
+    @Override
+    public synchronized Iterator<PageId> upcomingEvictions() {
+        List<PageId> cold = new ArrayList<>();
+        List<PageId> hot = new ArrayList<>();
+        for (int i = 0; i < ring.size(); i++) {
+            PageId pid = ring.get((hand + i) % ring.size());
+            AtomicBoolean bit = referenced.get(pid);
+            (bit != null && bit.get() ? hot : cold).add(pid);
+        }
+        cold.addAll(hot);
+        return cold.iterator();
+    }
+}
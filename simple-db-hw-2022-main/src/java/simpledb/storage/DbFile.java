@@ -6,7 +6,11 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * The interface for database files on disk. Each table is represented by a
@@ -31,6 +35,20 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Push several pages to disk. Files that can write adjacent pages with a
+     * single write should override this; the default calls
+     * {@link #writePage} for each page.
+     *
+     * @param pages The pages to write, in any order.
+     * @throws IOException if a write fails
+     */
+    default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -46,6 +64,34 @@ public interface DbFile {
     List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts a batch of tuples on behalf of a transaction. Files that can
+     * fill pages in bulk should override this; the default inserts the
+     * tuples one at a time with {@link #insertTuple}.
+     * <p>
+     * Every page returned has already been marked dirty by tid, so that
+     * pages modified early in the batch cannot be evicted while the rest of
+     * the batch is being inserted.
+     *
+     * @param tid    The transaction performing the update
+     * @param tuples The tuples to add. Each tuple is updated to reflect that
+     *               it is now stored in this file.
+     * @return A list of the pages that were modified
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    default List<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        Set<Page> modified = new LinkedHashSet<>();
+        while (tuples.hasNext()) {
+            for (Page p : insertTuple(tid, tuples.next())) {
+                p.markDirty(true, tid);
+                modified.add(p);
+            }
+        }
+        return new ArrayList<>(modified);
+    }
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
@@ -92,4 +138,13 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     TupleDesc getTupleDesc();
+
+    /**
+     * Releases the operating system resources the file holds open, such as its
+     * file descriptor. The Catalog calls this when the table is dropped or
+     * replaced. Files that keep something open should override this; the file
+     * must stay usable afterwards, reopening what it needs.
+     */
+    default void close() throws IOException {
+    }
 }
@@ -0,0 +1,116 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * Remembers which pages of a HeapFile are full, so that insertTuple can jump
+ * straight to a page with room instead of locking and checking every page
+ * from the start of the file.
+ * <p>
+ * The map is rebuilt the first time it is consulted after the file is opened
+ * by reading just the header bitmap of each page from disk, without going
+ * through the BufferPool or taking any locks. After that it is kept up to
+ * date by the HeapFile: inserts mark the pages they fill, deletes and page
+ * writes clear or set the bit for the page they touch. Pages past the end of
+ * the map, such as pages appended since it was built, are assumed to have
+ * room.
+ * <p>
+ * The map is only a hint. A page marked free may turn out to be full once it
+ * is locked (the caller then marks it full and asks again), and a page whose
+ * insert was rolled back stays marked full until it is next written or the
+ * file is reopened, which only wastes its free slots for a while.
+ *
+ * @see HeapFile#insertTuple
+ * @see HeapFile#insertTuples
+ */
+class FreeSpaceMap {
+
+    private final PageChannel channel;
+    private final int numSlots;
+    private final int headerSize;
+    // 已满的页面，置位表示没有空闲槽
+    private final BitSet full = new BitSet();
+    private boolean built;
+
+    /**
+     * @param channel the channel of the heap file
+     * @param td      the tuple descriptor of the heap file
+     */
+    FreeSpaceMap(PageChannel channel, TupleDesc td) {
+        this.channel = channel;
+        // 与HeapPage中的计算相同
+        this.numSlots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        this.headerSize = (numSlots + 7) / 8;
+    }
+
+    /**
+     * Returns the first page at or after from that may have a free slot.
+     *
+     * @param from     the first page number to consider
+     * @param numPages the number of pages in the file
+     * @return the page number, or -1 if every remaining page is full
+     */
+    synchronized int nextFreePage(int from, int numPages) throws IOException {
+        if (!built) {
+            build(numPages);
+        }
+        int pgNo = full.nextClearBit(from);
+        return pgNo < numPages ? pgNo : -1;
+    }
+
+    /**
+     * @return the number of tuple slots on each page of the file
+     */
+    int slotsPerPage() {
+        return numSlots;
+    }
+
+    /**
+     * Records whether the given page has any free slots left.
+     */
+    synchronized void setFull(int pgNo, boolean isFull) {
+        full.set(pgNo, isFull);
+    }
+
+    /**
+     * Appends pages to the end of the file with a single write and marks them
+     * full, so that no other insert can pick one of them before the caller has
+     * locked it. The caller records their real state once it has filled them.
+     *
+     * @param pages the data of one or more whole pages
+     * @return the page number of the first appended page
+     */
+    synchronized int append(byte[] pages) throws IOException {
+        if (!built) {
+            build((int) (channel.size() / BufferPool.getPageSize()));
+        }
+        int first = (int) (channel.append(pages) / BufferPool.getPageSize());
+        full.set(first, first + pages.length / BufferPool.getPageSize());
+        return first;
+    }
+
+    // 只读取每页的页头，统计已使用的槽
+    private void build(int numPages) throws IOException {
+        byte[] header = new byte[headerSize];
+        for (int i = 0; i < numPages; i++) {
+            if (channel.read((long) i * BufferPool.getPageSize(), header) < headerSize) {
+                break;
+            }
+            full.set(i, usedSlots(header) == numSlots);
+        }
+        built = true;
+    }
+
+    private int usedSlots(byte[] header) {
+        int used = 0;
+        for (int i = 0; i < numSlots / 8; i++) {
+            used += Integer.bitCount(header[i] & 0xff);
+        }
+        int rest = numSlots % 8;
+        if (rest > 0) {
+            used += Integer.bitCount(header[numSlots / 8] & ((1 << rest) - 1));
+        }
+        return used;
+    }
+}
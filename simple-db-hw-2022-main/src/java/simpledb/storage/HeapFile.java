@@ -9,6 +9,7 @@ import simpledb.transaction.TransactionId;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Future;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -22,8 +23,15 @@ import java.util.*;
  */
 public class HeapFile implements DbFile {
 
+    // 批量插入时一次追加的最多页数
+    private static final int EXTENT_PAGES = 16;
+
     private final File f;
     private final TupleDesc td;
+    // 整个表共用的文件通道，按位置读写页面
+    final PageChannel channel;
+    // 记录哪些页面已满，插入时跳过
+    private final FreeSpaceMap freeSpace;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -35,6 +43,8 @@ public class HeapFile implements DbFile {
         // TODO: some code goes here
         this.f = f;
         this.td = td;
+        this.channel = new PageChannel(f);
+        this.freeSpace = new FreeSpaceMap(channel, td);
     }
 
     /**
@@ -87,30 +97,17 @@ public class HeapFile implements DbFile {
         int tableId = pid.getTableId();
         int pgNo = pid.getPageNumber();
 
-        RandomAccessFile file = null;
         try {
-            file = new RandomAccessFile(f, "r");
-            if ((long) (pgNo + 1) * BufferPool.getPageSize() > f.length()) {
-                file.close();
-                throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pgNo));
-            }
             byte[] bytes = new byte[BufferPool.getPageSize()];
-            file.seek(pgNo * BufferPool.getPageSize());
-            // big end
-            int read = file.read(bytes, 0, BufferPool.getPageSize());
+            // 按位置读，不移动共享的文件指针；读不满一页说明页号越界
+            int read = channel.read((long) pgNo * BufferPool.getPageSize(), bytes);
             if (read != BufferPool.getPageSize()) {
-                throw new IllegalArgumentException(String.format("table %d page %d read %d bytes", tableId, pgNo, read));
+                throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pgNo));
             }
             HeapPageId id = new HeapPageId(pid.getTableId(), pid.getPageNumber());
             return new HeapPage(id, bytes);
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            try {
-                file.close();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
         }
         throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pgNo));
     }
@@ -120,17 +117,55 @@ public class HeapFile implements DbFile {
         // TODO: some code goes here
         // not necessary for lab1
         int pgNo = page.getId().getPageNumber();
-        RandomAccessFile file = null;
-        file = new RandomAccessFile(f, "rw");
         if (pgNo > numPages()) {
             throw new IllegalArgumentException();
         }
-        int pageSiz = BufferPool.getPageSize();
-        file.seek(pageSiz * pgNo);
-        byte[] data = page.getPageData();
-        file.write(data);
-        file.close();
+        channel.write((long) pgNo * BufferPool.getPageSize(), page.getPageData());
         page.markDirty(false, null);
+        if (page instanceof HeapPage) {
+            freeSpace.setFull(pgNo, ((HeapPage) page).getNumUnusedSlots() == 0);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        // 按页号排序，页号连续的页面合并成一次写
+        List<Page> sorted = new ArrayList<>(pages);
+        sorted.sort(Comparator.comparingInt(p -> p.getId().getPageNumber()));
+        int start = 0;
+        while (start < sorted.size()) {
+            int end = start + 1;
+            while (end < sorted.size() && sorted.get(end).getId().getPageNumber()
+                    == sorted.get(end - 1).getId().getPageNumber() + 1) {
+                end++;
+            }
+            if (end - start == 1) {
+                writePage(sorted.get(start));
+            } else {
+                writeRun(sorted.subList(start, end));
+            }
+            start = end;
+        }
+    }
+
+    // 一次写入一段页号连续的页面
+    private void writeRun(List<Page> run) throws IOException {
+        int first = run.get(0).getId().getPageNumber();
+        if (first > numPages()) {
+            throw new IllegalArgumentException();
+        }
+        int pageSize = BufferPool.getPageSize();
+        byte[] data = new byte[run.size() * pageSize];
+        for (int i = 0; i < run.size(); i++) {
+            System.arraycopy(run.get(i).getPageData(), 0, data, i * pageSize, pageSize);
+        }
+        channel.write((long) first * pageSize, data);
+        for (Page page : run) {
+            page.markDirty(false, null);
+            if (page instanceof HeapPage) {
+                freeSpace.setFull(page.getId().getPageNumber(), ((HeapPage) page).getNumUnusedSlots() == 0);
+            }
+        }
     }
 
     /**
@@ -138,8 +173,16 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // TODO: some code goes here
-        int r = (int) Math.floor(getFile().length() * 1.0 / BufferPool.getPageSize());
-        return r;
+        try {
+            return (int) (channel.size() / BufferPool.getPageSize());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        channel.close();
     }
 
     // see DbFile.java for javadocs
@@ -155,48 +198,125 @@ public class HeapFile implements DbFile {
      * @return An ArrayList contain the pages that were modified
      * @throws DbException if the tuple cannot be added
      * @throws IOException if the needed file can't be read/written
-     *                     һ t ҳ p Ҳвۣ t ܻͷŶ p 
+     *                     如果一个事务 t 在页 p 上找不到空闲槽， t 可能会立即释放对 p 的锁
      */
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
 
         // TODO: some code goes here
         // not necessary for lab1
+        return insertTuples(tid, Collections.singletonList(t).iterator());
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
         List<Page> pageList = new ArrayList<>();
-        //пҳԽв
-        for (int i = 0; i < numPages(); i++) {
+        //先填满已有的空闲页，一页满了才去找下一页
+        HeapPage p = null;
+        Tuple pending = null;
+        while (tuples.hasNext()) {
+            Tuple t = tuples.next();
+            if (p == null || p.getNumUnusedSlots() == 0) {
+                p = findPageWithRoom(tid);
+                if (p == null) {
+                    pending = t;
+                    break;
+                }
+                pageList.add(p);
+            }
+            // 修改页面、记日志和更新LSN都在页面的监视器下进行，后台写页面的线程不会写出只改了一半的页面
+            synchronized (p) {
+                p.insertTuple(t);
+                // 只记录这个槽的新内容，不记录整页的前后像
+                int slot = t.getRecordId().getTupleNumber();
+                p.setLsn(Database.getLogFile().logInsert(tid, p.getId(), slot, p.slotData(slot)));
+                // 立即标记为脏页，缓冲池换出它之前会先写回
+                p.markDirty(true, tid);
+            }
+            if (p.getNumUnusedSlots() == 0) {
+                freeSpace.setFull(p.getId().getPageNumber(), true);
+            }
+        }
+        //没有空闲页：剩下的元组按区段在内存中装满新页，每个区段只追加一次
+        int perExtent = EXTENT_PAGES * freeSpace.slotsPerPage();
+        while (pending != null) {
+            List<Tuple> batch = new ArrayList<>();
+            batch.add(pending);
+            while (batch.size() < perExtent && tuples.hasNext()) {
+                batch.add(tuples.next());
+            }
+            appendExtent(tid, batch, pageList);
+            pending = tuples.hasNext() ? tuples.next() : null;
+        }
+        return pageList;
+    }
+
+    /**
+     * 由空闲空间表直接找到可能有空闲槽的页面，不再逐页加锁检查
+     * @return 加了写锁且有空闲槽的页面，所有页面都满时返回null
+     */
+    private HeapPage findPageWithRoom(TransactionId tid)
+            throws DbException, IOException, TransactionAbortedException {
+        int i = -1;
+        while ((i = freeSpace.nextFreePage(i + 1, numPages())) >= 0) {
             HeapPageId pid = new HeapPageId(getId(),i);
+            // 只有为了检查空闲槽才加的锁可以提前释放；事务之前已持有锁的页面可能已被它修改，必须保留到提交
+            boolean held = Database.getBufferPool().holdsLock(tid, pid);
             HeapPage p = (HeapPage) Database.getBufferPool().getPage
                     (tid, pid, Permissions.READ_WRITE);
-            if (p.getNumUnusedSlots() == 0) {
+            if (p.getNumUnusedSlots() > 0) {
+                return p;
+            }
+            freeSpace.setFull(i, true);
+            if (!held) {
                 Database.getBufferPool().unsafeReleasePage(tid,pid);
-                continue;
             }
-            p.insertTuple(t);
-            pageList.add(p);
-            return pageList;
+        }
+        return null;
+    }
 
+    /**
+     * 在文件末尾追加装下batch所需的页面：磁盘上只用一次写预留空页，
+     * 元组在内存中直接写入新页后交给缓冲池，提交时才写回，不必再从磁盘读回这些空页
+     */
+    private void appendExtent(TransactionId tid, List<Tuple> batch, List<Page> pageList)
+            throws DbException, IOException, TransactionAbortedException {
+        int slots = freeSpace.slotsPerPage();
+        int pages = (batch.size() + slots - 1) / slots;
+        // 追加是原子的，并发插入的事务各得到自己的页面
+        int first = freeSpace.append(new byte[pages * BufferPool.getPageSize()]);
+        Iterator<Tuple> it = batch.iterator();
+        for (int i = 0; i < pages; i++) {
+            HeapPage p = new HeapPage(new HeapPageId(getId(), first + i), HeapPage.createEmptyPageData());
+            while (it.hasNext() && p.getNumUnusedSlots() > 0) {
+                p.insertTuple(it.next());
+            }
+            // 新页面整页记入日志（前像为空页），比逐个元组记录更紧凑
+            p.setLsn(Database.getLogFile().logWrite(tid, p.getBeforeImage(), p));
+            Database.getBufferPool().addNewPage(tid, p);
+            freeSpace.setFull(first + i, p.getNumUnusedSlots() == 0);
+            pageList.add(p);
         }
-        //ûпҲԲ
-        BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f, true));//????Ľ쿴ѧϰ
-        byte[] b = HeapPage.createEmptyPageData();
-        bw.write(b);
-        bw.close();
-        HeapPage p = (HeapPage) Database.getBufferPool().getPage
-                (tid, new HeapPageId(this.getId(), numPages() - 1), Permissions.READ_WRITE);
-        p.insertTuple(t);
-        pageList.add(p);
-        return pageList;
     }
 
     // see DbFile.java for javadocs
     public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
-            TransactionAbortedException {
+            IOException, TransactionAbortedException {
         // TODO: some code goes here
         HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
-        p.deleteTuple(t);
-        p.markDirty(true, tid);
-        return Collections.singletonList(p);//
+        int slot = t.getRecordId().getTupleNumber();
+        synchronized (p) {
+            // 删除前取出槽中的内容，回滚时据此恢复
+            byte[] old = slot >= 0 && slot < p.numSlots ? p.slotData(slot) : null;
+            p.deleteTuple(t);
+            if (old != null) {
+                p.setLsn(Database.getLogFile().logDelete(tid, p.getId(), slot, old));
+            }
+            p.markDirty(true, tid);
+        }
+        freeSpace.setFull(p.getId().getPageNumber(), false);
+        return Collections.singletonList(p);//？？？
         // not necessary for lab1
     }
 
@@ -209,9 +329,16 @@ public class HeapFile implements DbFile {
     private static final class HeapFileIterator implements DbFileIterator {
         private final HeapFile heapFile;
         private final TransactionId tid;
-        // Ԫ
+        // 元组迭代器
         private Iterator<Tuple> iterator;
-        private int readnum;
+        // 当前页号，预读线程也会读取
+        private volatile int readnum;
+        // 打开时的页数，读完后再向文件确认一次
+        private int numPages;
+        // 大表扫描使用的私有缓冲环，小表为null
+        private BufferRing ring;
+        // 正在进行的预读任务
+        private Future<?> readAhead;
 
         public HeapFileIterator(HeapFile heapFile, TransactionId tid) {
             this.heapFile = heapFile;
@@ -220,18 +347,22 @@ public class HeapFile implements DbFile {
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            // ȡһҳȫԪ
+            // 表相对缓冲池较大时使用私有缓冲环，避免扫描冲掉其他事务的热点页面
+            numPages = heapFile.numPages();
+            ring = Database.getBufferPool().getScanRing(numPages);
+            // 获取第一页的全部元组
             readnum = 0;
             iterator = getPageTuple(readnum);
         }
 
-        // ȡǰҳ
+        // 获取当前页的所有行
         private Iterator<Tuple> getPageTuple(int pageNumber) throws TransactionAbortedException, DbException {
-            // ļΧ
-            if (pageNumber >= 0 && pageNumber < heapFile.numPages()) {
+            // 在文件范围内
+            if (pageNumber >= 0 && pageNumber < numPages) {
                 HeapPageId pid=new HeapPageId(heapFile.getId(),pageNumber);
-                // ӻвѯӦҳ Ȩ
-                HeapPage page =(HeapPage)Database.getBufferPool().getPage(tid,pid,Permissions.READ_ONLY);
+                // 从缓存池中查询相应的页面 读权限
+                HeapPage page =(HeapPage)Database.getBufferPool().getPage(tid,pid,Permissions.READ_ONLY,ring);
+                readAhead(page);
                 return page.iterator();
             }else{
                 throw new DbException(String.format("heapFile %d not contain page %d", pageNumber, heapFile.getId()));
@@ -239,50 +370,74 @@ public class HeapFile implements DbFile {
 
         }
 
+        // 连续读到第二页后开始预读后面的页面，上一次预读完成前不再发起新的预读。
+        // 预读任务总是从扫描当前所在页的下一页继续，不会去读扫描已经读过的页面
+        private void readAhead(HeapPage page) {
+            if (readnum == 0 || (readAhead != null && !readAhead.isDone())) {
+                return;
+            }
+            int tableId = heapFile.getId();
+            int numPages = this.numPages;
+            readAhead = Database.getBufferPool().readAhead(page, p -> {
+                int next = Math.max(p.getId().getPageNumber(), readnum) + 1;
+                return next < numPages ? new HeapPageId(tableId, next) : null;
+            }, ring);
+        }
+
         @Override
         public boolean hasNext() throws DbException, TransactionAbortedException {
-            // Ϊ
+            // 如果迭代器为空
             if (iterator == null) {
                 return false;
             }
-            // Ѿ
+            // 如果已经遍历结束
             if (!iterator.hasNext()) {
-                // Ƿ񻹴һҳСļҳ
-                while (readnum < (heapFile.numPages() - 1)) {
+                // 是否还存在下一页，小于文件的最大页
+                while (hasMorePages()) {
                     readnum++;
-                    // ȡһҳ
+                    // 获取下一页
                     iterator = getPageTuple(readnum);
                     if (iterator.hasNext()) {
                         return iterator.hasNext();
                     }
                 }
-                // Ԫȡ
+                // 所有元组获取完毕
                 return false;
             }
             return true;
         }
 
+        // 缓存的页数读完后重新取一次文件的页数，扫描期间追加的页面也能读到
+        private boolean hasMorePages() {
+            if (readnum < numPages - 1) {
+                return true;
+            }
+            numPages = heapFile.numPages();
+            return readnum < numPages - 1;
+        }
+
         @Override
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-            // ûԪˣ׳쳣
+            // 如果没有元组了，抛出异常
             if (iterator == null || !iterator.hasNext()) {
                 throw new NoSuchElementException();
             }
-            // һԪ
+            // 返回下一个元组
             return iterator.next();
         }
 
         @Override
         public void rewind() throws DbException, TransactionAbortedException {
-            // һ
+            // 清除上一个迭代器
             close();
-            // ¿ʼ
+            // 重新开始
             open();
         }
 
         @Override
         public void close() {
             iterator = null;
+            readAhead = null;
         }
     }
 }
@@ -4,8 +4,13 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -17,6 +22,19 @@ import java.util.List;
 
 public class HeapFileEncoder {
 
+    /**
+     * The default number of input bytes parsed by one task of a parallel
+     * conversion.
+     */
+    public static final int DEFAULT_CHUNK_BYTES = 4 << 20;
+    /**
+     * The most bytes of input and encoded records a parallel conversion holds
+     * at once, however many threads it runs.
+     */
+    public static final long MAX_IN_FLIGHT_BYTES = 64 << 20;
+    // 进度输出的间隔
+    private static final long REPORT_NANOS = 1_000_000_000L;
+
     /**
      * Convert the specified tuple list (with only integer fields) into a binary
      * page file. <br>
@@ -81,6 +99,9 @@ public class HeapFileEncoder {
      * <p>
      * The format of the output file will be as specified in HeapPage and
      * HeapFile.
+     * <p>
+     * The input is parsed in parallel on all available processors; see
+     * {@link #convert(File, File, int, int, Type[], char, int, int, PrintStream)}.
      *
      * @param inFile     The input file to read data from
      * @param outFile    The output file to write data to
@@ -94,135 +115,341 @@ public class HeapFileEncoder {
     public static void convert(File inFile, File outFile, int npagebytes,
                                int numFields, Type[] typeAr, char fieldSeparator)
             throws IOException {
+        convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+                DEFAULT_CHUNK_BYTES, Runtime.getRuntime().availableProcessors(), null);
+    }
 
-        int nrecbytes = 0;
-        for (int i = 0; i < numFields; i++) {
-            nrecbytes += typeAr[i].getLen();
-        }
-        int nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);  //floor comes for free
-
-        //  per record, we need one bit; there are nrecords per page, so we need
-        // nrecords bits, i.e., ((nrecords/32)+1) integers.
-        int nheaderbytes = (nrecords / 8);
-        if (nheaderbytes * 8 < nrecords)
-            nheaderbytes++;  //ceiling
-        int nheaderbits = nheaderbytes * 8;
-
-        BufferedReader br = new BufferedReader(new FileReader(inFile));
-        FileOutputStream os = new FileOutputStream(outFile);
-
-        // our numbers probably won't be much larger than 1024 digits
-        char[] buf = new char[1024];
-
-        int curpos = 0;
-        int recordcount = 0;
-        int npages = 0;
-        int fieldNo = 0;
-
-        ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-        DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-        ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-        DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
-        boolean done = false;
-        boolean first = true;
-        while (!done) {
-            int c = br.read();
-
-            // Ignore Windows/Notepad special line endings
-            if (c == '\r')
-                continue;
-
-            if (c == '\n') {
-                if (first)
-                    continue;
-                recordcount++;
-                first = true;
-            } else
-                first = false;
-            if (c == fieldSeparator || c == '\n' || c == '\r') {
-                String s = new String(buf, 0, curpos);
-                if (typeAr[fieldNo] == Type.INT_TYPE) {
-                    try {
-                        pageStream.writeInt(Integer.parseInt(s.trim()));
-                    } catch (NumberFormatException e) {
-                        System.out.println("BAD LINE : " + s);
+    /**
+     * Convert the specified input text file into a binary page file, parsing
+     * it in parallel.
+     * <p>
+     * The input is read sequentially in chunks of about chunkBytes bytes, and
+     * each chunk is cut at line ends into tasks whose records take at most
+     * chunkBytes bytes too. Each task is parsed and encoded into tuple records
+     * on a fork-join pool, and the records are packed into pages and written
+     * in input order as soon as the task is done. At most two tasks per
+     * thread, and at most {@link #MAX_IN_FLIGHT_BYTES} of their input and
+     * records, are in flight at any time, so memory use grows neither with
+     * the size of the input nor with the number of threads.
+     * <p>
+     * Blank lines are skipped. A line with the wrong number of fields or an
+     * integer field that does not parse is a malformed line. String fields
+     * longer than {@link Type#STRING_LEN} are truncated. The last line does
+     * not need a trailing newline.
+     *
+     * @param inFile         The input file to read data from
+     * @param outFile        The output file to write data to
+     * @param npagebytes     The number of bytes per page in the output file
+     * @param numFields      the number of fields in each input line/output tuple
+     * @param typeAr         the type of each field
+     * @param fieldSeparator the character between fields of a line
+     * @param chunkBytes     the approximate number of input bytes parsed by one task
+     * @param parallelism    the number of parser threads
+     * @param progress       where to print rows/sec and MB/sec about once a
+     *                       second, or null to print nothing
+     * @throws IOException if the input/output file can't be opened or a
+     *                     malformed input line is encountered
+     */
+    public static void convert(File inFile, File outFile, int npagebytes,
+                               int numFields, Type[] typeAr, char fieldSeparator,
+                               int chunkBytes, int parallelism, PrintStream progress)
+            throws IOException {
+        RecordEncoder encoder = new RecordEncoder(numFields, typeAr, (byte) fieldSeparator);
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        Deque<ForkJoinTask<Records>> inFlight = new ArrayDeque<>();
+        int maxInFlight = 2 * Math.max(1, parallelism);
+        // 一个任务的记录不超过一块
+        int maxLines = Math.max(1, chunkBytes / encoder.recordBytes);
+        long inFlightBytes = 0;
+        Progress report = new Progress(progress);
+
+        try (InputStream in = new FileInputStream(inFile);
+             PageWriter out = new PageWriter(outFile, npagebytes, encoder.recordBytes)) {
+            byte[] carry = new byte[0];
+            boolean eof = false;
+            while (!eof) {
+                // 上一块末尾不完整的行放在这一块的开头
+                byte[] buf = Arrays.copyOf(carry, carry.length + chunkBytes);
+                int len = carry.length + in.readNBytes(buf, carry.length, chunkBytes);
+                eof = len < buf.length;
+                int from = 0;
+                while (true) {
+                    // 切出下一个任务：到第maxLines个换行为止
+                    int lines = 0;
+                    int to = from;
+                    for (int i = from; i < len && lines < maxLines; i++) {
+                        if (buf[i] == '\n') {
+                            lines++;
+                            to = i + 1;
+                        }
                     }
-                } else if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                    s = s.trim();
-                    int overflow = Type.STRING_LEN - s.length();
-                    if (overflow < 0) {
-                        s = s.substring(0, Type.STRING_LEN);
+                    if (eof && lines < maxLines && to < len) {
+                        // 最后一行可以没有换行
+                        lines++;
+                        to = len;
                     }
-                    pageStream.writeInt(s.length());
-                    pageStream.writeBytes(s);
-                    while (overflow-- > 0)
-                        pageStream.write((byte) 0);
+                    if (to == from) {
+                        // 没有完整的行了（或一行比一块还长），留到下一块
+                        break;
+                    }
+                    long taskBytes = (to - from) + (long) lines * encoder.recordBytes;
+                    while (!inFlight.isEmpty()
+                            && (inFlight.size() >= maxInFlight || inFlightBytes + taskBytes > MAX_IN_FLIGHT_BYTES)) {
+                        inFlightBytes -= writeOldest(inFlight, out, report);
+                    }
+                    final int taskFrom = from;
+                    final int taskTo = to;
+                    final int taskLines = lines;
+                    inFlight.addLast(pool.submit(() -> encoder.encode(buf, taskFrom, taskTo, taskLines)));
+                    inFlightBytes += taskBytes;
+                    from = to;
                 }
-                curpos = 0;
-                if (c == '\n')
-                    fieldNo = 0;
-                else
-                    fieldNo++;
-
-            } else if (c == -1) {
-                done = true;
-
-            } else {
-                buf[curpos++] = (char) c;
-                continue;
+                carry = Arrays.copyOfRange(buf, from, len);
+            }
+            while (!inFlight.isEmpty()) {
+                writeOldest(inFlight, out, report);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        report.done();
+    }
+
+    /**
+     * Waits for the oldest task in flight and writes out its records.
+     *
+     * @return the number of bytes of input and records the task held
+     */
+    private static long writeOldest(Deque<ForkJoinTask<Records>> inFlight, PageWriter out, Progress progress)
+            throws IOException {
+        Records records = join(inFlight.pollFirst());
+        out.write(records);
+        progress.add(records);
+        return records.inputBytes + records.data.length;
+    }
+
+    private static Records join(ForkJoinTask<Records> task) throws IOException {
+        try {
+            return task.join();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Counts the rows and input bytes written, printing the rates about once
+     * a second if there is somewhere to print them.
+     */
+    private static final class Progress {
+        private final PrintStream ps;
+        private final long start = System.nanoTime();
+        private long lastReport = start;
+        private long rows;
+        private long bytes;
+
+        Progress(PrintStream ps) {
+            this.ps = ps;
+        }
+
+        void add(Records records) {
+            rows += records.count;
+            bytes += records.inputBytes;
+            long now = System.nanoTime();
+            if (ps != null && now - lastReport >= REPORT_NANOS) {
+                print(now);
+                lastReport = now;
             }
+        }
 
-            // if we wrote a full page of records, or if we're done altogether,
-            // write out the header of the page.
-            //
-            // in the header, write a 1 for bits that correspond to records we've
-            // written and 0 for empty slots.
-            //
-            // when we're done, also flush the page to disk, but only if it has
-            // records on it.  however, if this file is empty, do flush an empty
-            // page to disk.
-            if (recordcount >= nrecords
-                    || done && recordcount > 0
-                    || done && npages == 0) {
-                int i = 0;
-                byte headerbyte = 0;
-
-                for (i = 0; i < nheaderbits; i++) {
-                    if (i < recordcount)
-                        headerbyte |= (1 << (i % 8));
-
-                    if (((i + 1) % 8) == 0) {
-                        headerStream.writeByte(headerbyte);
-                        headerbyte = 0;
-                    }
+        void done() {
+            if (ps != null) {
+                print(System.nanoTime());
+            }
+        }
+
+        private void print(long now) {
+            double secs = Math.max(now - start, 1) / 1e9;
+            ps.printf("%d rows, %.0f rows/sec, %.1f MB/sec%n",
+                    rows, rows / secs, bytes / secs / (1 << 20));
+        }
+    }
+
+    /**
+     * The encoded records of one task's input, in input order.
+     */
+    private static final class Records {
+        final byte[] data;
+        final int count;
+        final int inputBytes;
+
+        Records(byte[] data, int count, int inputBytes) {
+            this.data = data;
+            this.count = count;
+            this.inputBytes = inputBytes;
+        }
+    }
+
+    /**
+     * Parses lines of text into tuple records in the on-page format. Holds
+     * no mutable state, so one encoder serves all parser threads.
+     */
+    private static final class RecordEncoder {
+        final int numFields;
+        final Type[] typeAr;
+        final byte separator;
+        final int recordBytes;
+
+        RecordEncoder(int numFields, Type[] typeAr, byte separator) {
+            this.numFields = numFields;
+            this.typeAr = typeAr;
+            this.separator = separator;
+            int n = 0;
+            for (int i = 0; i < numFields; i++) {
+                n += typeAr[i].getLen();
+            }
+            this.recordBytes = n;
+        }
+
+        /**
+         * Encodes the lines in buf[from, to).
+         *
+         * @param lines the number of lines in the range, blank ones included
+         * @throws UncheckedIOException on a malformed line
+         */
+        Records encode(byte[] buf, int from, int to, int lines) {
+            byte[] out = new byte[lines * recordBytes];
+            int count = 0;
+            int lineStart = from;
+            while (lineStart < to) {
+                int lineEnd = lineStart;
+                while (lineEnd < to && buf[lineEnd] != '\n') {
+                    lineEnd++;
+                }
+                int contentEnd = lineEnd;
+                // Ignore Windows/Notepad special line endings
+                while (contentEnd > lineStart && buf[contentEnd - 1] == '\r') {
+                    contentEnd--;
+                }
+                if (contentEnd > lineStart) {
+                    encodeLine(buf, lineStart, contentEnd, out, count * recordBytes);
+                    count++;
                 }
+                lineStart = lineEnd + 1;
+            }
+            return new Records(out, count, to - from);
+        }
 
-                if (i % 8 > 0)
-                    headerStream.writeByte(headerbyte);
+        private void encodeLine(byte[] buf, int start, int end, byte[] out, int pos) {
+            int fieldStart = start;
+            for (int fieldNo = 0; fieldNo < numFields; fieldNo++) {
+                int fieldEnd = fieldStart;
+                while (fieldEnd < end && buf[fieldEnd] != separator) {
+                    fieldEnd++;
+                }
+                if (fieldEnd == end && fieldNo < numFields - 1 || fieldEnd < end && fieldNo == numFields - 1) {
+                    throw malformed(buf, start, end);
+                }
+                if (typeAr[fieldNo] == Type.INT_TYPE) {
+                    writeInt(out, pos, parseInt(buf, fieldStart, fieldEnd, start, end));
+                } else {
+                    writeString(out, pos, buf, fieldStart, fieldEnd);
+                }
+                pos += typeAr[fieldNo].getLen();
+                fieldStart = fieldEnd + 1;
+            }
+        }
 
-                // pad the rest of the page with zeroes
+        private int parseInt(byte[] buf, int from, int to, int lineStart, int lineEnd) {
+            while (from < to && (buf[from] & 0xff) <= ' ') {
+                from++;
+            }
+            while (to > from && (buf[to - 1] & 0xff) <= ' ') {
+                to--;
+            }
+            try {
+                return Integer.parseInt(new String(buf, from, to - from, StandardCharsets.ISO_8859_1));
+            } catch (NumberFormatException e) {
+                throw malformed(buf, lineStart, lineEnd);
+            }
+        }
+
+        private void writeString(byte[] out, int pos, byte[] buf, int from, int to) {
+            String s = new String(buf, from, to - from).trim();
+            if (s.length() > Type.STRING_LEN) {
+                s = s.substring(0, Type.STRING_LEN);
+            }
+            writeInt(out, pos, s.length());
+            // 与DataOutputStream.writeBytes相同，每个字符只写低8位
+            for (int i = 0; i < s.length(); i++) {
+                out[pos + 4 + i] = (byte) s.charAt(i);
+            }
+        }
+
+        private static void writeInt(byte[] out, int pos, int v) {
+            out[pos] = (byte) (v >>> 24);
+            out[pos + 1] = (byte) (v >>> 16);
+            out[pos + 2] = (byte) (v >>> 8);
+            out[pos + 3] = (byte) v;
+        }
+
+        private static UncheckedIOException malformed(byte[] buf, int start, int end) {
+            return new UncheckedIOException(new IOException("BAD LINE : " + new String(buf, start, end - start)));
+        }
+    }
 
-                for (i = 0; i < (npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                    pageStream.writeByte(0);
+    /**
+     * Packs records into heap pages and writes the pages to the output file
+     * in order. The last page is written when the writer is closed; an empty
+     * input still produces one empty page.
+     */
+    private static final class PageWriter implements Closeable {
+        private final OutputStream os;
+        private final int recordBytes;
+        private final int nrecords;
+        private final int nheaderbytes;
+        private final byte[] page;
+        private int recordcount;
+        private int npages;
 
-                // write header and body to file
-                headerStream.flush();
-                headerBAOS.writeTo(os);
-                pageStream.flush();
-                pageBAOS.writeTo(os);
+        PageWriter(File outFile, int npagebytes, int recordBytes) throws IOException {
+            this.os = new BufferedOutputStream(new FileOutputStream(outFile), 1 << 16);
+            this.recordBytes = recordBytes;
+            this.nrecords = (npagebytes * 8) / (recordBytes * 8 + 1);  //floor comes for free
+            // per record, we need one bit; there are nrecords per page, so we need
+            // nrecords bits
+            this.nheaderbytes = (nrecords + 7) / 8;
+            this.page = new byte[npagebytes];
+        }
 
-                // reset header and body for next page
-                headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-                headerStream = new DataOutputStream(headerBAOS);
-                pageBAOS = new ByteArrayOutputStream(npagebytes);
-                pageStream = new DataOutputStream(pageBAOS);
+        void write(Records records) throws IOException {
+            for (int i = 0; i < records.count; i++) {
+                // in the header, write a 1 for bits that correspond to records we've written
+                page[recordcount / 8] |= (byte) (1 << (recordcount % 8));
+                System.arraycopy(records.data, i * recordBytes, page,
+                        nheaderbytes + recordcount * recordBytes, recordBytes);
+                if (++recordcount == nrecords) {
+                    flushPage();
+                }
+            }
+        }
 
-                recordcount = 0;
-                npages++;
+        private void flushPage() throws IOException {
+            os.write(page);
+            Arrays.fill(page, (byte) 0);
+            recordcount = 0;
+            npages++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // flush the last page only if it has records on it, or if the file is empty
+                if (recordcount > 0 || npages == 0) {
+                    flushPage();
+                }
+            } finally {
+                os.close();
             }
         }
-        br.close();
-        os.close();
     }
 }
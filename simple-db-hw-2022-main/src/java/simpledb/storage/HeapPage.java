@@ -4,10 +4,11 @@ import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
+import simpledb.common.Type;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
@@ -23,15 +24,26 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;//页号
     final TupleDesc td;//属性
-    final byte[] header;//页头
-    final Tuple[] tuples;//元组页数据
     final int numSlots;//槽数量
+    final int headerSize;//页头字节数
+    final int tupleSize;//每个元组占用的字节数
 
-    byte[] oldData;//元组插槽都有一个比特位
-    private final Byte oldDataLock = (byte) 0;
+    /*
+     * 页面的原始字节。页头和各个槽都直接在data上按绝对位置读写，元组只在被访问时才解码，
+     * 解码结果缓存在tuples中。data可能与前像、调用者传入的数组或内存映射的文件共享
+     * （shared为true），第一次修改前先复制一份（写时复制）。
+     */
+    private ByteBuffer data;
+    private boolean shared;
+    private final Tuple[] tuples;
+
+    ByteBuffer oldData;//元组插槽都有一个比特位
+    private final Object oldDataLock = new Object();
     //TODO:lab2 dirty
     private boolean dirty;
     private TransactionId tid;
+    // 最后一条修改本页的日志记录的LSN，只保存在内存中，从磁盘读入的页面为0
+    private volatile long lsn;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -45,35 +57,60 @@ public class HeapPage implements Page {
      * <p>
      * ceiling(no. tuple slots / 8)
      * <p>
+     * The page keeps data as is and decodes a tuple only when it is asked
+     * for; data is copied only if the page is modified, so the caller must
+     * not change it afterwards.
      *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data.length < BufferPool.getPageSize()
+                // 不足一页的部分补0
+                ? Arrays.copyOf(data, BufferPool.getPageSize()) : data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the bytes of the page, starting
+     * at its position, such as a slice of a memory-mapped file. The page
+     * reads the buffer in place, without copying it, and decodes tuples
+     * lazily like any other page; the buffer's position and limit are left
+     * unchanged. The page copies the bytes the first time it is modified.
+     * <p>
+     * A buffer that is not backed by an array, such as a mapping, may change
+     * when the page is written back to the file. The page therefore also
+     * copies its before image at that first modification, so that the before
+     * image still holds the bytes the page was read with.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     * @see MappedHeapFile
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
-
-        tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+        this.headerSize = getHeaderSize();
+        this.tupleSize = td.getSize();
+        if (data.remaining() < BufferPool.getPageSize()) {
+            this.data = ByteBuffer.wrap(Arrays.copyOf(bytes(data.slice(), data.remaining()), BufferPool.getPageSize()));
+        } else {
+            this.data = data.slice();
         }
-        dis.close();
+        this.tuples = new Tuple[numSlots];
 
         setBeforeImage();
     }
 
+    /**
+     * Returns a copy of the first length bytes of a buffer
+     */
+    private static byte[] bytes(ByteBuffer buf, int length) {
+        byte[] bytes = new byte[length];
+        buf.get(0, bytes);
+        return bytes;
+    }
+
     /**
      * Retrieve the number of tuples on this page.
      *
@@ -103,7 +140,7 @@ public class HeapPage implements Page {
      */
     public HeapPage getBeforeImage() {
         try {
-            byte[] oldDataRef = null;
+            ByteBuffer oldDataRef = null;
             synchronized (oldDataLock) {
                 oldDataRef = oldData;
             }
@@ -117,8 +154,10 @@ public class HeapPage implements Page {
     }
 
     public void setBeforeImage() {
+        // 前像与页面共享同一个数组，页面下次被修改时才会复制
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = data;
+            shared = true;
         }
     }
 
@@ -132,39 +171,55 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * 槽在页面中的起始偏移，定长元组可以直接算出
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    private int slotOffset(int slotId) {
+        return headerSize + slotId * tupleSize;
+    }
 
+    /**
+     * 返回槽中的元组，第一次访问时从页面字节解码
+     */
+    private Tuple tupleAt(int slotId) throws NoSuchElementException {
+        Tuple t = tuples[slotId];
+        if (t != null) {
+            return t;
+        }
         // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+        t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        int offset = slotOffset(slotId);
         try {
             for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+                Type type = td.getFieldType(j);
+                t.setField(j, type.parse(data, offset));
+                offset += type.getLen();
             }
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
-
+        tuples[slotId] = t;
         return t;
     }
 
+    /**
+     * 修改页面字节之前调用，与前像、调用者或映射的文件共享的字节先复制一份。
+     * 映射的文件在页面写回后会改变，所以前像还是映射时也要固定成一份副本
+     */
+    private void beforeWrite() {
+        synchronized (oldDataLock) {
+            if (shared) {
+                byte[] copy = bytes(data, BufferPool.getPageSize());
+                if (oldData == data && !data.hasArray()) {
+                    oldData = ByteBuffer.wrap(copy.clone());
+                }
+                data = ByteBuffer.wrap(copy);
+                shared = false;
+            }
+        }
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -172,69 +227,15 @@ public class HeapPage implements Page {
      * The invariant here is that it should be possible to pass the byte
      * array generated by getPageData to the HeapPage constructor and
      * have it produce an identical HeapPage object.
+     * <p>
+     * Slots are encoded when tuples are inserted, so this is a plain copy
+     * of the page's bytes.
      *
      * @return A byte array correspond to the bytes of this page.
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return bytes(data, BufferPool.getPageSize());
     }
 
     /**
@@ -264,7 +265,7 @@ public class HeapPage implements Page {
         int tid=t.getRecordId().getTupleNumber();
         if(pid.equals(t.getRecordId().getPageId()))//pid相等才能删除
         {
-            if(tid>=0&&tid<=numSlots)//判断tid合法
+            if(tid>=0&&tid<numSlots)//判断tid合法
             {
                 if(!isSlotUsed(tid))//槽内已经空了无需删除
                 {
@@ -272,8 +273,11 @@ public class HeapPage implements Page {
                 }
                 else
                 {
+                    beforeWrite();
                     tuples[tid]=null;
                     markSlotUsed(tid,false);
+                    // 空槽在磁盘上全为0
+                    data.put(slotOffset(tid), new byte[tupleSize]);
                 }
             }
         }
@@ -302,6 +306,8 @@ public class HeapPage implements Page {
         for (int i = 0; i < numSlots; i++) {//寻找空位的槽
             if(!isSlotUsed(i))
             {
+                beforeWrite();
+                writeTuple(i, t);
                 markSlotUsed(i,true);
                 t.setRecordId(new RecordId(pid,i));
                 tuples[i]=t;
@@ -312,6 +318,74 @@ public class HeapPage implements Page {
 
     }
 
+    /**
+     * @return a copy of the bytes stored in the given slot, as logged by
+     *         INSERT and DELETE log records
+     */
+    byte[] slotData(int slotId) {
+        byte[] bytes = new byte[tupleSize];
+        data.get(slotOffset(slotId), bytes);
+        return bytes;
+    }
+
+    /**
+     * Puts the given tuple bytes in a slot and marks it used, whatever the
+     * slot held before. Redoing an INSERT or undoing a DELETE log record
+     * this way gives the same page however many times it is applied.
+     */
+    void setSlot(int slotId, byte[] tupleData) {
+        beforeWrite();
+        data.put(slotOffset(slotId), tupleData, 0, tupleSize);
+        markSlotUsed(slotId, true);
+        tuples[slotId] = null;
+    }
+
+    /**
+     * Empties a slot, whatever it held before; the counterpart of
+     * {@link #setSlot} for redoing a DELETE or undoing an INSERT.
+     */
+    void clearSlot(int slotId) {
+        beforeWrite();
+        markSlotUsed(slotId, false);
+        data.put(slotOffset(slotId), new byte[tupleSize]);
+        tuples[slotId] = null;
+    }
+
+    /**
+     * Returns the LSN of the last log record describing a change to this
+     * page. The LSN is kept in memory only, so a page just read from disk
+     * has LSN 0. Before the page is written out, the log must be forced past
+     * this LSN.
+     */
+    public long getLsn() {
+        return lsn;
+    }
+
+    /**
+     * Records that the log record at lsn describes the latest change to this
+     * page.
+     */
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
+    }
+
+    /**
+     * 把元组编码到槽中
+     */
+    private void writeTuple(int slotId, Tuple t) throws DbException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(tupleSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.getField(j).serialize(dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("couldn't serialize tuple: " + e.getMessage());
+        }
+        data.put(slotOffset(slotId), baos.toByteArray(), 0, tupleSize);
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -337,15 +411,18 @@ public class HeapPage implements Page {
      */
     public int getNumUnusedSlots() {
         // TODO: some code goes here
-        int c=0;
-        for(int i=0;i<numSlots;i++)
+        // 按字节统计页头中置位的比特，最后一个字节只统计属于槽的部分
+        int used=0;
+        for(int i=0;i<numSlots/8;i++)
         {
-            if(!(isSlotUsed(i)))
-            {
-                c++;
-            }
+            used+=Integer.bitCount(data.get(i)&0xff);
         }
-        return c;
+        int rest=numSlots%8;
+        if(rest>0)
+        {
+            used+=Integer.bitCount(data.get(numSlots/8)&((1<<rest)-1));
+        }
+        return numSlots-used;
     }
 
     /**
@@ -357,10 +434,22 @@ public class HeapPage implements Page {
         int headerth=i/8;
         //计算具体位置
         int th=i%8;
-        int flag=(header[headerth]>>th)&1;
+        int flag=(data.get(headerth)>>th)&1;
         return flag==1;
     }
 
+    /**
+     * Returns the tuple in the given slot of this page, or null if the slot is empty.
+     * 二级索引按RecordId取元组时使用
+     */
+    public Tuple getTuple(int slotId) {
+        if(slotId<0||slotId>=numSlots||!isSlotUsed(slotId))
+        {
+            return null;
+        }
+        return tupleAt(slotId);
+    }
+
     /**
      * Abstraction to fill or clear a slot on this page.
      */
@@ -371,11 +460,10 @@ public class HeapPage implements Page {
         int headerth=i/8;
         //计算具体位置
         int th=i%8;
-        int flag=(header[headerth]>>th)&1;
-        if(flag == 0 && value){
-            header[headerth] += (1 << th);
-        }else if(flag == 1 && !value){
-            header[headerth] = (byte) (header[headerth]&(~(1 << th)));
+        if(value){
+            data.put(headerth, (byte) (data.get(headerth)|(1 << th)));
+        }else{
+            data.put(headerth, (byte) (data.get(headerth)&(~(1 << th))));
         }
     }
 
@@ -385,16 +473,41 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // TODO: some code goes here
-        ArrayList<Tuple> t=new ArrayList<>();
-        for(int i=0;i<numSlots;i++)
-        {
-            if(isSlotUsed(i))
-            {
-                t.add(tuples[i]);
+        // 创建时记下页头，只返回当时已使用的槽（之后插入的元组不会被同一个迭代器看到），元组在next时才解码
+        final byte[] used=bytes(data,headerSize);
+        return new Iterator<Tuple>() {
+            private int next=advance(0);
+
+            private int advance(int from) {
+                for(int i=from;i<numSlots;i++)
+                {
+                    if(((used[i/8]>>(i%8))&1)==1&&isSlotUsed(i))
+                    {
+                        return i;
+                    }
+                }
+                return numSlots;
             }
-        }
-        return t.iterator();
-    }
 
-}
+            @Override
+            public boolean hasNext() {
+                if(next<numSlots&&!isSlotUsed(next))//槽在迭代期间被删除
+                {
+                    next=advance(next+1);
+                }
+                return next<numSlots;
+            }
 
+            @Override
+            public Tuple next() {
+                if(!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                Tuple t=tupleAt(next);
+                next=advance(next+1);
+                return t;
+            }
+        };
+    }
+}
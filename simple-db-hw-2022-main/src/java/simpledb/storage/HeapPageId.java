@@ -25,7 +25,7 @@ public class HeapPageId implements PageId {
     /**
      * @return the table associated with this PageId
      */
-    public int getTableId() {//زձid
+    public int getTableId() {//返回参照表的id
         // TODO: some code goes here
         return tableId;
     }
@@ -34,7 +34,7 @@ public class HeapPageId implements PageId {
      * @return the page number in the table getTableId() associated with
      *         this PageId
      */
-    public int getPageNumber() {//رеҳ
+    public int getPageNumber() {//返回表中的页号
         // TODO: some code goes here
         return pgNo;
     }
@@ -0,0 +1,40 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Least-recently-used replacement. Each hit records a timestamp for the page
+ * in a concurrent map rather than reordering a shared list, so hits never
+ * block each other; choosing a victim sorts the resident pages by timestamp.
+ */
+public class LRUPolicy implements ReplacementPolicy {
+
+    private final ConcurrentHashMap<PageId, Long> lastAccess = new ConcurrentHashMap<>();
+
+    public void admitted(PageId pid) {
+        lastAccess.put(pid, System.nanoTime());
+    }
+
+    public void accessed(PageId pid) {
+        lastAccess.replace(pid, System.nanoTime());
+    }
+
+    public void removed(PageId pid) {
+        lastAccess.remove(pid);
+    }
+
+    public Iterator<PageId> evictionOrder() {
+        List<Map.Entry<PageId, Long>> entries = new ArrayList<>(lastAccess.entrySet());
+        entries.sort(Comparator.comparingLong(Map.Entry::getValue));
+        List<PageId> order = new ArrayList<>(entries.size());
+        for (Map.Entry<PageId, Long> e : entries) {
+            order.add(e.getKey());
+        }
+        return order.iterator();
+    }
+}
@@ -1,15 +1,24 @@
 package simpledb.storage;
 
 import simpledb.common.Database;
+import simpledb.common.DbException;
 import simpledb.common.Debug;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /*
@@ -39,6 +48,12 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+
+A page's own monitor, held while a heap page is changed and the change
+logged, and while a page is written to disk, comes before this; so do the
+locks of the buffer pool's page cache. Nothing that holds this may wait
+for a page or for the page cache: rollback fetches its pages and drops
+them from the pool without holding it.
 */
 
 /**
@@ -46,40 +61,76 @@ must not be declared synchronized and must begin with a block like:
  *
  * <ul>
  *
- * <li> The first long integer of the file represents the offset of the
- * last written checkpoint, or -1 if there are no checkpoints
+ * <li> The first long integer of the file represents the LSN of the
+ * last written checkpoint, or -1 if there are no checkpoints.  It is
+ * followed by an integer, the segment size.  That is all the file holds.
  *
- * <li> All additional data in the log consists of log records.  Log
- * records are variable length.
+ * <li> The log records are kept in segment files next to it (see
+ * LogSegments): the log is one stream of bytes, and segment n holds the
+ * segment size bytes of it starting at n times the segment size.  Log
+ * records are variable length and may cross from one segment into the
+ * next.  The offset in the stream at which a record begins is its log
+ * sequence number (LSN).  The first record is at LSN 8 (no record is at
+ * LSN 0), and LSNs increase with every record appended.  Truncation
+ * deletes whole segments from the start of the log, so LSNs never change.
  *
  * <li> Each log record begins with an integer type and a long integer
  * transaction id.
  *
- * <li> Each log record ends with a long integer file offset representing
- * the position in the log file where the record began.
+ * <li> Each log record ends with a long integer representing the LSN
+ * where the record began.
  *
- * <li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
- * CHECKPOINT
+ * <li> There are eight record types: ABORT, COMMIT, UPDATE, BEGIN,
+ * CHECKPOINT, INSERT, DELETE and CLR
  *
  * <li> ABORT, COMMIT, and BEGIN records contain no additional data
  *
  * <li>UPDATE RECORDS consist of two entries, a before image and an
  * after image.  These images are serialized Page objects, and can be
  * accessed with the LogFile.readPageData() and LogFile.writePageData()
- * methods.  See LogFile.print() for an example.
+ * methods.  A serialized page starts with one byte tags for its page and
+ * page id classes (see PageTypes), then the page id and the page data.
+ * See LogFile.print() for an example.  UPDATE records are written for
+ * changes that are not logged as they happen: new heap pages, and B+ tree
+ * pages when they are flushed.
+ *
+ * <li> INSERT and DELETE records describe a change to a single slot of a
+ * heap page.  They consist of the page id (tag and values, as in a
+ * serialized page), the slot number, and the length and bytes of the
+ * tuple put into (INSERT) or removed from (DELETE) the slot.  Applying one
+ * sets the slot to a state, so it can safely be applied more than once.
+ *
+ * <li> CLR (compensation) records are written as the changes of an
+ * aborting transaction are undone, one for each INSERT, DELETE or UPDATE
+ * record undone.  They consist of the LSN of the record they compensate,
+ * and the change made to undo it: a record type and body as in an INSERT
+ * or DELETE record (put tuple bytes into a slot, or empty it), or for an
+ * UPDATE a single page image (the before image put back).  CLRs are redone
+ * but never undone, so a rollback interrupted by a crash is resumed rather
+ * than repeated.
  *
  * <li> CHECKPOINT records consist of active transactions at the time
- * the checkpoint was taken and their first log record on disk.  The format
- * of the record is an integer count of the number of transactions, as well
- * as a long integer transaction id and a long integer first record offset
- * for each active transaction.
+ * the checkpoint was taken and their first log record on disk, followed by
+ * the dirty page table.  The format of the record is an integer count of
+ * the number of transactions, as well as a long integer transaction id and
+ * a long integer first record offset for each active transaction; then an
+ * integer count of dirty pages, and for each the page id (as in an INSERT
+ * record) and the LSN of the first change to it that may not be on disk
+ * (its recLSN).  Checkpoints are fuzzy: taking one writes no pages.
  *
  * </ul>
+ *
+ * <p> Records are not written to the segments field by field.  They are
+ * serialized into an in-memory log buffer, which is written out in one
+ * large sequential write when it fills up, and whenever the log is forced
+ * or read back.
  */
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private final RandomAccessFile raf; // the header; protected by this
+    private LogSegments segments; // protected by this
+    private File archiveDir; // protected by this
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -87,17 +138,73 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int INSERT_RECORD = 6;
+    static final int DELETE_RECORD = 7;
+    static final int CLR_RECORD = 8;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
+    static final int LOG_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Default number of bytes of the log in each segment file.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 24;
+
+    // the LSN of the first record of a new log; a page LSN of 0 means no
+    // logged change
+    static final long FIRST_LSN = LONG_SIZE;
+
     long currentOffset = -1;//protected by this
+
+    // records are serialized into logBuffer through out; it holds the bytes
+    // from bufferOffset up to currentOffset that are not in the file yet
+    private final ByteBuffer logBuffer = ByteBuffer.allocate(LOG_BUFFER_SIZE); // protected by this
+    private long bufferOffset; // protected by this
+    private final DataOutputStream out = new DataOutputStream(new LogBufferStream());
     //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
+    // the LSN of the last checkpoint, as in the header
+    private long checkpointLsn = NO_CHECKPOINT_ID; // protected by this
+    // the LSN of the oldest record that may still be needed; the segments
+    // may hold older ones
+    private long firstLsn = FIRST_LSN; // protected by this
 
     final Map<Long, Long> tidToFirstLogRecord = new HashMap<>();
 
+    // the dirty page table: pages with logged changes that may not be on
+    // disk yet. Entries are added as changes are logged, and removed when
+    // the page is written (see beforePageWrite and pageWritten)
+    private final Map<PageId, DirtyPage> dirtyPageTable = new HashMap<>(); // protected by this
+    private long changeCount; // protected by this
+
+    private static class DirtyPage {
+        // the LSN of the first change that may not be on disk
+        long recLsn;
+        // the number of the last change, from changeCount
+        long lastChange;
+
+        DirtyPage(long recLsn) {
+            this.recLsn = recLsn;
+        }
+    }
+
+    // one checkpoint at a time; a checkpoint and the truncation after it
+    // must not interleave with another one
+    private final Object checkpointLock = new Object();
+
+    // group commit: committers wait until the log is durable past their
+    // COMMIT record; one of them (the leader) forces the log for everyone
+    private final Object flushLock = new Object();
+    private long durableOffset; // protected by flushLock
+    private boolean flushing; // protected by flushLock
+    private int waitingCommits; // protected by flushLock
+    private int logEpoch; // bumped whenever the log is started over or cut short; protected by flushLock
+    private volatile long groupCommitWaitNanos = 0;
+    private volatile int groupCommitMaxBatch = 64;
+
     /**
      * Constructor.
      * Initialize and back the log file with the specified file.
@@ -111,8 +218,21 @@ public class LogFile {
      * @param f The log file's name
      */
     public LogFile(File f) throws IOException {
+        this(f, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructor, like {@link #LogFile(File)}, for a log whose records are
+     * kept in segments of the given size if it is started anew. A log that
+     * is recovered keeps the segment size it was written with.
+     *
+     * @param f           The log file's name
+     * @param segmentSize The number of bytes of the log in each segment file
+     */
+    public LogFile(File f, int segmentSize) throws IOException {
         this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f, segmentSize);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -133,21 +253,92 @@ public class LogFile {
         totalRecords++;
         if (recoveryUndecided) {
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            segments.clear();
+            writeHeader(NO_CHECKPOINT_ID);
+            logBuffer.clear();
+            bufferOffset = currentOffset = firstLsn = FIRST_LSN;
+            synchronized (flushLock) {
+                logEpoch++;
+                durableOffset = 0;
+            }
         }
     }
 
+    // writes the header, and forces it to disk: the segments it describes
+    // are about to change. Not written through raf's channel, which an
+    // interrupt of this thread would close, and raf with it
+    private void writeHeader(long checkpoint) throws IOException {
+        raf.seek(0);
+        raf.writeLong(checkpoint);
+        raf.writeInt(segments.getSegmentSize());
+        raf.getFD().sync();
+        checkpointLsn = checkpoint;
+    }
+
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
 
+    // the offset just past the last byte appended to the log
+    private long logEnd() {
+        return bufferOffset + logBuffer.position();
+    }
+
+    // writes out the log buffer in one sequential write; must hold this
+    private void writeBuffer() throws IOException {
+        logBuffer.flip();
+        int n = logBuffer.remaining();
+        segments.write(logBuffer, bufferOffset);
+        bufferOffset += n;
+        logBuffer.clear();
+    }
+
+    // the sink of out: copies into the log buffer, writing it out when full
+    private class LogBufferStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            if (!logBuffer.hasRemaining()) {
+                writeBuffer();
+            }
+            logBuffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!logBuffer.hasRemaining()) {
+                    writeBuffer();
+                }
+                int n = Math.min(len, logBuffer.remaining());
+                logBuffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+
+    /**
+     * Configure group commit. A committing transaction that finds no force
+     * in progress becomes the leader of a group: it waits up to waitMicros
+     * for more committers to join, or until maxBatch of them are waiting,
+     * and then forces the log once for all of them. Committers arriving
+     * while a force is in progress wait for it and are covered by the next
+     * one. With a wait of 0 (the default) the leader forces immediately and
+     * groups form only from commits that arrive during a force.
+     *
+     * @param waitMicros how long a leader waits for more commits to join
+     * @param maxBatch   the number of waiting commits that ends the wait early
+     */
+    public void setGroupCommit(long waitMicros, int maxBatch) {
+        groupCommitWaitNanos = Math.max(0, waitMicros) * 1000;
+        groupCommitMaxBatch = Math.max(1, maxBatch);
+    }
+
     /**
      * Write an abort record to the log for the specified tid, force
-     * the log to disk, and perform a rollback
+     * the log to disk, and perform a rollback. Does nothing if the
+     * transaction is not live: it never wrote to the log, or has already
+     * committed or aborted.
      *
      * @param tid The aborting transaction.
      */
@@ -158,18 +349,18 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
 
             synchronized (this) {
-                preAppend();
-                //Debug.log("ABORT");
-                //should we verify that this is a live transaction?
+                if (!tidToFirstLogRecord.containsKey(tid.getId())) {
+                    return;
+                }
+            }
+            //Debug.log("ABORT");
 
-                // must do this here, since rollback only works for
-                // live transactions (needs tidToFirstLogRecord)
-                rollback(tid);
+            // must do this here, since rollback only works for
+            // live transactions (needs tidToFirstLogRecord)
+            rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+            synchronized (this) {
+                writeAbort(tid.getId());
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -178,21 +369,131 @@ public class LogFile {
 
     /**
      * Write a commit record to disk for the specified tid,
-     * and force the log to disk.
+     * and force the log to disk. Does nothing if the transaction is not
+     * live: it never wrote to the log, or has already committed or aborted.
      *
      * @param tid The committing transaction.
      */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        long end;
+        synchronized (this) {
+            if (!tidToFirstLogRecord.containsKey(tid.getId())) {
+                return;
+            }
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            out.writeInt(COMMIT_RECORD);
+            out.writeLong(tid.getId());
+            out.writeLong(currentOffset);
+            currentOffset = logEnd();
+            tidToFirstLogRecord.remove(tid.getId());
+            end = currentOffset;
+        }
+        // not synchronized on this while waiting, so other transactions can
+        // append (and join the group) while the log is being forced
+        awaitDurable(end);
+    }
+
+    /**
+     * Wait until the log is durable up to offset, forcing it as the leader of
+     * a commit group if no force is in progress. An interrupt does not cut
+     * the wait short: it is cleared while waiting, so that it cannot close
+     * the log under a force by this thread, and restored on return.
+     */
+    private void awaitDurable(long offset) throws IOException {
+        boolean interrupted = Thread.interrupted();
+        synchronized (flushLock) {
+            waitingCommits++;
+            flushLock.notifyAll();
+        }
+        try {
+            while (true) {
+                synchronized (flushLock) {
+                    if (durableOffset >= offset) {
+                        return;
+                    }
+                    if (flushing) {
+                        interrupted |= waitUninterruptibly(flushLock, 0);
+                        continue;
+                    }
+                    // become the leader, and give other committers a chance to join
+                    flushing = true;
+                    long deadline = System.nanoTime() + groupCommitWaitNanos;
+                    long left;
+                    while (waitingCommits < groupCommitMaxBatch
+                            && (left = deadline - System.nanoTime()) > 0) {
+                        interrupted |= waitUninterruptibly(flushLock, left);
+                    }
+                }
+                interrupted |= forceGroup();
+            }
+        } finally {
+            synchronized (flushLock) {
+                waitingCommits--;
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // the leader's force runs without holding any lock, so that other
+    // transactions can keep appending and join the next group meanwhile;
+    // returns whether this thread was interrupted during the force
+    private boolean forceGroup() throws IOException {
+        FileChannel channel;
+        long target;
+        int epoch;
+        synchronized (this) {
+            synchronized (flushLock) {
+                epoch = logEpoch;
+            }
+            writeBuffer();
+            // the segments before the last one were forced as they filled up
+            channel = segments.last();
+            target = currentOffset;
+        }
+        boolean forced = false;
+        boolean interrupted = false;
+        try {
+            if (channel != null) {
+                channel.force(true);
+            }
+            forced = true;
+        } catch (ClosedByInterruptException e) {
+            // this thread was interrupted, which closed the segment: the next
+            // force reopens it, and the caller restores the interrupt
+            interrupted = Thread.interrupted();
+        } catch (ClosedChannelException e) {
+            // the log was started over meanwhile, or another thread's
+            // interrupt closed the segment
+        } finally {
+            synchronized (flushLock) {
+                if (forced && epoch == logEpoch) {
+                    durableOffset = Math.max(durableOffset, target);
+                }
+                flushing = false;
+                flushLock.notifyAll();
+            }
+        }
+        return interrupted;
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    // returns whether the wait was interrupted; the interrupt is cleared, and
+    // left to the caller to restore once it is done waiting
+    private static boolean waitUninterruptibly(Object monitor, long nanos) {
+        try {
+            if (nanos > 0) {
+                monitor.wait(nanos / 1000000, (int) (nanos % 1000000));
+            } else {
+                monitor.wait();
+            }
+            return false;
+        } catch (InterruptedException e) {
+            return true;
+        }
     }
 
     /**
@@ -202,13 +503,18 @@ public class LogFile {
      * @param tid    The transaction performing the write
      * @param before The before image of the page
      * @param after  The after image of the page
+     * @return the LSN of the record
      * @see Page#getBeforeImage
      */
-    public synchronized void logWrite(TransactionId tid, Page before,
+    public synchronized long logWrite(TransactionId tid, Page before,
                                       Page after)
             throws IOException {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + currentOffset);
         preAppend();
+        long lsn = currentOffset;
+        // transactions that were not started with a BEGIN record become
+        // live with their first change
+        tidToFirstLogRecord.putIfAbsent(tid.getId(), lsn);
         /* update record conists of
 
            record type
@@ -217,83 +523,193 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        out.writeInt(UPDATE_RECORD);
+        out.writeLong(tid.getId());
 
-        writePageData(raf, before);
-        writePageData(raf, after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        writePageData(out, before);
+        writePageData(out, after);
+        out.writeLong(currentOffset);
+        currentOffset = logEnd();
+        noteChange(after.getId(), lsn);
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return lsn;
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException {
-        PageId pid = p.getId();
-        int[] pageInfo = pid.serialize();
+    /**
+     * Write an INSERT record for a tuple put into a slot of a heap page.
+     *
+     * @param tid       The transaction performing the insert
+     * @param pid       The page the tuple was put on
+     * @param slot      The slot the tuple was put in
+     * @param tupleData The bytes of the tuple as stored in the slot
+     * @return the LSN of the record
+     */
+    public synchronized long logInsert(TransactionId tid, HeapPageId pid, int slot, byte[] tupleData)
+            throws IOException {
+        return logSlot(INSERT_RECORD, tid, pid, slot, tupleData);
+    }
 
-        //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
+    /**
+     * Write a DELETE record for a tuple removed from a slot of a heap page.
+     *
+     * @param tid       The transaction performing the delete
+     * @param pid       The page the tuple was removed from
+     * @param slot      The slot the tuple was removed from
+     * @param tupleData The bytes the slot held before the delete
+     * @return the LSN of the record
+     */
+    public synchronized long logDelete(TransactionId tid, HeapPageId pid, int slot, byte[] tupleData)
+            throws IOException {
+        return logSlot(DELETE_RECORD, tid, pid, slot, tupleData);
+    }
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
+    private long logSlot(int type, TransactionId tid, HeapPageId pid, int slot, byte[] tupleData)
+            throws IOException {
+        preAppend();
+        long lsn = currentOffset;
+        tidToFirstLogRecord.putIfAbsent(tid.getId(), lsn);
+        out.writeInt(type);
+        out.writeLong(tid.getId());
+        writeSlotData(pid, slot, tupleData);
+        out.writeLong(currentOffset);
+        currentOffset = logEnd();
+        noteChange(pid, lsn);
+        return lsn;
+    }
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+    private void writeSlotData(PageId pid, int slot, byte[] tupleData) throws IOException {
+        writePageId(out, pid);
+        out.writeInt(slot);
+        out.writeInt(tupleData.length);
+        out.write(tupleData);
+    }
 
-        raf.writeInt(pageInfo.length);
-        for (int j : pageInfo) {
-            raf.writeInt(j);
+    /**
+     * Prepare the log for dirty pages that are about to be written to disk,
+     * and wait until it is durable far enough (write-ahead logging). Changes
+     * to heap pages were logged as they happened, so for them the log only
+     * has to be forced past their LSN. Other pages (B+ tree pages) get an
+     * UPDATE record with their before and after images first.
+     *
+     * @param pages The dirty pages
+     */
+    public void logPageWrites(Collection<? extends Page> pages) throws IOException {
+        long end = 0;
+        synchronized (this) {
+            for (Page p : pages) {
+                if (p instanceof HeapPage) {
+                    end = Math.max(end, ((HeapPage) p).getLsn() + 1);
+                } else {
+                    logWrite(p.isDirty(), p.getBeforeImage(), p);
+                    end = currentOffset;
+                }
+            }
+            // a page LSN from before the log was started over may lie past its end
+            end = Math.min(end, currentOffset);
+        }
+        if (end > 0) {
+            if (Thread.holdsLock(this)) {
+                // e.g. a checkpoint flushing pages; waiting for a group
+                // leader that needs this monitor would never end
+                force();
+            } else {
+                awaitDurable(end);
+            }
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    // a change to pid was logged at lsn
+    private void noteChange(PageId pid, long lsn) {
+        dirtyPageTable.computeIfAbsent(pid, k -> new DirtyPage(lsn)).lastChange = ++changeCount;
+    }
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+    /**
+     * Call before writing a page to disk, after {@link #logPageWrites}, and
+     * pass the result to {@link #pageWritten} once the page is written.
+     *
+     * @param pid the page about to be written
+     * @return a mark that tells which of the page's changes the write covers
+     */
+    public synchronized long beforePageWrite(PageId pid) {
+        DirtyPage d = dirtyPageTable.get(pid);
+        return d == null ? 0 : d.lastChange;
+    }
 
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object[] idArgs = new Object[numIdArgs];
-            for (int i = 0; i < numIdArgs; i++) {
-                idArgs[i] = raf.readInt();
-            }
-            pid = (PageId) idConsts[0].newInstance(idArgs);
+    /**
+     * Call after writing a page to disk: removes the page from the dirty page
+     * table, unless a change to it was logged since {@link #beforePageWrite}
+     * returned the mark, since the write may not include that change.
+     *
+     * @param pid  the page written
+     * @param mark the result of beforePageWrite
+     */
+    public synchronized void pageWritten(PageId pid, long mark) {
+        DirtyPage d = dirtyPageTable.get(pid);
+        if (d != null && d.lastChange == mark) {
+            dirtyPageTable.remove(pid);
+        }
+    }
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+    /**
+     * @param n the number of pages to return
+     * @return up to n pages of the dirty page table, those with the oldest
+     * recLSNs first; writing them lets the next checkpoint truncate the most
+     */
+    public synchronized List<PageId> oldestDirtyPages(int n) {
+        List<Map.Entry<PageId, DirtyPage>> entries = new ArrayList<>(dirtyPageTable.entrySet());
+        entries.sort(Comparator.comparingLong(e -> e.getValue().recLsn));
+        List<PageId> pids = new ArrayList<>();
+        for (int i = 0; i < n && i < entries.size(); i++) {
+            pids.add(entries.get(i).getKey());
+        }
+        return pids;
+    }
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+    void writePageData(DataOutput out, Page p) throws IOException {
+        //page data is:
+        // page class tag
+        // id class tag
+        // id class bytes
+        // id class data
+        // page class bytes
+        // page class data
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+        out.writeByte(PageTypes.tagOf(p));
+        writePageId(out, p.getId());
+        byte[] pageData = p.getPageData();
+        out.writeInt(pageData.length);
+        out.write(pageData);
+        //        Debug.log ("WROTE PAGE DATA, CLASS = " + p.getClass().getName() + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+    }
 
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
+    Page readPageData(DataInput in) throws IOException {
+        byte pageTag = in.readByte();
+        PageId pid = readPageId(in);
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
+        byte[] pageData = new byte[in.readInt()];
+        in.readFully(pageData);
+
+        //            Debug.log("READ PAGE OF TYPE " + pageTag + ", table = " + pid.getTableId() + ", page = " + pid.getPageNumber());
+        return PageTypes.newPage(pageTag, pid, pageData);
+    }
+
+    void writePageId(DataOutput out, PageId pid) throws IOException {
+        int[] pageInfo = pid.serialize();
+        out.writeByte(PageTypes.tagOf(pid));
+        out.writeByte(pageInfo.length);
+        for (int j : pageInfo) {
+            out.writeInt(j);
         }
-        return newPage;
+    }
 
+    PageId readPageId(DataInput in) throws IOException {
+        byte idTag = in.readByte();
+        int[] idArgs = new int[in.readUnsignedByte()];
+        for (int i = 0; i < idArgs.length; i++) {
+            idArgs[i] = in.readInt();
+        }
+        return PageTypes.newPageId(idTag, idArgs);
     }
 
     /**
@@ -309,184 +725,442 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        out.writeInt(BEGIN_RECORD);
+        out.writeLong(tid.getId());
+        out.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = logEnd();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
     /**
-     * Checkpoint the log and write a checkpoint record.
+     * Checkpoint the log and write a checkpoint record. The checkpoint is
+     * fuzzy: it records the live transactions and the dirty page table, and
+     * writes no pages, so transactions keep running while it is taken.
+     * Dirty pages reach the disk when their transactions commit, or through
+     * {@link BufferPool#startBackgroundWriter}; recovery redoes their changes
+     * from the recLSNs recorded here.
      */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
+        synchronized (checkpointLock) {
+            long startCpOffset;
+            long end;
+            int epoch;
             synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+                //Debug.log("CHECKPOINT, offset = " + currentOffset);
                 preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
+                startCpOffset = currentOffset;
+                out.writeInt(CHECKPOINT_RECORD);
+                out.writeLong(-1); //no tid , but leave space for convenience
 
                 //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                out.writeInt(tidToFirstLogRecord.size());
+                for (Map.Entry<Long, Long> e : tidToFirstLogRecord.entrySet()) {
+                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                    out.writeLong(e.getKey());
+                    out.writeLong(e.getValue());
                 }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                //write the dirty page table
+                out.writeInt(dirtyPageTable.size());
+                for (Map.Entry<PageId, DirtyPage> e : dirtyPageTable.entrySet()) {
+                    writePageId(out, e.getKey());
+                    out.writeLong(e.getValue().recLsn);
+                }
+                out.writeLong(startCpOffset);
+                currentOffset = logEnd();
+                end = currentOffset;
+                synchronized (flushLock) {
+                    epoch = logEpoch;
+                }
+            }
+            // the header may only point to a checkpoint that is on disk
+            awaitDurable(end);
+            synchronized (this) {
+                synchronized (flushLock) {
+                    if (epoch != logEpoch) {
+                        // recovery replaced the log meanwhile
+                        return;
+                    }
+                }
+                writeHeader(startCpOffset);
                 //Debug.log("CP OFFSET = " + currentOffset);
             }
+            logTruncate();
         }
-
-        logTruncate();
     }
 
     /**
      * Truncate any unneeded portion of the log to reduce its space
-     * consumption
+     * consumption. Recovery needs nothing from before the last checkpoint,
+     * the first record of each transaction live at it, and the recLSN of
+     * each page dirty at it; the segments wholly before the oldest of these
+     * are deleted, or moved to the archive directory if there is one.
+     * Nothing is copied, so this takes time in proportion to the number of
+     * segments given up, not to the size of the log.
+     *
+     * @see #setArchiveDirectory
      */
-    public synchronized void logTruncate() throws IOException {
-        preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
-
-        long minLogRecord = cpLoc;
+    public void logTruncate() throws IOException {
+        synchronized (checkpointLock) {
+            synchronized (this) {
+                truncate();
+            }
+        }
+    }
 
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+    private void truncate() throws IOException {
+        preAppend();
+        if (checkpointLsn == NO_CHECKPOINT_ID) {
+            return;
+        }
+        writeBuffer();
+        LogRecord cp = readRecord(new LogReader(segments, checkpointLsn));
+        if (cp.type != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+        }
+        long minLogRecord = checkpointLsn;
+        for (long first : cp.live.values()) {
+            minLogRecord = Math.min(minLogRecord, first);
+        }
+        // recovery redoes the changes of dirty pages from their recLSN
+        for (long recLsn : cp.dirty.values()) {
+            minLogRecord = Math.min(minLogRecord, recLsn);
+        }
+        firstLsn = Math.max(firstLsn, minLogRecord);
+        int dropped = segments.dropBefore(minLogRecord);
+        Debug.log("TRUNCATING LOG BEFORE " + minLogRecord + ": " + dropped + " SEGMENTS");
+    }
 
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
+    /**
+     * Move the segments that truncation gives up to dir, instead of deleting
+     * them, e.g. to keep them for media recovery. Moving a segment is a
+     * rename, so dir should be on the same file system as the log.
+     *
+     * @param dir the archive directory, or null to delete the segments
+     */
+    public synchronized void setArchiveDirectory(File dir) {
+        archiveDir = dir;
+        segments.setArchiveDirectory(dir);
+    }
 
-            int numOutstanding = raf.readInt();
+    /**
+     * @return the number of bytes the log takes up: its segments, including
+     *         records still in the log buffer
+     */
+    public synchronized long getLogSize() throws IOException {
+        return segments.size() + logBuffer.position();
+    }
 
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
+    /**
+     * Rollback the specified transaction, setting the state of any
+     * of pages it updated to their pre-updated state.  To preserve
+     * transaction semantics, this should not be called on
+     * transactions that have already committed (though this may not
+     * be enforced by this method.)
+     *
+     * @param tid The transaction to rollback
+     */
+    public void rollback(TransactionId tid)
+            throws NoSuchElementException, IOException {
+        synchronized (Database.getBufferPool()) {
+            Deque<LogRecord> changes = new ArrayDeque<>();
+            synchronized (this) {
+                preAppend();
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null) {
+                    return;
                 }
+                // find the changes of tid that have not been undone yet
+                writeBuffer();
+                LogReader in = new LogReader(segments, first);
+                while (in.offset() < currentOffset) {
+                    LogRecord r = readRecord(in);
+                    if (r.tid == tid.getId()) {
+                        addChange(changes, r);
+                    }
+                }
+            }
+            // undo them newest first, on the pages in the buffer pool
+            Map<PageId, Page> pages = new HashMap<>();
+            while (!changes.isEmpty()) {
+                undo(changes.removeLast(), pages, tid);
             }
+            // the CLRs reach the disk before the pages they describe
+            force();
+            writePages(pages);
         }
+    }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
+    /**
+     * A record read back from the log. Page images are kept as bytes and
+     * only turned into pages when they are applied, so that reading the log
+     * needs no catalog lookups.
+     */
+    private static class LogRecord {
+        long lsn;
+        int type;
+        long tid;
+        // the page of an INSERT, DELETE, UPDATE or CLR
+        PageId pid;
+        // INSERT, DELETE, and CLRs whose action is one of them
+        int slot;
+        byte[] tupleData;
+        // UPDATE, and CLRs whose action is one; before is only set for UPDATE
+        byte pageTag;
+        byte[] before;
+        byte[] after;
+        // CLR
+        long compensated;
+        int action;
+        // CHECKPOINT: live transactions and their first records, and dirty
+        // pages and their recLSNs
+        Map<Long, Long> live;
+        Map<PageId, Long> dirty;
+    }
 
-        raf.seek(minLogRecord);
+    /**
+     * Reads the record at the reader's offset. Anything that is not a whole
+     * record, such as a record cut short by a crash, ends the log: reading
+     * it throws EOFException.
+     */
+    private LogRecord readRecord(LogReader in) throws IOException {
+        LogRecord r = new LogRecord();
+        r.lsn = in.offset();
+        r.type = in.readInt();
+        r.tid = in.readLong();
+        switch (r.type) {
+            case BEGIN_RECORD:
+            case COMMIT_RECORD:
+            case ABORT_RECORD:
+                break;
+            case CHECKPOINT_RECORD:
+                r.live = new HashMap<>();
+                for (int n = in.readInt(); n > 0; n--) {
+                    long tid = in.readLong();
+                    r.live.put(tid, in.readLong());
+                }
+                r.dirty = new HashMap<>();
+                for (int n = in.readInt(); n > 0; n--) {
+                    PageId pid = readPageId(in);
+                    r.dirty.put(pid, in.readLong());
+                }
+                break;
+            case INSERT_RECORD:
+            case DELETE_RECORD:
+                readSlotData(in, r);
+                break;
+            case UPDATE_RECORD:
+                r.before = readImage(in, r);
+                r.after = readImage(in, r);
+                break;
+            case CLR_RECORD:
+                r.compensated = in.readLong();
+                r.action = in.readInt();
+                if (r.action == UPDATE_RECORD) {
+                    r.after = readImage(in, r);
+                } else {
+                    readSlotData(in, r);
+                }
+                break;
+            default:
+                throw new EOFException("no log record at " + r.lsn);
+        }
+        if (in.readLong() != r.lsn) {
+            throw new EOFException("log record at " + r.lsn + " is cut short");
+        }
+        return r;
+    }
 
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
+    private void readSlotData(LogReader in, LogRecord r) throws IOException {
+        r.pid = readPageId(in);
+        r.slot = in.readInt();
+        r.tupleData = readBytes(in, in.readInt());
+    }
 
-                Debug.log("NEW START = " + newStart);
+    private byte[] readImage(LogReader in, LogRecord r) throws IOException {
+        r.pageTag = in.readByte();
+        r.pid = readPageId(in);
+        return readBytes(in, in.readInt());
+    }
 
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
+    private byte[] readBytes(LogReader in, int length) throws IOException {
+        if (length < 0 || length > BufferPool.getPageSize()) {
+            throw new EOFException("bad length " + length + " in log record");
+        }
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return b;
+    }
 
-                switch (type) {
-                    case UPDATE_RECORD:
-                        Page before = readPageData(raf);
-                        Page after = readPageData(raf);
+    // adds a transaction's record to its changes that are not undone yet
+    private static void addChange(Deque<LogRecord> changes, LogRecord r) {
+        switch (r.type) {
+            case INSERT_RECORD:
+            case DELETE_RECORD:
+            case UPDATE_RECORD:
+                changes.addLast(r);
+                break;
+            case CLR_RECORD:
+                // undo runs newest first, so a CLR compensates the latest change
+                changes.pollLast();
+                break;
+        }
+    }
 
-                        writePageData(logNew, before);
-                        writePageData(logNew, after);
-                        break;
-                    case CHECKPOINT_RECORD:
-                        int numXactions = raf.readInt();
-                        logNew.writeInt(numXactions);
-                        while (numXactions-- > 0) {
-                            long xid = raf.readLong();
-                            long xoffset = raf.readLong();
-                            logNew.writeLong(xid);
-                            logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                        }
-                        break;
-                    case BEGIN_RECORD:
-                        tidToFirstLogRecord.put(record_tid, newStart);
-                        break;
+    // the page as rollback or recovery sees it: the working copy if there is
+    // one, else the buffer pool's page (rollback) or the page on disk
+    // (recovery, when tid is null)
+    private Page workingPage(Map<PageId, Page> pages, PageId pid, TransactionId tid) throws IOException {
+        Page p = pages.get(pid);
+        if (p == null) {
+            if (tid != null) {
+                try {
+                    p = Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+                } catch (DbException | TransactionAbortedException e) {
+                    throw new IOException(e);
                 }
+            } else {
+                p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            }
+            pages.put(pid, p);
+        }
+        return p;
+    }
 
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
+    private static long lsnOf(Page p) {
+        return p instanceof HeapPage ? ((HeapPage) p).getLsn() : 0;
+    }
 
-            } catch (EOFException e) {
-                break;
+    // applies the change of an INSERT, DELETE, UPDATE or CLR record to the
+    // working copy of its page, unless the page already has it
+    private void redo(LogRecord r, Map<PageId, Page> pages) throws IOException {
+        if (r.type == UPDATE_RECORD || (r.type == CLR_RECORD && r.action == UPDATE_RECORD)) {
+            Page old = pages.get(r.pid);
+            if (old == null || lsnOf(old) < r.lsn) {
+                apply(r, pages, null);
             }
+        } else if (((HeapPage) workingPage(pages, r.pid, null)).getLsn() < r.lsn) {
+            apply(r, pages, null);
         }
+    }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
+    // applies the change of an INSERT, DELETE, UPDATE or CLR record to the
+    // working copy of its page
+    private void apply(LogRecord r, Map<PageId, Page> pages, TransactionId tid) throws IOException {
+        int action = r.type == CLR_RECORD ? r.action : r.type;
+        if (action == UPDATE_RECORD) {
+            Page p = PageTypes.newPage(r.pageTag, r.pid, r.after);
+            if (p instanceof HeapPage) {
+                ((HeapPage) p).setLsn(r.lsn);
+            }
+            pages.put(r.pid, p);
+            return;
+        }
+        HeapPage p = (HeapPage) workingPage(pages, r.pid, tid);
+        if (action == INSERT_RECORD) {
+            p.setSlot(r.slot, r.tupleData);
+        } else {
+            p.clearSlot(r.slot);
+        }
+        p.setLsn(r.lsn);
+    }
 
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+    // undoes a change: logs a CLR for it, and applies the CLR. The change is
+    // on the page, so the CLR is applied without comparing LSNs. A slot change is logged and applied
+    // under the page's monitor, like any other change to a heap page, so
+    // that a page writer never sees it half done.
+    private void undo(LogRecord r, Map<PageId, Page> pages, TransactionId tid) throws IOException {
+        LogRecord clr = new LogRecord();
+        clr.type = CLR_RECORD;
+        clr.tid = r.tid;
+        clr.compensated = r.lsn;
+        clr.pid = r.pid;
+        switch (r.type) {
+            case INSERT_RECORD:
+                clr.action = DELETE_RECORD;
+                break;
+            case DELETE_RECORD:
+                clr.action = INSERT_RECORD;
+                break;
+            default:
+                clr.action = UPDATE_RECORD;
+                break;
+        }
+        clr.slot = r.slot;
+        clr.tupleData = r.tupleData;
+        clr.pageTag = r.pageTag;
+        clr.after = r.before;
+
+        if (clr.action == UPDATE_RECORD) {
+            writeClr(clr);
+            apply(clr, pages, tid);
+            return;
+        }
+        Page p = workingPage(pages, clr.pid, tid);
+        synchronized (p) {
+            writeClr(clr);
+            apply(clr, pages, tid);
+        }
+    }
 
-        currentOffset = raf.getFilePointer();
-        //print();
+    private synchronized void writeClr(LogRecord clr) throws IOException {
+        preAppend();
+        clr.lsn = currentOffset;
+        out.writeInt(CLR_RECORD);
+        out.writeLong(clr.tid);
+        out.writeLong(clr.compensated);
+        out.writeInt(clr.action);
+        if (clr.action == UPDATE_RECORD) {
+            out.writeByte(clr.pageTag);
+            writePageId(out, clr.pid);
+            out.writeInt(clr.after.length);
+            out.write(clr.after);
+        } else {
+            writeSlotData(clr.pid, clr.slot, clr.tupleData);
+        }
+        out.writeLong(currentOffset);
+        currentOffset = logEnd();
+        noteChange(clr.pid, clr.lsn);
     }
 
-    /**
-     * Rollback the specified transaction, setting the state of any
-     * of pages it updated to their pre-updated state.  To preserve
-     * transaction semantics, this should not be called on
-     * transactions that have already committed (though this may not
-     * be enforced by this method.)
-     *
-     * @param tid The transaction to rollback
-     */
-    public void rollback(TransactionId tid)
-            throws NoSuchElementException, IOException {
-        synchronized (Database.getBufferPool()) {
+    // writes out the pages changed by a rollback or recovery, and drops the
+    // buffer pool's copies of them. The copy is dropped first: a background
+    // write of it that has already started is over once removePage returns,
+    // and could otherwise land after ours. It is dropped again afterwards in
+    // case read-ahead brought the old version back in the meantime.
+    private void writePages(Map<PageId, Page> pages) throws IOException {
+        for (Page p : pages.values()) {
+            Database.getBufferPool().removePage(p.getId());
+            Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+            Database.getBufferPool().removePage(p.getId());
             synchronized (this) {
-                preAppend();
-                // TODO: some code goes here
+                dirtyPageTable.remove(p.getId());
             }
         }
     }
 
+    private void writeAbort(long tid) throws IOException {
+        preAppend();
+        out.writeInt(ABORT_RECORD);
+        out.writeLong(tid);
+        out.writeLong(currentOffset);
+        currentOffset = logEnd();
+    }
+
     /**
      * Shutdown the logging system, writing out whatever state
      * is necessary so that start up can happen quickly (without
      * extensive recovery.)
      */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                raf.close();
+                segments.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -500,77 +1174,231 @@ public class LogFile {
      */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
+            Map<PageId, Page> pages = new HashMap<>();
             synchronized (this) {
                 recoveryUndecided = false;
-                // TODO: some code goes here
+                tidToFirstLogRecord.clear();
+                dirtyPageTable.clear();
+                logBuffer.clear();
+                if (raf.length() < LONG_SIZE + INT_SIZE) {
+                    // nothing to recover; start a new log
+                    segments.clear();
+                    writeHeader(NO_CHECKPOINT_ID);
+                    bufferOffset = currentOffset = firstLsn = FIRST_LSN;
+                    return;
+                }
+                raf.seek(0);
+                long cpLoc = raf.readLong();
+                // the log keeps the segment size it was written with
+                segments.close();
+                segments = new LogSegments(logFile, raf.readInt());
+                segments.setArchiveDirectory(archiveDir);
+                segments.openExisting();
+                checkpointLsn = cpLoc;
+                LogReader in = new LogReader(segments, FIRST_LSN);
+
+                // analysis: from the last checkpoint (or from the first record
+                // of a transaction that was live then), find the transactions
+                // that never finished with the changes they have not undone
+                // yet, and the pages that may miss changes on disk with the
+                // first record that changed them (recLSN)
+                long start = FIRST_LSN;
+                Map<Long, Deque<LogRecord>> losers = new HashMap<>();
+                Map<PageId, Long> dirtyPages = new HashMap<>();
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    in.seek(cpLoc);
+                    LogRecord cp = readRecord(in);
+                    start = cpLoc;
+                    for (long first : cp.live.values()) {
+                        start = Math.min(start, first);
+                    }
+                    // pages clean at the checkpoint miss no earlier changes
+                    dirtyPages.putAll(cp.dirty);
+                }
+                long end = start;
+                in.seek(start);
+                try {
+                    while (true) {
+                        LogRecord r = readRecord(in);
+                        end = in.offset();
+                        switch (r.type) {
+                            case BEGIN_RECORD:
+                                losers.putIfAbsent(r.tid, new ArrayDeque<>());
+                                break;
+                            case COMMIT_RECORD:
+                            case ABORT_RECORD:
+                                losers.remove(r.tid);
+                                break;
+                            case INSERT_RECORD:
+                            case DELETE_RECORD:
+                            case UPDATE_RECORD:
+                            case CLR_RECORD:
+                                addChange(losers.computeIfAbsent(r.tid, k -> new ArrayDeque<>()), r);
+                                if (r.lsn > cpLoc) {
+                                    dirtyPages.putIfAbsent(r.pid, r.lsn);
+                                }
+                                break;
+                        }
+                    }
+                } catch (EOFException e) {
+                    // the end of the log, possibly with a record the crash cut short
+                }
+                // new records go right after the last whole one
+                segments.truncate(end);
+                bufferOffset = currentOffset = end;
+                firstLsn = start;
+                synchronized (flushLock) {
+                    logEpoch++;
+                    durableOffset = end;
+                    flushLock.notifyAll();
+                }
+
+                // redo: repeat history for the dirty pages, from the oldest
+                // recLSN on, so the pages are as they were at the crash
+                if (!dirtyPages.isEmpty()) {
+                    in.seek(Collections.min(dirtyPages.values()));
+                    while (in.offset() < end) {
+                        LogRecord r = readRecord(in);
+                        Long recLsn = r.pid == null ? null : dirtyPages.get(r.pid);
+                        if (recLsn != null && r.lsn >= recLsn) {
+                            redo(r, pages);
+                        }
+                    }
+                }
+
+                // undo: roll back the losers together, newest change first,
+                // logging a CLR for each change and an ABORT for each loser
+                List<LogRecord> changes = new ArrayList<>();
+                Map<Long, Integer> left = new HashMap<>();
+                for (Map.Entry<Long, Deque<LogRecord>> e : losers.entrySet()) {
+                    changes.addAll(e.getValue());
+                    left.put(e.getKey(), e.getValue().size());
+                    if (e.getValue().isEmpty()) {
+                        writeAbort(e.getKey());
+                    }
+                }
+                changes.sort((a, b) -> Long.compare(b.lsn, a.lsn));
+                for (LogRecord r : changes) {
+                    undo(r, pages, null);
+                    if (left.merge(r.tid, -1, Integer::sum) == 0) {
+                        writeAbort(r.tid);
+                    }
+                }
+                force();
             }
+            writePages(pages);
         }
     }
 
     /**
      * Print out a human readable represenation of the log
      */
-    public void print() throws IOException {
-        long curOffset = raf.getFilePointer();
-
-        raf.seek(0);
-
-        System.out.println("0: checkpoint record at offset " + raf.readLong());
+    public synchronized void print() throws IOException {
+        writeBuffer();
+        System.out.println("checkpoint record at offset " + checkpointLsn);
+        LogReader in = new LogReader(segments, firstLsn);
 
         while (true) {
             try {
-                int cpType = raf.readInt();
-                long cpTid = raf.readLong();
+                int cpType = in.readInt();
+                long cpTid = in.readLong();
 
-                System.out.println((raf.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
-                System.out.println((raf.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
+                System.out.println((in.offset() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
+                System.out.println((in.offset() - LONG_SIZE) + ": TID " + cpTid);
 
                 switch (cpType) {
                     case BEGIN_RECORD:
                         System.out.println(" (BEGIN)");
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                        System.out.println(in.offset() + ": RECORD START OFFSET: " + in.readLong());
                         break;
                     case ABORT_RECORD:
                         System.out.println(" (ABORT)");
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                        System.out.println(in.offset() + ": RECORD START OFFSET: " + in.readLong());
                         break;
                     case COMMIT_RECORD:
                         System.out.println(" (COMMIT)");
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                        System.out.println(in.offset() + ": RECORD START OFFSET: " + in.readLong());
                         break;
 
                     case CHECKPOINT_RECORD:
                         System.out.println(" (CHECKPOINT)");
-                        int numTransactions = raf.readInt();
-                        System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
+                        int numTransactions = in.readInt();
+                        System.out.println((in.offset() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
 
                         while (numTransactions-- > 0) {
-                            long tid = raf.readLong();
-                            long firstRecord = raf.readLong();
-                            System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
-                            System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
+                            long tid = in.readLong();
+                            long firstRecord = in.readLong();
+                            System.out.println((in.offset() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
+                            System.out.println((in.offset() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
+                        }
+                        int numDirty = in.readInt();
+                        System.out.println((in.offset() - INT_SIZE) + ": NUMBER OF DIRTY PAGES: " + numDirty);
+
+                        while (numDirty-- > 0) {
+                            long pidOffset = in.offset();
+                            PageId dirty = readPageId(in);
+                            System.out.println(pidOffset + ": DIRTY PAGE: table id " + dirty.getTableId() + ", page number " + dirty.getPageNumber());
+                            System.out.println(in.offset() + ": RECLSN: " + in.readLong());
                         }
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                        System.out.println(in.offset() + ": RECORD START OFFSET: " + in.readLong());
 
                         break;
                     case UPDATE_RECORD:
                         System.out.println(" (UPDATE)");
 
-                        long start = raf.getFilePointer();
-                        Page before = readPageData(raf);
+                        long start = in.offset();
+                        Page before = readPageData(in);
 
-                        long middle = raf.getFilePointer();
-                        Page after = readPageData(raf);
+                        long middle = in.offset();
+                        Page after = readPageData(in);
 
-                        System.out.println(start + ": before image table id " + before.getId().getTableId());
-                        System.out.println((start + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
-                        System.out.println((start + INT_SIZE) + " TO " + (middle - INT_SIZE) + ": page data");
+                        // page tag, id tag and id length come before the id
+                        System.out.println((start + 3) + ": before image table id " + before.getId().getTableId());
+                        System.out.println((start + 3 + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
+                        System.out.println((middle - before.getPageData().length) + " TO " + middle + ": page data");
 
-                        System.out.println(middle + ": after image table id " + after.getId().getTableId());
-                        System.out.println((middle + INT_SIZE) + ": after image page number " + after.getId().getPageNumber());
-                        System.out.println((middle + INT_SIZE) + " TO " + (raf.getFilePointer()) + ": page data");
+                        System.out.println((middle + 3) + ": after image table id " + after.getId().getTableId());
+                        System.out.println((middle + 3 + INT_SIZE) + ": after image page number " + after.getId().getPageNumber());
+                        System.out.println((in.offset() - after.getPageData().length) + " TO " + (in.offset()) + ": page data");
 
-                        System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                        System.out.println(in.offset() + ": RECORD START OFFSET: " + in.readLong());
+
+                        break;
+                    case INSERT_RECORD:
+                    case DELETE_RECORD:
+                        System.out.println(cpType == INSERT_RECORD ? " (INSERT)" : " (DELETE)");
+
+                        PageId pid = readPageId(in);
+                        System.out.println(in.offset() + ": table id " + pid.getTableId() + ", page number " + pid.getPageNumber());
+                        System.out.println(in.offset() + ": SLOT: " + in.readInt());
+                        int tupleSize = in.readInt();
+                        in.skipBytes(tupleSize);
+                        System.out.println((in.offset() - tupleSize) + " TO " + in.offset() + ": tuple data");
+
+                        System.out.println(in.offset() + ": RECORD START OFFSET: " + in.readLong());
+
+                        break;
+                    case CLR_RECORD:
+                        System.out.println(" (CLR)");
+                        System.out.println(in.offset() + ": COMPENSATES RECORD AT: " + in.readLong());
+                        int action = in.readInt();
+                        System.out.println((in.offset() - INT_SIZE) + ": ACTION: " + action);
+
+                        long body = in.offset();
+                        int length;
+                        if (action == UPDATE_RECORD) {
+                            in.readByte();
+                            pid = readPageId(in);
+                        } else {
+                            pid = readPageId(in);
+                            System.out.println(in.offset() + ": SLOT: " + in.readInt());
+                        }
+                        System.out.println(body + ": table id " + pid.getTableId() + ", page number " + pid.getPageNumber());
+                        length = in.readInt();
+                        in.skipBytes(length);
+                        System.out.println((in.offset() - length) + " TO " + in.offset() + ": data");
+
+                        System.out.println(in.offset() + ": RECORD START OFFSET: " + in.readLong());
 
                         break;
                 }
@@ -580,13 +1408,15 @@ public class LogFile {
                 break;
             }
         }
-
-        // Return the file pointer to its original position
-        raf.seek(curOffset);
     }
 
     public synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        writeBuffer();
+        segments.force();
+        synchronized (flushLock) {
+            durableOffset = Math.max(durableOffset, currentOffset);
+            flushLock.notifyAll();
+        }
     }
 
 }
@@ -0,0 +1,93 @@
+package simpledb.storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A buffered reader over the log that keeps track of its offset (LSN).
+ * RandomAccessFile reads an int or a long one byte, and one system call, at
+ * a time; this reads the log in large blocks instead, moving from one
+ * segment to the next as it goes.
+ * <p>
+ * The reader uses positional reads. It only sees what has been written to
+ * the segments, so the caller must write out the log buffer before reading,
+ * and hold the log's monitor while reading.
+ */
+class LogReader extends DataInputStream {
+
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    private final Source source;
+
+    /**
+     * @param segments the log
+     * @param offset   the LSN to start reading at
+     */
+    LogReader(LogSegments segments, long offset) {
+        this(new Source(segments, offset));
+    }
+
+    private LogReader(Source source) {
+        super(new BufferedInputStream(source, BLOCK_SIZE));
+        this.source = source;
+    }
+
+    /**
+     * @return the LSN of the next byte to be read
+     */
+    long offset() throws IOException {
+        return source.position - in.available();
+    }
+
+    /**
+     * Moves the reader to the given LSN.
+     */
+    void seek(long offset) {
+        source.position = offset;
+        in = new BufferedInputStream(source, BLOCK_SIZE);
+    }
+
+    private static class Source extends InputStream {
+        private final LogSegments segments;
+        private long position;
+
+        Source(LogSegments segments, long position) {
+            this.segments = segments;
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = segments.read(ByteBuffer.wrap(b, off, len), position);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            position += Math.max(0, n);
+            return Math.max(0, n);
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+            // the segments belong to the log file
+        }
+    }
+}
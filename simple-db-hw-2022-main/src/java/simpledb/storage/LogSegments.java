@@ -0,0 +1,287 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The records of the log, kept in a series of fixed-size segment files. The
+ * log is a single stream of bytes addressed by LSN: segment n holds the
+ * bytes from n * segmentSize up to (n + 1) * segmentSize, in a file named
+ * after the log file with n appended. A record may run from the end of one
+ * segment into the next.
+ * <p>
+ * The start of the log is given up a whole segment at a time, by deleting
+ * the segment files before it or moving them to an archive directory. No
+ * record is ever copied, and LSNs never change.
+ * <p>
+ * An interrupt of a thread doing I/O on a segment closes the segment's
+ * channel. The segment is then reopened and the I/O done again, so an
+ * interrupted transaction never leaves the log half written or closed; the
+ * interrupt is restored once the I/O is done.
+ * <p>
+ * Not thread-safe: LogFile calls it holding its own monitor. Only the
+ * channel returned by {@link #last} is used outside of it, to force it.
+ */
+class LogSegments {
+
+    private final File dir;
+    private final String prefix;
+    private final int segmentSize;
+    // segment number -> its file; the segments are contiguous
+    private final TreeMap<Long, FileChannel> segments = new TreeMap<>();
+    private File archiveDir;
+
+    /**
+     * @param logFile     the log file; segments go next to it
+     * @param segmentSize the number of bytes of the log in each segment
+     */
+    LogSegments(File logFile, int segmentSize) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("segment size " + segmentSize);
+        }
+        this.dir = logFile.getAbsoluteFile().getParentFile();
+        this.prefix = logFile.getName() + ".";
+        this.segmentSize = segmentSize;
+    }
+
+    int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Move segments that are no longer needed to dir instead of deleting
+     * them; null deletes them.
+     */
+    void setArchiveDirectory(File dir) {
+        this.archiveDir = dir;
+    }
+
+    private File file(long segment) {
+        return new File(dir, prefix + String.format("%010d", segment));
+    }
+
+    // opens the segment, or opens it again if an interrupt closed it
+    private FileChannel channel(long segment) throws IOException {
+        FileChannel channel = segments.get(segment);
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(file(segment).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segments.put(segment, channel);
+        }
+        return channel;
+    }
+
+    /**
+     * An I/O operation on a segment, which may be run again on the reopened
+     * segment
+     */
+    private interface SegmentOp<T> {
+        T apply(FileChannel ch) throws IOException;
+    }
+
+    /**
+     * Runs op on the segment. If an interrupt of this thread closes the
+     * segment under it, clears the interrupt, reopens the segment and runs op
+     * again, then restores the interrupt.
+     */
+    private <T> T uninterruptibly(long segment, SegmentOp<T> op) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return op.apply(channel(segment));
+                } catch (ClosedByInterruptException e) {
+                    interrupted = true;
+                    Thread.interrupted();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Opens the segment files left by an earlier run.
+     */
+    void openExisting() throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            String name = f.getName();
+            if (name.startsWith(prefix) && name.length() > prefix.length()
+                    && name.substring(prefix.length()).chars().allMatch(Character::isDigit)) {
+                channel(Long.parseLong(name.substring(prefix.length())));
+            }
+        }
+    }
+
+    /**
+     * Writes src at the given LSN, starting new segments as needed. A
+     * segment that fills up is forced to disk before the next one is
+     * written, so forcing the {@link #last} segment makes the whole log
+     * durable.
+     */
+    void write(ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining()) {
+            long segment = position / segmentSize;
+            int offset = (int) (position % segmentSize);
+            int room = segmentSize - offset;
+            ByteBuffer part = src.duplicate();
+            part.limit(part.position() + Math.min(room, src.remaining()));
+            int start = part.position();
+            // an interrupted write is done again from the start of the part
+            int n = uninterruptibly(segment, ch -> ch.write(part.position(start), offset));
+            src.position(src.position() + n);
+            position += n;
+            if (n == room) {
+                uninterruptibly(segment, ch -> {
+                    ch.force(true);
+                    return null;
+                });
+            }
+        }
+    }
+
+    /**
+     * Reads from the given LSN into dst, at most up to the end of its
+     * segment.
+     *
+     * @return the number of bytes read, or -1 past the end of the log
+     */
+    int read(ByteBuffer dst, long position) throws IOException {
+        long segment = position / segmentSize;
+        if (!segments.containsKey(segment)) {
+            return -1;
+        }
+        int offset = (int) (position % segmentSize);
+        int room = segmentSize - offset;
+        int start = dst.position();
+        if (dst.remaining() <= room) {
+            return uninterruptibly(segment, ch -> ch.read(dst.position(start), offset));
+        }
+        ByteBuffer part = dst.duplicate();
+        part.limit(part.position() + room);
+        int n = uninterruptibly(segment, ch -> ch.read(part.position(start), offset));
+        if (n > 0) {
+            dst.position(dst.position() + n);
+        }
+        return n;
+    }
+
+    /**
+     * @return the last segment, which holds the end of the log, or null if
+     *         there are no segments
+     */
+    FileChannel last() throws IOException {
+        return segments.isEmpty() ? null : channel(segments.lastKey());
+    }
+
+    /**
+     * Forces the last segment, and so the whole log, to disk.
+     */
+    void force() throws IOException {
+        if (!segments.isEmpty()) {
+            uninterruptibly(segments.lastKey(), ch -> {
+                ch.force(true);
+                return null;
+            });
+        }
+    }
+
+    /**
+     * @return the LSN of the first byte still kept, or -1 if there are no
+     *         segments
+     */
+    long start() {
+        return segments.isEmpty() ? -1 : segments.firstKey() * segmentSize;
+    }
+
+    /**
+     * @return the number of bytes the segments take up on disk
+     */
+    long size() throws IOException {
+        long size = 0;
+        for (long segment : segments.keySet()) {
+            size += uninterruptibly(segment, FileChannel::size);
+        }
+        return size;
+    }
+
+    /**
+     * Gives up every segment that lies wholly before lsn.
+     *
+     * @return the number of segments given up
+     */
+    int dropBefore(long lsn) throws IOException {
+        int dropped = 0;
+        Iterator<Map.Entry<Long, FileChannel>> it = segments.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, FileChannel> e = it.next();
+            if ((e.getKey() + 1) * segmentSize > lsn) {
+                break;
+            }
+            e.getValue().close();
+            it.remove();
+            File f = file(e.getKey());
+            if (archiveDir != null) {
+                Files.move(f.toPath(), new File(archiveDir, f.getName()).toPath());
+            } else {
+                Files.deleteIfExists(f.toPath());
+            }
+            dropped++;
+        }
+        return dropped;
+    }
+
+    /**
+     * Cuts the log off at lsn, deleting the segments after it.
+     */
+    void truncate(long lsn) throws IOException {
+        long segment = lsn / segmentSize;
+        Iterator<Map.Entry<Long, FileChannel>> it = segments.tailMap(segment, true).entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, FileChannel> e = it.next();
+            if (e.getKey() == segment) {
+                uninterruptibly(segment, ch -> {
+                    ch.truncate(lsn % segmentSize).force(true);
+                    return null;
+                });
+                continue;
+            }
+            e.getValue().close();
+            it.remove();
+            Files.deleteIfExists(file(e.getKey()).toPath());
+        }
+    }
+
+    /**
+     * Deletes every segment, including any left by an earlier run.
+     */
+    void clear() throws IOException {
+        openExisting();
+        for (Map.Entry<Long, FileChannel> e : segments.entrySet()) {
+            e.getValue().close();
+            Files.deleteIfExists(file(e.getKey()).toPath());
+        }
+        segments.clear();
+    }
+
+    void close() throws IOException {
+        for (FileChannel channel : segments.values()) {
+            channel.close();
+        }
+        segments.clear();
+    }
+}
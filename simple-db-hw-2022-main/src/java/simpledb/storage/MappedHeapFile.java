@@ -0,0 +1,92 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A HeapFile that reads its pages from a memory-mapped view of the file,
+ * for large tables that are mostly read. A page is decoded straight out of
+ * the mapping, skipping the copy into a fresh array that
+ * {@link HeapFile#readPage} makes.
+ * <p>
+ * The file is mapped in chunks of {@link #CHUNK_BYTES} so tables larger than
+ * the 2 GB limit of a single mapping work. A chunk is mapped the first time
+ * one of its pages is read, and mapped again if the file has since grown past
+ * the end of the mapping. Writes still go through the buffer pool's dirty
+ * page path and {@link HeapFile#writePage}; the mapping is read-only and sees
+ * them because it shares the operating system's page cache with the channel.
+ * <p>
+ * Tables opt in through the catalog schema by following the column list with
+ * {@code mmap}, e.g. {@code lineitem (l_orderkey int, l_quantity int) mmap}.
+ *
+ * @see simpledb.common.Catalog#loadSchema
+ */
+public class MappedHeapFile extends HeapFile {
+
+    /**
+     * Size of each mapped region. Pages never straddle two chunks as long as
+     * the page size divides it.
+     */
+    public static final int CHUNK_BYTES = 1 << 30;
+
+    // chunk start offset -> mapping of that chunk
+    private final ConcurrentHashMap<Long, MappedByteBuffer> chunks = new ConcurrentHashMap<>();
+
+    public MappedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    public Page readPage(PageId pid) {
+        int pgNo = pid.getPageNumber();
+        try {
+            ByteBuffer buf = pageBuffer(pgNo);
+            if (buf == null) {
+                throw new IllegalArgumentException(String.format("table %d page %d is invalid", pid.getTableId(), pgNo));
+            }
+            return new HeapPage(new HeapPageId(pid.getTableId(), pgNo), buf);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format("table %d page %d is invalid", pid.getTableId(), pgNo), e);
+        }
+    }
+
+    /**
+     * Returns a view of the given page inside its chunk's mapping, or null if
+     * the page lies past the end of the file.
+     */
+    private ByteBuffer pageBuffer(int pgNo) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        long pagesPerChunk = CHUNK_BYTES / pageSize;
+        long chunkStart = pgNo / pagesPerChunk * pagesPerChunk * pageSize;
+        int offset = (int) ((long) pgNo * pageSize - chunkStart);
+        MappedByteBuffer chunk = chunks.get(chunkStart);
+        if (chunk == null || chunk.capacity() < offset + pageSize) {
+            chunk = map(chunkStart, offset + pageSize);
+            if (chunk == null) {
+                return null;
+            }
+        }
+        return chunk.slice(offset, pageSize);
+    }
+
+    /**
+     * (Re)maps the chunk starting at chunkStart so that it covers at least
+     * the first needed bytes, or returns null if the file is not that long.
+     */
+    private synchronized MappedByteBuffer map(long chunkStart, int needed) throws IOException {
+        MappedByteBuffer chunk = chunks.get(chunkStart);
+        if (chunk != null && chunk.capacity() >= needed) {
+            return chunk;
+        }
+        long length = Math.min(CHUNK_BYTES, channel.size() - chunkStart);
+        if (length < needed) {
+            return null;
+        }
+        chunk = channel.map(chunkStart, length);
+        chunks.put(chunkStart, chunk);
+        return chunk;
+    }
+}
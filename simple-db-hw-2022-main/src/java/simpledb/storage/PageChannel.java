@@ -0,0 +1,151 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A long-lived FileChannel over a table's backing file, shared by every
+ * thread that reads or writes the table's pages.
+ * <p>
+ * Reads and writes are positional, so concurrent readers never contend on
+ * (or corrupt) a shared file pointer, and no per-page RandomAccessFile is
+ * opened and closed. The channel is opened on first use.
+ * <p>
+ * FileChannel closes itself when a thread blocked in it is interrupted. The
+ * interrupted thread gets a ClosedByInterruptException; any other thread
+ * whose I/O the close cut short, or that finds the channel closed, reopens
+ * it and retries. {@link #close} releases the file descriptor when the
+ * table is dropped from the catalog; a later read or write opens it again.
+ * <p>
+ * The size is always taken from the channel rather than cached, because
+ * other code (tests in particular) may append to the file through
+ * {@link File} directly.
+ */
+public class PageChannel {
+
+    private final File f;
+    private volatile FileChannel channel;
+
+    public PageChannel(File f) {
+        this.f = f;
+    }
+
+    /**
+     * An operation on the channel, which may be run again on a reopened
+     * channel
+     */
+    private interface ChannelOp<T> {
+        T apply(FileChannel ch) throws IOException;
+    }
+
+    /**
+     * Runs op on the channel. If the channel was closed under it by another
+     * thread (an interrupt, or {@link #close}), reopens the channel and runs op
+     * again, as many times as that happens. An interrupt of the calling thread
+     * itself is not retried: the thread is still interrupted, so a retry would
+     * only close the new channel too.
+     */
+    private <T> T withChannel(ChannelOp<T> op) throws IOException {
+        while (true) {
+            try {
+                return op.apply(channel());
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // closed by another thread: reopen and try again
+            }
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null || !ch.isOpen()) {
+                    ch = FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Reads up to buf.length bytes starting at the given file offset.
+     *
+     * @return the number of bytes read, which is less than buf.length only
+     *         if the end of the file was reached
+     */
+    public int read(long position, byte[] buf) throws IOException {
+        return withChannel(ch -> {
+            ByteBuffer bb = ByteBuffer.wrap(buf);
+            while (bb.hasRemaining()) {
+                int n = ch.read(bb, position + bb.position());
+                if (n < 0) {
+                    break;
+                }
+            }
+            return bb.position();
+        });
+    }
+
+    /**
+     * Writes all of data at the given file offset.
+     */
+    public void write(long position, byte[] data) throws IOException {
+        withChannel(ch -> {
+            ByteBuffer bb = ByteBuffer.wrap(data);
+            while (bb.hasRemaining()) {
+                ch.write(bb, position + bb.position());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Atomically appends data at the end of the file.
+     *
+     * @return the offset at which data was written
+     */
+    public synchronized long append(byte[] data) throws IOException {
+        long position = size();
+        write(position, data);
+        return position;
+    }
+
+    /**
+     * @return the current size of the file in bytes
+     */
+    public long size() throws IOException {
+        return withChannel(FileChannel::size);
+    }
+
+    /**
+     * Maps a region of the file into memory, read-only. The mapping sees
+     * later writes made through this channel.
+     */
+    public MappedByteBuffer map(long position, long size) throws IOException {
+        return withChannel(ch -> ch.map(FileChannel.MapMode.READ_ONLY, position, size));
+    }
+
+    /**
+     * Closes the channel, releasing its file descriptor. Mappings made with
+     * {@link #map} stay valid. The channel is opened again if it is used
+     * after this.
+     */
+    public synchronized void close() throws IOException {
+        FileChannel ch = channel;
+        channel = null;
+        if (ch != null) {
+            ch.close();
+        }
+    }
+}
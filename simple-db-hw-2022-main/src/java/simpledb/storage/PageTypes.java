@@ -0,0 +1,111 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeHeaderPage;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+
+import java.io.IOException;
+
+/**
+ * Numeric tags for the page and page id classes that appear in the log.
+ * Update records store one byte for each class instead of its name, and
+ * reading a record constructs the page directly instead of looking the class
+ * up by name and calling whichever constructor reflection lists first.
+ * <p>
+ * The tags are part of the log format: give a new class a new tag and never
+ * renumber the existing ones.
+ *
+ * @see LogFile#writePageData
+ * @see LogFile#readPageData
+ */
+final class PageTypes {
+
+    static final byte HEAP_PAGE = 1;
+    static final byte BTREE_ROOT_PTR_PAGE = 2;
+    static final byte BTREE_INTERNAL_PAGE = 3;
+    static final byte BTREE_LEAF_PAGE = 4;
+    static final byte BTREE_HEADER_PAGE = 5;
+
+    static final byte HEAP_PAGE_ID = 1;
+    static final byte BTREE_PAGE_ID = 2;
+
+    private PageTypes() {
+    }
+
+    /**
+     * @return the tag of the page's class
+     * @throws IllegalArgumentException if the class has no tag
+     */
+    static byte tagOf(Page p) {
+        Class<?> c = p.getClass();
+        if (c == HeapPage.class) {
+            return HEAP_PAGE;
+        } else if (c == BTreeRootPtrPage.class) {
+            return BTREE_ROOT_PTR_PAGE;
+        } else if (c == BTreeInternalPage.class) {
+            return BTREE_INTERNAL_PAGE;
+        } else if (c == BTreeLeafPage.class) {
+            return BTREE_LEAF_PAGE;
+        } else if (c == BTreeHeaderPage.class) {
+            return BTREE_HEADER_PAGE;
+        }
+        throw new IllegalArgumentException("no log tag for page class " + c.getName());
+    }
+
+    /**
+     * @return the tag of the page id's class
+     * @throws IllegalArgumentException if the class has no tag
+     */
+    static byte tagOf(PageId pid) {
+        Class<?> c = pid.getClass();
+        if (c == HeapPageId.class) {
+            return HEAP_PAGE_ID;
+        } else if (c == BTreePageId.class) {
+            return BTREE_PAGE_ID;
+        }
+        throw new IllegalArgumentException("no log tag for page id class " + c.getName());
+    }
+
+    /**
+     * Rebuilds a page id from its tag and the values of {@link PageId#serialize}.
+     */
+    static PageId newPageId(byte tag, int[] args) throws IOException {
+        switch (tag) {
+            case HEAP_PAGE_ID:
+                return new HeapPageId(args[0], args[1]);
+            case BTREE_PAGE_ID:
+                return new BTreePageId(args[0], args[1], args[2]);
+            default:
+                throw new IOException("unknown page id tag " + tag);
+        }
+    }
+
+    /**
+     * Rebuilds a page from its tag, id and data. B+ tree pages take their key
+     * field from the table's file in the catalog.
+     */
+    static Page newPage(byte tag, PageId pid, byte[] data) throws IOException {
+        switch (tag) {
+            case HEAP_PAGE:
+                return new HeapPage((HeapPageId) pid, data);
+            case BTREE_ROOT_PTR_PAGE:
+                return new BTreeRootPtrPage((BTreePageId) pid, data);
+            case BTREE_INTERNAL_PAGE:
+                return new BTreeInternalPage((BTreePageId) pid, data, keyField(pid));
+            case BTREE_LEAF_PAGE:
+                return new BTreeLeafPage((BTreePageId) pid, data, keyField(pid));
+            case BTREE_HEADER_PAGE:
+                return new BTreeHeaderPage((BTreePageId) pid, data);
+            default:
+                throw new IOException("unknown page tag " + tag);
+        }
+    }
+
+    private static int keyField(PageId pid) {
+        return ((BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).keyField();
+    }
+}
@@ -10,7 +10,7 @@ public class RecordId implements Serializable {
 
     private static final long serialVersionUID = 1L;
     private final PageId pid;
-    private final int tupleno;//Ԫ
+    private final int tupleno;//元组序号
 
     /**
      * Creates a new RecordId referring to the specified PageId and tuple
@@ -54,7 +54,7 @@ public class RecordId implements Serializable {
         if(o instanceof RecordId)
         {
             RecordId o1=(RecordId)o;
-            if(o1.getPageId().equals(pid)&&o1.getTupleNumber()==tupleno)//idΪַ
+            if(o1.getPageId().equals(pid)&&o1.getTupleNumber()==tupleno)//id为字符串
             {
                 return true;
             }
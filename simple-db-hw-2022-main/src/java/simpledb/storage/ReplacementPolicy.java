@@ -0,0 +1,56 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool gives up when it needs
+ * a free frame. The pool tells the policy when a page enters the pool, when a
+ * resident page is hit, and when a page leaves; the policy in turn supplies
+ * the order in which resident pages should be considered for eviction.
+ * <p>
+ * {@link #accessed} is called on every cache hit without any pool-wide lock,
+ * so implementations should keep it cheap and must make it thread-safe.
+ * {@link #admitted}, {@link #removed} and {@link #evictionOrder} are called
+ * while the pool holds the lock for the page (and, for eviction, the pool's
+ * eviction lock), but may still run concurrently with each other for
+ * different pages.
+ *
+ * @see BufferPool#BufferPool(int, ReplacementPolicy)
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Called after a page has been brought into the pool.
+     */
+    void admitted(PageId pid);
+
+    /**
+     * Called every time a resident page is requested.
+     */
+    void accessed(PageId pid);
+
+    /**
+     * Called after a page has left the pool, whether it was evicted or
+     * explicitly removed.
+     */
+    void removed(PageId pid);
+
+    /**
+     * Returns resident pages in the order they should be evicted. The pool
+     * walks the iterator until it finds a page it is allowed to evict (not
+     * dirty, not pinned) and then stops, so implementations should produce
+     * candidates lazily where that is cheaper.
+     */
+    Iterator<PageId> evictionOrder();
+
+    /**
+     * Returns resident pages roughly in the order they will be evicted, for
+     * the pool's background writer to clean ahead of eviction. Unlike
+     * {@link #evictionOrder}, this must not change the policy's state (for
+     * CLOCK, move the hand or clear reference bits), and it is called
+     * without the pool's eviction lock.
+     */
+    default Iterator<PageId> upcomingEvictions() {
+        return evictionOrder();
+    }
+}
@@ -13,27 +13,27 @@ import java.util.NoSuchElementException;
 public class TupleDesc implements Serializable {
 
     /**
-     * 鱣
+     * 数组保存属性名
      */
     private final TDItem[] tdItems ;
     /**
      * A help class to facilitate organizing the information of each field
      */
-    public static class TDItem implements Serializable {//л
+    public static class TDItem implements Serializable {//序列化
 
         private static final long serialVersionUID = 1L;
 
         /**
          * The type of the field
          */
-        public final Type fieldType;//ֶ
+        public final Type fieldType;//字段类型
 
         /**
          * The name of the field
          */
-        public final String fieldName;//ֶ
+        public final String fieldName;//字段名称
 
-        public TDItem(Type t, String n) {//ֺ
+        public TDItem(Type t, String n) {//属性名字和类型
             this.fieldName = n;
             this.fieldType = t;
         }
@@ -47,7 +47,7 @@ public class TupleDesc implements Serializable {
      * @return An iterator which iterates over all the field TDItems
      *         that are included in this TupleDesc
      */
-    public Iterator<TDItem> iterator() {//
+    public Iterator<TDItem> iterator() {//迭代器返回所有属性
         // TODO: some code goes here
         return Arrays.asList(tdItems).iterator();
     }
@@ -63,7 +63,7 @@ public class TupleDesc implements Serializable {
      * @param fieldAr array specifying the names of the fields. Note that names may
      *                be null.
      */
-    public TupleDesc(Type[] typeAr, String[] fieldAr)   {//Կǲб
+    public TupleDesc(Type[] typeAr, String[] fieldAr)   {//可以考虑参数列表保存属性名和数量
         // TODO: some code goes here
         tdItems=new TDItem[typeAr.length];
         for(int i=0;i<typeAr.length;i++)
@@ -84,14 +84,14 @@ public class TupleDesc implements Serializable {
         tdItems=new TDItem[typeAr.length];
         for(int i=0;i< typeAr.length;i++)
         {
-            tdItems[i]=new TDItem(typeAr[i],"");//δ֪
+            tdItems[i]=new TDItem(typeAr[i],"");//属性名未知
         }
     }
 
     /**
      * @return the number of fields in this TupleDesc
      */
-    public int numFields() {//
+    public int numFields() {//返回属性名的数量
         // TODO: some code goes here
         return tdItems.length;
     }
@@ -103,7 +103,7 @@ public class TupleDesc implements Serializable {
      * @return the name of the ith field
      * @throws NoSuchElementException if i is not a valid field reference.
      */
-    public String getFieldName(int i) throws NoSuchElementException {//صi
+    public String getFieldName(int i) throws NoSuchElementException {//返回第i个属性名
         // TODO: some code goes here
         if(i<0||i> tdItems.length)
         {
@@ -120,7 +120,7 @@ public class TupleDesc implements Serializable {
      * @return the type of the ith field
      * @throws NoSuchElementException if i is not a valid field reference.
      */
-    public Type getFieldType(int i) throws NoSuchElementException {//صi
+    public Type getFieldType(int i) throws NoSuchElementException {//返回第i个属性类型
         // TODO: some code goes here
         if(i<0||i> tdItems.length)
         {
@@ -136,7 +136,7 @@ public class TupleDesc implements Serializable {
      * @return the index of the field that is first to have the given name.
      * @throws NoSuchElementException if no field with a matching name is found.
      */
-    public int indexForFieldName(String name) throws NoSuchElementException {//ݸindex
+    public int indexForFieldName(String name) throws NoSuchElementException {//根据给出的名字找index
         // TODO: some code goes here
         for(int i=0;i< tdItems.length;i++)
         {
@@ -144,14 +144,14 @@ public class TupleDesc implements Serializable {
                 return i;
             }
         }
-        throw new NoSuchElementException("Not find the index of"+name);//Ҳ׳쳣
+        throw new NoSuchElementException("Not find the index of"+name);//找不到抛出异常声明
     }
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
      *         Note that tuples from a given TupleDesc are of a fixed size.
      */
-    public int getSize() {//ԪռֽڴС
+    public int getSize() {//返回元组占字节大小
         // TODO: some code goes here
         int size=0;
         for (TDItem tdItem : tdItems) {
@@ -168,7 +168,7 @@ public class TupleDesc implements Serializable {
      * @param td2 The TupleDesc with the last fields of the TupleDesc
      * @return the new TupleDesc
      */
-    public static TupleDesc merge(TupleDesc td1, TupleDesc td2) {//ϲûȥ
+    public static TupleDesc merge(TupleDesc td1, TupleDesc td2) {//合并没有去重
         // TODO: some code goes here
         if(td1==null)
         {
@@ -179,8 +179,8 @@ public class TupleDesc implements Serializable {
             return td1;
         }
         int index=0;
-        Type[] typeAr=new Type[td1.numFields()+ td2.numFields()];//ϲ
-        String[] fieldAr=new String[td1.numFields()+ td2.numFields()];//ϲ
+        Type[] typeAr=new Type[td1.numFields()+ td2.numFields()];//合并后类型数组
+        String[] fieldAr=new String[td1.numFields()+ td2.numFields()];//合并后属性名数组
         for(int i=0;i<td1.numFields();i++)
         {
             typeAr[index]=td1.tdItems[i].fieldType;
@@ -206,19 +206,19 @@ public class TupleDesc implements Serializable {
      * @return true if the object is equal to this TupleDesc.
      */
 
-    public boolean equals(Object o) {//ȽǷ
+    public boolean equals(Object o) {//比较是否相等
         // TODO: some code goes here
         /*
-          instanceof ǲߵĶǷұߵʵ
-           boolean ͡
-          Ƕұࣻұʱtrue
-          򣬷false
+          instanceof 函数它的作用是测试它左边的对象是否是它右边的类的实例，
+          返回 boolean 的数据类型。
+          左边是对象，右边是类；当对象是右边类或子类所创建对象时，返回true；
+          否则，返回false。
          */
-        //ȽoǷΪTupleDescǷfalse
+        //比较o是否为TupleDesc对象，如果不是返回false
         if(!(o instanceof TupleDesc o1))
         {
             return false;
-        }//objectǿתTupleDesc
+        }//将object强制转化成TupleDesc
         if(o1.numFields()==this.numFields())
         {
             for(int i=0;i<this.tdItems.length;i++)
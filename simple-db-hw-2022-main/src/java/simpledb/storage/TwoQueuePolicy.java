@@ -0,0 +1,84 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Scan-resistant 2Q replacement (Johnson &amp; Shasha, "2Q: A Low Overhead
+ * High Performance Buffer Management Replacement Algorithm", VLDB 1994).
+ * <p>
+ * A page read for the first time enters a small FIFO, A1in. A sequential scan
+ * reads each page exactly once, so its pages pass through A1in and out again
+ * without disturbing anything else. A page that is read a second time, either
+ * while still in A1in or after being evicted while its id is remembered in the
+ * ghost queue A1out, is moved to the main LRU queue, Am. (The paper's full
+ * version only promotes from A1out, treating hits in A1in as correlated; with
+ * scans much longer than A1out that never lets a hot page in, and SimpleDB's
+ * scans do not re-read pages, so this tree promotes from A1in as well.)
+ * Eviction takes from A1in while it is over its target size, otherwise from
+ * the cold end of Am.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    private final int kin;
+    private final int kout;
+
+    // all three queues are protected by this
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>();
+    private final LinkedHashMap<PageId, Boolean> am = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param numPages the capacity of the buffer pool; A1in targets a quarter
+     *                 of it and A1out remembers half as many page ids
+     */
+    public TwoQueuePolicy(int numPages) {
+        this.kin = Math.max(1, numPages / 4);
+        this.kout = Math.max(1, numPages / 2);
+    }
+
+    public synchronized void admitted(PageId pid) {
+        if (a1out.remove(pid)) {
+            am.put(pid, Boolean.TRUE);
+        } else {
+            a1in.add(pid);
+        }
+    }
+
+    public synchronized void accessed(PageId pid) {
+        if (a1in.remove(pid)) {
+            am.put(pid, Boolean.TRUE);
+        } else {
+            // access-ordered map: get moves the page to the hot end of Am
+            am.get(pid);
+        }
+    }
+
+    public synchronized void removed(PageId pid) {
+        if (a1in.remove(pid)) {
+            a1out.add(pid);
+            if (a1out.size() > kout) {
+                Iterator<PageId> oldest = a1out.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        } else {
+            am.remove(pid);
+        }
+    }
+
+    public synchronized Iterator<PageId> evictionOrder() {
+        List<PageId> order = new ArrayList<>(a1in.size() + am.size());
+        if (a1in.size() > kin) {
+            order.addAll(a1in);
+            order.addAll(am.keySet());
+        } else {
+            order.addAll(am.keySet());
+            order.addAll(a1in);
+        }
+        return order.iterator();
+    }
+}
@@ -0,0 +1,98 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeFileEncoder;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares building a B+ tree over a heap file of random two-int rows, 10M
+ * by default, bottom-up with BTreeFileEncoder.build and by inserting the
+ * rows one by one. Inserting is much slower, so it only indexes the first
+ * insertRows rows. Not a unit test; run it by hand:
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.BTreeBuildBenchmark [rows] [insertRows] [fillFactor]
+ * </pre>
+ */
+public class BTreeBuildBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000;
+        long insertRows = args.length > 1 ? Long.parseLong(args[1]) : 100_000;
+        double fillFactor = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+
+        File in = File.createTempFile("btreebench", ".txt");
+        File heap = File.createTempFile("btreebench", ".dat");
+        File built = File.createTempFile("btreebench", ".dat");
+        File inserted = File.createTempFile("btreebench", ".dat");
+        for (File f : new File[]{in, heap, built, inserted}) {
+            f.deleteOnExit();
+        }
+        try {
+            generate(in, rows);
+            HeapFileEncoder.convert(in, heap, BufferPool.getPageSize(), 2);
+            HeapFile hf = Utility.openHeapFile(2, heap);
+            System.out.printf("heap file: %d rows, %d pages%n", rows, hf.numPages());
+
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            BTreeFile bf = BTreeFileEncoder.build(tid, hf, built, 0, "built", fillFactor, BufferPool.DEFAULT_PAGES);
+            double secs = (System.nanoTime() - start) / 1e9;
+            Database.getBufferPool().transactionComplete(tid);
+            System.out.printf("bulk build:  %d rows in %.1f s, %.0f rows/sec, %d pages%n",
+                    rows, secs, rows / secs, bf.numPages());
+
+            start = System.nanoTime();
+            bf = insertAll(hf, inserted, insertRows);
+            secs = (System.nanoTime() - start) / 1e9;
+            System.out.printf("insert build: %d rows in %.1f s, %.0f rows/sec, %d pages%n",
+                    insertRows, secs, insertRows / secs, bf.numPages());
+        } finally {
+            for (File f : new File[]{in, heap, built, inserted}) {
+                f.delete();
+            }
+        }
+    }
+
+    // inserts the first rows rows of the heap file into a new B+ tree, a
+    // thousand to a transaction
+    private static BTreeFile insertAll(HeapFile hf, File f, long rows) throws Exception {
+        BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getPath(), 2, 0);
+        TransactionId scan = new TransactionId();
+        DbFileIterator it = hf.iterator(scan);
+        it.open();
+        TransactionId tid = new TransactionId();
+        for (long i = 0; i < rows && it.hasNext(); i++) {
+            Database.getBufferPool().insertTuple(tid, bf.getId(), it.next());
+            if (i % 1000 == 999) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().transactionComplete(scan);
+        return bf;
+    }
+
+    private static void generate(File f, long rows) throws IOException {
+        Random r = new Random(0);
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(f), 1 << 16)) {
+            for (long i = 0; i < rows; i++) {
+                w.write(r.nextInt() + "," + r.nextInt() + "\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeChecker;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeFileEncoder;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BTreeFileEncoderTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private File bFile;
+
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+        bFile = File.createTempFile("btreebuild", ".dat");
+        bFile.deleteOnExit();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+        bFile.delete();
+    }
+
+    private static int key(Tuple t) {
+        return ((IntField) t.getField(0)).getValue();
+    }
+
+    /**
+     * A build that sorts in several merge passes holds every tuple of the heap
+     * file, in key order, in a tree that meets the occupancy invariant, and
+     * is found in the Catalog under its name.
+     */
+    @Test public void buildMatchesHeapFile() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        // few distinct keys, so equal keys span leaf pages
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, 500, null, tuples);
+        String name = SystemTestUtil.getUUID();
+        BTreeFile bf = BTreeFileEncoder.build(tid, hf, bFile, 0, name, 1.0, 2);
+
+        assertEquals(bf.getId(), Database.getCatalog().getTableId(name));
+        BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+        SystemTestUtil.matchTuples(bf, tid, tuples);
+
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        int prev = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            int key = key(it.next());
+            assertTrue(key >= prev);
+            prev = key;
+        }
+        it.close();
+
+        int key = tuples.get(0).get(0);
+        int expected = 0;
+        for (List<Integer> t : tuples) {
+            if (t.get(0) == key) {
+                expected++;
+            }
+        }
+        it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(key)));
+        it.open();
+        int found = 0;
+        while (it.hasNext()) {
+            assertEquals(key, key(it.next()));
+            found++;
+        }
+        it.close();
+        assertEquals(expected, found);
+    }
+
+    /**
+     * A lower fill factor leaves room in every page, and the tree takes
+     * inserts afterwards.
+     */
+    @Test public void fillFactor() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+        BTreeFile full = BTreeFileEncoder.build(tid, hf, bFile, 0, SystemTestUtil.getUUID(), 1.0, 8);
+        int fullPages = full.numPages();
+
+        File other = File.createTempFile("btreebuild", ".dat");
+        other.deleteOnExit();
+        BTreeFile half = BTreeFileEncoder.build(tid, hf, other, 0, SystemTestUtil.getUUID(), 0.5, 8);
+        assertTrue(half.numPages() > fullPages * 3 / 2);
+        BTreeChecker.checkRep(half, tid, new HashMap<>(), true);
+
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = new Tuple(full.getTupleDesc());
+            t.setField(0, new IntField(i * 37));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, full.getId(), t);
+            tuples.add(List.of(i * 37, i));
+        }
+        BTreeChecker.checkRep(full, tid, new HashMap<>(), true);
+        SystemTestUtil.matchTuples(full, tid, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        other.delete();
+    }
+
+    /**
+     * An empty heap file gives a tree of one empty leaf page.
+     */
+    @Test public void emptyHeapFile() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        BTreeFile bf = BTreeFileEncoder.build(tid, hf, bFile, 0, SystemTestUtil.getUUID());
+        assertEquals(1, bf.numPages());
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * A tree keyed on a STRING field stores its keys compressed, so its pages hold
+     * more tuples than fixed-size slots would, and it stays correct as tuples are
+     * inserted and deleted.
+     */
+    @Test public void stringKeys() throws Exception {
+        Type[] types = new Type[]{Type.STRING_TYPE, Type.INT_TYPE};
+        TupleDesc td = new TupleDesc(types, new String[]{"key", "value"});
+        Random r = new Random(0);
+        List<String> rows = new ArrayList<>();
+        File in = File.createTempFile("btreebuild", ".txt");
+        File heap = File.createTempFile("btreebuild", ".dat");
+        in.deleteOnExit();
+        heap.deleteOnExit();
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(in))) {
+            for (int i = 0; i < 5000; i++) {
+                String row = stringKey(r) + "," + i;
+                rows.add(row);
+                w.write(row + "\n");
+            }
+        }
+        HeapFileEncoder.convert(in, heap, BufferPool.getPageSize(), 2, types);
+        HeapFile hf = Utility.openHeapFile(2, "f", heap, td);
+        BTreeFile bf = BTreeFileEncoder.build(tid, hf, bFile, 0, SystemTestUtil.getUUID(), 1.0, 2);
+
+        BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+        assertStringRows(rows, bf);
+        // with fixed-size slots a leaf page holds 30 of these tuples
+        assertTrue(bf.numPages() < rows.size() / 30 / 2);
+
+        for (int i = 0; i < 3000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(stringKey(r), Type.STRING_LEN));
+            t.setField(1, new IntField(-i));
+            Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+            rows.add(t.getField(0) + "," + (-i));
+        }
+        BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+        assertStringRows(rows, bf);
+
+        Collections.shuffle(rows, r);
+        for (String row : new ArrayList<>(rows.subList(0, 6000))) {
+            Field key = new StringField(row.substring(0, row.lastIndexOf(',')), Type.STRING_LEN);
+            DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, key));
+            it.open();
+            Tuple t = it.next();
+            it.close();
+            Database.getBufferPool().deleteTuple(tid, t);
+            rows.remove(t.getField(0) + "," + t.getField(1));
+        }
+        BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+        assertStringRows(rows, bf);
+        in.delete();
+        heap.delete();
+    }
+
+    // keys with long shared prefixes and of varying length
+    private static String stringKey(Random r) {
+        return "customer/" + r.nextInt(20) + "/order/" + r.nextInt(1000) + "/" + "x".repeat(r.nextInt(40));
+    }
+
+    // checks that a tree keyed on a string holds the given rows, "key,value", in key order
+    private void assertStringRows(List<String> expected, BTreeFile bf) throws Exception {
+        List<String> rows = new ArrayList<>();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        String prev = "";
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            String key = ((StringField) t.getField(0)).getValue();
+            assertTrue(key.compareTo(prev) >= 0);
+            prev = key;
+            rows.add(key + "," + t.getField(1));
+        }
+        it.close();
+        expected = new ArrayList<>(expected);
+        Collections.sort(expected);
+        Collections.sort(rows);
+        assertEquals(expected, rows);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileEncoderTest.class);
+    }
+}
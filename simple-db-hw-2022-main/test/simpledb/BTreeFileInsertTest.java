@@ -1,6 +1,7 @@
 package simpledb;
 
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.index.*;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -176,6 +177,42 @@ public class BTreeFileInsertTest extends SimpleDbTestBase {
 		assertTrue(page.getId().getPageNumber() == 2 || otherPage.getId().getPageNumber() == 2);
 	}
 
+	@Test
+	public void testInsertLocksOnlyModifiedPages() throws Exception {
+		// a root internal page over leaf pages
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 2000, null, null, 0);
+		BufferPool bp = Database.getBufferPool();
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(bf.getId());
+		TransactionId reader = new TransactionId();
+		BTreePageId rootId = ((BTreeRootPtrPage) bp.getPage(reader, rootPtrId, Permissions.READ_ONLY)).getRootId();
+		bp.transactionComplete(reader);
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+		int entries = getNumEntries(rootId);
+
+		// insert the same key until its leaf splits. Inserts into a leaf with
+		// room lock only the leaf; the one that splits it also locks the root,
+		// which has room for the new entry, but never the root pointer page
+		boolean split = false;
+		while (!split) {
+			tid = new TransactionId();
+			Tuple t = BTreeUtility.getBTreeTuple(BTreeUtility.MAX_RAND_VALUE / 2, 2);
+			bp.insertTuple(tid, bf.getId(), t);
+			assertFalse(bp.holdsLock(tid, rootPtrId));
+			assertTrue(bp.holdsLock(tid, t.getRecordId().getPageId()));
+			boolean holdsRoot = bp.holdsLock(tid, rootId);
+			bp.transactionComplete(tid);
+			split = getNumEntries(rootId) > entries;
+			assertEquals(split, holdsRoot);
+		}
+	}
+
+	private int getNumEntries(BTreePageId pid) throws Exception {
+		TransactionId reader = new TransactionId();
+		int entries = ((BTreeInternalPage) Database.getBufferPool().getPage(reader, pid, Permissions.READ_ONLY)).getNumEntries();
+		Database.getBufferPool().transactionComplete(reader);
+		return entries;
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -321,6 +321,36 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.findChildId(), which finds the child by
+	 * binary search, with empty slots left by deleted entries
+	 */
+	@Test public void findChildId() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		Iterator<BTreeEntry> it = page.iterator();
+		List<BTreeEntry> entries = new ArrayList<>();
+		while (it.hasNext())
+			entries.add(it.next());
+		for (int i = 1; i < entries.size(); i += 3)
+			page.deleteKeyAndRightChild(entries.get(i));
+
+		entries.clear();
+		it = page.iterator();
+		while (it.hasNext())
+			entries.add(it.next());
+		assertEquals(entries.get(0).getLeftChild(), page.findChildId(null));
+		for (int key = 0; key < 70000; key += 250) {
+			BTreePageId expected = entries.get(entries.size() - 1).getRightChild();
+			for (BTreeEntry e : entries) {
+				if (((IntField) e.getKey()).getValue() >= key) {
+					expected = e.getLeftChild();
+					break;
+				}
+			}
+			assertEquals(expected, page.findChildId(new IntField(key)));
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
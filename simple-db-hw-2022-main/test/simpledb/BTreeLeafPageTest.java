@@ -347,6 +347,46 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.iterator(Field, boolean), which finds its
+	 * first tuple by binary search, with duplicate keys and empty slots
+	 */
+	@Test public void searchIterator() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		for (int i = 0; i < 3; i++) {
+			page.insertTuple(BTreeUtility.getBTreeTuple(new int[]{ 22064, i }));
+		}
+		Iterator<Tuple> it = page.iterator();
+		List<Tuple> kept = new ArrayList<>();
+		for (int i = 0; it.hasNext(); i++) {
+			Tuple t = it.next();
+			if (i % 3 == 1)
+				page.deleteTuple(t);
+			else
+				kept.add(t);
+		}
+
+		Set<Integer> keys = new TreeSet<>(Arrays.asList(0, 70000));
+		for (int[] tuple : EXAMPLE_VALUES) {
+			keys.addAll(Arrays.asList(tuple[0] - 1, tuple[0], tuple[0] + 1));
+		}
+		for (int key : keys) {
+			for (boolean inclusive : new boolean[]{ true, false }) {
+				List<Tuple> expected = new ArrayList<>();
+				for (Tuple t : kept) {
+					int k = ((IntField) t.getField(0)).getValue();
+					if (k > key || (inclusive && k == key))
+						expected.add(t);
+				}
+				List<Tuple> actual = new ArrayList<>();
+				it = page.iterator(new IntField(key), inclusive);
+				while (it.hasNext())
+					actual.add(it.next());
+				assertEquals(expected, actual);
+			}
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
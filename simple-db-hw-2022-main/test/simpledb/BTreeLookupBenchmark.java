@@ -0,0 +1,207 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Measures key lookups in a bulk-built B+ tree of random two-int rows, 1M by
+ * default, cached in the buffer pool. For a full internal page and a full
+ * leaf page it compares the linear scan of the page's entries with the
+ * binary search, printing comparisons and ns per lookup; the binary search
+ * makes at most ceil(log2(n + 1)) comparisons on n keys. It then prints the
+ * ns per point lookup through BTreeFile.indexIterator. Not a unit test; run
+ * it by hand:
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.BTreeLookupBenchmark [rows] [lookups]
+ * </pre>
+ */
+public class BTreeLookupBenchmark {
+
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+        File in = File.createTempFile("btreebench", ".txt");
+        File heap = File.createTempFile("btreebench", ".dat");
+        File index = File.createTempFile("btreebench", ".dat");
+        for (File f : new File[]{in, heap, index}) {
+            f.deleteOnExit();
+        }
+        try {
+            generate(in, rows);
+            HeapFileEncoder.convert(in, heap, BufferPool.getPageSize(), 2);
+            HeapFile hf = Utility.openHeapFile(2, heap);
+            TransactionId tid = new TransactionId();
+            BTreeFile bf = BTreeFileEncoder.build(tid, hf, index, 0, "index", 1.0, BufferPool.DEFAULT_PAGES);
+            Database.getBufferPool().transactionComplete(tid);
+            Database.resetBufferPool(bf.numPages() + 16);
+
+            tid = new TransactionId();
+            BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+                    BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+            BTreeInternalPage root = (BTreeInternalPage) Database.getBufferPool().getPage(tid,
+                    rootPtr.getRootId(), Permissions.READ_ONLY);
+            BTreePageId leafId = root.findChildId(null);
+            while (leafId.pgcateg() == BTreePageId.INTERNAL) {
+                leafId = ((BTreeInternalPage) Database.getBufferPool().getPage(tid, leafId,
+                        Permissions.READ_ONLY)).findChildId(null);
+            }
+            BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid, leafId, Permissions.READ_ONLY);
+            // a full internal page: the left-most child of the root
+            BTreeInternalPage internal = root.findChildId(null).pgcateg() == BTreePageId.INTERNAL
+                    ? (BTreeInternalPage) Database.getBufferPool().getPage(tid, root.findChildId(null), Permissions.READ_ONLY)
+                    : root;
+            System.out.printf("%d rows, %d pages, %d entries per internal page, %d tuples per leaf page%n",
+                    rows, bf.numPages(), internal.getNumEntries(), leaf.getNumTuples());
+
+            for (int round = 0; round < 3; round++) {
+                internalPage(internal, lookups, round == 2);
+                leafPage(leaf, lookups, round == 2);
+                indexLookups(bf, tid, rows, lookups, round == 2);
+            }
+            Database.getBufferPool().transactionComplete(tid);
+        } finally {
+            for (File f : new File[]{in, heap, index}) {
+                f.delete();
+            }
+        }
+    }
+
+    // random keys over the range of the page's keys
+    private static IntField[] keys(int lo, int hi, int n) {
+        Random r = new Random(1);
+        IntField[] keys = new IntField[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = new IntField(lo + (int) ((hi - (long) lo) * r.nextDouble()));
+        }
+        return keys;
+    }
+
+    private static void internalPage(BTreeInternalPage page, int lookups, boolean print) {
+        Iterator<BTreeEntry> it = page.iterator();
+        int lo = ((IntField) it.next().getKey()).getValue();
+        int hi = ((IntField) page.reverseIterator().next().getKey()).getValue();
+        IntField[] keys = keys(lo, hi, lookups);
+
+        long compares = 0;
+        long start = System.nanoTime();
+        for (IntField key : keys) {
+            // the linear scan the descent used to do
+            BTreeEntry e = null;
+            BTreePageId child = null;
+            it = page.iterator();
+            while (it.hasNext()) {
+                e = it.next();
+                compares++;
+                if (e.getKey().compare(Op.GREATER_THAN_OR_EQ, key)) {
+                    child = e.getLeftChild();
+                    break;
+                }
+            }
+            sink += (child != null ? child : e.getRightChild()).getPageNumber();
+        }
+        double linear = (System.nanoTime() - start) / (double) lookups;
+
+        start = System.nanoTime();
+        for (IntField key : keys) {
+            sink += page.findChildId(key).getPageNumber();
+        }
+        double binary = (System.nanoTime() - start) / (double) lookups;
+        if (print) {
+            System.out.printf("internal page: linear %.1f comparisons %.0f ns, binary <= %d comparisons %.0f ns%n",
+                    compares / (double) lookups, linear, log2(page.getNumEntries()), binary);
+        }
+    }
+
+    private static void leafPage(BTreeLeafPage page, int lookups, boolean print) {
+        int lo = ((IntField) page.iterator().next().getField(0)).getValue();
+        int hi = ((IntField) page.reverseIterator().next().getField(0)).getValue();
+        IntField[] keys = keys(lo, hi, lookups);
+
+        long compares = 0;
+        long start = System.nanoTime();
+        for (IntField key : keys) {
+            // the linear scan a range search used to start with
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                compares++;
+                if (t.getField(0).compare(Op.GREATER_THAN_OR_EQ, key)) {
+                    sink += t.getRecordId().getTupleNumber();
+                    break;
+                }
+            }
+        }
+        double linear = (System.nanoTime() - start) / (double) lookups;
+
+        start = System.nanoTime();
+        for (IntField key : keys) {
+            Iterator<Tuple> it = page.iterator(key, true);
+            if (it.hasNext()) {
+                sink += it.next().getRecordId().getTupleNumber();
+            }
+        }
+        double binary = (System.nanoTime() - start) / (double) lookups;
+        if (print) {
+            System.out.printf("leaf page:     linear %.1f comparisons %.0f ns, binary <= %d comparisons %.0f ns%n",
+                    compares / (double) lookups, linear, log2(page.getNumTuples()), binary);
+        }
+    }
+
+    private static void indexLookups(BTreeFile bf, TransactionId tid, int rows, int lookups, boolean print)
+            throws Exception {
+        Random r = new Random(2);
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(r.nextInt(rows))));
+            it.open();
+            if (it.hasNext()) {
+                sink += ((IntField) it.next().getField(1)).getValue();
+            }
+            it.close();
+        }
+        if (print) {
+            System.out.printf("point lookups: %.0f ns per lookup%n", (System.nanoTime() - start) / (double) lookups);
+        }
+    }
+
+    // the most comparisons a binary search over n keys makes
+    private static int log2(int n) {
+        return 32 - Integer.numberOfLeadingZeros(n);
+    }
+
+    // keys are 0 .. rows - 1 in random order
+    private static void generate(File f, int rows) throws IOException {
+        Random r = new Random(0);
+        int[] keys = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            keys[i] = i;
+        }
+        for (int i = rows - 1; i > 0; i--) {
+            int j = r.nextInt(i + 1);
+            int t = keys[i];
+            keys[i] = keys[j];
+            keys[j] = t;
+        }
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(f), 1 << 16)) {
+            for (int key : keys) {
+                w.write(key + "," + r.nextInt() + "\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures a B+ tree keyed on a STRING field, bulk-built over a heap file of
+ * 10M rows by default, whose keys share long prefixes ("customer/00012345").
+ * It prints the pages on each level of the tree, the average fanout of the
+ * internal pages and tuples per leaf page, and the ns per point lookup through
+ * BTreeFile.indexIterator with a buffer pool of bufferPages pages. Not a unit
+ * test; run it by hand:
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.BTreeStringKeyBenchmark [rows] [lookups] [bufferPages]
+ * </pre>
+ */
+public class BTreeStringKeyBenchmark {
+
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int bufferPages = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        File in = File.createTempFile("btreebench", ".txt");
+        File heap = File.createTempFile("btreebench", ".dat");
+        File index = File.createTempFile("btreebench", ".dat");
+        for (File f : new File[]{in, heap, index}) {
+            f.deleteOnExit();
+        }
+        try {
+            Type[] types = new Type[]{Type.STRING_TYPE, Type.INT_TYPE};
+            generate(in, rows);
+            HeapFileEncoder.convert(in, heap, BufferPool.getPageSize(), 2, types);
+            in.delete();
+            HeapFile hf = Utility.openHeapFile(2, "f", heap, new TupleDesc(types, new String[]{"key", "value"}));
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            BTreeFile bf = BTreeFileEncoder.build(tid, hf, index, 0, "index", 1.0, BufferPool.DEFAULT_PAGES);
+            Database.getBufferPool().transactionComplete(tid);
+            System.out.printf("%d rows, built in %.1f s, %d pages%n", rows, (System.nanoTime() - start) / 1e9,
+                    bf.numPages());
+            heap.delete();
+
+            shape(bf);
+            Database.resetBufferPool(bufferPages);
+            for (int round = 0; round < 3; round++) {
+                lookups(bf, rows, lookups, bufferPages, round == 2);
+            }
+        } finally {
+            for (File f : new File[]{in, heap, index}) {
+                f.delete();
+            }
+        }
+    }
+
+    // reads the tree level by level from the root, bypassing the buffer pool
+    private static void shape(BTreeFile bf) {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bf.readPage(BTreeRootPtrPage.getId(bf.getId()));
+        List<BTreePageId> level = List.of(rootPtr.getRootId());
+        int height = 0;
+        while (level.get(0).pgcateg() == BTreePageId.INTERNAL) {
+            height++;
+            List<BTreePageId> children = new ArrayList<>();
+            long entries = 0;
+            for (BTreePageId pid : level) {
+                BTreeInternalPage page = (BTreeInternalPage) bf.readPage(pid);
+                entries += page.getNumEntries();
+                Iterator<BTreeEntry> it = page.iterator();
+                BTreeEntry e = it.next();
+                children.add(e.getLeftChild());
+                children.add(e.getRightChild());
+                while (it.hasNext()) {
+                    children.add(it.next().getRightChild());
+                }
+            }
+            System.out.printf("level %d: %d internal pages, fanout %.1f%n",
+                    height, level.size(), (entries + level.size()) / (double) level.size());
+            level = children;
+        }
+        height++;
+        long tuples = 0;
+        for (BTreePageId pid : level) {
+            tuples += ((BTreeLeafPage) bf.readPage(pid)).getNumTuples();
+        }
+        System.out.printf("level %d: %d leaf pages, %.1f tuples per page%n", height, level.size(),
+                tuples / (double) level.size());
+        System.out.printf("height %d%n", height);
+    }
+
+    private static void lookups(BTreeFile bf, int rows, int lookups, int bufferPages, boolean print)
+            throws Exception {
+        Random r = new Random(2);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            Field key = new StringField(key(r.nextInt(rows)), Type.STRING_LEN);
+            DbFileIterator it = bf.indexIterator(tid, new IndexPredicate(Op.EQUALS, key));
+            it.open();
+            if (it.hasNext()) {
+                sink += ((IntField) it.next().getField(1)).getValue();
+            }
+            it.close();
+        }
+        double ns = (System.nanoTime() - start) / (double) lookups;
+        Database.getBufferPool().transactionComplete(tid);
+        if (print) {
+            System.out.printf("point lookups: %.0f ns per lookup, %d buffer pool pages%n", ns, bufferPages);
+        }
+    }
+
+    private static String key(int i) {
+        return String.format("customer/%08d", i);
+    }
+
+    // keys are those of 0 .. rows - 1 in random order
+    private static void generate(File f, int rows) throws IOException {
+        Random r = new Random(0);
+        int[] keys = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            keys[i] = i;
+        }
+        for (int i = rows - 1; i > 0; i--) {
+            int j = r.nextInt(i + 1);
+            int t = keys[i];
+            keys[i] = keys[j];
+            keys[j] = t;
+        }
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(f), 1 << 16)) {
+            for (int key : keys) {
+                w.write(key(key) + "," + r.nextInt() + "\n");
+            }
+        }
+    }
+}
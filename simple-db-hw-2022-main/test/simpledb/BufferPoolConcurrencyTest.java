@@ -0,0 +1,220 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs many threads through a buffer pool much smaller than the pages they
+ * touch, so that hits, misses, evictions and write-backs of dirty pages all
+ * race with each other. The pool has more frames than there are threads, since
+ * each thread may pin one frame while it writes a page back.
+ */
+public class BufferPoolConcurrencyTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 16;
+    private static final int TABLE_PAGES = 64;
+    private static final int THREADS = 8;
+    private static final int OPS = 1500;
+
+    // problems seen by the pool's callbacks, which run on the worker threads
+    private final Queue<String> errors = new ConcurrentLinkedQueue<>();
+    private final Set<PageId> resident = ConcurrentHashMap.newKeySet();
+    private final Set<PageId> reading = ConcurrentHashMap.newKeySet();
+    private final Set<PageId> writing = ConcurrentHashMap.newKeySet();
+
+    private File f;
+    private HeapFile hf;
+
+    // a heap file that records which of its pages are being read or written
+    private class CheckedHeapFile extends HeapFile {
+        CheckedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            if (!reading.add(pid)) {
+                errors.add("page " + pid.getPageNumber() + " read by two threads at once");
+            }
+            try {
+                Thread.yield();
+                return super.readPage(pid);
+            } finally {
+                reading.remove(pid);
+            }
+        }
+
+        @Override
+        public void writePage(Page page) throws IOException {
+            boolean added = writing.add(page.getId());
+            try {
+                Thread.yield();
+                super.writePage(page);
+            } finally {
+                if (added) {
+                    writing.remove(page.getId());
+                }
+            }
+        }
+
+        @Override
+        public void writePages(List<Page> pages) throws IOException {
+            for (Page p : pages) {
+                writing.add(p.getId());
+            }
+            try {
+                super.writePages(pages);
+            } finally {
+                for (Page p : pages) {
+                    writing.remove(p.getId());
+                }
+            }
+        }
+    }
+
+    // LRU, checking that a page is never cached twice, that the pool never holds
+    // more pages than it has frames, and that a page is not evicted while it is written
+    private class CheckedPolicy implements ReplacementPolicy {
+        private final ReplacementPolicy lru = new LRUPolicy();
+
+        public void admitted(PageId pid) {
+            if (!resident.add(pid)) {
+                errors.add("page " + pid.getPageNumber() + " cached twice");
+            }
+            if (resident.size() > POOL_PAGES) {
+                errors.add(resident.size() + " pages in a pool of " + POOL_PAGES);
+            }
+            lru.admitted(pid);
+        }
+
+        public void accessed(PageId pid) {
+            lru.accessed(pid);
+        }
+
+        public void removed(PageId pid) {
+            if (!resident.remove(pid)) {
+                errors.add("page " + pid.getPageNumber() + " removed but not cached");
+            }
+            if (writing.contains(pid)) {
+                errors.add("page " + pid.getPageNumber() + " evicted while it was written");
+            }
+            lru.removed(pid);
+        }
+
+        public Iterator<PageId> evictionOrder() {
+            return lru.evictionOrder();
+        }
+    }
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = File.createTempFile("concurrent", ".dat");
+        f.deleteOnExit();
+        hf = new CheckedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, "concurrent");
+        for (int i = 0; i < TABLE_PAGES; i++) {
+            hf.writePage(new HeapPage(new HeapPageId(hf.getId(), i), HeapPage.createEmptyPageData()));
+        }
+        Database.resetBufferPool(POOL_PAGES, new CheckedPolicy());
+    }
+
+    @After public void tearDown() {
+        f.delete();
+    }
+
+    /**
+     * Readers fetch random pages while each writer inserts into pages of its own
+     * and commits, forcing dirty pages out of the pool. Every page returned is the
+     * one asked for, the pool's invariants hold throughout, and no insert is lost.
+     */
+    @Test public void getPageAndEvict() throws Exception {
+        AtomicInteger inserted = new AtomicInteger();
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            threads[i] = new Thread(() -> {
+                Random r = new Random(thread);
+                try {
+                    for (int op = 0; op < OPS; op++) {
+                        TransactionId tid = new TransactionId();
+                        try {
+                            if (op % 4 == 0) {
+                                // this thread's pages are thread, thread + THREADS, ...
+                                int pgNo = thread + THREADS * r.nextInt(TABLE_PAGES / THREADS);
+                                HeapPageId pid = new HeapPageId(hf.getId(), pgNo);
+                                HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+                                if (p.getNumUnusedSlots() > 0) {
+                                    p.insertTuple(Utility.getHeapTuple(op, 2));
+                                    p.markDirty(true, tid);
+                                    inserted.incrementAndGet();
+                                }
+                            } else {
+                                HeapPageId pid = new HeapPageId(hf.getId(), r.nextInt(TABLE_PAGES));
+                                Page p = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                                if (!pid.equals(p.getId())) {
+                                    errors.add("asked for page " + pid.getPageNumber() + ", got "
+                                            + p.getId().getPageNumber());
+                                }
+                            }
+                        } finally {
+                            // release the locks even if the op failed, so the other threads finish
+                            Database.getBufferPool().transactionComplete(tid);
+                        }
+                    }
+                } catch (Exception e) {
+                    errors.add(e.toString());
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertTrue(resident.size() <= POOL_PAGES);
+        assertTrue(Database.getBufferPool().getMissCount() > TABLE_PAGES);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(inserted.get(), count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
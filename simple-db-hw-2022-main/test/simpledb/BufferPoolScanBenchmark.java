@@ -0,0 +1,88 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures read-heavy buffer pool throughput as reader threads are added.
+ * Each reader repeatedly scans a HeapFile that fits in the pool, in a
+ * transaction of its own, so after the first scan every getPage is a hit.
+ * Not a unit test; run it by hand:
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.BufferPoolScanBenchmark [seconds] [tablePages]
+ * </pre>
+ * For 1, 2, 4 and 8 reader threads it prints the pages read per second.
+ * With hits taking no pool-wide lock, this should grow nearly linearly with
+ * the number of cores, up to the number of threads.
+ */
+public class BufferPoolScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 3;
+        int tablePages = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+
+        File f = File.createTempFile("scanbench", ".dat");
+        f.deleteOnExit();
+        try {
+            HeapFile hf = Utility.createEmptyHeapFile(f.getPath(), 2);
+            for (int i = 0; i < tablePages; i++) {
+                HeapPage p = new HeapPage(new HeapPageId(hf.getId(), i), HeapPage.createEmptyPageData());
+                while (p.getNumUnusedSlots() > 0) {
+                    p.insertTuple(Utility.getHeapTuple(i, 2));
+                }
+                hf.writePage(p);
+            }
+            Database.resetBufferPool(tablePages + 10);
+            System.out.printf("%d processors, %d-page table%n", Runtime.getRuntime().availableProcessors(),
+                    tablePages);
+            // warm up the JIT before the first measurement
+            scans(hf, 1, (long) (seconds * 1e9), false);
+            for (int threads : new int[]{1, 2, 4, 8}) {
+                scans(hf, threads, (long) (seconds * 1e9), true);
+            }
+        } finally {
+            f.delete();
+        }
+    }
+
+    private static void scans(HeapFile hf, int threads, long nanos, boolean print) throws InterruptedException {
+        AtomicLong pages = new AtomicLong();
+        int tablePages = hf.numPages();
+        long end = System.nanoTime() + nanos;
+        Thread[] ts = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            ts[i] = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < end) {
+                        TransactionId tid = new TransactionId();
+                        DbFileIterator it = hf.iterator(tid);
+                        it.open();
+                        while (it.hasNext()) {
+                            it.next();
+                        }
+                        it.close();
+                        Database.getBufferPool().transactionComplete(tid);
+                        pages.addAndGet(tablePages);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            ts[i].start();
+        }
+        for (Thread t : ts) {
+            t.join();
+        }
+        if (print) {
+            System.out.printf("%d readers: %8.0f pages/sec%n", threads, pages.get() / (nanos / 1e9));
+        }
+    }
+}
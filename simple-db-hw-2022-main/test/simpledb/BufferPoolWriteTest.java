@@ -140,6 +140,27 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * A transaction that dirties more pages than the pool holds has them
+     * written out as it goes (STEAL), and aborting it undoes them on disk.
+     */
+    @Test public void moreDirtyPagesThanThePoolHolds() throws Exception {
+        Database.resetBufferPool(8);
+        BufferPool pool = Database.getBufferPool();
+        TransactionId writer = new TransactionId();
+        for (int i = 0; i < 504 * 20; ++i) {
+            pool.insertTuple(writer, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        // every page beyond the pool's size was written before it was evicted
+        assertTrue(pool.getForegroundWriteCount() + pool.getBackgroundWriteCount() >= 20 - 8);
+
+        pool.transactionComplete(writer, false);
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
     /**
      * JUnit suite target
      */
@@ -7,6 +7,7 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
@@ -14,11 +15,13 @@ import simpledb.common.Utility;
 import simpledb.storage.BufferPool;
 import simpledb.storage.HeapPageId;
 import simpledb.storage.PageId;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 public class DeadlockTest extends TestUtil.CreateHeapFile {
   private PageId p0;
     private PageId p1;
+    private PageId p2;
     private TransactionId tid1, tid2;
   private Random rand;
 
@@ -51,7 +54,7 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
 
     this.p0 = new HeapPageId(empty.getId(), 0);
     this.p1 = new HeapPageId(empty.getId(), 1);
-      PageId p2 = new HeapPageId(empty.getId(), 2);
+    this.p2 = new HeapPageId(empty.getId(), 2);
     this.tid1 = new TransactionId();
     this.tid2 = new TransactionId();
     this.rand = new Random();
@@ -221,6 +224,53 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testUpgradeWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * Unit test for deadlock detection in the waits-for graph.
+   * t1 acquires p0.write; t2 acquires p1.write; t1 attempts p1.write; t2
+   * attempts p0.write. With the YOUNGEST policy t2 closes the cycle and is
+   * the younger transaction, so it must be aborted immediately rather than
+   * after a timeout.
+   */
+  @Test public void testYoungestVictimAbortedImmediately() throws Exception {
+    bp.setDeadlockVictimPolicy(BufferPool.DeadlockVictimPolicy.YOUNGEST);
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+
+    LockGrabber lg1Write1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    LockGrabber lg2Write0 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    lg2Write0.join(POLL_INTERVAL);
+
+    assertTrue(lg2Write0.getError() instanceof TransactionAbortedException);
+    assertEquals(1, bp.getDeadlockCount());
+
+    // the abort released t2's locks, so t1 gets p1
+    lg1Write1.join(POLL_INTERVAL);
+    assertTrue(lg1Write1.acquired());
+  }
+
+  /**
+   * Unit test for deadlock detection with the FEWEST_LOCKS policy.
+   * t2 holds two pages and t1 one, so t1 is the victim even though it is
+   * not the transaction that closed the cycle.
+   */
+  @Test public void testFewestLocksVictim() throws Exception {
+    bp.setDeadlockVictimPolicy(BufferPool.DeadlockVictimPolicy.FEWEST_LOCKS);
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+    bp.getPage(tid2, p2, Permissions.READ_WRITE);
+
+    LockGrabber lg1Write1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    LockGrabber lg2Write0 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+
+    lg1Write1.join(POLL_INTERVAL);
+    assertTrue(lg1Write1.getError() instanceof TransactionAbortedException);
+    lg2Write0.join(POLL_INTERVAL);
+    assertTrue(lg2Write0.acquired());
+    assertEquals(1, bp.getDeadlockCount());
+  }
+
   /**
    * JUnit suite target
    */
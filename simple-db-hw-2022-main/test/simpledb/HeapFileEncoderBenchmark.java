@@ -0,0 +1,73 @@
+package simpledb;
+
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFileEncoder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Measures HeapFileEncoder.convert on a generated text file of mixed int and
+ * string columns, 1 GB by default. Not a unit test; run it by hand:
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.HeapFileEncoderBenchmark [megabytes] [threads]
+ * </pre>
+ * The number of threads defaults to the number of processors. Run it in a
+ * small fixed heap to check that the memory use of a conversion is bounded,
+ * e.g. {@code java -Xmx128m -XX:ActiveProcessorCount=8 ...} for the default
+ * parallelism of an 8-core machine; HeapFileEncoderTest does this.
+ */
+public class HeapFileEncoderBenchmark {
+
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE, Type.STRING_TYPE};
+
+    public static void main(String[] args) throws IOException {
+        long megabytes = args.length > 0 ? Long.parseLong(args[0]) : 1024;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        File in = File.createTempFile("encoderbench", ".txt");
+        File out = File.createTempFile("encoderbench", ".dat");
+        in.deleteOnExit();
+        out.deleteOnExit();
+        try {
+            long rows = generate(in, megabytes << 20);
+            System.out.printf("input: %d rows, %.1f MB, %d threads%n", rows, in.length() / (double) (1 << 20), threads);
+
+            long start = System.nanoTime();
+            HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), TYPES.length, TYPES, ',',
+                    HeapFileEncoder.DEFAULT_CHUNK_BYTES, threads, System.out);
+            double secs = (System.nanoTime() - start) / 1e9;
+            System.out.printf("total: %.1f s, %.0f rows/sec, %.1f MB/sec, %d pages%n", secs, rows / secs,
+                    in.length() / secs / (1 << 20), out.length() / BufferPool.getPageSize());
+        } finally {
+            in.delete();
+            out.delete();
+        }
+    }
+
+    private static long generate(File f, long bytes) throws IOException {
+        Random r = new Random(0);
+        long rows = 0;
+        StringBuilder line = new StringBuilder();
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(f), 1 << 16)) {
+            long written = 0;
+            while (written < bytes) {
+                line.setLength(0);
+                line.append(r.nextInt()).append(',');
+                int len = r.nextInt(Type.STRING_LEN);
+                for (int i = 0; i < len; i++) {
+                    line.append((char) ('a' + r.nextInt(26)));
+                }
+                line.append(',').append(r.nextInt(1000)).append(",name").append(rows).append('\n');
+                w.write(line.toString());
+                written += line.length();
+                rows++;
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HeapFileEncoderTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE};
+
+    private File write(String text) throws IOException {
+        File f = File.createTempFile("encoder", ".txt");
+        f.deleteOnExit();
+        try (FileWriter w = new FileWriter(f)) {
+            w.write(text);
+        }
+        return f;
+    }
+
+    private List<String> readBack(File dat) throws Exception {
+        HeapFile hf = new HeapFile(dat, new TupleDesc(TYPES));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        List<String> rows = new ArrayList<>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            rows.add(t.getField(0) + "," + t.getField(1));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    /**
+     * Chunks much smaller than a page still produce full pages with every
+     * row in input order, whatever the number of parser threads.
+     */
+    @Test public void smallChunks() throws Exception {
+        StringBuilder text = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            text.append(i).append(", name").append(i).append(" \r\n");
+            expected.add(i + ",name" + i);
+            if (i % 100 == 0) {
+                text.append('\n');
+            }
+        }
+        File in = write(text.toString());
+        for (int threads : new int[]{1, 4}) {
+            File out = File.createTempFile("encoder", ".dat");
+            out.deleteOnExit();
+            HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), 2, TYPES, ',', 37, threads, null);
+            assertEquals(expected, readBack(out));
+        }
+    }
+
+    /**
+     * The last line needs no newline, long strings are truncated and an
+     * empty input gives one empty page.
+     */
+    @Test public void edges() throws Exception {
+        String longName = "x".repeat(Type.STRING_LEN + 10);
+        File out = File.createTempFile("encoder", ".dat");
+        out.deleteOnExit();
+        HeapFileEncoder.convert(write("1,a\n2," + longName), out, BufferPool.getPageSize(), 2, TYPES, ',');
+        List<String> rows = readBack(out);
+        assertEquals(2, rows.size());
+        assertEquals("2," + longName.substring(0, Type.STRING_LEN), rows.get(1));
+
+        HeapFileEncoder.convert(write(""), out, BufferPool.getPageSize(), 2, TYPES, ',');
+        assertEquals(BufferPool.getPageSize(), out.length());
+    }
+
+    @Test(expected = IOException.class)
+    public void badInteger() throws Exception {
+        File out = File.createTempFile("encoder", ".dat");
+        out.deleteOnExit();
+        HeapFileEncoder.convert(write("1,a\nx,b\n"), out, BufferPool.getPageSize(), 2, TYPES, ',');
+    }
+
+    @Test(expected = IOException.class)
+    public void wrongFieldCount() throws Exception {
+        File out = File.createTempFile("encoder", ".dat");
+        out.deleteOnExit();
+        HeapFileEncoder.convert(write("1,a,2\n"), out, BufferPool.getPageSize(), 2, TYPES, ',');
+    }
+
+    /**
+     * A 40 MB conversion at the default parallelism of an 8-core machine runs
+     * in a 128 MB heap: the records of each task are sized from its line
+     * count, and the bytes in flight are bounded whatever the number of
+     * threads. The conversion runs in a child JVM, so its heap can be limited.
+     */
+    @Test public void boundedHeap() throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process child = new ProcessBuilder(java, "-Xmx128m", "-XX:ActiveProcessorCount=8",
+                "-cp", System.getProperty("java.class.path"),
+                HeapFileEncoderBenchmark.class.getName(), "40")
+                .redirectErrorStream(true)
+                .start();
+        String output = new String(child.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertTrue(child.waitFor(120, TimeUnit.SECONDS));
+        assertEquals(output, 0, child.exitValue());
+        assertTrue(output, output.contains("8 threads") && output.contains("total:"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
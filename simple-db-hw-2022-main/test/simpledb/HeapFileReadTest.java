@@ -1,12 +1,14 @@
 package simpledb;
 
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
 import java.util.*;
+import java.util.function.Function;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -125,6 +127,38 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Read-ahead brings pages into the pool; pages a later getPage finds
+     * count as hits, pages evicted before anyone asked for them as waste.
+     */
+    @Test
+    public void testReadAhead() throws Exception {
+        HeapFile file = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, null);
+        int tableId = file.getId();
+
+        BufferPool bp = Database.resetBufferPool(4);
+        Page first = bp.getPage(tid, new HeapPageId(tableId, 0), Permissions.READ_ONLY);
+        Function<Page, PageId> next = p -> new HeapPageId(tableId, p.getId().getPageNumber() + 1);
+
+        bp.setReadAheadPages(3);
+        bp.readAhead(first, next, null).get();
+        assertEquals(3, bp.getPrefetchCount());
+        assertEquals(1, bp.getMissCount());
+
+        bp.getPage(tid, new HeapPageId(tableId, 1), Permissions.READ_ONLY);
+        assertEquals(1, bp.getPrefetchHitCount());
+        assertEquals(1, bp.getMissCount());
+
+        // pages 0, 2 and 3 are evicted, and 2 and 3 were never read
+        for (int i = 5; i < 8; i++) {
+            bp.getPage(tid, new HeapPageId(tableId, i), Permissions.READ_ONLY);
+        }
+        assertEquals(2, bp.getPrefetchWastedCount());
+
+        bp.setReadAheadPages(0);
+        assertNull(bp.readAhead(first, next, null));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,122 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Measures reading the pages of a HeapFile from disk, with the OS cache
+ * warm. Not a unit test; run it by hand:
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.HeapFileScanBenchmark [pages] [rounds]
+ * </pre>
+ * It builds a table of full pages of two-int tuples, 4000 pages by
+ * default, and for each round prints:
+ * <ul>
+ * <li>the time of a raw page read, opening a RandomAccessFile for each page
+ * as HeapFile used to, and through the table's long-lived PageChannel;</li>
+ * <li>readPage throughput;</li>
+ * <li>the throughput of a full scan through a cold buffer pool, touching
+ * every tuple.</li>
+ * </ul>
+ * The last two are measured for the table read through its channel and as a
+ * MappedHeapFile, which decodes pages in place in the mapping.
+ */
+public class HeapFileScanBenchmark {
+
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        File f = File.createTempFile("scanbench", ".dat");
+        f.deleteOnExit();
+        try {
+            HeapFile hf = build(f, pages);
+            MappedHeapFile mapped = new MappedHeapFile(f, hf.getTupleDesc());
+            for (int round = 0; round < rounds; round++) {
+                rawReads(f, pages);
+                for (HeapFile file : new HeapFile[]{hf, mapped}) {
+                    // the buffer pool reads the pages through the file in the catalog
+                    Database.getCatalog().addTable(file, "scanbench");
+                    String mode = file == mapped ? "mmap" : "channel";
+                    readPages(file, mode);
+                    scan(file, mode);
+                }
+            }
+        } finally {
+            f.delete();
+        }
+    }
+
+    private static HeapFile build(File f, int pages) throws IOException {
+        HeapFile hf = Utility.createEmptyHeapFile(f.getPath(), 2);
+        for (int i = 0; i < pages; i++) {
+            HeapPage p = new HeapPage(new HeapPageId(hf.getId(), i), HeapPage.createEmptyPageData());
+            for (int j = 0; p.getNumUnusedSlots() > 0; j++) {
+                try {
+                    p.insertTuple(Utility.getHeapTuple(new int[]{i, j}));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            hf.writePage(p);
+        }
+        return hf;
+    }
+
+    private static void rawReads(File f, int pages) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        byte[] buf = new byte[pageSize];
+        long start = System.nanoTime();
+        for (int i = 0; i < pages; i++) {
+            try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+                raf.seek((long) i * pageSize);
+                raf.readFully(buf);
+            }
+            sink += buf[0];
+        }
+        double perFile = (System.nanoTime() - start) / 1e3 / pages;
+
+        PageChannel channel = new PageChannel(f);
+        start = System.nanoTime();
+        for (int i = 0; i < pages; i++) {
+            channel.read((long) i * pageSize, buf);
+            sink += buf[0];
+        }
+        double perChannel = (System.nanoTime() - start) / 1e3 / pages;
+        channel.close();
+        System.out.printf("raw page read: RandomAccessFile per page %.2f us, PageChannel %.2f us%n",
+                perFile, perChannel);
+    }
+
+    private static void readPages(HeapFile hf, String mode) {
+        int pages = hf.numPages();
+        long start = System.nanoTime();
+        for (int i = 0; i < pages; i++) {
+            sink += hf.readPage(new HeapPageId(hf.getId(), i)).getId().getPageNumber();
+        }
+        System.out.printf("%-7s readPage:  %8.0f pages/sec%n", mode, pages / ((System.nanoTime() - start) / 1e9));
+    }
+
+    private static void scan(HeapFile hf, String mode) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            sink += ((IntField) it.next().getField(1)).getValue();
+        }
+        it.close();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Database.getBufferPool().transactionComplete(tid);
+        System.out.printf("%-7s cold scan: %8.0f pages/sec%n", mode, hf.numPages() / seconds);
+    }
+}
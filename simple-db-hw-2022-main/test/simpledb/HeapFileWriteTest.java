@@ -12,7 +12,9 @@ import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -50,6 +52,99 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Filling a page through the BufferPool must not release the lock on it:
+     * the page is dirty and has to be flushed when the transaction commits.
+     */
+    @Test public void fillPageThenCommit() throws Exception {
+        for (int i = 0; i < 505; ++i) {
+            Database.getBufferPool().insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        tid = new TransactionId();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(505, count);
+    }
+
+    /**
+     * insertTuple should go straight to a page with room, without locking
+     * the full pages in front of it, and reuse space freed by a delete.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 5 + 1, null, null);
+        assertEquals(6, f.numPages());
+
+        Tuple t = Utility.getHeapTuple(1, 2);
+        f.insertTuple(tid, t);
+        assertEquals(5, t.getRecordId().getPageId().getPageNumber());
+        for (int i = 0; i < 5; i++) {
+            assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(f.getId(), i)));
+        }
+
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        Tuple victim = null;
+        while (it.hasNext()) {
+            Tuple next = it.next();
+            if (next.getRecordId().getPageId().getPageNumber() == 2) {
+                victim = next;
+                break;
+            }
+        }
+        it.close();
+        f.deleteTuple(tid, victim);
+
+        t = Utility.getHeapTuple(2, 2);
+        f.insertTuple(tid, t);
+        assertEquals(2, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(6, f.numPages());
+    }
+
+    /**
+     * A batch insert fills new pages in memory; they reach the file when the
+     * transaction commits and stay empty when it aborts.
+     */
+    @Test public void insertTuples() throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 504 * 20 + 10; i++) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().insertTuples(tid, empty.getId(), tuples.iterator());
+        assertEquals(21, empty.numPages());
+        assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(empty.getId(), 20)));
+
+        Database.getBufferPool().transactionComplete(tid);
+
+        TransactionId aborted = new TransactionId();
+        Database.getBufferPool().insertTuples(aborted, empty.getId(), tuples.iterator());
+        Database.getBufferPool().transactionComplete(aborted, false);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        assertEquals(tuples.size(), countTuples(empty));
+    }
+
+    private int countTuples(HeapFile f) throws Exception {
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
     @Test
     public void testAlternateEmptyAndFullPagesThenIterate() throws Exception {
         // Create HeapFile/Table
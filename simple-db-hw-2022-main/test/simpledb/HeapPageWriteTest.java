@@ -131,6 +131,34 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() and the before image after the
+     * page has been modified
+     */
+    @Test public void pageDataAfterWrites() throws Exception {
+        byte[] data = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData());
+
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+
+        // the array passed in and the before image are left untouched
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, data);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        // the written page reads back with the same contents
+        HeapPage reread = new HeapPage(pid, page.getPageData());
+        assertEquals(page.getNumUnusedSlots(), reread.getNumUnusedSlots());
+        Iterator<Tuple> it = page.iterator();
+        Iterator<Tuple> rit = reread.iterator();
+        while (it.hasNext()) {
+            assertTrue(TestUtil.compareTuples(it.next(), rit.next()));
+        }
+        assertFalse(rit.hasNext());
+    }
+
     /**
      * JUnit suite target
      */
@@ -3,7 +3,9 @@ package simpledb;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
@@ -195,6 +197,33 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * Unit test for BufferPool.getPage() assuming FIFO lock queues.
+   * A writer waiting behind a reader must not be overtaken by readers that
+   * arrive after it, and must be granted the lock once the reader releases.
+   */
+  @Test public void queuedWriterBlocksLaterReaders() throws Exception {
+    TransactionId tid3 = new TransactionId();
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+
+    TestUtil.LockGrabber writer = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+    writer.start();
+    Thread.sleep(TIMEOUT / 2);
+    TestUtil.LockGrabber reader = new TestUtil.LockGrabber(tid3, p0, Permissions.READ_ONLY);
+    reader.start();
+    Thread.sleep(TIMEOUT / 2);
+    assertFalse(writer.acquired());
+    assertFalse(reader.acquired());
+
+    bp.unsafeReleasePage(tid1, p0);
+    Thread.sleep(TIMEOUT / 2);
+    assertTrue(writer.acquired());
+    assertFalse(reader.acquired());
+
+    writer.stop();
+    reader.stop();
+  }
+
   /**
    * JUnit suite target
    */
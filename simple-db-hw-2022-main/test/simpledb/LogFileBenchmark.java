@@ -0,0 +1,111 @@
+package simpledb;
+
+import simpledb.common.Utility;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures LogFile commit throughput with many small transactions. Not a
+ * unit test; run it by hand:
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.LogFileBenchmark [seconds] [waitMicros] [maxBatch]
+ * </pre>
+ * For 1, 8, 32 and 128 writer threads it prints commits/sec and the mean
+ * latency of logCommit, which includes waiting for the log force. It then
+ * logs UPDATE records of heap pages from a single thread and prints
+ * updates/sec and the log bytes written per update.
+ */
+public class LogFileBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 3;
+        long waitMicros = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        int maxBatch = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+
+        for (int threads : new int[]{1, 8, 32, 128}) {
+            File f = File.createTempFile("logbench", ".log");
+            f.deleteOnExit();
+            LogFile log = new LogFile(f);
+            log.setGroupCommit(waitMicros, maxBatch);
+            commits(log, threads, (long) (seconds * 1e9));
+            log.shutdown();
+            delete(f);
+        }
+
+        File f = File.createTempFile("logbench", ".log");
+        f.deleteOnExit();
+        LogFile log = new LogFile(f);
+        updates(log, (long) (seconds * 1e9));
+        log.shutdown();
+        delete(f);
+    }
+
+    // deletes the log file and its segments
+    private static void delete(File f) {
+        File[] segments = f.getParentFile().listFiles((d, name) -> name.startsWith(f.getName()));
+        if (segments != null) {
+            for (File s : segments) {
+                s.delete();
+            }
+        }
+    }
+
+    private static void updates(LogFile log, long nanos) throws IOException {
+        File table = File.createTempFile("logbench", ".dat");
+        table.deleteOnExit();
+        HeapPageId pid = new HeapPageId(Utility.createEmptyHeapFile(table.getPath(), 2).getId(), 0);
+        byte[] data = HeapPage.createEmptyPageData();
+        HeapPage before = new HeapPage(pid, data);
+        data[0] = 1;
+        HeapPage after = new HeapPage(pid, data);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.force();
+        long start = log.getLogSize();
+
+        long updates = 0;
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            log.logWrite(tid, before, after);
+            updates++;
+        }
+        log.force();
+        System.out.printf("    updates: %8.0f updates/sec, %d log bytes per update%n",
+                updates / (nanos / 1e9), (log.getLogSize() - start) / updates);
+    }
+
+    private static void commits(LogFile log, int threads, long nanos) throws InterruptedException {
+        AtomicLong commits = new AtomicLong();
+        AtomicLong latency = new AtomicLong();
+        long end = System.nanoTime() + nanos;
+        Thread[] ts = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            ts[i] = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < end) {
+                        TransactionId tid = new TransactionId();
+                        log.logXactionBegin(tid);
+                        long start = System.nanoTime();
+                        log.logCommit(tid);
+                        latency.addAndGet(System.nanoTime() - start);
+                        commits.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            ts[i].start();
+        }
+        for (Thread t : ts) {
+            t.join();
+        }
+        System.out.printf("%3d threads: %8.0f commits/sec, mean commit latency %7.3f ms%n", threads,
+                commits.get() / (nanos / 1e9), latency.get() / 1e6 / Math.max(1, commits.get()));
+    }
+}
@@ -0,0 +1,323 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LogFileTest extends SimpleDbTestBase {
+
+    private File file;
+    private LogFile log;
+
+    @Before public void createLog() throws Exception {
+        file = File.createTempFile("logfile", ".log");
+        file.deleteOnExit();
+        log = new LogFile(file);
+    }
+
+    @After public void deleteLog() {
+        log.shutdown();
+        file.delete();
+        deleteSegments(file.getParentFile());
+    }
+
+    // deletes the segment files of the log in dir
+    private void deleteSegments(File dir) {
+        File[] segments = dir.listFiles((d, name) -> name.startsWith(file.getName() + "."));
+        if (segments != null) {
+            for (File f : segments) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Concurrent committers, with and without a group commit window, all get
+     * their BEGIN and COMMIT records into the log.
+     */
+    @Test public void concurrentCommits() throws Exception {
+        for (long waitMicros : new long[]{0, 500}) {
+            log.setGroupCommit(waitMicros, 4);
+            int before = log.getTotalRecords();
+            List<Thread> threads = new ArrayList<>();
+            List<Throwable> errors = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                Thread t = new Thread(() -> {
+                    try {
+                        for (int j = 0; j < 50; j++) {
+                            TransactionId tid = new TransactionId();
+                            log.logXactionBegin(tid);
+                            log.logCommit(tid);
+                        }
+                    } catch (IOException e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                });
+                threads.add(t);
+                t.start();
+            }
+            for (Thread t : threads) {
+                t.join(60000);
+                assertFalse(t.isAlive());
+            }
+            assertTrue(errors.isEmpty());
+            assertEquals(before + 16 * 50 * 2, log.getTotalRecords());
+        }
+        // the checkpoint pointer, then 20 bytes per BEGIN or COMMIT record
+        assertEquals(8 + 2 * 16 * 50 * 2 * 20, log.getLogSize());
+    }
+
+    /**
+     * Committers that are interrupted, before they commit and while they wait
+     * for or lead the group force, still commit, and are still interrupted
+     * when logCommit returns. The log keeps working for the other committers.
+     */
+    @Test public void interruptedCommitters() throws Exception {
+        log.setGroupCommit(200, 4);
+        int before = log.getTotalRecords();
+        List<Thread> threads = new ArrayList<>();
+        List<Thread> interruptible = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 8; i++) {
+            boolean interrupted = i % 2 == 0;
+            Thread t = new Thread(() -> {
+                try {
+                    for (int j = 0; j < 100; j++) {
+                        TransactionId tid = new TransactionId();
+                        log.logXactionBegin(tid);
+                        if (interrupted) {
+                            Thread.currentThread().interrupt();
+                        }
+                        log.logCommit(tid);
+                        if (Thread.interrupted() != interrupted) {
+                            errors.add(new AssertionError("interrupt not kept"));
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            threads.add(t);
+            if (interrupted) {
+                interruptible.add(t);
+            }
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        // interrupts the interrupted committers at random points as well
+        Thread interrupter = new Thread(() -> {
+            while (interruptible.stream().anyMatch(Thread::isAlive)) {
+                for (Thread t : interruptible) {
+                    t.interrupt();
+                }
+                Thread.yield();
+            }
+        });
+        interrupter.start();
+        for (Thread t : threads) {
+            t.join(60000);
+            assertFalse(t.isAlive());
+        }
+        interrupter.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(before + 8 * 100 * 2, log.getTotalRecords());
+
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+        assertEquals(8 + (8 * 100 + 1) * 2 * 20, log.getLogSize());
+    }
+
+    /**
+     * Update records larger in total than the log buffer and the segment
+     * size are all written out, and read back across segment boundaries
+     * (by the rollback of an abort) with their page and id classes restored
+     * from the type tags. Once the page is written, a checkpoint gives up
+     * every segment before it.
+     */
+    @Test public void updatesSpanSegments() throws Exception {
+        int segmentSize = 64 * 1024;
+        log.shutdown();
+        log = new LogFile(file, segmentSize);
+        File table = File.createTempFile("logfile", ".dat");
+        table.deleteOnExit();
+        HeapFile hf = Utility.createEmptyHeapFile(table.getPath(), 2);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] data = HeapPage.createEmptyPageData();
+        HeapPage before = new HeapPage(pid, data);
+        data[0] = 1;
+        HeapPage after = new HeapPage(pid, data);
+
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        // about 2.5 MB of records, more than twice the log buffer, and
+        // records that straddle segments
+        int updates = 300;
+        for (int i = 0; i < updates; i++) {
+            log.logWrite(tid, before, after);
+        }
+        log.logCheckpoint();
+
+        // type, tid and start offset, and for each image the page and id
+        // tags, the id length, the table id and page number, the data length
+        // and the data
+        long updateSize = 4 + 8 + 8 + 2 * (1 + 1 + 1 + 2 * 4 + 4 + data.length);
+        // the open transaction keeps its BEGIN record from being truncated;
+        // the page is in the dirty page table
+        long checkpointSize = 4 + 8 + 4 + (8 + 8) + 4 + (1 + 1 + 2 * 4 + 8) + 8;
+        assertEquals(8 + 20 + updates * updateSize + checkpointSize, log.getLogSize());
+
+        // undoing every update puts the empty page back on disk
+        log.logAbort(tid);
+        HeapPage onDisk = (HeapPage) hf.readPage(pid);
+        assertEquals(before.getNumUnusedSlots(), onDisk.getNumUnusedSlots());
+
+        log.logCheckpoint();
+        // only the segment holding the checkpoint is left
+        long emptyCheckpointSize = 4 + 8 + 4 + 4 + 8;
+        assertTrue(log.getLogSize() < segmentSize + emptyCheckpointSize);
+        table.delete();
+    }
+
+    /**
+     * INSERT and DELETE records carry only the slot's tuple bytes.
+     */
+    @Test public void slotRecords() throws Exception {
+        HeapPageId pid = new HeapPageId(1, 0);
+        byte[] tuple = new byte[8];
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long insert = log.logInsert(tid, pid, 3, tuple);
+        long delete = log.logDelete(tid, pid, 3, tuple);
+        assertTrue(delete > insert);
+        log.logCheckpoint();
+
+        // type, tid and start offset, the id tag, length, table id and page
+        // number, the slot, the tuple length and the tuple
+        long slotSize = 4 + 8 + 8 + 1 + 1 + 2 * 4 + 4 + 4 + tuple.length;
+        long checkpointSize = 4 + 8 + 4 + (8 + 8) + 4 + (1 + 1 + 2 * 4 + 8) + 8;
+        assertEquals(8 + 20 + 2 * slotSize + checkpointSize, log.getLogSize());
+    }
+
+    /**
+     * A checkpoint writes no pages, so the changes of a committed transaction
+     * stay in the log until their page is written.
+     */
+    @Test public void dirtyPagesHoldBackTruncation() throws Exception {
+        int segmentSize = 1024;
+        log.shutdown();
+        log = new LogFile(file, segmentSize);
+        HeapPageId pid = new HeapPageId(1, 0);
+        byte[] tuple = new byte[8];
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logInsert(tid, pid, 3, tuple);
+        log.logCommit(tid);
+        // enough later records to fill several segments
+        for (int i = 0; i < 100; i++) {
+            TransactionId other = new TransactionId();
+            log.logXactionBegin(other);
+            log.logCommit(other);
+        }
+        assertEquals(Collections.singletonList(pid), log.oldestDirtyPages(10));
+        log.logCheckpoint();
+
+        long slotSize = 4 + 8 + 8 + 1 + 1 + 2 * 4 + 4 + 4 + tuple.length;
+        long emptyCheckpointSize = 4 + 8 + 4 + 4 + 8;
+        long dirtyPageSize = 1 + 1 + 2 * 4 + 8;
+        // the INSERT record is in the first segment, so every segment is kept
+        long firstCheckpoint = 8 + 20 + slotSize + 20 + 100 * 40;
+        assertEquals(firstCheckpoint + emptyCheckpointSize + dirtyPageSize, log.getLogSize());
+
+        // a change logged while the page is being written keeps it dirty
+        TransactionId tid2 = new TransactionId();
+        long mark = log.beforePageWrite(pid);
+        log.logInsert(tid2, pid, 4, tuple);
+        log.pageWritten(pid, mark);
+        assertEquals(Collections.singletonList(pid), log.oldestDirtyPages(10));
+        log.logCommit(tid2);
+
+        log.pageWritten(pid, log.beforePageWrite(pid));
+        assertTrue(log.oldestDirtyPages(10).isEmpty());
+        log.logCheckpoint();
+        // the segments before the one holding the checkpoint are given up
+        long checkpoint = firstCheckpoint + emptyCheckpointSize + dirtyPageSize + slotSize + 20;
+        assertEquals(checkpoint % segmentSize + emptyCheckpointSize, log.getLogSize());
+    }
+
+    /**
+     * Under a steady load of transactions whose pages are written and that
+     * are checkpointed now and then, the log stays within a few segments
+     * however much is written to it; the segments given up go to the
+     * archive directory.
+     */
+    @Test public void logSizeStaysBounded() throws Exception {
+        int segmentSize = 4096;
+        log.shutdown();
+        log = new LogFile(file, segmentSize);
+        File archive = Files.createTempDirectory("logarchive").toFile();
+        log.setArchiveDirectory(archive);
+        byte[] tuple = new byte[8];
+        long maxSize = 0;
+        int transactions = 20000;
+        for (int i = 0; i < transactions; i++) {
+            TransactionId tid = new TransactionId();
+            HeapPageId pid = new HeapPageId(1, i % 10);
+            log.logXactionBegin(tid);
+            log.logInsert(tid, pid, i % 100, tuple);
+            log.logCommit(tid);
+            if (i % 10 == 9) {
+                for (PageId dirty : log.oldestDirtyPages(10)) {
+                    log.pageWritten(dirty, log.beforePageWrite(dirty));
+                }
+            }
+            if (i % 100 == 99) {
+                log.logCheckpoint();
+            }
+            maxSize = Math.max(maxSize, log.getLogSize());
+        }
+        // BEGIN, INSERT and COMMIT records
+        long written = transactions * (20 + 4 + 8 + 8 + 1 + 1 + 2 * 4 + 4 + 4 + tuple.length + 20);
+        assertTrue("log grew to " + maxSize, maxSize <= 4 * segmentSize);
+        assertTrue(written > 100 * maxSize);
+
+        File[] archived = archive.listFiles();
+        assertNotNull(archived);
+        assertTrue(archived.length * (long) segmentSize + log.getLogSize() > written);
+        for (File f : archived) {
+            assertEquals(segmentSize, f.length());
+            f.delete();
+        }
+        archive.delete();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogFileTest.class);
+    }
+}
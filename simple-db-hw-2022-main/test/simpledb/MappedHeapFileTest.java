@@ -0,0 +1,122 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+
+    private List<List<Integer>> tuples;
+    private File file;
+    private MappedHeapFile mf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        file = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 3 + 10, 1000, null, tuples);
+        mf = new MappedHeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(mf, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * A mapped page decodes to the same bytes as a page read through the channel.
+     */
+    @Test public void readPageMatchesHeapFile() throws Exception {
+        HeapFile hf = new HeapFile(file, Utility.getTupleDesc(2));
+        for (int i = 0; i < mf.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(mf.getId(), i);
+            assertArrayEquals(((HeapPage) hf.readPage(pid)).getPageData(),
+                    ((HeapPage) mf.readPage(pid)).getPageData());
+        }
+    }
+
+    @Test public void scan() throws Exception {
+        SystemTestUtil.matchTuples(mf, tuples);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readPastEnd() {
+        mf.readPage(new HeapPageId(mf.getId(), mf.numPages()));
+    }
+
+    /**
+     * Pages appended and written after the file was first mapped are visible
+     * to later reads.
+     */
+    @Test public void seesWritesAndGrowth() throws Exception {
+        SystemTestUtil.matchTuples(mf, tuples);
+        int pages = mf.numPages();
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 504; i++) {
+            Tuple t = Utility.getHeapTuple(new int[]{-i, i});
+            Database.getBufferPool().insertTuple(tid, mf.getId(), t);
+            tuples.add(Arrays.asList(-i, i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(pages + 1, mf.numPages());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(mf, tuples);
+    }
+
+    /**
+     * A modified mapped page keeps the bytes it was read with as its before
+     * image, even after it is written back through the mapped file.
+     */
+    @Test public void beforeImageSurvivesWriteBack() throws Exception {
+        HeapPageId pid = new HeapPageId(mf.getId(), 0);
+        HeapPage page = (HeapPage) mf.readPage(pid);
+        byte[] original = page.getPageData();
+
+        page.deleteTuple(page.iterator().next());
+        mf.writePage(page);
+
+        assertArrayEquals(page.getPageData(), ((HeapPage) mf.readPage(pid)).getPageData());
+        assertFalse(Arrays.equals(original, page.getPageData()));
+        assertArrayEquals(original, page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * A table marked mmap in the schema file is opened as a MappedHeapFile.
+     */
+    @Test public void catalogOptIn() throws Exception {
+        File dir = Files.createTempDirectory("mmapcatalog").toFile();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        schema.deleteOnExit();
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("plain (a int, b int)\n");
+            w.write("mapped (a int, b int) mmap\n");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        DbFile plain = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("plain"));
+        DbFile mapped = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("mapped"));
+        assertFalse(plain instanceof MappedHeapFile);
+        assertTrue(mapped instanceof MappedHeapFile);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
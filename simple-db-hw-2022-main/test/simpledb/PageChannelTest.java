@@ -0,0 +1,191 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.PageChannel;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class PageChannelTest extends SimpleDbTestBase {
+
+    private static final int PAGE = 4096;
+    private static final int PAGES = 16;
+
+    private File f;
+    private PageChannel channel;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = File.createTempFile("pagechannel", ".dat");
+        f.deleteOnExit();
+        channel = new PageChannel(f);
+        for (int i = 0; i < PAGES; i++) {
+            byte[] page = new byte[PAGE];
+            Arrays.fill(page, (byte) i);
+            channel.write((long) i * PAGE, page);
+        }
+    }
+
+    @After public void tearDown() throws Exception {
+        channel.close();
+        f.delete();
+    }
+
+    /**
+     * A closed channel is opened again by the next read or write.
+     */
+    @Test public void reopenAfterClose() throws Exception {
+        channel.close();
+        byte[] buf = new byte[PAGE];
+        assertEquals(PAGE, channel.read(3L * PAGE, buf));
+        assertEquals(3, buf[0]);
+        channel.close();
+        channel.close();
+        assertEquals((long) PAGES * PAGE, channel.size());
+    }
+
+    /**
+     * A thread interrupted during I/O gets ClosedByInterruptException, and the
+     * channel still works for everyone else.
+     */
+    @Test public void interruptedThread() throws Exception {
+        AtomicReference<Exception> thrown = new AtomicReference<>();
+        Thread t = new Thread(() -> {
+            Thread.currentThread().interrupt();
+            try {
+                channel.read(0, new byte[PAGE]);
+            } catch (Exception e) {
+                thrown.set(e);
+            }
+        });
+        t.start();
+        t.join();
+        assertTrue(String.valueOf(thrown.get()), thrown.get() instanceof ClosedByInterruptException);
+        assertEquals(PAGE, channel.read(0, new byte[PAGE]));
+    }
+
+    /**
+     * Readers never fail, and always read the page they asked for, while another
+     * thread keeps closing the channel under them, by interrupting itself during a
+     * read or by calling close.
+     */
+    @Test public void readWhileClosed() throws Exception {
+        Queue<String> errors = new ConcurrentLinkedQueue<>();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger closes = new AtomicInteger();
+        Thread closer = new Thread(() -> {
+            for (int i = 0; !done.get(); i++) {
+                try {
+                    if (i % 2 == 0) {
+                        Thread.currentThread().interrupt();
+                        channel.read(0, new byte[PAGE]);
+                    } else {
+                        channel.close();
+                    }
+                } catch (ClosedByInterruptException e) {
+                    // expected: this thread interrupted itself
+                } catch (Exception e) {
+                    errors.add("closer: " + e);
+                }
+                Thread.interrupted();
+                closes.incrementAndGet();
+                Thread.yield();
+            }
+        });
+        Thread[] readers = new Thread[3];
+        for (int r = 0; r < readers.length; r++) {
+            final Random rand = new Random(r);
+            readers[r] = new Thread(() -> {
+                byte[] buf = new byte[PAGE];
+                for (int i = 0; i < 3000; i++) {
+                    int pgNo = rand.nextInt(PAGES);
+                    try {
+                        if (channel.read((long) pgNo * PAGE, buf) != PAGE || buf[0] != pgNo || buf[PAGE - 1] != pgNo) {
+                            errors.add("wrong data for page " + pgNo);
+                        }
+                    } catch (Exception e) {
+                        errors.add("reader: " + e);
+                    }
+                }
+            });
+        }
+        closer.start();
+        for (Thread t : readers) {
+            t.start();
+        }
+        for (Thread t : readers) {
+            t.join();
+        }
+        done.set(true);
+        closer.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertTrue(closes.get() > 0);
+    }
+
+    // a table that counts how many times it is closed
+    private static class ClosingFile extends SkeletonFile {
+        private final AtomicInteger closed;
+
+        ClosingFile(int tableid, TupleDesc td, AtomicInteger closed) {
+            super(tableid, td);
+            this.closed = closed;
+        }
+
+        @Override
+        public void close() {
+            closed.incrementAndGet();
+        }
+    }
+
+    /**
+     * The catalog closes the file of a table that is replaced, by name or by id,
+     * and the files of every table when it is cleared or the database reset.
+     */
+    @Test public void catalogClosesFiles() {
+        AtomicInteger closed = new AtomicInteger();
+        TupleDesc td = Utility.getTupleDesc(2);
+        ClosingFile a = new ClosingFile(1, td, closed);
+        Database.getCatalog().addTable(a, "t");
+        Database.getCatalog().addTable(a, "t");
+        assertEquals(0, closed.get());
+
+        Database.getCatalog().addTable(new ClosingFile(2, td, closed), "t");
+        assertEquals(1, closed.get());
+        Database.getCatalog().addTable(new ClosingFile(2, td, closed), "u");
+        assertEquals(2, closed.get());
+        Database.getCatalog().addTable(new ClosingFile(3, td, closed), "v");
+
+        Database.getCatalog().clear();
+        assertEquals(4, closed.get());
+
+        Database.getCatalog().addTable(new ClosingFile(4, td, closed), "w");
+        Database.reset();
+        assertEquals(5, closed.get());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageChannelTest.class);
+    }
+}
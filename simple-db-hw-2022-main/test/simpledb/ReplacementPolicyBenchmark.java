@@ -0,0 +1,92 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Compares the buffer pool's replacement policies on point lookups mixed
+ * with large sequential scans. Not a unit test; run it by hand:
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.ReplacementPolicyBenchmark [lookups] [lookupsPerScan]
+ * </pre>
+ * A 50-page pool serves Gaussian-skewed point lookups on a 30-page table,
+ * 200000 by default, and a full scan of a 400-page table every 8000
+ * lookups. The scans read every page through getPage without a buffer
+ * ring, so they compete with the lookups for the shared pool. For LRU,
+ * CLOCK and 2Q it prints the overall hit rate, the hit rate of the point
+ * lookups alone, the number of misses and the page requests per second.
+ */
+public class ReplacementPolicyBenchmark {
+
+    private static final int POOL_PAGES = 50;
+    private static final int HOT_PAGES = 30;
+    private static final int SCAN_PAGES = 400;
+
+    public static void main(String[] args) throws Exception {
+        int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int lookupsPerScan = args.length > 1 ? Integer.parseInt(args[1]) : 8000;
+
+        File hot = File.createTempFile("policybench", ".dat");
+        File scan = File.createTempFile("policybench", ".dat");
+        hot.deleteOnExit();
+        scan.deleteOnExit();
+        try {
+            HeapFile hotFile = table(hot, HOT_PAGES);
+            HeapFile scanFile = table(scan, SCAN_PAGES);
+            for (String name : new String[]{"LRU", "CLOCK", "2Q"}) {
+                ReplacementPolicy policy = name.equals("LRU") ? new LRUPolicy()
+                        : name.equals("CLOCK") ? new ClockPolicy() : new TwoQueuePolicy(POOL_PAGES);
+                run(name, policy, hotFile, scanFile, lookups, lookupsPerScan);
+            }
+        } finally {
+            hot.delete();
+            scan.delete();
+        }
+    }
+
+    private static HeapFile table(File f, int pages) throws Exception {
+        HeapFile hf = Utility.createEmptyHeapFile(f.getPath(), 2);
+        for (int i = 0; i < pages; i++) {
+            hf.writePage(new HeapPage(new HeapPageId(hf.getId(), i), HeapPage.createEmptyPageData()));
+        }
+        return hf;
+    }
+
+    private static void run(String name, ReplacementPolicy policy, HeapFile hotFile, HeapFile scanFile,
+                            int lookups, int lookupsPerScan) throws Exception {
+        BufferPool pool = Database.resetBufferPool(POOL_PAGES, policy);
+        Random r = new Random(0);
+        long lookupHits = 0;
+        long requests = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            if (i % lookupsPerScan == 0) {
+                TransactionId tid = new TransactionId();
+                for (int p = 0; p < SCAN_PAGES; p++) {
+                    pool.getPage(tid, new HeapPageId(scanFile.getId(), p), Permissions.READ_ONLY);
+                }
+                pool.transactionComplete(tid);
+                requests += SCAN_PAGES;
+            }
+            // most lookups go to the first few pages of the table
+            int pgNo = Math.min(HOT_PAGES - 1, (int) Math.abs(r.nextGaussian() * HOT_PAGES / 3));
+            TransactionId tid = new TransactionId();
+            long hits = pool.getHitCount();
+            pool.getPage(tid, new HeapPageId(hotFile.getId(), pgNo), Permissions.READ_ONLY);
+            lookupHits += pool.getHitCount() - hits;
+            pool.transactionComplete(tid);
+            requests++;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long hits = pool.getHitCount();
+        long misses = pool.getMissCount();
+        System.out.printf("%-5s hit rate %5.1f%%  point-lookup hit rate %5.1f%%  misses %6d  %8.0f requests/sec%n",
+                name, 100.0 * hits / (hits + misses), 100.0 * lookupHits / lookups, misses, requests / seconds);
+    }
+}
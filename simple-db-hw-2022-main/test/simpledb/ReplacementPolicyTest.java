@@ -0,0 +1,97 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.ClockPolicy;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LRUPolicy;
+import simpledb.storage.PageId;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.storage.TwoQueuePolicy;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Evicts the policy's first choice, as the BufferPool does when every
+     * page is clean and unpinned.
+     */
+    private static PageId evict(ReplacementPolicy policy) {
+        Iterator<PageId> order = policy.evictionOrder();
+        assertTrue(order.hasNext());
+        PageId victim = order.next();
+        policy.removed(victim);
+        return victim;
+    }
+
+    /**
+     * LRU evicts the page that was accessed longest ago.
+     */
+    @Test public void lruEvictsLeastRecentlyUsed() throws Exception {
+        ReplacementPolicy lru = new LRUPolicy();
+        for (int i = 0; i < 3; i++) {
+            lru.admitted(pid(i));
+            Thread.sleep(1);
+        }
+        lru.accessed(pid(0));
+        assertEquals(pid(1), evict(lru));
+        assertEquals(pid(2), evict(lru));
+        assertEquals(pid(0), evict(lru));
+    }
+
+    /**
+     * CLOCK gives a referenced page a second chance.
+     */
+    @Test public void clockGivesSecondChance() {
+        ReplacementPolicy clock = new ClockPolicy();
+        for (int i = 0; i < 3; i++) {
+            clock.admitted(pid(i));
+        }
+        // the first sweep clears every reference bit and comes back to page 0
+        assertEquals(pid(0), evict(clock));
+        clock.accessed(pid(1));
+        assertEquals(pid(2), evict(clock));
+        assertEquals(pid(1), evict(clock));
+    }
+
+    /**
+     * A page read twice survives a scan that passes many more pages than the
+     * pool holds through A1in, each read once.
+     */
+    @Test public void twoQueueResistsScans() {
+        int capacity = 8;
+        ReplacementPolicy twoQ = new TwoQueuePolicy(capacity);
+        PageId hot = pid(0);
+
+        // the second read moves the hot page from A1in to Am
+        twoQ.admitted(hot);
+        twoQ.accessed(hot);
+
+        int resident = 1;
+        for (int i = 1; i <= 4 * capacity; i++) {
+            if (resident == capacity) {
+                assertNotEquals(hot, evict(twoQ));
+                resident--;
+            }
+            twoQ.admitted(pid(i));
+            resident++;
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
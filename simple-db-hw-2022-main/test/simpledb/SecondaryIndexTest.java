@@ -0,0 +1,214 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeChecker;
+import simpledb.index.SecondaryIndex;
+import simpledb.index.SecondaryIndexScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private File iFile;
+    private HeapFile hf;
+    private List<List<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        iFile = File.createTempFile("secondary", ".dat");
+        iFile.deleteOnExit();
+        tuples = new ArrayList<>();
+        // few distinct keys, so each key has several tuples
+        hf = SystemTestUtil.createRandomHeapFile(3, 2000, 100, null, tuples, "c");
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+        iFile.delete();
+    }
+
+    private SecondaryIndex build() throws Exception {
+        SecondaryIndex index = SecondaryIndex.build(tid, hf, 1, new int[]{2}, iFile, SystemTestUtil.getUUID());
+        Database.getBufferPool().transactionComplete(tid);
+        tid = new TransactionId();
+        return index;
+    }
+
+    // the rows of the table whose field 1 is key
+    private List<List<Integer>> withKey(List<List<Integer>> rows, int key) {
+        List<List<Integer>> matching = new ArrayList<>();
+        for (List<Integer> t : rows) {
+            if (t.get(1) == key) {
+                matching.add(t);
+            }
+        }
+        return matching;
+    }
+
+    // checks that the index has exactly one entry for each tuple of the table
+    private void assertEntriesMatchTable(SecondaryIndex index) throws Exception {
+        List<String> expected = new ArrayList<>();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            expected.add(t.getField(1) + " " + t.getField(2) + " " + t.getRecordId().getPageId().getPageNumber()
+                    + " " + t.getRecordId().getTupleNumber());
+        }
+        it.close();
+        List<String> entries = new ArrayList<>();
+        it = index.getFile().iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple e = it.next();
+            entries.add(e.getField(0) + " " + e.getField(1) + " " + e.getField(2) + " " + e.getField(3));
+        }
+        it.close();
+        Collections.sort(expected);
+        Collections.sort(entries);
+        assertEquals(expected, entries);
+        BTreeChecker.checkRep(index.getFile(), tid, new HashMap<>(), true);
+    }
+
+    /**
+     * A built index has an entry for each tuple of the table, is in the Catalog, and a
+     * scan of it returns the tuples of the table with a given key.
+     */
+    @Test public void buildAndScan() throws Exception {
+        SecondaryIndex index = build();
+        assertEquals(List.of(index), Database.getCatalog().getIndexes(hf.getId()));
+        assertEntriesMatchTable(index);
+
+        int key = tuples.get(0).get(1);
+        SecondaryIndexScan scan = new SecondaryIndexScan(tid, index, "t",
+                new IndexPredicate(Op.EQUALS, new IntField(key)), false);
+        assertEquals(3, scan.getTupleDesc().numFields());
+        SystemTestUtil.matchTuples(scan, withKey(tuples, key));
+
+        scan.rewind(new IndexPredicate(Op.LESS_THAN, new IntField(10)));
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) < 10) {
+                expected.add(t);
+            }
+        }
+        int n = 0;
+        int prev = Integer.MIN_VALUE;
+        while (scan.hasNext()) {
+            int k = ((IntField) scan.next().getField(1)).getValue();
+            assertTrue(k < 10 && k >= prev);
+            prev = k;
+            n++;
+        }
+        scan.close();
+        assertEquals(expected.size(), n);
+    }
+
+    /**
+     * An index-only scan returns the fields of the table in the index, in table order,
+     * without reading the table.
+     */
+    @Test public void indexOnly() throws Exception {
+        SecondaryIndex index = build();
+        assertTrue(index.covers(List.of(1, 2)));
+        assertFalse(index.covers(List.of(0, 1)));
+
+        int key = tuples.get(0).get(1);
+        SecondaryIndexScan scan = new SecondaryIndexScan(tid, index, "t",
+                new IndexPredicate(Op.EQUALS, new IntField(key)), true);
+        assertEquals("t.c1", scan.getTupleDesc().getFieldName(0));
+        assertEquals("t.c2", scan.getTupleDesc().getFieldName(1));
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : withKey(tuples, key)) {
+            expected.add(t.subList(1, 3));
+        }
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(scan, expected);
+        for (int i = 0; i < hf.numPages(); i++) {
+            assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), i)));
+        }
+    }
+
+    /**
+     * Inserts and deletes through the buffer pool keep the index up to date.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        SecondaryIndex index = build();
+        for (int i = 0; i < 300; i++) {
+            Tuple t = new Tuple(hf.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(i % 7));
+            t.setField(2, new IntField(-i));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+        List<Tuple> batch = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            Tuple t = new Tuple(hf.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(1000 + i));
+            t.setField(2, new IntField(i));
+            batch.add(t);
+        }
+        Database.getBufferPool().insertTuples(tid, hf.getId(), batch.iterator());
+        assertEntriesMatchTable(index);
+
+        DbFileIterator it = hf.iterator(tid);
+        List<Tuple> deleted = new ArrayList<>();
+        it.open();
+        for (int i = 0; i < 1000 && it.hasNext(); i++) {
+            Tuple t = it.next();
+            if (i % 2 == 0) {
+                deleted.add(t);
+            }
+        }
+        it.close();
+        for (Tuple t : deleted) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        assertEntriesMatchTable(index);
+    }
+
+    /**
+     * Changes to the index abort with the changes to the table.
+     */
+    @Test public void abort() throws Exception {
+        SecondaryIndex index = build();
+        for (int i = 0; i < 200; i++) {
+            Tuple t = new Tuple(hf.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(7));
+            t.setField(2, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+        tid = new TransactionId();
+        assertEntriesMatchTable(index);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SecondaryIndexTest.class);
+    }
+}
@@ -0,0 +1,67 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+
+/**
+ * Measures the cost of committing a small transaction against a warm buffer
+ * pool of growing size. Each transaction reads one page and commits, so
+ * commit should cost the same whatever the pool holds: it only visits the
+ * pages the transaction has locked. Not a unit test; run it by hand:
+ * <pre>
+ * java -cp bin/src:bin/test simpledb.TransactionCompleteBenchmark [commits]
+ * </pre>
+ * For pools of 50, 1000 and 10000 cached pages it prints the mean time per
+ * getPage + transactionComplete(commit).
+ */
+public class TransactionCompleteBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+        for (int pages : new int[]{50, 1000, 10000}) {
+            File f = File.createTempFile("commitbench", ".dat");
+            f.deleteOnExit();
+            try {
+                commits(f, pages, commits);
+            } finally {
+                f.delete();
+            }
+        }
+    }
+
+    private static void commits(File f, int pages, int commits) throws Exception {
+        HeapFile hf = Utility.createEmptyHeapFile(f.getPath(), 2);
+        for (int i = 0; i < pages; i++) {
+            hf.writePage(new HeapPage(new HeapPageId(hf.getId(), i), HeapPage.createEmptyPageData()));
+        }
+        Database.resetBufferPool(pages);
+
+        // warm the pool so every page is cached
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < pages; i++) {
+            Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < commits; i++) {
+                tid = new TransactionId();
+                Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), i % pages), Permissions.READ_ONLY);
+                Database.getBufferPool().transactionComplete(tid);
+            }
+            if (round == 1) {
+                System.out.printf("%6d pages: %8.2f us per commit%n", pages,
+                        (System.nanoTime() - start) / 1e3 / commits);
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package simpledb;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
@@ -69,6 +70,22 @@ public class TransactionTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid2, p0, Permissions.READ_WRITE);
   }
 
+  /**
+   * Unit test for BufferPool.transactionComplete().
+   * Locks must be released even for pages that were evicted from the
+   * buffer pool before the transaction completed.
+   */
+  @Test public void releaseLocksOnEvictedPages() throws Exception {
+    bp = Database.resetBufferPool(2);
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid1, p1, Permissions.READ_ONLY);
+    bp.getPage(tid1, p2, Permissions.READ_ONLY);
+    bp.transactionComplete(tid1, true);
+
+    assertFalse(bp.holdsLock(tid1, p0));
+    bp.getPage(tid2, p0, Permissions.READ_WRITE);
+  }
+
   /**
    * Common unit test code for BufferPool.transactionComplete() covering
    * commit and abort. Verify that commit persists changes to disk, and
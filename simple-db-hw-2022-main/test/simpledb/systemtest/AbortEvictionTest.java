@@ -61,7 +61,8 @@ public class AbortEvictionTest extends SimpleDbTestBase {
     }
 
     /** Aborts a transaction and ensures that its effects were actually undone.
-     * This requires dirty pages to <em>not</em> get flushed to disk.
+     * The dirty page may be written to disk to make room in the pool, so the
+     * abort has to undo the insert through the log.
      */
     @Test public void testDoNotEvictDirtyPages()
             throws IOException, DbException, TransactionAbortedException {
@@ -10,6 +10,7 @@ import org.junit.Test;
 import org.junit.Assert;
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.execution.Insert;
 import simpledb.execution.SeqScan;
@@ -48,6 +49,41 @@ public class EvictionTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * A scan of a table much larger than the pool reads through a small
+     * buffer ring, so pages other transactions were using stay resident.
+     */
+    @Test public void testLargeScanKeepsHotPages() throws IOException, DbException, TransactionAbortedException {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 8 * BUFFER_PAGES, null, null);
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+        assertNotNull(bp.getScanRing(big.numPages()));
+        assertNull(bp.getScanRing(hot.numPages()));
+
+        TransactionId reader = new TransactionId();
+        for (int i = 0; i < hot.numPages(); i++) {
+            bp.getPage(reader, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(reader);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, big.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+        bp.transactionComplete(tid);
+
+        long misses = bp.getMissCount();
+        reader = new TransactionId();
+        for (int i = 0; i < hot.numPages(); i++) {
+            bp.getPage(reader, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(reader);
+        assertEquals(misses, bp.getMissCount());
+    }
+
     public static void insertRow(HeapFile f, Transaction t) throws DbException,
             TransactionAbortedException {
         // Create a row to insert
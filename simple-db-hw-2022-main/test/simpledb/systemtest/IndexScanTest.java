@@ -0,0 +1,180 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeFileEncoder;
+import simpledb.index.BTreeScan;
+import simpledb.index.SecondaryIndex;
+import simpledb.index.SecondaryIndexScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.OperatorCardinality;
+import simpledb.optimizer.QueryPlanVisualizer;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests that the planner reads a table through an index when a filter on the
+ * key field of a B+ tree is selective enough, and that the plans it makes
+ * return the same tuples as a sequential scan would.
+ */
+public class IndexScanTest extends SimpleDbTestBase {
+    private static final int IO_COST = 1000;
+    private static final int ROWS = 5000;
+    private static final int MAX_VALUE = 10000;
+
+    private TransactionId tid;
+    private File bFile;
+    private File iFile;
+    private List<List<Integer>> btTuples;
+    private List<List<Integer>> hTuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        bFile = File.createTempFile("indexscan", ".dat");
+        bFile.deleteOnExit();
+        iFile = File.createTempFile("indexscan", ".dat");
+        iFile.deleteOnExit();
+
+        // bt is a B+ tree on c0, h a heap table with an index on c1 that includes c2
+        btTuples = new ArrayList<>();
+        HeapFile btHeap = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, btTuples, "c");
+        BTreeFile bt = BTreeFileEncoder.build(tid, btHeap, bFile, 0, "bt");
+        hTuples = new ArrayList<>();
+        HeapFile h = SystemTestUtil.createRandomHeapFile(3, ROWS, MAX_VALUE, null, hTuples, "c");
+        Database.getCatalog().addTable(h, "h");
+        SecondaryIndex.build(tid, h, 1, new int[]{2}, iFile, "h_c1");
+        Database.getBufferPool().transactionComplete(tid);
+
+        TableStats.setTableStats("bt", new TableStats(bt.getId(), IO_COST));
+        TableStats.setTableStats("h", new TableStats(h.getId(), IO_COST));
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+        bFile.delete();
+        iFile.delete();
+    }
+
+    private OpIterator plan(String query) throws Exception {
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, query);
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        // as the parser does before it prints each plan
+        OperatorCardinality.updateOperatorCardinality((Operator) plan, lp.getTableAliasToIdMapping(),
+                TableStats.getStatsMap());
+        new QueryPlanVisualizer().getQueryPlanTree(plan);
+        return plan;
+    }
+
+    // the scan at the bottom of a plan over one table
+    private static OpIterator scan(OpIterator plan) {
+        while (plan instanceof Operator) {
+            plan = ((Operator) plan).getChildren()[0];
+        }
+        return plan;
+    }
+
+    private static boolean hasFilter(OpIterator plan) {
+        while (plan instanceof Operator) {
+            if (plan instanceof Filter) {
+                return true;
+            }
+            plan = ((Operator) plan).getChildren()[0];
+        }
+        return false;
+    }
+
+    // the given columns of the tuples whose column field equals value
+    private static List<List<Integer>> select(List<List<Integer>> tuples, int field, int value, int... columns) {
+        List<List<Integer>> result = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(field) == value) {
+                List<Integer> r = new ArrayList<>();
+                for (int c : columns) {
+                    r.add(t.get(c));
+                }
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    /** An equality filter on the key of a B+ tree table is applied by a BTreeScan. */
+    @Test public void btreeKey() throws Exception {
+        int key = btTuples.get(0).get(0);
+        OpIterator plan = plan("SELECT * FROM bt WHERE bt.c0 = " + key + ";");
+        assertTrue(scan(plan) instanceof BTreeScan);
+        assertFalse(hasFilter(plan));
+        SystemTestUtil.matchTuples(plan, select(btTuples, 0, key, 0, 1));
+    }
+
+    /** Filters on other fields, or that match most of the table, are left to a SeqScan. */
+    @Test public void seqScan() throws Exception {
+        int value = btTuples.get(0).get(1);
+        OpIterator plan = plan("SELECT * FROM bt WHERE bt.c1 = " + value + ";");
+        assertTrue(scan(plan) instanceof SeqScan);
+        assertTrue(hasFilter(plan));
+        SystemTestUtil.matchTuples(plan, select(btTuples, 1, value, 0, 1));
+
+        plan = plan("SELECT * FROM bt WHERE bt.c0 >= 0;");
+        assertTrue(scan(plan) instanceof SeqScan);
+        plan = plan("SELECT * FROM h WHERE h.c1 >= 0;");
+        assertTrue(scan(plan) instanceof SeqScan);
+    }
+
+    /**
+     * A selective filter on the key of a secondary index is applied by the index,
+     * and the tuples are read from the table.
+     */
+    @Test public void secondaryIndex() throws Exception {
+        int key = hTuples.get(0).get(1);
+        OpIterator plan = plan("SELECT * FROM h WHERE h.c1 = " + key + ";");
+        assertTrue(scan(plan) instanceof SecondaryIndexScan);
+        assertFalse(((SecondaryIndexScan) scan(plan)).isIndexOnly());
+        assertFalse(hasFilter(plan));
+        SystemTestUtil.matchTuples(plan, select(hTuples, 1, key, 0, 1, 2));
+
+        plan = plan("SELECT h.c0 FROM h WHERE h.c1 = " + key + ";");
+        assertFalse(((SecondaryIndexScan) scan(plan)).isIndexOnly());
+        SystemTestUtil.matchTuples(plan, select(hTuples, 1, key, 0));
+    }
+
+    /**
+     * A query that uses only columns in the index entries is answered from the
+     * index alone.
+     */
+    @Test public void indexOnly() throws Exception {
+        int key = hTuples.get(0).get(1);
+        OpIterator plan = plan("SELECT h.c2 FROM h WHERE h.c1 = " + key + ";");
+        assertTrue(((SecondaryIndexScan) scan(plan)).isIndexOnly());
+        SystemTestUtil.matchTuples(plan, select(hTuples, 1, key, 2));
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : select(hTuples, 1, key, 1, 2)) {
+            if (t.get(1) < MAX_VALUE / 2) {
+                expected.add(t);
+            }
+        }
+        plan = plan("SELECT h.c1, h.c2 FROM h WHERE h.c1 = " + key + " AND h.c2 < " + MAX_VALUE / 2 + ";");
+        assertTrue(((SecondaryIndexScan) scan(plan)).isIndexOnly());
+        assertTrue(hasFilter(plan));
+        SystemTestUtil.matchTuples(plan, expected);
+    }
+}
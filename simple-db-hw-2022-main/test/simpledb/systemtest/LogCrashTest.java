@@ -0,0 +1,200 @@
+package simpledb.systemtest;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.Transaction;
+
+import static org.junit.Assert.*;
+
+/**
+ * Kills a database process at arbitrary points and checks that recovery
+ * keeps exactly the committed transactions.
+ * <p>
+ * Each round starts a child JVM that recovers the database and then runs
+ * transactions that insert a group of rows each. Some of them write their
+ * uncommitted pages to disk part way through, some abort after doing so,
+ * and some take a checkpoint; the background writer writes pages too. The test kills the child without warning once
+ * it has reported a number of outcomes, so the crash lands anywhere in a
+ * transaction, a page flush, a rollback or a checkpoint. After the last
+ * round a child recovers once more and lists the table: every committed
+ * group must be there, every aborted one gone, and the transaction the
+ * crash interrupted either wholly there or wholly gone.
+ */
+public class LogCrashTest extends SimpleDbTestBase {
+
+    private static final int ROUNDS = 5;
+    private static final int GROUP_SIZE = 5;
+    private static final int GROUPS_PER_ROUND = 1000;
+
+    private File dir;
+
+    @Before public void createDir() throws IOException {
+        dir = File.createTempFile("logcrash", "");
+        assertTrue(dir.delete() && dir.mkdir());
+    }
+
+    @After public void deleteDir() {
+        for (File f : Objects.requireNonNull(dir.listFiles())) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test public void recoverAfterKill() throws Exception {
+        assertTrue(new File(dir, "table.dat").createNewFile());
+        Random rand = new Random(17);
+        Set<Integer> committed = new HashSet<>();
+        Set<Integer> aborted = new HashSet<>();
+        for (int round = 0; round < ROUNDS; round++) {
+            Process child = start("run", round * GROUPS_PER_ROUND);
+            int outcomes = 20 + rand.nextInt(40);
+            StringBuilder other = new StringBuilder();
+            try (BufferedReader in = reader(child)) {
+                String line;
+                while (outcomes > 0 && (line = in.readLine()) != null) {
+                    String[] words = line.split(" ");
+                    if (words[0].equals("committed")) {
+                        committed.add(Integer.parseInt(words[1]));
+                    } else if (words[0].equals("aborted")) {
+                        aborted.add(Integer.parseInt(words[1]));
+                    } else {
+                        other.append(line).append('\n');
+                        continue;
+                    }
+                    outcomes--;
+                }
+                // let the next transaction get under way
+                Thread.sleep(rand.nextInt(20));
+                child.destroyForcibly();
+                assertTrue(child.waitFor(60, TimeUnit.SECONDS));
+            }
+            assertEquals("child exited early:\n" + other, 0, outcomes);
+        }
+
+        Process child = start("list", 0);
+        Map<Integer, Integer> rows = new HashMap<>();
+        StringBuilder other = new StringBuilder();
+        try (BufferedReader in = reader(child)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("row ")) {
+                    rows.merge(Integer.parseInt(line.substring(4)), 1, Integer::sum);
+                } else {
+                    other.append(line).append('\n');
+                }
+            }
+        }
+        assertTrue(child.waitFor(60, TimeUnit.SECONDS));
+        assertEquals("recovery failed:\n" + other, 0, child.exitValue());
+
+        Map<Integer, Integer> groups = new HashMap<>();
+        for (Map.Entry<Integer, Integer> e : rows.entrySet()) {
+            assertEquals("row " + e.getKey() + " repeated", 1, (int) e.getValue());
+            groups.merge(e.getKey() / GROUP_SIZE, 1, Integer::sum);
+        }
+        for (int g : committed) {
+            assertEquals("committed group " + g, GROUP_SIZE, (int) groups.getOrDefault(g, 0));
+        }
+        for (int g : aborted) {
+            assertFalse("aborted group " + g, groups.containsKey(g));
+        }
+        for (Map.Entry<Integer, Integer> e : groups.entrySet()) {
+            assertEquals("partial group " + e.getKey(), GROUP_SIZE, (int) e.getValue());
+        }
+        assertFalse(committed.isEmpty());
+        assertFalse(aborted.isEmpty());
+    }
+
+    private Process start(String mode, int firstGroup) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        // the child runs in another directory
+        StringJoiner classPath = new StringJoiner(File.pathSeparator);
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classPath.add(new File(entry).getAbsolutePath());
+        }
+        return new ProcessBuilder(java, "-cp", classPath.toString(),
+                LogCrashTest.class.getName(), mode, Integer.toString(firstGroup))
+                .directory(dir)
+                .redirectErrorStream(true)
+                .start();
+    }
+
+    private static BufferedReader reader(Process p) {
+        return new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The child process. It works on table.dat, with the log in the current
+     * directory. "run" mode runs transactions until it is killed, printing
+     * the outcome of each; "list" mode prints every row.
+     */
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        HeapFile hf = Utility.openHeapFile(2, new File("table.dat"));
+        Database.getLogFile().recover();
+
+        if (args[0].equals("list")) {
+            Transaction t = new Transaction();
+            t.start();
+            SeqScan scan = new SeqScan(t.getId(), hf.getId(), "");
+            scan.open();
+            while (scan.hasNext()) {
+                System.out.println("row " + ((IntField) scan.next().getField(0)).getValue());
+            }
+            scan.close();
+            t.commit();
+            return;
+        }
+
+        Database.getBufferPool().startBackgroundWriter(1, 2);
+        Random rand = new Random();
+        for (int g = Integer.parseInt(args[1]); ; g++) {
+            Transaction t = new Transaction();
+            t.start();
+            boolean abort = rand.nextInt(4) == 0;
+            boolean steal = abort || rand.nextInt(3) == 0;
+            for (int i = 0; i < GROUP_SIZE; i++) {
+                Tuple tup = new Tuple(hf.getTupleDesc());
+                tup.setField(0, new IntField(g * GROUP_SIZE + i));
+                tup.setField(1, new IntField(g));
+                Database.getBufferPool().insertTuple(t.getId(), hf.getId(), tup);
+                if (steal && i == GROUP_SIZE / 2) {
+                    // uncommitted changes reach the disk
+                    Database.getBufferPool().flushAllPages();
+                }
+                if (rand.nextInt(10) == 0) {
+                    Database.getLogFile().logCheckpoint();
+                }
+            }
+            if (abort) {
+                t.abort();
+                System.out.println("aborted " + g);
+            } else {
+                t.commit();
+                System.out.println("committed " + g);
+            }
+            System.out.flush();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogCrashTest.class);
+    }
+}
@@ -13,7 +13,7 @@ import simpledb.transaction.TransactionAbortedException;
 import static org.junit.Assert.*;
 
 public class TransactionTestAllDirty extends SimpleDbTestBase {
-    @Test public void testAllDirtyFails()
+    @Test public void testAllDirtyWritesDirtyPage()
             throws IOException, DbException, TransactionAbortedException {
         // Allocate a file with ~10 pages of data
         HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512*10, null, null);
@@ -26,11 +26,15 @@ public class TransactionTestAllDirty extends SimpleDbTestBase {
         // Insert a new row
         AbortEvictionTest.insertRow(f, t);
 
-        // Scanning the table must fail because it can't evict the dirty page
-        try {
-            AbortEvictionTest.findMagicTuple(f, t);
-            fail("Expected scan to run out of available buffer pages");
-        } catch (DbException ignored) {}
+        // Scanning the table writes the dirty page out to make room (STEAL)
+        assertTrue(AbortEvictionTest.findMagicTuple(f, t));
+        assertTrue(Database.getBufferPool().getForegroundWriteCount() > 0);
+
+        // and aborting undoes the insert on disk through the log
+        t.transactionComplete(true);
+        t = new Transaction();
+        t.start();
+        assertFalse(AbortEvictionTest.findMagicTuple(f, t));
         t.commit();
     }
 